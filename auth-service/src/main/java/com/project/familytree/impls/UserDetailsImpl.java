@@ -20,6 +20,7 @@ public class UserDetailsImpl implements UserDetails {
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
     private Collection<? extends GrantedAuthority> authorities;
+    private int securityVersion;
 
     public static UserDetailsImpl build(User user) {
         return new UserDetailsImpl(
@@ -28,7 +29,8 @@ public class UserDetailsImpl implements UserDetails {
                 user.getPassword(),
                 user.getCreatedAt(),
                 user.getUpdatedAt(),
-                Collections.emptyList()
+                Collections.emptyList(),
+                user.getSecurityVersion()
         );
     }
 
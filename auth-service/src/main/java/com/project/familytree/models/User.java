@@ -46,6 +46,14 @@ public class User {
     @Column(name = "deletion_warning_sent_at")
     private LocalDateTime deletionWarningSentAt;
 
+    /**
+     * Версия безопасности: выдаётся в claim {@code ver} JWT. Смена и сброс пароля увеличивают её,
+     * и выпущенные раньше токены перестают приниматься обоими сервисами. Начинается с 1 — с этим
+     * значением выпускались токены до появления колонки, и они остаются действительными.
+     */
+    @Column(name = "security_version", nullable = false)
+    private int securityVersion = 1;
+
     @PrePersist
     protected void onCreate() {
         createdAt = LocalDateTime.now();
@@ -5,10 +5,13 @@ import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 /**
  * JWT utility for auth-service.
@@ -16,10 +19,20 @@ import java.util.Date;
  * so that tokens issued here are accepted by tree-service.
  *
  * Property: family.auth.jwt.secret (same key used by tree-service via the starter)
+ *
+ * Besides the subject (email) the token carries the user id, authorities and the user's
+ * security version under the same claim names as the starter, so tree-service resolves the
+ * caller's id without querying the users table. A password change bumps the security
+ * version, which revokes every token issued before it.
  */
 @Component
 public class JwtCore {
 
+    public static final String CLAIM_USER_ID = "uid";
+    public static final String CLAIM_AUTHORITIES = "auth";
+    /** users.security_version at issue time */
+    public static final String CLAIM_VERSION = "ver";
+
     @Value("${family.auth.jwt.secret:mySuperSecretKeyThatIsLongEnoughForHMACSHA256Algorithm123456789}")
     private String secret;
 
@@ -34,6 +47,9 @@ public class JwtCore {
         UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
         return Jwts.builder()
                 .setSubject(userDetails.getUsername())
+                .claim(CLAIM_USER_ID, userDetails.getId())
+                .claim(CLAIM_AUTHORITIES, authorityNames(userDetails.getAuthorities()))
+                .claim(CLAIM_VERSION, userDetails.getSecurityVersion())
                 .setIssuedAt(new Date())
                 .setExpiration(new Date(System.currentTimeMillis() + lifetime))
                 .signWith(getSigningKey(), SignatureAlgorithm.HS256)
@@ -41,11 +57,21 @@ public class JwtCore {
     }
 
     public String getEmailFromJwt(String token) {
+        return parseClaims(token).getSubject();
+    }
+
+    public Claims parseClaims(String token) {
         return Jwts.parserBuilder()
                 .setSigningKey(getSigningKey())
                 .build()
                 .parseClaimsJws(token)
-                .getBody()
-                .getSubject();
+                .getBody();
+    }
+
+    private static List<String> authorityNames(Collection<? extends GrantedAuthority> authorities) {
+        if (authorities == null || authorities.isEmpty()) {
+            return List.of("ROLE_USER");
+        }
+        return authorities.stream().map(GrantedAuthority::getAuthority).toList();
     }
 }
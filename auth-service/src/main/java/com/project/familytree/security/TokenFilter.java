@@ -1,6 +1,8 @@
 package com.project.familytree.security;
 
+import com.project.familytree.impls.UserDetailsImpl;
 import com.project.familytree.services.UserService;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -32,9 +34,17 @@ public class TokenFilter extends OncePerRequestFilter {
             if (headerAuth != null && headerAuth.startsWith("Bearer ")) {
                 String jwt = headerAuth.substring(7);
                 try {
-                    String email = jwtCore.getEmailFromJwt(jwt);
+                    Claims claims = jwtCore.parseClaims(jwt);
+                    String email = claims.getSubject();
                     if (email != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                        UserDetails userDetails = userService.loadUserByUsername(email);
+                        Number version = claims.get(JwtCore.CLAIM_VERSION, Number.class);
+                        UserDetails userDetails = version != null
+                                ? userService.loadCachedUserForToken(email, version.intValue())
+                                : userService.loadCachedUserByUsername(email);
+                        if (version != null && !isCurrentSecurityVersion(version.intValue(), userDetails)) {
+                            securityResponseUtil.sendError(response, HttpStatus.UNAUTHORIZED, "Токен отозван");
+                            return;
+                        }
                         UsernamePasswordAuthenticationToken auth =
                                 new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
                         SecurityContextHolder.getContext().setAuthentication(auth);
@@ -52,4 +62,12 @@ public class TokenFilter extends OncePerRequestFilter {
             securityResponseUtil.sendError(response, HttpStatus.UNAUTHORIZED, "Ошибка аутентификации");
         }
     }
+
+    /**
+     * Пароль не менялся с момента выпуска токена: его ver совпадает с users.security_version.
+     * Токены без ver выпущены до появления claim и, как и в tree-service, живут до истечения срока.
+     */
+    private static boolean isCurrentSecurityVersion(int version, UserDetails userDetails) {
+        return userDetails instanceof UserDetailsImpl impl && impl.getSecurityVersion() == version;
+    }
 }
@@ -0,0 +1,77 @@
+package com.project.familytree.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Короткоживущий кеш UserDetails по email для TokenFilter: без него каждый запрос с bearer-токеном
+ * читает строку {@code users} целиком.
+ * <p>
+ * Любое изменение пользователя (профиль, пароль, {@code enabled}, удаление) должно сопровождаться
+ * {@link #invalidate(String)}. TTL держится коротким — на других экземплярах сервиса сброса нет,
+ * и устаревшие данные живут не дольше него. Статистика кеша пишется в метрики {@code cache.*}
+ * с тегом {@code cache=}{@value #CACHE_NAME}.
+ */
+@Component
+public class UserDetailsCache {
+
+    static final String CACHE_NAME = "auth.user_details";
+
+    /** email -> UserDetails; чтение попадания идёт без блокировок */
+    private final Cache<String, UserDetails> entries;
+
+    public UserDetailsCache(@Value("${auth.user-details-cache.max-entries:10000}") long maxEntries,
+                            @Value("${auth.user-details-cache.ttl-seconds:30}") long ttlSeconds,
+                            MeterRegistry meterRegistry) {
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, entries, CACHE_NAME);
+    }
+
+    /**
+     * UserDetails пользователя; при промахе загружаются через {@code loader}.
+     * Сброс email во время загрузки дожидается её окончания и удаляет загруженное значение.
+     */
+    public UserDetails get(String email, Supplier<UserDetails> loader) {
+        return entries.get(email, key -> loader.get());
+    }
+
+    /**
+     * Сбросить пользователя. Если идёт транзакция, сброс повторяется после неё: параллельный
+     * запрос мог прочитать строку до коммита и успеть её закешировать.
+     */
+    public void invalidate(String email) {
+        evict(email);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(email);
+                }
+            });
+        }
+    }
+
+    void evict(String email) {
+        entries.invalidate(email);
+    }
+
+    /** Количество закешированных записей (после применения отложенных вытеснений) */
+    long size() {
+        entries.cleanUp();
+        return entries.estimatedSize();
+    }
+}
@@ -25,6 +25,7 @@ public class UserService implements UserDetailsService {
     private final PasswordEncoder passwordEncoder;
     private final MailSenderService mailSenderService;
     private final TokenService tokenService;
+    private final UserDetailsCache userDetailsCache;
 
     /**
      * When false, users are auto-enabled on registration (no email verification required).
@@ -41,6 +42,28 @@ public class UserService implements UserDetailsService {
         return UserDetailsImpl.build(user);
     }
 
+    /**
+     * То же, что {@link #loadUserByUsername}, но через {@link UserDetailsCache} — для TokenFilter.
+     * Вход по паролю идёт мимо кеша и всегда видит актуальный хеш.
+     */
+    public UserDetails loadCachedUserByUsername(String email) throws EmailNotFoundException {
+        return userDetailsCache.get(email, () -> loadUserByUsername(email));
+    }
+
+    /**
+     * UserDetails для токена с версией безопасности {@code tokenVersion}. Токен новее закешированной
+     * записи выпущен после смены пароля, которую кеш ещё не видел (её сбросил другой экземпляр), —
+     * запись перечитывается из БД.
+     */
+    public UserDetails loadCachedUserForToken(String email, int tokenVersion) throws EmailNotFoundException {
+        UserDetails userDetails = loadCachedUserByUsername(email);
+        if (userDetails instanceof UserDetailsImpl impl && impl.getSecurityVersion() < tokenVersion) {
+            userDetailsCache.invalidate(email);
+            userDetails = loadCachedUserByUsername(email);
+        }
+        return userDetails;
+    }
+
     public User findByEmail(String email) throws EmailNotFoundException {
         return userRepository.findByEmail(email)
                 .orElseThrow(() -> new EmailNotFoundException("Почта не найдена"));
@@ -55,6 +78,9 @@ public class UserService implements UserDetailsService {
         if (userDetails == null) {
             throw new IllegalArgumentException("UserDetails cannot be null");
         }
+        if (userDetails instanceof UserDetailsImpl impl && impl.getId() != null) {
+            return impl.getId();
+        }
         return findByEmail(userDetails.getUsername()).getId();
     }
 
@@ -111,6 +137,7 @@ public class UserService implements UserDetailsService {
         user.setEnabled(true);
 
         userRepository.save(user);
+        userDetailsCache.invalidate(user.getEmail());
         tokenService.consumeToken(token);
     }
 
@@ -119,7 +146,9 @@ public class UserService implements UserDetailsService {
 
         User user = findById(userId);
         user.setPassword(passwordEncoder.encode(newPassword));
+        user.setSecurityVersion(user.getSecurityVersion() + 1);
         userRepository.save(user);
+        userDetailsCache.invalidate(user.getEmail());
 
         tokenService.consumeToken(token);
     }
@@ -129,7 +158,9 @@ public class UserService implements UserDetailsService {
         user.setFirstName(request.getFirstName());
         user.setLastName(request.getLastName());
         user.setMiddleName(request.getMiddleName());
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        userDetailsCache.invalidate(email);
+        return saved;
     }
 
     public void changePassword(String email, String currentPassword, String newPassword) {
@@ -138,7 +169,9 @@ public class UserService implements UserDetailsService {
             throw new InvalidRequestException("Текущий пароль неверен");
         }
         user.setPassword(passwordEncoder.encode(newPassword));
+        user.setSecurityVersion(user.getSecurityVersion() + 1);
         userRepository.save(user);
+        userDetailsCache.invalidate(email);
     }
 
     public void resendVerification(String email) {
@@ -153,6 +186,7 @@ public class UserService implements UserDetailsService {
         User user = findByEmail(email);
         tokenService.deleteAllTokensForUser(user.getId());
         userRepository.deleteById(user.getId());
+        userDetailsCache.invalidate(email);
         log.info("Account deleted for user: {}", email);
     }
 }
@@ -7,7 +7,8 @@ CREATE TABLE users (
     password VARCHAR(255) NOT NULL,
     created_at TIMESTAMP WITH TIME ZONE DEFAULT NOW(),
     updated_at TIMESTAMP WITH TIME ZONE DEFAULT NOW(),
-    enabled BOOLEAN DEFAULT FALSE
+    enabled BOOLEAN DEFAULT FALSE,
+    security_version INT NOT NULL DEFAULT 1
 );
 
 CREATE TABLE tokens (
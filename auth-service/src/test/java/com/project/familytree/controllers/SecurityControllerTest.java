@@ -100,7 +100,7 @@ class SecurityControllerTest {
         request.setPassword("password123");
 
         UserDetailsImpl userDetails = new UserDetailsImpl(
-                1L, "ivan@test.com", "hashed", null, null, Collections.emptyList()
+                1L, "ivan@test.com", "hashed", null, null, Collections.emptyList(), 0
         );
         Authentication auth = new UsernamePasswordAuthenticationToken(
                 userDetails, null, Collections.emptyList()
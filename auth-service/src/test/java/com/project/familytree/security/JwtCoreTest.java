@@ -13,6 +13,7 @@ import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.*;
 
@@ -33,7 +34,7 @@ class JwtCoreTest {
 
     private Authentication buildAuthentication(String email) {
         UserDetailsImpl userDetails = new UserDetailsImpl(
-                1L, email, "hashed", null, null, Collections.emptyList()
+                1L, email, "hashed", null, null, Collections.emptyList(), 2
         );
         return new UsernamePasswordAuthenticationToken(userDetails, null, Collections.emptyList());
     }
@@ -94,6 +95,18 @@ class JwtCoreTest {
         assertThat(expMs).isBetween(before + LIFETIME_MS - 1000, after + LIFETIME_MS + 1000);
     }
 
+    @Test
+    @DisplayName("generateToken: содержит ID пользователя, authorities и версию безопасности")
+    void generateToken_containsUserIdAuthoritiesAndVersion() {
+        String token = jwtCore.generateToken(buildAuthentication("ivan@test.com"));
+
+        Claims claims = jwtCore.parseClaims(token);
+
+        assertThat(claims.get(JwtCore.CLAIM_USER_ID, Number.class).longValue()).isEqualTo(1L);
+        assertThat(claims.get(JwtCore.CLAIM_AUTHORITIES, List.class)).containsExactly("ROLE_USER");
+        assertThat(claims.get(JwtCore.CLAIM_VERSION, Integer.class)).isEqualTo(2);
+    }
+
     // ─── getEmailFromJwt ──────────────────────────────────────────────────────────
 
     @Test
@@ -0,0 +1,88 @@
+package com.project.familytree.services;
+
+import com.project.familytree.impls.UserDetailsImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.*;
+
+class UserDetailsCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private UserDetailsCache cache;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new UserDetailsCache(1_000, 30, meterRegistry);
+        loads = new AtomicInteger();
+    }
+
+    private Supplier<UserDetails> loader(String email) {
+        return () -> {
+            loads.incrementAndGet();
+            return new UserDetailsImpl(1L, email, "hashed", null, null, Collections.emptyList(), 0);
+        };
+    }
+
+    private double gets(String result) {
+        return meterRegistry.get("cache.gets").tag("cache", UserDetailsCache.CACHE_NAME).tag("result", result)
+                .functionCounter().count();
+    }
+
+    @Test
+    @DisplayName("get: повторный запрос отдаётся из кеша, hit/miss попадают в метрики")
+    void get_cachesAndRecordsMetrics() {
+        cache.get("ivan@test.com", loader("ivan@test.com"));
+        cache.get("ivan@test.com", loader("ivan@test.com"));
+        cache.get("ivan@test.com", loader("ivan@test.com"));
+
+        assertThat(loads).hasValue(1);
+        assertThat(gets("hit")).isEqualTo(2);
+        assertThat(gets("miss")).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("invalidate: следующий запрос снова читает пользователя")
+    void invalidate_forcesReload() {
+        cache.get("ivan@test.com", loader("ivan@test.com"));
+
+        cache.invalidate("ivan@test.com");
+        cache.get("ivan@test.com", loader("ivan@test.com"));
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    @DisplayName("get: запись старше TTL перечитывается")
+    void get_reloadsAfterTtl() {
+        cache = new UserDetailsCache(1_000, 0, meterRegistry);
+
+        cache.get("ivan@test.com", loader("ivan@test.com"));
+        cache.get("ivan@test.com", loader("ivan@test.com"));
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    @DisplayName("get: размер кеша ограничен")
+    void get_boundsSize() {
+        cache = new UserDetailsCache(2, 30, meterRegistry);
+
+        for (int i = 0; i < 5; i++) {
+            String email = "user" + i + "@test.com";
+            cache.get(email, loader(email));
+        }
+
+        assertThat(loads).hasValue(5);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+}
@@ -4,15 +4,19 @@ import com.project.familytree.dto.SignUpRequest;
 import com.project.familytree.dto.UpdateProfileRequest;
 import com.project.familytree.exceptions.*;
 import com.project.familytree.impls.TokenType;
+import com.project.familytree.impls.UserDetailsImpl;
 import com.project.familytree.models.User;
 import com.project.familytree.repositories.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
 import java.util.Optional;
@@ -28,6 +32,7 @@ class UserServiceTest {
     @Mock private PasswordEncoder passwordEncoder;
     @Mock private MailSenderService mailSenderService;
     @Mock private TokenService tokenService;
+    @Spy private UserDetailsCache userDetailsCache = new UserDetailsCache(1_000, 30, new SimpleMeterRegistry());
 
     @InjectMocks
     private UserService userService;
@@ -138,7 +143,7 @@ class UserServiceTest {
     // ─── resetPassword ────────────────────────────────────────────────────────────
 
     @Test
-    @DisplayName("resetPassword: кодирует новый пароль и потребляет токен")
+    @DisplayName("resetPassword: кодирует новый пароль, отзывает выданные JWT и потребляет токен")
     void resetPassword_encodesAndSaves() {
         when(tokenService.validateToken("reset-token", TokenType.RESET)).thenReturn(1L);
         when(userRepository.findById(1L)).thenReturn(Optional.of(user));
@@ -148,6 +153,7 @@ class UserServiceTest {
         userService.resetPassword("reset-token", "newPassword");
 
         assertThat(user.getPassword()).isEqualTo("new_hashed");
+        assertThat(user.getSecurityVersion()).isEqualTo(2);
         verify(tokenService).consumeToken("reset-token");
     }
 
@@ -165,7 +171,7 @@ class UserServiceTest {
     }
 
     @Test
-    @DisplayName("changePassword: кодирует и сохраняет новый пароль")
+    @DisplayName("changePassword: кодирует и сохраняет новый пароль, отзывает выданные JWT")
     void changePassword_encodesAndSavesNewPassword() {
         when(userRepository.findByEmail("ivan@test.com")).thenReturn(Optional.of(user));
         when(passwordEncoder.matches("currentPassword", "hashed_password")).thenReturn(true);
@@ -175,6 +181,7 @@ class UserServiceTest {
         userService.changePassword("ivan@test.com", "currentPassword", "newPassword");
 
         assertThat(user.getPassword()).isEqualTo("new_hashed");
+        assertThat(user.getSecurityVersion()).isEqualTo(2);
         verify(userRepository).save(user);
     }
 
@@ -224,6 +231,75 @@ class UserServiceTest {
         verify(userRepository).save(user);
     }
 
+    // ─── loadCachedUserByUsername ─────────────────────────────────────────────────
+
+    @Test
+    @DisplayName("loadCachedUserByUsername: повторный вызов не обращается к БД")
+    void loadCachedUserByUsername_readsDatabaseOnce() {
+        when(userRepository.findByEmail("ivan@test.com")).thenReturn(Optional.of(user));
+
+        UserDetails first = userService.loadCachedUserByUsername("ivan@test.com");
+        UserDetails second = userService.loadCachedUserByUsername("ivan@test.com");
+
+        assertThat(second).isSameAs(first);
+        verify(userRepository, times(1)).findByEmail("ivan@test.com");
+    }
+
+    @Test
+    @DisplayName("loadCachedUserForToken: токен новее кеша перечитывает пользователя из БД")
+    void loadCachedUserForToken_reloadsWhenTokenIsNewer() {
+        when(userRepository.findByEmail("ivan@test.com")).thenReturn(Optional.of(user));
+        userService.loadCachedUserByUsername("ivan@test.com");
+        // Пароль сменили на другом экземпляре: кеш этого ещё не видел
+        user.setSecurityVersion(2);
+
+        UserDetails details = userService.loadCachedUserForToken("ivan@test.com", 2);
+
+        assertThat(((UserDetailsImpl) details).getSecurityVersion()).isEqualTo(2);
+        verify(userRepository, times(2)).findByEmail("ivan@test.com");
+    }
+
+    @Test
+    @DisplayName("loadCachedUserForToken: токен не новее кеша обслуживается из кеша")
+    void loadCachedUserForToken_usesCacheForOlderToken() {
+        when(userRepository.findByEmail("ivan@test.com")).thenReturn(Optional.of(user));
+        userService.loadCachedUserByUsername("ivan@test.com");
+
+        UserDetails details = userService.loadCachedUserForToken("ivan@test.com", 0);
+
+        assertThat(((UserDetailsImpl) details).getSecurityVersion()).isEqualTo(1);
+        verify(userRepository, times(1)).findByEmail("ivan@test.com");
+    }
+
+    @Test
+    @DisplayName("changePassword: сбрасывает закешированные UserDetails")
+    void changePassword_invalidatesCachedDetails() {
+        when(userRepository.findByEmail("ivan@test.com")).thenReturn(Optional.of(user));
+        when(passwordEncoder.matches("currentPassword", "hashed_password")).thenReturn(true);
+        when(passwordEncoder.encode("newPassword")).thenReturn("new_hashed");
+        userService.loadCachedUserByUsername("ivan@test.com");
+
+        userService.changePassword("ivan@test.com", "currentPassword", "newPassword");
+        UserDetails reloaded = userService.loadCachedUserByUsername("ivan@test.com");
+
+        assertThat(reloaded.getPassword()).isEqualTo("new_hashed");
+        verify(userDetailsCache).invalidate("ivan@test.com");
+    }
+
+    @Test
+    @DisplayName("updateProfile, confirmUser, deleteAccount: сбрасывают кеш пользователя")
+    void userMutations_invalidateCache() {
+        when(userRepository.findByEmail("ivan@test.com")).thenReturn(Optional.of(user));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        when(tokenService.validateToken("verify-token", TokenType.VERIFY)).thenReturn(1L);
+
+        userService.updateProfile("ivan@test.com", new UpdateProfileRequest());
+        userService.confirmUser("verify-token");
+        userService.deleteAccount("ivan@test.com");
+
+        verify(userDetailsCache, times(3)).invalidate("ivan@test.com");
+    }
+
     // ─── findByEmail / findById ───────────────────────────────────────────────────
 
     @Test
@@ -243,4 +319,25 @@ class UserServiceTest {
         assertThatThrownBy(() -> userService.findById(999L))
                 .isInstanceOf(UserNotFoundException.class);
     }
+
+    // ─── findIdByDetails ──────────────────────────────────────────────────────────
+
+    @Test
+    @DisplayName("findIdByDetails: берёт ID из principal без запроса к БД")
+    void findIdByDetails_usesPrincipalIdWithoutQuery() {
+        UserDetailsImpl details = UserDetailsImpl.build(user);
+
+        assertThat(userService.findIdByDetails(details)).isEqualTo(1L);
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    @DisplayName("findIdByDetails: без ID в principal ищет пользователя по email")
+    void findIdByDetails_fallsBackToEmailLookup() {
+        UserDetails details = org.springframework.security.core.userdetails.User
+                .withUsername("ivan@test.com").password("").build();
+        when(userRepository.findByEmail("ivan@test.com")).thenReturn(Optional.of(user));
+
+        assertThat(userService.findIdByDetails(details)).isEqualTo(1L);
+    }
 }
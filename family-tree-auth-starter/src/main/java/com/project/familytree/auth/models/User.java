@@ -39,6 +39,14 @@ public class User {
     @Column(nullable = false)
     private Boolean enabled = false;
 
+    /**
+     * Версия безопасности: выдаётся в claim {@code ver} JWT и увеличивается при смене пароля.
+     * Токены с прежней версией отклоняются {@code TokenFilter}. Начинается с 1 — с этим значением
+     * выпускались токены до появления колонки, и они остаются действительными.
+     */
+    @Column(name = "security_version", nullable = false)
+    private int securityVersion = 1;
+
     public Long getId() { return id; }
     public String getFirstName() { return firstName; }
     public String getLastName() { return lastName; }
@@ -48,6 +56,7 @@ public class User {
     public LocalDateTime getCreatedAt() { return createdAt; }
     public LocalDateTime getUpdatedAt() { return updatedAt; }
     public Boolean getEnabled() { return enabled; }
+    public int getSecurityVersion() { return securityVersion; }
 
     public void setId(Long id) { this.id = id; }
     public void setFirstName(String firstName) { this.firstName = firstName; }
@@ -58,4 +67,5 @@ public class User {
     public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
     public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
     public void setEnabled(Boolean enabled) { this.enabled = enabled; }
+    public void setSecurityVersion(int securityVersion) { this.securityVersion = securityVersion; }
 }
\ No newline at end of file
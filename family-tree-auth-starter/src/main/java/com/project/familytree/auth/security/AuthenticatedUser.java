@@ -0,0 +1,73 @@
+package com.project.familytree.auth.security;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Principal аутентифицированного пользователя с его ID.
+ * <p>
+ * {@link TokenFilter} собирает его из claims JWT, поэтому контроллеры получают ID
+ * пользователя без обращения к таблице {@code users}. Для токенов старого формата
+ * (без claim {@code uid}) {@link #getId()} возвращает {@code null}.
+ * <p>
+ * {@link #getSecurityVersion()} — версия безопасности пользователя ({@code users.security_version})
+ * на момент выпуска токена; у токена без claim {@code ver} она равна {@link #UNKNOWN_SECURITY_VERSION}.
+ */
+public class AuthenticatedUser implements UserDetails {
+
+    /** Версия токена, выпущенного без claim {@code ver}; такой токен не проверяется на отзыв */
+    public static final int UNKNOWN_SECURITY_VERSION = -1;
+
+    private final Long id;
+    private final String username;
+    private final String password;
+    private final boolean enabled;
+    private final Collection<? extends GrantedAuthority> authorities;
+    private final int securityVersion;
+
+    public AuthenticatedUser(Long id, String username, String password, boolean enabled,
+                             Collection<? extends GrantedAuthority> authorities, int securityVersion) {
+        this.id = id;
+        this.username = username;
+        this.password = password;
+        this.enabled = enabled;
+        this.authorities = List.copyOf(authorities);
+        this.securityVersion = securityVersion;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public String getPassword() {
+        return password;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return authorities;
+    }
+
+    public int getSecurityVersion() {
+        return securityVersion;
+    }
+
+    @Override
+    public String toString() {
+        return "AuthenticatedUser{id=" + id + ", username=" + username + "}";
+    }
+}
@@ -1,68 +1,223 @@
 package com.project.familytree.auth.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Выпуск и проверка JWT.
+ * <p>
+ * Ключ подписи и парсер создаются один раз. Успешно проверенные токены кешируются по SHA-256
+ * от строки токена до момента их {@code exp}: SPA шлёт десятки запросов с одним и тем же
+ * bearer-токеном, и повторная проверка HMAC и разбор JSON для них не нужны. Кеш ограничен
+ * {@code family.auth.jwt.verified-cache-size} записями (Caffeine, чтение без блокировок);
+ * невалидные токены не кешируются.
+ */
 @Component
 public class JwtUtils {
 
     private static final Logger log = LoggerFactory.getLogger(JwtUtils.class);
 
-    @Value("${family.auth.jwt.secret:mySuperSecretKeyThatIsLongEnoughForHMACSHA256Algorithm123456789}")
-    private String jwtSecret;
+    /** ID пользователя. Имена claims совпадают с JwtCore в auth-service. */
+    public static final String CLAIM_USER_ID = "uid";
+    /** Список authorities пользователя. */
+    public static final String CLAIM_AUTHORITIES = "auth";
+    /**
+     * Версия безопасности пользователя ({@code users.security_version}) на момент выпуска.
+     * Смена пароля увеличивает её, и {@link TokenFilter} отклоняет выпущенные раньше токены.
+     */
+    public static final String CLAIM_VERSION = "ver";
 
-    @Value("${family.auth.jwt.lifetime:3600000}")
-    private int jwtLifetime;
+    private static final List<GrantedAuthority> DEFAULT_AUTHORITIES =
+            List.of(new SimpleGrantedAuthority("ROLE_USER"));
 
-    private SecretKey getSigningKey() {
-        return Keys.hmacShaKeyFor(jwtSecret.getBytes());
+    private final int jwtLifetime;
+    private final Clock clock;
+    private final SecretKey signingKey;
+    private final JwtParser parser;
+
+    /** SHA-256 токена -> claims; запись живёт до {@code exp} токена по часам {@link #clock} */
+    private final Cache<String, Claims> verifiedTokens;
+
+    @Autowired
+    public JwtUtils(@Value("${family.auth.jwt.secret:mySuperSecretKeyThatIsLongEnoughForHMACSHA256Algorithm123456789}") String jwtSecret,
+                    @Value("${family.auth.jwt.lifetime:3600000}") int jwtLifetime,
+                    @Value("${family.auth.jwt.verified-cache-size:1024}") int verifiedCacheSize) {
+        this(jwtSecret, jwtLifetime, verifiedCacheSize, Clock.systemUTC());
+    }
+
+    JwtUtils(String jwtSecret, int jwtLifetime, int verifiedCacheSize, Clock clock) {
+        this.jwtLifetime = jwtLifetime;
+        this.clock = clock;
+        this.signingKey = Keys.hmacShaKeyFor(jwtSecret.getBytes());
+        this.parser = Jwts.parserBuilder()
+                .setSigningKey(signingKey)
+                .setClock(() -> Date.from(clock.instant()))
+                .build();
+        this.verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(verifiedCacheSize)
+                .ticker(() -> TimeUnit.MILLISECONDS.toNanos(clock.millis()))
+                .expireAfter(new Expiry<String, Claims>() {
+                    @Override
+                    public long expireAfterCreate(String key, Claims claims, long currentTime) {
+                        long millis = claims.getExpiration().getTime() - clock.millis();
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Claims claims, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, claims, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    /** Число закешированных токенов после применения вытеснения и истечения */
+    long cachedTokenCount() {
+        verifiedTokens.cleanUp();
+        return verifiedTokens.estimatedSize();
     }
 
     public String generateJwtToken(Authentication authentication) {
         String username = authentication.getName();
+        Instant issuedAt = clock.instant();
 
-        return Jwts.builder()
+        JwtBuilder builder = Jwts.builder()
                 .setSubject(username)
-                .setIssuedAt(new Date())
-                .setExpiration(new Date((new Date()).getTime() + jwtLifetime))
-                .signWith(getSigningKey(), SignatureAlgorithm.HS256)
+                .claim(CLAIM_AUTHORITIES, authorityNames(authentication.getAuthorities()))
+                .setIssuedAt(Date.from(issuedAt))
+                .setExpiration(Date.from(issuedAt.plusMillis(jwtLifetime)));
+        if (authentication.getPrincipal() instanceof AuthenticatedUser user && user.getId() != null) {
+            builder.claim(CLAIM_USER_ID, user.getId())
+                    .claim(CLAIM_VERSION, user.getSecurityVersion());
+        }
+        return builder
+                .signWith(signingKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
     public String getUserNameFromJwtToken(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody()
-                .getSubject();
+        return parseClaims(token).getSubject();
     }
 
-    public boolean validateJwtToken(String authToken) {
+    public Claims parseClaims(String token) {
+        return parser.parseClaimsJws(token).getBody();
+    }
+
+    /**
+     * Проверяет подпись и срок действия токена за один разбор.
+     *
+     * @return claims валидного токена или {@code null}, если токен невалиден или просрочен
+     */
+    public Claims verify(String token) {
+        if (token == null || token.isEmpty()) {
+            log.error("JWT claims string is empty");
+            return null;
+        }
+        String key = hash(token);
+        Claims cached = verifiedTokens.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Claims claims;
         try {
-            Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parseClaimsJws(authToken);
-            return true;
+            claims = parseClaims(token);
         } catch (MalformedJwtException e) {
             log.error("Invalid JWT token: {}", e.getMessage());
+            return null;
         } catch (ExpiredJwtException e) {
             log.error("JWT token is expired: {}", e.getMessage());
+            return null;
         } catch (UnsupportedJwtException e) {
             log.error("JWT token is unsupported: {}", e.getMessage());
+            return null;
         } catch (IllegalArgumentException e) {
             log.error("JWT claims string is empty: {}", e.getMessage());
+            return null;
+        } catch (JwtException e) {
+            log.error("JWT token is invalid: {}", e.getMessage());
+            return null;
         }
 
-        return false;
+        if (claims.getExpiration() != null) {
+            verifiedTokens.put(key, claims);
+        }
+        return claims;
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Собирает principal из claims без обращения к БД: ID, email и authorities берутся из подписанного
+     * токена как есть. Отзыв токена здесь не проверяется — это делает {@link TokenFilter} по
+     * {@link AuthenticatedUser#getSecurityVersion()}.
+     * Для токенов без {@code uid} ID остаётся пустым — его найдёт {@code UserService.findIdByDetails}.
+     */
+    public AuthenticatedUser toPrincipal(Claims claims) {
+        Number uid = claims.get(CLAIM_USER_ID, Number.class);
+        Number version = claims.get(CLAIM_VERSION, Number.class);
+        return new AuthenticatedUser(
+                uid != null ? uid.longValue() : null,
+                claims.getSubject(),
+                "",
+                true,
+                authorities(claims),
+                version != null ? version.intValue() : AuthenticatedUser.UNKNOWN_SECURITY_VERSION);
+    }
+
+    private static List<String> authorityNames(Collection<? extends GrantedAuthority> authorities) {
+        if (authorities == null || authorities.isEmpty()) {
+            return List.of("ROLE_USER");
+        }
+        return authorities.stream().map(GrantedAuthority::getAuthority).toList();
+    }
+
+    private static List<GrantedAuthority> authorities(Claims claims) {
+        Object raw = claims.get(CLAIM_AUTHORITIES);
+        if (!(raw instanceof Collection<?> names) || names.isEmpty()) {
+            return DEFAULT_AUTHORITIES;
+        }
+        return names.stream()
+                .map(name -> (GrantedAuthority) new SimpleGrantedAuthority(String.valueOf(name)))
+                .toList();
+    }
+
+    public boolean validateJwtToken(String authToken) {
+        return verify(authToken) != null;
     }
-}
\ No newline at end of file
+}
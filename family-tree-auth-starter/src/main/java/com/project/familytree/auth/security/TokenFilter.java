@@ -1,5 +1,7 @@
 package com.project.familytree.auth.security;
 
+import com.project.familytree.auth.services.UserService;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -8,17 +10,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.User;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
-import java.util.List;
 
 @Component
 public class TokenFilter extends OncePerRequestFilter {
@@ -26,10 +24,12 @@ public class TokenFilter extends OncePerRequestFilter {
     private static final Logger log = LoggerFactory.getLogger(TokenFilter.class);
 
     private final JwtUtils jwtUtils;
+    private final UserService userService;
 
     @Autowired
-    public TokenFilter(JwtUtils jwtUtils) {
+    public TokenFilter(JwtUtils jwtUtils, UserService userService) {
         this.jwtUtils = jwtUtils;
+        this.userService = userService;
     }
 
     @Override
@@ -37,24 +37,30 @@ public class TokenFilter extends OncePerRequestFilter {
             throws ServletException, IOException {
         try {
             String jwt = parseJwt(request);
-            if (jwt != null && jwtUtils.validateJwtToken(jwt)) {
-                String username = jwtUtils.getUserNameFromJwtToken(jwt);
-
-                // Build UserDetails directly from JWT claims — no DB lookup needed.
+            Claims claims = jwt != null ? jwtUtils.verify(jwt) : null;
+            if (claims != null) {
+                // Build the principal directly from JWT claims — the users row is not loaded.
                 // This avoids DisabledException for users whose email is not yet verified
                 // but who have a valid JWT (issued by auth-service which permits login
-                // regardless of enabled status).
-                UserDetails userDetails = User.builder()
-                        .username(username)
-                        .password("")
-                        .authorities(List.of(new SimpleGrantedAuthority("ROLE_USER")))
-                        .build();
+                // regardless of enabled status). The user id travels in the "uid" claim,
+                // so controllers resolve it without querying the users table.
+                AuthenticatedUser userDetails = jwtUtils.toPrincipal(claims);
 
-                UsernamePasswordAuthenticationToken authentication =
-                        new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
-                authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+                // Revocation: a password change bumps users.security_version and a deleted user
+                // has none, so tokens issued earlier are rejected (the version is cached for a few
+                // seconds). Tokens without "ver" predate the claim and live until they expire —
+                // the same rule as in auth-service.
+                if (userDetails.getId() == null
+                        || userDetails.getSecurityVersion() == AuthenticatedUser.UNKNOWN_SECURITY_VERSION
+                        || userService.isCurrentSecurityVersion(userDetails.getId(), userDetails.getSecurityVersion())) {
+                    UsernamePasswordAuthenticationToken authentication =
+                            new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
+                    authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
 
-                SecurityContextHolder.getContext().setAuthentication(authentication);
+                    SecurityContextHolder.getContext().setAuthentication(authentication);
+                } else {
+                    log.debug("Rejected revoked token of user {}", userDetails.getId());
+                }
             }
         } catch (Exception e) {
             log.error("Cannot set user authentication: {}", e.getMessage());
@@ -1,28 +1,51 @@
 package com.project.familytree.auth.services;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.project.familytree.auth.impls.TokenType;
 import com.project.familytree.auth.models.User;
 import com.project.familytree.auth.repositories.UserRepository;
+import com.project.familytree.auth.security.AuthenticatedUser;
 import com.project.familytree.auth.services.TokenService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.List;
+
 @Service
 public class UserService implements UserDetailsService {
 
+    /** Версия удалённого пользователя: с ней не совпадает ни один токен */
+    private static final int DELETED_USER_VERSION = Integer.MIN_VALUE;
+
     private final UserRepository userRepository;
     private final TokenService tokenService;
     private final PasswordEncoder passwordEncoder;
 
+    /**
+     * ID пользователя -> {@code security_version}. Смена пароля в auth-service сюда не доходит,
+     * поэтому отозванный токен принимается ещё не дольше TTL кеша.
+     */
+    private final Cache<Long, Integer> securityVersions;
+
     @Autowired
-    public UserService(UserRepository userRepository, TokenService tokenService, PasswordEncoder passwordEncoder) {
+    public UserService(UserRepository userRepository, TokenService tokenService, PasswordEncoder passwordEncoder,
+                       @Value("${family.auth.jwt.security-version-cache-size:10000}") long securityVersionCacheSize,
+                       @Value("${family.auth.jwt.security-version-ttl-seconds:30}") long securityVersionTtlSeconds) {
         this.userRepository = userRepository;
         this.tokenService = tokenService;
         this.passwordEncoder = passwordEncoder;
+        this.securityVersions = Caffeine.newBuilder()
+                .maximumSize(securityVersionCacheSize)
+                .expireAfterWrite(Duration.ofSeconds(securityVersionTtlSeconds))
+                .build();
     }
 
     @Override
@@ -30,11 +53,32 @@ public class UserService implements UserDetailsService {
         User user = userRepository.findByEmail(email)
                 .orElseThrow(() -> new UsernameNotFoundException("User not found with email: " + email));
 
-        return org.springframework.security.core.userdetails.User.builder()
-                .username(user.getEmail())
-                .password(user.getPassword())
-                .disabled(!user.getEnabled())
-                .build();
+        return new AuthenticatedUser(
+                user.getId(),
+                user.getEmail(),
+                user.getPassword(),
+                Boolean.TRUE.equals(user.getEnabled()),
+                List.of(new SimpleGrantedAuthority("ROLE_USER")),
+                user.getSecurityVersion());
+    }
+
+    /**
+     * Не отозван ли токен с версией {@code securityVersion}: пароль с момента выпуска не менялся
+     * и пользователь не удалён. Текущая версия читается из кеша, промах — один SELECT по ключу.
+     * Токен новее закешированной версии выпущен после смены пароля, которую кеш ещё не видел, —
+     * версия перечитывается из БД, а не отклоняет новый токен до истечения TTL.
+     */
+    public boolean isCurrentSecurityVersion(Long userId, int securityVersion) {
+        int current = securityVersions.get(userId, this::loadSecurityVersion);
+        if (current != DELETED_USER_VERSION && current < securityVersion) {
+            current = loadSecurityVersion(userId);
+            securityVersions.put(userId, current);
+        }
+        return current == securityVersion;
+    }
+
+    private int loadSecurityVersion(Long userId) {
+        return userRepository.findSecurityVersionById(userId).orElse(DELETED_USER_VERSION);
     }
 
     public User findByEmail(String email) {
@@ -46,6 +90,10 @@ public class UserService implements UserDetailsService {
         if (userDetails == null) {
             throw new IllegalArgumentException("UserDetails cannot be null");
         }
+        // ID из JWT — без запроса к users; токены старого формата ищем по email
+        if (userDetails instanceof AuthenticatedUser authenticated && authenticated.getId() != null) {
+            return authenticated.getId();
+        }
         User user = findByEmail(userDetails.getUsername());
         return user.getId();
     }
@@ -73,7 +121,9 @@ public class UserService implements UserDetailsService {
 
         User user = findById(userId);
         user.setPassword(passwordEncoder.encode(newPassword));
+        user.setSecurityVersion(user.getSecurityVersion() + 1);
         userRepository.save(user);
+        securityVersions.invalidate(userId);
         tokenService.consumeToken(token);
     }
 
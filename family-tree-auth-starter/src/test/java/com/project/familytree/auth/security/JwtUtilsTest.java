@@ -0,0 +1,161 @@
+package com.project.familytree.auth.security;
+
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+class JwtUtilsTest {
+
+    private static final String SECRET =
+            "testSecretKeyThatIsLongEnoughForHMACSHA256Algorithm123456789";
+    private static final int LIFETIME_MS = 3_600_000; // 1 hour
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2026-01-01T00:00:00Z"));
+    private JwtUtils jwtUtils;
+
+    @BeforeEach
+    void setUp() {
+        jwtUtils = new JwtUtils(SECRET, LIFETIME_MS, 16, clock);
+    }
+
+    /** Часы, которые тест переводит вручную */
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+
+    private Authentication buildAuthentication(Long id, String email) {
+        return buildAuthentication(id, email, 0);
+    }
+
+    private Authentication buildAuthentication(Long id, String email, int securityVersion) {
+        AuthenticatedUser user = new AuthenticatedUser(id, email, "hashed", true,
+                List.of(new SimpleGrantedAuthority("ROLE_USER")), securityVersion);
+        return new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+    }
+
+
+    // ─── generateJwtToken / toPrincipal ───────────────────────────────────────────
+
+    @Test
+    @DisplayName("toPrincipal: восстанавливает ID, email и authorities из токена")
+    void toPrincipal_restoresIdAndAuthorities() {
+        String token = jwtUtils.generateJwtToken(buildAuthentication(7L, "ivan@test.com"));
+
+        AuthenticatedUser principal = jwtUtils.toPrincipal(jwtUtils.verify(token));
+
+        assertThat(principal.getId()).isEqualTo(7L);
+        assertThat(principal.getUsername()).isEqualTo("ivan@test.com");
+        assertThat(principal.getAuthorities()).extracting("authority").containsExactly("ROLE_USER");
+    }
+
+    @Test
+    @DisplayName("generateJwtToken: ver — версия безопасности пользователя, она же в principal")
+    void generateJwtToken_carriesSecurityVersion() {
+        String token = jwtUtils.generateJwtToken(buildAuthentication(7L, "ivan@test.com", 3));
+
+        Claims claims = jwtUtils.verify(token);
+
+        assertThat(claims.get(JwtUtils.CLAIM_VERSION, Integer.class)).isEqualTo(3);
+        assertThat(jwtUtils.toPrincipal(claims).getSecurityVersion()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("toPrincipal: у токена без ver версия неизвестна")
+    void toPrincipal_marksTokenWithoutVersion() {
+        Authentication legacy = new UsernamePasswordAuthenticationToken("ivan@test.com", null, List.of());
+        String token = jwtUtils.generateJwtToken(legacy);
+
+        AuthenticatedUser principal = jwtUtils.toPrincipal(jwtUtils.verify(token));
+
+        assertThat(principal.getId()).isNull();
+        assertThat(principal.getSecurityVersion()).isEqualTo(AuthenticatedUser.UNKNOWN_SECURITY_VERSION);
+    }
+
+    // ─── verify ───────────────────────────────────────────────────────────────────
+
+    @Test
+    @DisplayName("verify: повторная проверка того же токена берёт claims из кеша")
+    void verify_returnsCachedClaimsForSameToken() {
+        String token = jwtUtils.generateJwtToken(buildAuthentication(1L, "ivan@test.com"));
+
+        Claims first = jwtUtils.verify(token);
+        Claims second = jwtUtils.verify(token);
+
+        assertThat(first).isNotNull();
+        assertThat(second).isSameAs(first);
+        assertThat(jwtUtils.cachedTokenCount()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("verify: невалидный токен не проходит и не кешируется")
+    void verify_rejectsTamperedToken() {
+        String token = jwtUtils.generateJwtToken(buildAuthentication(1L, "ivan@test.com"));
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+
+        assertThat(jwtUtils.verify(tampered)).isNull();
+        assertThat(jwtUtils.verify("garbage")).isNull();
+        assertThat(jwtUtils.validateJwtToken(null)).isFalse();
+        assertThat(jwtUtils.cachedTokenCount()).isZero();
+    }
+
+    @Test
+    @DisplayName("verify: закешированный токен перестаёт приниматься после exp")
+    void verify_expiresCachedTokenAtExp() {
+        String token = jwtUtils.generateJwtToken(buildAuthentication(1L, "ivan@test.com"));
+        assertThat(jwtUtils.verify(token)).isNotNull();
+
+        clock.advance(Duration.ofMillis(LIFETIME_MS).plusSeconds(5));
+
+        assertThat(jwtUtils.verify(token)).isNull();
+        assertThat(jwtUtils.cachedTokenCount()).isZero();
+    }
+
+    @Test
+    @DisplayName("verify: размер кеша ограничен")
+    void verify_boundsCacheSize() {
+        jwtUtils = new JwtUtils(SECRET, LIFETIME_MS, 2, clock);
+
+        for (long id = 1; id <= 5; id++) {
+            String token = jwtUtils.generateJwtToken(buildAuthentication(id, "user" + id + "@test.com"));
+            assertThat(jwtUtils.verify(token)).isNotNull();
+        }
+
+        assertThat(jwtUtils.cachedTokenCount()).isEqualTo(2);
+    }
+}
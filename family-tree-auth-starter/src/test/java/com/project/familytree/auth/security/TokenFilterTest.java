@@ -0,0 +1,120 @@
+package com.project.familytree.auth.security;
+
+import com.project.familytree.auth.services.UserService;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Clock;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TokenFilterTest {
+
+    private static final String SECRET =
+            "testSecretKeyThatIsLongEnoughForHMACSHA256Algorithm123456789";
+
+    @Mock private UserService userService;
+    @Mock private FilterChain filterChain;
+
+    private JwtUtils jwtUtils;
+    private TokenFilter tokenFilter;
+
+    @BeforeEach
+    void setUp() {
+        jwtUtils = new JwtUtils(SECRET, 3_600_000, 16, Clock.systemUTC());
+        tokenFilter = new TokenFilter(jwtUtils, userService);
+    }
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private MockHttpServletRequest requestWith(Authentication authentication) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Authorization", "Bearer " + jwtUtils.generateJwtToken(authentication));
+        return request;
+    }
+
+    private static Authentication user(Long id, int securityVersion) {
+        AuthenticatedUser user = new AuthenticatedUser(id, "ivan@test.com", "hashed", true,
+                List.of(new SimpleGrantedAuthority("ROLE_USER")), securityVersion);
+        return new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+    }
+
+    @Test
+    @DisplayName("doFilter: токен с текущей версией безопасности аутентифицирует пользователя")
+    void doFilter_authenticatesCurrentToken() throws Exception {
+        when(userService.isCurrentSecurityVersion(7L, 2)).thenReturn(true);
+        MockHttpServletRequest request = requestWith(user(7L, 2));
+
+        tokenFilter.doFilter(request, new MockHttpServletResponse(), filterChain);
+
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        assertThat(authentication).isNotNull();
+        assertThat(((AuthenticatedUser) authentication.getPrincipal()).getId()).isEqualTo(7L);
+        verify(filterChain).doFilter(eq(request), any());
+    }
+
+    @Test
+    @DisplayName("doFilter: токен, выпущенный до смены пароля, отклоняется")
+    void doFilter_rejectsRevokedToken() throws Exception {
+        when(userService.isCurrentSecurityVersion(7L, 2)).thenReturn(false);
+        MockHttpServletRequest request = requestWith(user(7L, 2));
+
+        tokenFilter.doFilter(request, new MockHttpServletResponse(), filterChain);
+
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNull();
+        verify(filterChain).doFilter(eq(request), any());
+    }
+
+    @Test
+    @DisplayName("doFilter: токен старого формата без uid принимается без проверки версии")
+    void doFilter_acceptsLegacyTokenWithoutVersionLookup() throws Exception {
+        MockHttpServletRequest request =
+                requestWith(new UsernamePasswordAuthenticationToken("ivan@test.com", null, List.of()));
+
+        tokenFilter.doFilter(request, new MockHttpServletResponse(), filterChain);
+
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNotNull();
+        verifyNoInteractions(userService);
+    }
+
+    @Test
+    @DisplayName("doFilter: токен с uid, но без ver, живёт до истечения срока — как в auth-service")
+    void doFilter_acceptsTokenWithoutVersionClaim() throws Exception {
+        String token = Jwts.builder()
+                .setSubject("ivan@test.com")
+                .claim(JwtUtils.CLAIM_USER_ID, 7L)
+                .setExpiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(Keys.hmacShaKeyFor(SECRET.getBytes()), SignatureAlgorithm.HS256)
+                .compact();
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Authorization", "Bearer " + token);
+
+        tokenFilter.doFilter(request, new MockHttpServletResponse(), filterChain);
+
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNotNull();
+        verifyNoInteractions(userService);
+    }
+}
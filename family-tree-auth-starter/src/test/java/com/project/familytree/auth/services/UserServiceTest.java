@@ -0,0 +1,66 @@
+package com.project.familytree.auth.services;
+
+import com.project.familytree.auth.repositories.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserServiceTest {
+
+    @Mock private UserRepository userRepository;
+    @Mock private TokenService tokenService;
+    @Mock private PasswordEncoder passwordEncoder;
+
+    private UserService userService;
+
+    @BeforeEach
+    void setUp() {
+        userService = new UserService(userRepository, tokenService, passwordEncoder, 100, 30);
+    }
+
+    // ─── isCurrentSecurityVersion ───
+
+    @Test
+    @DisplayName("isCurrentSecurityVersion: версия читается из БД один раз и дальше берётся из кеша")
+    void isCurrentSecurityVersion_cachesVersion() {
+        when(userRepository.findSecurityVersionById(7L)).thenReturn(Optional.of(1));
+
+        assertThat(userService.isCurrentSecurityVersion(7L, 1)).isTrue();
+        assertThat(userService.isCurrentSecurityVersion(7L, 1)).isTrue();
+
+        verify(userRepository, times(1)).findSecurityVersionById(7L);
+    }
+
+    @Test
+    @DisplayName("isCurrentSecurityVersion: токен после смены пароля принимается, хотя кеш хранит старую версию")
+    void isCurrentSecurityVersion_reloadsForNewerToken() {
+        when(userRepository.findSecurityVersionById(7L)).thenReturn(Optional.of(1), Optional.of(2));
+        assertThat(userService.isCurrentSecurityVersion(7L, 1)).isTrue();
+
+        assertThat(userService.isCurrentSecurityVersion(7L, 2)).isTrue();
+        assertThat(userService.isCurrentSecurityVersion(7L, 1)).isFalse();
+
+        verify(userRepository, times(2)).findSecurityVersionById(7L);
+    }
+
+    @Test
+    @DisplayName("isCurrentSecurityVersion: токены удалённого пользователя отклоняются без повторных запросов")
+    void isCurrentSecurityVersion_rejectsDeletedUser() {
+        when(userRepository.findSecurityVersionById(7L)).thenReturn(Optional.empty());
+
+        assertThat(userService.isCurrentSecurityVersion(7L, 1)).isFalse();
+        assertThat(userService.isCurrentSecurityVersion(7L, 1)).isFalse();
+
+        verify(userRepository, times(1)).findSecurityVersionById(7L);
+    }
+}
@@ -6,6 +6,7 @@ import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.FilterType;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @ComponentScan(
@@ -27,6 +28,7 @@ import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 )
 @EntityScan(basePackages = {"com.project.familytree.auth.models", "com.project.familytree.tree.models"})
 @EnableJpaRepositories(basePackages = {"com.project.familytree.auth.repositories", "com.project.familytree.tree.repositories"})
+@EnableScheduling
 public class TreeServiceApplication {
 
     public static void main(String[] args) {
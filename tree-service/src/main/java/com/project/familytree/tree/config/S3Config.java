@@ -5,9 +5,13 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
 
 import java.net.URI;
 
@@ -15,6 +19,9 @@ import java.net.URI;
  * Конфигурация AWS S3 клиента для Yandex Object Storage.
  * Yandex Object Storage совместим с AWS S3 API v2.
  * Endpoint: https://storage.yandexcloud.net
+ * <p>
+ * Кроме синхронного клиента создаётся асинхронный с multipart-загрузкой и {@link S3TransferManager}
+ * поверх него — для параллельной загрузки больших файлов частями.
  */
 @Configuration
 public class S3Config {
@@ -31,6 +38,18 @@ public class S3Config {
     @Value("${s3.region:ru-central1}")
     private String region;
 
+    @Value("${s3.transfer.threshold-mb:16}")
+    private long transferThresholdMb;
+
+    @Value("${s3.transfer.part-size-mb:8}")
+    private long transferPartSizeMb;
+
+    @Value("${s3.transfer.max-concurrency:4}")
+    private int transferMaxConcurrency;
+
+    @Value("${s3.transfer.max-retries:3}")
+    private int transferMaxRetries;
+
     @Bean
     public S3Client s3Client() {
         return S3Client.builder()
@@ -56,4 +75,40 @@ public class S3Config {
                 )
                 .build();
     }
+
+    /**
+     * Асинхронный клиент с multipart-загрузкой на Java (без CRT): объект больше порога делится на части,
+     * части загружаются параллельно — не больше {@code s3.transfer.max-concurrency} одновременно — и
+     * при ошибке повторяются по отдельности. При окончательной ошибке загрузка прерывается (AbortMultipartUpload).
+     */
+    @Bean(destroyMethod = "close")
+    public S3AsyncClient s3AsyncClient() {
+        long partSize = transferPartSizeMb * 1024 * 1024;
+        return S3AsyncClient.builder()
+                .endpointOverride(URI.create(endpoint))
+                .region(Region.of(region))
+                .credentialsProvider(
+                        StaticCredentialsProvider.create(
+                                AwsBasicCredentials.create(accessKey, secretKey)
+                        )
+                )
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .maxConcurrency(transferMaxConcurrency))
+                .overrideConfiguration(config -> config
+                        .retryPolicy(RetryPolicy.builder().numRetries(transferMaxRetries).build()))
+                .multipartEnabled(true)
+                .multipartConfiguration(multipart -> multipart
+                        .thresholdInBytes(transferThresholdMb * 1024 * 1024)
+                        .minimumPartSizeInBytes(partSize)
+                        // В памяти — не больше частей, чем их может загружаться одновременно
+                        .apiCallBufferSizeInBytes(partSize * transferMaxConcurrency))
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public S3TransferManager s3TransferManager(S3AsyncClient s3AsyncClient) {
+        return S3TransferManager.builder()
+                .s3Client(s3AsyncClient)
+                .build();
+    }
 }
@@ -0,0 +1,61 @@
+package com.project.familytree.tree.controllers;
+
+import com.project.familytree.auth.dto.CustomApiResponse;
+import com.project.familytree.auth.services.UserService;
+import com.project.familytree.tree.dto.ExportJobDTO;
+import com.project.familytree.tree.impls.ExportFormat;
+import com.project.familytree.tree.services.ExportJobService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.file.AccessDeniedException;
+
+@RestController
+@Tag(name = "Export Controller", description = "API для асинхронного экспорта деревьев в файл")
+public class ExportController {
+
+    private static final Logger log = LoggerFactory.getLogger(ExportController.class);
+
+    private final ExportJobService exportJobService;
+    private final UserService userService;
+
+    public ExportController(ExportJobService exportJobService, UserService userService) {
+        this.exportJobService = exportJobService;
+        this.userService = userService;
+    }
+
+    @PostMapping("/trees/{treeId}/exports")
+    @Operation(summary = "Запустить экспорт дерева",
+               description = "Ставит экспорт дерева в очередь и сразу возвращает задачу; файл (GEDCOM или JSON) " +
+                             "генерируется в фоне и сохраняется в S3. Повторный запрос для неизменившегося дерева " +
+                             "возвращает ту же задачу. Требует роль VIEWER или выше.")
+    public ResponseEntity<CustomApiResponse<ExportJobDTO>> createExport(
+            @PathVariable Long treeId,
+            @RequestParam(defaultValue = "GEDCOM") ExportFormat format) throws AccessDeniedException {
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userService.findIdByDetails(userDetails);
+        log.info("Export of tree {} ({}) requested by user {}", treeId, format, userId);
+
+        ExportJobDTO job = exportJobService.createExport(treeId, format, userId);
+        return ResponseEntity.ok(CustomApiResponse.successData(job));
+    }
+
+    @GetMapping("/exports/{jobId}")
+    @Operation(summary = "Состояние задачи экспорта",
+               description = "Возвращает статус и прогресс задачи; для завершённой — временную ссылку на скачивание " +
+                             "файла. Требует роль VIEWER или выше в экспортируемом дереве.")
+    public ResponseEntity<CustomApiResponse<ExportJobDTO>> getExport(
+            @PathVariable Long jobId) throws AccessDeniedException {
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userService.findIdByDetails(userDetails);
+
+        ExportJobDTO job = exportJobService.getJob(jobId, userId);
+        return ResponseEntity.ok(CustomApiResponse.successData(job));
+    }
+}
@@ -0,0 +1,49 @@
+package com.project.familytree.tree.controllers;
+
+import com.project.familytree.auth.dto.CustomApiResponse;
+import com.project.familytree.auth.services.UserService;
+import com.project.familytree.tree.dto.KinshipDTO;
+import com.project.familytree.tree.services.KinshipService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.file.AccessDeniedException;
+
+@RestController
+@RequestMapping("/trees/{treeId}/kinship")
+@Tag(name = "Kinship Controller", description = "API для определения родства между персонами")
+public class KinshipController {
+
+    private static final Logger log = LoggerFactory.getLogger(KinshipController.class);
+
+    private final KinshipService kinshipService;
+    private final UserService userService;
+
+    public KinshipController(KinshipService kinshipService, UserService userService) {
+        this.kinshipService = kinshipService;
+        this.userService = userService;
+    }
+
+    @GetMapping
+    @Operation(summary = "Определить родство",
+               description = "Возвращает кратчайший путь по связям PARENT_CHILD и PARTNERSHIP и название родства: " +
+                             "кем персона to приходится персоне from. Требует роль VIEWER или выше.")
+    public ResponseEntity<CustomApiResponse<KinshipDTO>> getKinship(
+            @PathVariable Long treeId,
+            @RequestParam("from") Long fromPersonId,
+            @RequestParam("to") Long toPersonId) throws AccessDeniedException {
+
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userService.findIdByDetails(userDetails);
+        log.info("Getting kinship {} -> {} in tree {} for user {}", fromPersonId, toPersonId, treeId, userId);
+
+        KinshipDTO kinship = kinshipService.getKinship(treeId, fromPersonId, toPersonId, userId);
+        return ResponseEntity.ok(CustomApiResponse.successData(kinship));
+    }
+}
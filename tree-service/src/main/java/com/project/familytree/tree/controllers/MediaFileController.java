@@ -3,14 +3,17 @@ package com.project.familytree.tree.controllers;
 import com.project.familytree.auth.dto.CustomApiResponse;
 import com.project.familytree.auth.services.UserService;
 import com.project.familytree.tree.dto.MediaFileDTO;
+import com.project.familytree.tree.dto.MediaUploadConfirmRequest;
+import com.project.familytree.tree.dto.MediaUploadDTO;
+import com.project.familytree.tree.dto.MediaUploadRequest;
 import com.project.familytree.tree.impls.MediaFileType;
 import com.project.familytree.tree.services.MediaFileService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -18,6 +21,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
 import java.nio.file.AccessDeniedException;
@@ -59,6 +63,43 @@ public class MediaFileController {
         return ResponseEntity.ok(CustomApiResponse.successData(dto));
     }
 
+    @PostMapping("/uploads")
+    @Operation(summary = "Запросить прямую загрузку медиафайла",
+               description = "Проверяет права, лимит и тип файла и возвращает presigned URL для загрузки напрямую " +
+                             "в хранилище: один PUT или, для файлов больше 8 МБ, URL частей multipart-загрузки. " +
+                             "После загрузки нужно вызвать /uploads/confirm.")
+    public ResponseEntity<CustomApiResponse<MediaUploadDTO>> initiateUpload(
+            @PathVariable Long treeId,
+            @PathVariable Long personId,
+            @Valid @RequestBody MediaUploadRequest request) throws AccessDeniedException {
+
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userService.findIdByDetails(userDetails);
+        log.info("Direct upload of '{}' ({} bytes) requested for person {} in tree {} by user {}",
+                request.fileName(), request.fileSize(), personId, treeId, userId);
+
+        MediaUploadDTO dto = mediaFileService.initiateUpload(treeId, personId, request, userId);
+        return ResponseEntity.ok(CustomApiResponse.successData(dto));
+    }
+
+    @PostMapping("/uploads/confirm")
+    @Operation(summary = "Подтвердить прямую загрузку медиафайла",
+               description = "Завершает multipart-загрузку (если файл загружался частями), проверяет размер и тип " +
+                             "загруженного объекта и привязывает файл к персоне")
+    public ResponseEntity<CustomApiResponse<MediaFileDTO>> confirmUpload(
+            @PathVariable Long treeId,
+            @PathVariable Long personId,
+            @Valid @RequestBody MediaUploadConfirmRequest request) throws AccessDeniedException {
+
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userService.findIdByDetails(userDetails);
+
+        MediaFileDTO dto = mediaFileService.confirmUpload(treeId, personId, request, userId);
+        log.info("Confirmed file with id {} for person {} in tree {}", dto.getId(), personId, treeId);
+
+        return ResponseEntity.ok(CustomApiResponse.successData(dto));
+    }
+
     @GetMapping
     @Operation(summary = "Получить список медиафайлов персоны",
                description = "Возвращает все медиафайлы, привязанные к указанной персоне в дереве")
@@ -76,25 +117,47 @@ public class MediaFileController {
 
     @GetMapping("/{fileId}/download")
     @Operation(summary = "Скачать медиафайл",
-               description = "Возвращает содержимое файла для скачивания (проксирование через бэкенд из S3)")
-    public ResponseEntity<Resource> downloadFile(
+               description = "Возвращает содержимое файла потоком из S3. Поддерживает Range (один диапазон байт, " +
+                             "ответ 206) с If-Range — для перемотки видео и докачки, и If-None-Match по ETag (ответ 304).")
+    public ResponseEntity<StreamingResponseBody> downloadFile(
             @PathVariable Long treeId,
             @PathVariable Long personId,
-            @PathVariable Long fileId) throws AccessDeniedException {
+            @PathVariable Long fileId,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws AccessDeniedException {
 
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         Long userId = userService.findIdByDetails(userDetails);
-        log.info("Downloading file {} for person {} in tree {} by user {}", fileId, personId, treeId, userId);
-
-        MediaFileService.DownloadResult result = mediaFileService.downloadFile(treeId, personId, fileId, userId);
+        log.info("Downloading file {} for person {} in tree {} by user {}{}", fileId, personId, treeId, userId,
+                range != null ? " (" + range + ")" : "");
+
+        MediaFileService.DownloadResult result = mediaFileService.downloadFile(treeId, personId, fileId,
+                new MediaFileService.DownloadRequest(range, ifRange, ifNoneMatch), userId);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(result.status())
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (result.eTag() != null) {
+            response.eTag(result.eTag());
+        }
+        if (result.contentRange() != null) {
+            response.header(HttpHeaders.CONTENT_RANGE, result.contentRange());
+        }
+        if (result.content() == null) {
+            return response.build();
+        }
 
         String safeFilename = result.fileName().replaceAll("[^a-zA-Z0-9._\\-]", "_");
-
-        return ResponseEntity.ok()
+        if (result.contentLength() != null) {
+            response.contentLength(result.contentLength());
+        }
+        return response
                 .header(HttpHeaders.CONTENT_DISPOSITION,
                         "attachment; filename=\"" + safeFilename + "\"")
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(result.resource());
+                .contentType(result.contentType() != null
+                        ? MediaType.parseMediaType(result.contentType())
+                        : MediaType.APPLICATION_OCTET_STREAM)
+                .body(result::writeTo);
     }
 
     @DeleteMapping("/{fileId}")
@@ -2,10 +2,18 @@ package com.project.familytree.tree.controllers;
 
 import com.project.familytree.auth.dto.CustomApiResponse;
 import com.project.familytree.auth.services.UserService;
+import com.project.familytree.tree.dto.CursorPageResponse;
 import com.project.familytree.tree.dto.PersonDTO;
 import com.project.familytree.tree.dto.PersonHistoryDTO;
 import com.project.familytree.tree.dto.PersonRelationshipRequest;
 import com.project.familytree.tree.dto.PersonRequest;
+import com.project.familytree.tree.dto.PersonSearchResponse;
+import com.project.familytree.tree.dto.PersonSuggestionDTO;
+import com.project.familytree.tree.dto.SubgraphDTO;
+import com.project.familytree.tree.services.LineageService;
+import com.project.familytree.tree.services.PageCursor;
+import com.project.familytree.tree.services.PersonSearchService;
+import com.project.familytree.tree.services.PersonStreamService;
 import com.project.familytree.tree.services.TreeService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -18,6 +26,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
 import java.nio.file.AccessDeniedException;
@@ -32,10 +41,17 @@ public class PersonController {
 
     private final TreeService treeService;
     private final UserService userService;
+    private final LineageService lineageService;
+    private final PersonStreamService personStreamService;
+    private final PersonSearchService personSearchService;
 
-    public PersonController(TreeService treeService, UserService userService) {
+    public PersonController(TreeService treeService, UserService userService, LineageService lineageService,
+                            PersonStreamService personStreamService, PersonSearchService personSearchService) {
         this.treeService = treeService;
         this.userService = userService;
+        this.lineageService = lineageService;
+        this.personStreamService = personStreamService;
+        this.personSearchService = personSearchService;
     }
 
     @PostMapping
@@ -58,13 +74,32 @@ public class PersonController {
 
     @GetMapping
     @Operation(summary = "Получить список персон дерева",
-               description = "Возвращает все персоны дерева, отсортированные по фамилии и имени. Требует роль VIEWER или выше.")
-    public ResponseEntity<CustomApiResponse<List<PersonDTO>>> getPersons(
-            @PathVariable Long treeId) throws AccessDeniedException {
+               description = "Возвращает все персоны дерева, отсортированные по фамилии и имени. " +
+                             "С stream=true ответ того же формата пишется потоково, без сборки списка в памяти. " +
+                             "Если передан cursor или limit — возвращает страницу (data, nextCursor, hasMore); " +
+                             "следующая страница запрашивается с cursor = nextCursor. " +
+                             "Требует роль VIEWER или выше.")
+    public ResponseEntity<?> getPersons(
+            @PathVariable Long treeId,
+            @RequestParam(defaultValue = "false") boolean stream,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) throws AccessDeniedException {
 
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         Long userId = userService.findIdByDetails(userDetails);
-        log.info("Getting persons for tree {} by user {}", treeId, userId);
+        log.info("Getting persons for tree {} by user {} (stream={}, cursor={}, limit={})",
+                treeId, userId, stream, cursor, limit);
+
+        if (cursor != null || limit != null) {
+            CursorPageResponse<PersonDTO> page = treeService.getPersonsPage(treeId, cursor,
+                    limit != null ? limit : PageCursor.DEFAULT_LIMIT, userId);
+            return ResponseEntity.ok(CustomApiResponse.successData(page));
+        }
+
+        if (stream) {
+            StreamingResponseBody body = personStreamService.streamPersons(treeId, userId);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+        }
 
         List<PersonDTO> persons = treeService.getPersons(treeId, userId);
         log.info("Found {} persons in tree {}", persons.size(), treeId);
@@ -160,51 +195,179 @@ public class PersonController {
 
     @GetMapping("/graph")
     @Operation(summary = "Получить граф семейного дерева",
-               description = "Возвращает все персоны дерева вместе со всеми их связями для построения графа.")
-    public ResponseEntity<CustomApiResponse<List<PersonDTO>>> getTreeGraph(
-            @PathVariable Long treeId) throws AccessDeniedException {
+               description = "Возвращает все персоны дерева вместе со всеми их связями для построения графа. " +
+                             "С stream=true ответ того же формата пишется потоково, без сборки списка в памяти.")
+    public ResponseEntity<?> getTreeGraph(
+            @PathVariable Long treeId,
+            @RequestParam(defaultValue = "false") boolean stream) throws AccessDeniedException {
 
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         Long userId = userService.findIdByDetails(userDetails);
-        log.info("Getting graph for tree {} by user {}", treeId, userId);
+        log.info("Getting graph for tree {} by user {} (stream={})", treeId, userId, stream);
+
+        if (stream) {
+            StreamingResponseBody body = personStreamService.streamTreeGraph(treeId, userId);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+        }
 
         List<PersonDTO> graph = treeService.getTreeGraph(treeId, userId);
         return ResponseEntity.ok(CustomApiResponse.successData(graph));
     }
 
+    @GetMapping("/{personId}/graph")
+    @Operation(summary = "Получить фрагмент графа вокруг персоны",
+               description = "Возвращает персоны в пределах up поколений вверх, down вниз и lateral боковых шагов " +
+                             "(партнёры, братья/сёстры, дяди/тёти) от выбранной персоны. Для персон на границе " +
+                             "фрагмента возвращается число скрытых связей для догрузки. Требует роль VIEWER или выше.")
+    public ResponseEntity<CustomApiResponse<SubgraphDTO>> getSubgraph(
+            @PathVariable Long treeId,
+            @PathVariable Long personId,
+            @RequestParam(value = "up", defaultValue = "" + TreeService.DEFAULT_WINDOW_GENERATIONS) int up,
+            @RequestParam(value = "down", defaultValue = "" + TreeService.DEFAULT_WINDOW_GENERATIONS) int down,
+            @RequestParam(value = "lateral", defaultValue = "" + TreeService.DEFAULT_WINDOW_LATERAL) int lateral)
+            throws AccessDeniedException {
+
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userService.findIdByDetails(userDetails);
+        log.info("Getting subgraph around person {} in tree {} (up={}, down={}, lateral={}) by user {}",
+                personId, treeId, up, down, lateral, userId);
+
+        SubgraphDTO subgraph = treeService.getSubgraph(treeId, personId, up, down, lateral, userId);
+        return ResponseEntity.ok(CustomApiResponse.successData(subgraph));
+    }
+
+    @GetMapping("/{personId}/ancestors")
+    @Operation(summary = "Получить предков персоны",
+               description = "Возвращает предков персоны до depth поколений (по умолчанию 4, максимум 12) " +
+                             "одним запросом, с номером поколения у каждой персоны. Ответ пишется потоково, " +
+                             "по мере чтения строк запроса. Требует роль VIEWER или выше.")
+    public ResponseEntity<StreamingResponseBody> getAncestors(
+            @PathVariable Long treeId,
+            @PathVariable Long personId,
+            @RequestParam(value = "depth", defaultValue = "" + LineageService.DEFAULT_DEPTH) int depth) throws AccessDeniedException {
+
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userService.findIdByDetails(userDetails);
+        log.info("Getting ancestors of person {} in tree {} (depth {}) by user {}", personId, treeId, depth, userId);
+
+        StreamingResponseBody body = lineageService.streamAncestors(treeId, personId, depth, userId);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    @GetMapping("/{personId}/descendants")
+    @Operation(summary = "Получить потомков персоны",
+               description = "Возвращает потомков персоны до depth поколений (по умолчанию 4, максимум 12) " +
+                             "одним запросом, с номером поколения у каждой персоны. Ответ пишется потоково, " +
+                             "по мере чтения строк запроса. Требует роль VIEWER или выше.")
+    public ResponseEntity<StreamingResponseBody> getDescendants(
+            @PathVariable Long treeId,
+            @PathVariable Long personId,
+            @RequestParam(value = "depth", defaultValue = "" + LineageService.DEFAULT_DEPTH) int depth) throws AccessDeniedException {
+
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userService.findIdByDetails(userDetails);
+        log.info("Getting descendants of person {} in tree {} (depth {}) by user {}", personId, treeId, depth, userId);
+
+        StreamingResponseBody body = lineageService.streamDescendants(treeId, personId, depth, userId);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
     @GetMapping("/search")
     @Operation(summary = "Поиск персон по имени, датам и месту рождения",
                description = "Ищет персон в дереве по имени/фамилии/отчеству, году рождения и месту рождения. " +
-                             "Поддерживает фильтр по наличию медиафайлов. Требует роль VIEWER или выше.")
+                             "Результаты упорядочены по релевантности и отдаются страницами (offset/limit, " +
+                             "limit до " + PersonSearchService.MAX_LIMIT + "). " +
+                             "Поддерживает фильтр по наличию медиафайлов. С fuzzy=true имя ищется по фонетическому " +
+                             "ключу (кириллица/латиница, варианты написания). Требует роль VIEWER или выше.")
     public ResponseEntity<CustomApiResponse<List<PersonDTO>>> searchPersons(
             @PathVariable Long treeId,
             @RequestParam(value = "q", required = false) String query,
             @RequestParam(value = "birthYearFrom", required = false) Integer birthYearFrom,
             @RequestParam(value = "birthYearTo", required = false) Integer birthYearTo,
             @RequestParam(value = "birthPlace", required = false) String birthPlace,
-            @RequestParam(value = "hasMedia", required = false) Boolean hasMedia) throws AccessDeniedException {
+            @RequestParam(value = "hasMedia", required = false) Boolean hasMedia,
+            @RequestParam(value = "fuzzy", defaultValue = "false") boolean fuzzy,
+            @RequestParam(value = "offset", defaultValue = "0") int offset,
+            @RequestParam(value = "limit", defaultValue = "" + PersonSearchService.DEFAULT_LIMIT) int limit) throws AccessDeniedException {
 
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         Long userId = userService.findIdByDetails(userDetails);
-        log.info("Searching persons in tree {} with query='{}', birthYearFrom={}, birthYearTo={}, birthPlace='{}', hasMedia={} by user {}",
-                treeId, query, birthYearFrom, birthYearTo, birthPlace, hasMedia, userId);
+        log.info("Searching persons in tree {} with query='{}', birthYearFrom={}, birthYearTo={}, birthPlace='{}', hasMedia={}, fuzzy={} by user {}",
+                treeId, query, birthYearFrom, birthYearTo, birthPlace, hasMedia, fuzzy, userId);
 
-        List<PersonDTO> results = treeService.searchPersons(treeId, query, birthYearFrom, birthYearTo, birthPlace, hasMedia, userId);
+        List<PersonDTO> results = personSearchService.searchPersons(treeId, query, birthYearFrom, birthYearTo, birthPlace,
+                hasMedia, fuzzy, offset, limit, userId);
         log.info("Found {} persons matching search criteria", results.size());
         return ResponseEntity.ok(CustomApiResponse.successData(results));
     }
 
+    @GetMapping("/search/faceted")
+    @Operation(summary = "Поиск персон с фасетами",
+               description = "Те же фильтры и страницы, что у /search, но в ответе вместе со страницей персон " +
+                             "общее число найденных (totalCount) и фасеты: по полу, десятилетию рождения, " +
+                             "месту рождения (до " + PersonSearchService.PLACE_FACET_LIMIT + " самых частых) и " +
+                             "наличию медиафайлов. Фасеты считаются по всем найденным персонам, без учёта " +
+                             "offset/limit. Требует роль VIEWER или выше.")
+    public ResponseEntity<CustomApiResponse<PersonSearchResponse>> searchPersonsFaceted(
+            @PathVariable Long treeId,
+            @RequestParam(value = "q", required = false) String query,
+            @RequestParam(value = "birthYearFrom", required = false) Integer birthYearFrom,
+            @RequestParam(value = "birthYearTo", required = false) Integer birthYearTo,
+            @RequestParam(value = "birthPlace", required = false) String birthPlace,
+            @RequestParam(value = "hasMedia", required = false) Boolean hasMedia,
+            @RequestParam(value = "fuzzy", defaultValue = "false") boolean fuzzy,
+            @RequestParam(value = "offset", defaultValue = "0") int offset,
+            @RequestParam(value = "limit", defaultValue = "" + PersonSearchService.DEFAULT_LIMIT) int limit) throws AccessDeniedException {
+
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userService.findIdByDetails(userDetails);
+
+        PersonSearchResponse response = personSearchService.searchPersonsFaceted(treeId, query, birthYearFrom,
+                birthYearTo, birthPlace, hasMedia, fuzzy, offset, limit, userId);
+        log.info("Faceted search in tree {} by user {}: {} of {} persons", treeId, userId,
+                response.getData().size(), response.getTotalCount());
+        return ResponseEntity.ok(CustomApiResponse.successData(response));
+    }
+
+    @GetMapping("/suggest")
+    @Operation(summary = "Автодополнение персон по префиксу имени",
+               description = "Возвращает до limit персон (по умолчанию " + PersonSearchService.DEFAULT_SUGGEST_LIMIT +
+                             ", максимум " + PersonSearchService.MAX_SUGGEST_LIMIT + "), у которых фамилия, имя или " +
+                             "отчество начинается с prefix: только ID, ФИО и год рождения. Отвечает из индекса в памяти. " +
+                             "Требует роль VIEWER или выше.")
+    public ResponseEntity<CustomApiResponse<List<PersonSuggestionDTO>>> suggestPersons(
+            @PathVariable Long treeId,
+            @RequestParam(value = "prefix", defaultValue = "") String prefix,
+            @RequestParam(value = "limit", defaultValue = "" + PersonSearchService.DEFAULT_SUGGEST_LIMIT) int limit) throws AccessDeniedException {
+
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userService.findIdByDetails(userDetails);
+
+        List<PersonSuggestionDTO> suggestions = personSearchService.suggest(treeId, prefix, limit, userId);
+        return ResponseEntity.ok(CustomApiResponse.successData(suggestions));
+    }
+
     @GetMapping("/{personId}/history")
     @Operation(summary = "Получить историю изменений персоны",
-               description = "Возвращает список изменений персоны (до 50 записей). Требует роль EDITOR или OWNER.")
-    public ResponseEntity<CustomApiResponse<List<PersonHistoryDTO>>> getPersonHistory(
+               description = "Возвращает список изменений персоны (до " + TreeService.HISTORY_LIMIT + " записей, " +
+                             "новые первыми). Если передан cursor или limit — возвращает страницу " +
+                             "(data, nextCursor, hasMore). Требует роль EDITOR или OWNER.")
+    public ResponseEntity<?> getPersonHistory(
             @PathVariable Long treeId,
-            @PathVariable Long personId) throws AccessDeniedException {
+            @PathVariable Long personId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) throws AccessDeniedException {
 
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         Long userId = userService.findIdByDetails(userDetails);
         log.info("Getting history for person {} in tree {} by user {}", personId, treeId, userId);
 
+        if (cursor != null || limit != null) {
+            CursorPageResponse<PersonHistoryDTO> page = treeService.getPersonHistoryPage(treeId, personId, cursor,
+                    limit != null ? limit : PageCursor.DEFAULT_LIMIT, userId);
+            return ResponseEntity.ok(CustomApiResponse.successData(page));
+        }
+
         List<PersonHistoryDTO> history = treeService.getPersonHistory(treeId, personId, userId);
         return ResponseEntity.ok(CustomApiResponse.successData(history));
     }
@@ -0,0 +1,52 @@
+package com.project.familytree.tree.controllers;
+
+import com.project.familytree.auth.dto.CustomApiResponse;
+import com.project.familytree.auth.services.UserService;
+import com.project.familytree.tree.dto.TreeSearchGroupDTO;
+import com.project.familytree.tree.services.PersonSearchService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/search")
+@Tag(name = "Search Controller", description = "API для поиска по всем деревьям пользователя")
+public class SearchController {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchController.class);
+
+    private final PersonSearchService personSearchService;
+    private final UserService userService;
+
+    public SearchController(PersonSearchService personSearchService, UserService userService) {
+        this.personSearchService = personSearchService;
+        this.userService = userService;
+    }
+
+    @GetMapping("/persons")
+    @Operation(summary = "Поиск персон во всех деревьях пользователя",
+               description = "Ищет персон по имени/фамилии/отчеству сразу во всех деревьях, где текущий пользователь " +
+                             "является участником, одним запросом. Результат сгруппирован по деревьям (сначала " +
+                             "дерево с самым релевантным совпадением): не больше perTree персон в дереве (до " +
+                             PersonSearchService.MAX_PER_TREE_LIMIT + ") и limit всего (до " +
+                             PersonSearchService.MAX_LIMIT + ").")
+    public ResponseEntity<CustomApiResponse<List<TreeSearchGroupDTO>>> searchPersons(
+            @RequestParam("q") String query,
+            @RequestParam(value = "limit", defaultValue = "" + PersonSearchService.DEFAULT_LIMIT) int limit,
+            @RequestParam(value = "perTree", defaultValue = "" + PersonSearchService.DEFAULT_PER_TREE_LIMIT) int perTree) {
+
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userService.findIdByDetails(userDetails);
+        log.info("Global person search '{}' by user {} (limit={}, perTree={})", query, userId, limit, perTree);
+
+        List<TreeSearchGroupDTO> groups = personSearchService.searchAcrossTrees(query, limit, perTree, userId);
+        return ResponseEntity.ok(CustomApiResponse.successData(groups));
+    }
+}
@@ -2,6 +2,9 @@ package com.project.familytree.tree.controllers;
 
 import com.project.familytree.auth.dto.CustomApiResponse;
 import com.project.familytree.auth.services.UserService;
+import com.project.familytree.tree.dto.CursorPageResponse;
+import com.project.familytree.tree.dto.GedcomImportReportDTO;
+import com.project.familytree.tree.dto.MediaFileDTO;
 import com.project.familytree.tree.dto.PersonDTO;
 import com.project.familytree.tree.dto.PersonRelationshipRequest;
 import com.project.familytree.tree.dto.RelationshipDTO;
@@ -9,19 +12,32 @@ import com.project.familytree.tree.dto.TreeDTO;
 import com.project.familytree.tree.dto.InviteRequest;
 import com.project.familytree.tree.dto.TreeMemberDTO;
 import com.project.familytree.tree.dto.TreeRequest;
+import com.project.familytree.tree.exceptions.BusinessException;
 import com.project.familytree.tree.models.Relationship;
 import com.project.familytree.tree.repositories.RelationshipRepository;
+import com.project.familytree.tree.services.GedcomImportService;
+import com.project.familytree.tree.services.GedcomService;
+import com.project.familytree.tree.services.MediaFileService;
+import com.project.familytree.tree.services.PageCursor;
+import com.project.familytree.tree.services.PersonStreamService;
 import com.project.familytree.tree.services.TreeService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.AccessDeniedException;
 import java.util.List;
 import java.util.Map;
@@ -32,17 +48,29 @@ import java.util.Map;
 public class TreeController {
     private static final Logger log = LoggerFactory.getLogger(TreeController.class);
 
+    private static final MediaType GEDCOM_MEDIA_TYPE = new MediaType("application", "x-gedcom", StandardCharsets.UTF_8);
+
     private final TreeService treeService;
     private final UserService userService;
     private final RelationshipRepository relationshipRepository;
+    private final PersonStreamService personStreamService;
+    private final MediaFileService mediaFileService;
+    private final GedcomService gedcomService;
+    private final GedcomImportService gedcomImportService;
 
     @org.springframework.beans.factory.annotation.Value("${app.base-url:http://localhost:3000}")
     private String baseUrl;
 
-    public TreeController(TreeService treeService, UserService userService, RelationshipRepository relationshipRepository) {
+    public TreeController(TreeService treeService, UserService userService, RelationshipRepository relationshipRepository,
+                          PersonStreamService personStreamService, MediaFileService mediaFileService,
+                          GedcomService gedcomService, GedcomImportService gedcomImportService) {
         this.treeService = treeService;
         this.userService = userService;
         this.relationshipRepository = relationshipRepository;
+        this.personStreamService = personStreamService;
+        this.mediaFileService = mediaFileService;
+        this.gedcomService = gedcomService;
+        this.gedcomImportService = gedcomImportService;
     }
 
     @GetMapping
@@ -190,9 +218,15 @@ public class TreeController {
 
     @GetMapping("/public/{token}")
     @Operation(summary = "Получить публичное дерево",
-               description = "Возвращает список персон дерева по публичному токену. Аутентификация не требуется.")
-    public ResponseEntity<CustomApiResponse<List<PersonDTO>>> getPublicTree(
-            @PathVariable String token) {
+               description = "Возвращает список персон дерева по публичному токену. Аутентификация не требуется. " +
+                             "С stream=true ответ того же формата пишется потоково, без сборки списка в памяти.")
+    public ResponseEntity<?> getPublicTree(
+            @PathVariable String token,
+            @RequestParam(defaultValue = "false") boolean stream) {
+        if (stream) {
+            StreamingResponseBody body = personStreamService.streamPublicTree(token);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+        }
         List<PersonDTO> persons = treeService.getPublicTree(token);
         return ResponseEntity.ok(CustomApiResponse.successData(persons));
     }
@@ -244,6 +278,61 @@ public class TreeController {
         return ResponseEntity.ok(CustomApiResponse.successData(dtos));
     }
 
+    @GetMapping("/{treeId}/media")
+    @Operation(summary = "Получить медиафайлы дерева",
+               description = "Возвращает медиафайлы всего дерева страницами, новые первыми. Следующая страница " +
+                             "запрашивается с cursor = nextCursor из предыдущего ответа (limit до " +
+                             PageCursor.MAX_LIMIT + "). Требует роль VIEWER или выше.")
+    public ResponseEntity<CustomApiResponse<CursorPageResponse<MediaFileDTO>>> getTreeMedia(
+            @PathVariable Long treeId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "" + PageCursor.DEFAULT_LIMIT) int limit) throws AccessDeniedException {
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userService.findIdByDetails(userDetails);
+        log.info("Getting media for tree {} by user {} (cursor={}, limit={})", treeId, userId, cursor, limit);
+
+        CursorPageResponse<MediaFileDTO> page = mediaFileService.getTreeMediaPage(treeId, cursor, limit, userId);
+        return ResponseEntity.ok(CustomApiResponse.successData(page));
+    }
+
+    @GetMapping("/{treeId}/export/gedcom")
+    @Operation(summary = "Экспорт дерева в GEDCOM",
+               description = "Возвращает файл GEDCOM 5.5.1 со всеми персонами и семьями дерева. Файл пишется " +
+                             "в ответ потоком по мере чтения из БД. Требует роль VIEWER или выше.")
+    public ResponseEntity<StreamingResponseBody> exportGedcom(@PathVariable Long treeId) throws AccessDeniedException {
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userService.findIdByDetails(userDetails);
+        log.info("Exporting tree {} to GEDCOM by user {}", treeId, userId);
+
+        StreamingResponseBody body = gedcomService.exportGedcom(treeId, userId);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"tree-" + treeId + ".ged\"")
+                .contentType(GEDCOM_MEDIA_TYPE)
+                .body(body);
+    }
+
+    @PostMapping(value = "/{treeId}/import/gedcom", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @Operation(summary = "Импорт GEDCOM в дерево",
+               description = "Добавляет в дерево персоны (INDI) и связи из семей (FAM) файла GEDCOM в кодировке UTF-8. " +
+                             "Файл читается потоком, записи вставляются пакетами. Записи с ошибками пропускаются " +
+                             "и перечисляются в отчёте. Требует роль EDITOR или OWNER.")
+    public ResponseEntity<CustomApiResponse<GedcomImportReportDTO>> importGedcom(
+            @PathVariable Long treeId,
+            @RequestParam("file") MultipartFile file) throws AccessDeniedException, IOException {
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Long userId = userService.findIdByDetails(userDetails);
+        if (file.isEmpty()) {
+            throw new BusinessException("Файл пуст");
+        }
+        log.info("Importing GEDCOM '{}' ({} bytes) into tree {} by user {}",
+                file.getOriginalFilename(), file.getSize(), treeId, userId);
+
+        try (InputStream in = file.getInputStream()) {
+            GedcomImportReportDTO report = gedcomImportService.importGedcom(treeId, in, userId);
+            return ResponseEntity.ok(CustomApiResponse.successData(report));
+        }
+    }
+
     @DeleteMapping("/{treeId}/relationships/{relationshipId}")
     @Operation(summary = "Удалить связь по ID",
                description = "Удаляет связь между персонами по её ID")
@@ -252,10 +341,7 @@ public class TreeController {
             @PathVariable Long relationshipId) throws AccessDeniedException {
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         Long userId = userService.findIdByDetails(userDetails);
-        if (!treeService.canEdit(treeId, userId)) {
-            throw new AccessDeniedException("Нет прав на редактирование дерева");
-        }
-        relationshipRepository.deleteById(relationshipId);
+        treeService.removeRelationshipById(treeId, relationshipId, userId);
         return ResponseEntity.ok(CustomApiResponse.successMessage("Связь удалена"));
     }
 }
\ No newline at end of file
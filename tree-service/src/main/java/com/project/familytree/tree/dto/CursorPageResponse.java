@@ -0,0 +1,45 @@
+package com.project.familytree.tree.dto;
+
+import java.util.List;
+
+/**
+ * Страница с курсорной (keyset) пагинацией: следующая страница запрашивается с {@code cursor = nextCursor}
+ */
+public class CursorPageResponse<T> {
+
+    private List<T> data;
+    private String nextCursor;
+    private boolean hasMore;
+
+    public CursorPageResponse() {}
+
+    public CursorPageResponse(List<T> data, String nextCursor, boolean hasMore) {
+        this.data = data;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    public List<T> getData() {
+        return data;
+    }
+
+    public void setData(List<T> data) {
+        this.data = data;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+}
@@ -0,0 +1,135 @@
+package com.project.familytree.tree.dto;
+
+import com.project.familytree.tree.impls.ExportFormat;
+import com.project.familytree.tree.impls.ExportStatus;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.Instant;
+
+@Schema(description = "Задача асинхронного экспорта дерева")
+public class ExportJobDTO {
+
+    @Schema(description = "ID задачи")
+    private Long id;
+
+    @Schema(description = "ID дерева")
+    private Long treeId;
+
+    @Schema(description = "Формат файла")
+    private ExportFormat format;
+
+    @Schema(description = "Статус: PENDING, RUNNING, COMPLETED, FAILED или EXPIRED (файл удалён по сроку хранения)")
+    private ExportStatus status;
+
+    @Schema(description = "Сколько персон уже записано")
+    private long processed;
+
+    @Schema(description = "Сколько персон в дереве; null, пока задача не начата")
+    private Long total;
+
+    @Schema(description = "Размер готового файла в байтах")
+    private Long fileSize;
+
+    @Schema(description = "Временная ссылка на скачивание (только для COMPLETED)")
+    private String downloadUrl;
+
+    @Schema(description = "Причина ошибки (только для FAILED)")
+    private String error;
+
+    @Schema(description = "Когда задача поставлена")
+    private Instant createdAt;
+
+    @Schema(description = "Когда задача завершена")
+    private Instant finishedAt;
+
+    public ExportJobDTO() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getTreeId() {
+        return treeId;
+    }
+
+    public void setTreeId(Long treeId) {
+        this.treeId = treeId;
+    }
+
+    public ExportFormat getFormat() {
+        return format;
+    }
+
+    public void setFormat(ExportFormat format) {
+        this.format = format;
+    }
+
+    public ExportStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(ExportStatus status) {
+        this.status = status;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(long processed) {
+        this.processed = processed;
+    }
+
+    public Long getTotal() {
+        return total;
+    }
+
+    public void setTotal(Long total) {
+        this.total = total;
+    }
+
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public String getDownloadUrl() {
+        return downloadUrl;
+    }
+
+    public void setDownloadUrl(String downloadUrl) {
+        this.downloadUrl = downloadUrl;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+}
@@ -0,0 +1,125 @@
+package com.project.familytree.tree.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Schema(description = "Результат импорта GEDCOM")
+public class GedcomImportReportDTO {
+
+    @Schema(description = "Прочитано записей уровня 0 (INDI, FAM и прочих)")
+    private long recordsRead;
+
+    @Schema(description = "Создано персон (INDI)")
+    private long personsImported;
+
+    @Schema(description = "Обработано семей (FAM)")
+    private long familiesImported;
+
+    @Schema(description = "Создано связей")
+    private long relationshipsImported;
+
+    @Schema(description = "Всего ошибок и предупреждений, включая не попавшие в список")
+    private long errorCount;
+
+    @Schema(description = "Ошибки и предупреждения по записям (не больше 100)")
+    private List<RecordError> errors = new ArrayList<>();
+
+    public GedcomImportReportDTO() {
+    }
+
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    public void setRecordsRead(long recordsRead) {
+        this.recordsRead = recordsRead;
+    }
+
+    public long getPersonsImported() {
+        return personsImported;
+    }
+
+    public void setPersonsImported(long personsImported) {
+        this.personsImported = personsImported;
+    }
+
+    public long getFamiliesImported() {
+        return familiesImported;
+    }
+
+    public void setFamiliesImported(long familiesImported) {
+        this.familiesImported = familiesImported;
+    }
+
+    public long getRelationshipsImported() {
+        return relationshipsImported;
+    }
+
+    public void setRelationshipsImported(long relationshipsImported) {
+        this.relationshipsImported = relationshipsImported;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public void setErrorCount(long errorCount) {
+        this.errorCount = errorCount;
+    }
+
+    public List<RecordError> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<RecordError> errors) {
+        this.errors = errors;
+    }
+
+    @Schema(description = "Ошибка или предупреждение по записи GEDCOM")
+    public static class RecordError {
+
+        @Schema(description = "Номер строки начала записи")
+        private int line;
+
+        @Schema(description = "Идентификатор записи в файле, например @I12@")
+        private String xref;
+
+        @Schema(description = "Описание проблемы")
+        private String message;
+
+        public RecordError() {
+        }
+
+        public RecordError(int line, String xref, String message) {
+            this.line = line;
+            this.xref = xref;
+            this.message = message;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public void setLine(int line) {
+            this.line = line;
+        }
+
+        public String getXref() {
+            return xref;
+        }
+
+        public void setXref(String xref) {
+            this.xref = xref;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public void setMessage(String message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.project.familytree.tree.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "Степень родства между двумя персонами и кратчайший путь по связям")
+public class KinshipDTO {
+
+    @Schema(description = "ID персоны, от которой считается родство")
+    private Long fromPersonId;
+
+    @Schema(description = "ID персоны, для которой определяется родство")
+    private Long toPersonId;
+
+    @Schema(description = "Найден ли путь между персонами")
+    private boolean related;
+
+    @Schema(description = "Название родства: кем персона to приходится персоне from (например, «троюродная сестра»)")
+    private String name;
+
+    @Schema(description = "Кровное родство (путь без партнёрских связей)")
+    private boolean blood;
+
+    @Schema(description = "Для кровного родства: сколько поколений вверх до общего предка")
+    private Integer generationsUp;
+
+    @Schema(description = "Для кровного родства: сколько поколений вниз от общего предка")
+    private Integer generationsDown;
+
+    @Schema(description = "Кратчайший путь: первая персона — from, последняя — to")
+    private List<Step> path;
+
+    /** Шаг пути между персонами */
+    public static class Step {
+
+        @Schema(description = "ID персоны")
+        private Long personId;
+
+        @Schema(description = "Полное имя персоны")
+        private String fullName;
+
+        @Schema(description = "Кем персона приходится предыдущей в пути: PARENT, CHILD или PARTNER (null для первой)")
+        private String relation;
+
+        public Step() {
+        }
+
+        public Step(Long personId, String fullName, String relation) {
+            this.personId = personId;
+            this.fullName = fullName;
+            this.relation = relation;
+        }
+
+        public Long getPersonId() {
+            return personId;
+        }
+
+        public void setPersonId(Long personId) {
+            this.personId = personId;
+        }
+
+        public String getFullName() {
+            return fullName;
+        }
+
+        public void setFullName(String fullName) {
+            this.fullName = fullName;
+        }
+
+        public String getRelation() {
+            return relation;
+        }
+
+        public void setRelation(String relation) {
+            this.relation = relation;
+        }
+    }
+
+    public KinshipDTO() {
+    }
+
+    public KinshipDTO(Long fromPersonId, Long toPersonId, boolean related, String name, boolean blood,
+                      Integer generationsUp, Integer generationsDown, List<Step> path) {
+        this.fromPersonId = fromPersonId;
+        this.toPersonId = toPersonId;
+        this.related = related;
+        this.name = name;
+        this.blood = blood;
+        this.generationsUp = generationsUp;
+        this.generationsDown = generationsDown;
+        this.path = path;
+    }
+
+    public Long getFromPersonId() {
+        return fromPersonId;
+    }
+
+    public void setFromPersonId(Long fromPersonId) {
+        this.fromPersonId = fromPersonId;
+    }
+
+    public Long getToPersonId() {
+        return toPersonId;
+    }
+
+    public void setToPersonId(Long toPersonId) {
+        this.toPersonId = toPersonId;
+    }
+
+    public boolean isRelated() {
+        return related;
+    }
+
+    public void setRelated(boolean related) {
+        this.related = related;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public boolean isBlood() {
+        return blood;
+    }
+
+    public void setBlood(boolean blood) {
+        this.blood = blood;
+    }
+
+    public Integer getGenerationsUp() {
+        return generationsUp;
+    }
+
+    public void setGenerationsUp(Integer generationsUp) {
+        this.generationsUp = generationsUp;
+    }
+
+    public Integer getGenerationsDown() {
+        return generationsDown;
+    }
+
+    public void setGenerationsDown(Integer generationsDown) {
+        this.generationsDown = generationsDown;
+    }
+
+    public List<Step> getPath() {
+        return path;
+    }
+
+    public void setPath(List<Step> path) {
+        this.path = path;
+    }
+}
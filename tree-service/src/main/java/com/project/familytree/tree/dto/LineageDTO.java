@@ -0,0 +1,63 @@
+package com.project.familytree.tree.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "Предки или потомки персоны до заданной глубины")
+public class LineageDTO {
+
+    @Schema(description = "ID исходной персоны")
+    private Long rootPersonId;
+
+    @Schema(description = "Направление обхода: ANCESTORS или DESCENDANTS")
+    private String direction;
+
+    @Schema(description = "Запрошенная глубина (число поколений)")
+    private int depth;
+
+    @Schema(description = "Найденные персоны, упорядоченные по поколению")
+    private List<LineageNodeDTO> nodes;
+
+    public LineageDTO() {
+    }
+
+    public LineageDTO(Long rootPersonId, String direction, int depth, List<LineageNodeDTO> nodes) {
+        this.rootPersonId = rootPersonId;
+        this.direction = direction;
+        this.depth = depth;
+        this.nodes = nodes;
+    }
+
+    public Long getRootPersonId() {
+        return rootPersonId;
+    }
+
+    public void setRootPersonId(Long rootPersonId) {
+        this.rootPersonId = rootPersonId;
+    }
+
+    public String getDirection() {
+        return direction;
+    }
+
+    public void setDirection(String direction) {
+        this.direction = direction;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public List<LineageNodeDTO> getNodes() {
+        return nodes;
+    }
+
+    public void setNodes(List<LineageNodeDTO> nodes) {
+        this.nodes = nodes;
+    }
+}
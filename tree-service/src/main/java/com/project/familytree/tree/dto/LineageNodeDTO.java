@@ -0,0 +1,128 @@
+package com.project.familytree.tree.dto;
+
+import com.project.familytree.tree.impls.Gender;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Schema(description = "Персона в выборке предков или потомков")
+public class LineageNodeDTO {
+
+    @Schema(description = "ID персоны")
+    private Long personId;
+
+    @Schema(description = "Имя")
+    private String firstName;
+
+    @Schema(description = "Фамилия")
+    private String lastName;
+
+    @Schema(description = "Отчество")
+    private String middleName;
+
+    @Schema(description = "Пол")
+    private Gender gender;
+
+    @Schema(description = "Дата рождения")
+    private LocalDate birthDate;
+
+    @Schema(description = "Дата смерти")
+    private LocalDate deathDate;
+
+    @Schema(description = "Номер поколения относительно исходной персоны (0 — сама персона, 1 — родители или дети и т.д.)")
+    private int generation;
+
+    @Schema(description = "ID персон выборки, через которые найдена эта персона " +
+                          "(для предков — её дети, для потомков — её родители)")
+    private List<Long> linkedPersonIds;
+
+    public LineageNodeDTO() {
+    }
+
+    public LineageNodeDTO(Long personId, String firstName, String lastName, String middleName,
+                          Gender gender, LocalDate birthDate, LocalDate deathDate,
+                          int generation, List<Long> linkedPersonIds) {
+        this.personId = personId;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.middleName = middleName;
+        this.gender = gender;
+        this.birthDate = birthDate;
+        this.deathDate = deathDate;
+        this.generation = generation;
+        this.linkedPersonIds = linkedPersonIds;
+    }
+
+    public Long getPersonId() {
+        return personId;
+    }
+
+    public void setPersonId(Long personId) {
+        this.personId = personId;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public void setFirstName(String firstName) {
+        this.firstName = firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public void setLastName(String lastName) {
+        this.lastName = lastName;
+    }
+
+    public String getMiddleName() {
+        return middleName;
+    }
+
+    public void setMiddleName(String middleName) {
+        this.middleName = middleName;
+    }
+
+    public Gender getGender() {
+        return gender;
+    }
+
+    public void setGender(Gender gender) {
+        this.gender = gender;
+    }
+
+    public LocalDate getBirthDate() {
+        return birthDate;
+    }
+
+    public void setBirthDate(LocalDate birthDate) {
+        this.birthDate = birthDate;
+    }
+
+    public LocalDate getDeathDate() {
+        return deathDate;
+    }
+
+    public void setDeathDate(LocalDate deathDate) {
+        this.deathDate = deathDate;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(int generation) {
+        this.generation = generation;
+    }
+
+    public List<Long> getLinkedPersonIds() {
+        return linkedPersonIds;
+    }
+
+    public void setLinkedPersonIds(List<Long> linkedPersonIds) {
+        this.linkedPersonIds = linkedPersonIds;
+    }
+}
@@ -4,6 +4,7 @@ import com.project.familytree.tree.impls.MediaFileType;
 import io.swagger.v3.oas.annotations.media.Schema;
 
 import java.time.Instant;
+import java.util.Map;
 
 @Schema(description = "Медиафайл персоны")
 public class MediaFileDTO {
@@ -38,6 +39,10 @@ public class MediaFileDTO {
     @Schema(description = "Presigned URL для скачивания файла (временный, действует 60 минут)")
     private String url;
 
+    @Schema(description = "Presigned URL уменьшенных копий изображения: сторона в px → URL. " +
+                          "null, пока копии не построены, и для файлов других типов")
+    private Map<Integer, String> thumbnailUrls;
+
     public MediaFileDTO() {
     }
 
@@ -85,4 +90,7 @@ public class MediaFileDTO {
 
     public String getUrl() { return url; }
     public void setUrl(String url) { this.url = url; }
+
+    public Map<Integer, String> getThumbnailUrls() { return thumbnailUrls; }
+    public void setThumbnailUrls(Map<Integer, String> thumbnailUrls) { this.thumbnailUrls = thumbnailUrls; }
 }
@@ -0,0 +1,29 @@
+package com.project.familytree.tree.dto;
+
+import com.project.familytree.tree.impls.MediaFileType;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.List;
+
+@Schema(description = "Подтверждение прямой загрузки медиафайла")
+public record MediaUploadConfirmRequest(
+        @Schema(description = "Ключ объекта, выданный при запросе загрузки", example = "trees/1/media/3f2b1c9e-....jpg")
+        @NotBlank
+        String s3Key,
+
+        @Schema(description = "Оригинальное имя файла", example = "photo.jpg")
+        @NotBlank
+        String fileName,
+
+        @Schema(description = "Тип файла: IMAGE, DOCUMENT, VIDEO, AUDIO", example = "IMAGE")
+        @NotNull
+        MediaFileType fileType,
+
+        @Schema(description = "Описание файла")
+        String description,
+
+        @Schema(description = "ETag загруженных частей в порядке их номеров (только для multipart-загрузки)")
+        List<String> eTags
+) {}
@@ -0,0 +1,91 @@
+package com.project.familytree.tree.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.Instant;
+import java.util.List;
+
+@Schema(description = "Ссылки для прямой загрузки медиафайла в хранилище")
+public class MediaUploadDTO {
+
+    @Schema(description = "Ключ объекта; передаётся обратно при подтверждении загрузки")
+    private String s3Key;
+
+    @Schema(description = "MIME-тип, который нужно передать в заголовке Content-Type при загрузке")
+    private String contentType;
+
+    @Schema(description = "Presigned PUT URL для загрузки файла целиком (null для загрузки частями)")
+    private String uploadUrl;
+
+    @Schema(description = "ID multipart-загрузки (null для загрузки одним запросом)")
+    private String uploadId;
+
+    @Schema(description = "Presigned PUT URL частей по порядку: часть N загружается по элементу N-1, " +
+                          "её ETag из ответа передаётся при подтверждении")
+    private List<String> partUrls;
+
+    @Schema(description = "Размер части в байтах; последняя часть может быть меньше")
+    private Long partSize;
+
+    @Schema(description = "Момент истечения ссылок")
+    private Instant expiresAt;
+
+    public MediaUploadDTO() {
+    }
+
+    public String getS3Key() {
+        return s3Key;
+    }
+
+    public void setS3Key(String s3Key) {
+        this.s3Key = s3Key;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getUploadUrl() {
+        return uploadUrl;
+    }
+
+    public void setUploadUrl(String uploadUrl) {
+        this.uploadUrl = uploadUrl;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public List<String> getPartUrls() {
+        return partUrls;
+    }
+
+    public void setPartUrls(List<String> partUrls) {
+        this.partUrls = partUrls;
+    }
+
+    public Long getPartSize() {
+        return partSize;
+    }
+
+    public void setPartSize(Long partSize) {
+        this.partSize = partSize;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Instant expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
@@ -0,0 +1,19 @@
+package com.project.familytree.tree.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Positive;
+
+@Schema(description = "Запрос на прямую загрузку медиафайла в хранилище")
+public record MediaUploadRequest(
+        @Schema(description = "Оригинальное имя файла; по расширению проверяется допустимость типа", example = "photo.jpg")
+        @NotBlank
+        String fileName,
+
+        @Schema(description = "Точный размер файла в байтах", example = "2048000")
+        @Positive
+        long fileSize,
+
+        @Schema(description = "MIME-тип файла; для известных расширений определяется сервером", example = "image/jpeg")
+        String contentType
+) {}
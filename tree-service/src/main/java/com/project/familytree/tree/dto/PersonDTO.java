@@ -5,6 +5,7 @@ import io.swagger.v3.oas.annotations.media.Schema;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 
 public class PersonDTO {
 
@@ -44,6 +45,9 @@ public class PersonDTO {
     @Schema(description = "URL аватара персоны")
     private String avatarUrl;
 
+    @Schema(description = "URL уменьшенных копий аватара: сторона в px → URL. null, пока копии не построены")
+    private Map<Integer, String> avatarThumbnailUrls;
+
     @Schema(description = "Пол")
     private Gender gender;
 
@@ -185,6 +189,14 @@ public class PersonDTO {
         this.avatarUrl = avatarUrl;
     }
 
+    public Map<Integer, String> getAvatarThumbnailUrls() {
+        return avatarThumbnailUrls;
+    }
+
+    public void setAvatarThumbnailUrls(Map<Integer, String> avatarThumbnailUrls) {
+        this.avatarThumbnailUrls = avatarThumbnailUrls;
+    }
+
     public Gender getGender() {
         return gender;
     }
@@ -0,0 +1,76 @@
+package com.project.familytree.tree.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.Map;
+
+@Schema(description = "Фасеты поиска персон: число найденных персон по значениям фильтров")
+public class PersonSearchFacetsDTO {
+
+    @Schema(description = "По полу (MALE / FEMALE / OTHER)")
+    private Map<String, Long> gender;
+
+    @Schema(description = "По десятилетию рождения (1950 — родившиеся в 1950–1959); без даты рождения не учитываются")
+    private Map<Integer, Long> birthDecade;
+
+    @Schema(description = "По месту рождения — самые частые места, по убыванию")
+    private Map<String, Long> birthPlace;
+
+    @Schema(description = "Сколько найденных персон имеют медиафайлы")
+    private long withMedia;
+
+    @Schema(description = "Сколько найденных персон без медиафайлов")
+    private long withoutMedia;
+
+    public PersonSearchFacetsDTO() {
+    }
+
+    public PersonSearchFacetsDTO(Map<String, Long> gender, Map<Integer, Long> birthDecade,
+                                 Map<String, Long> birthPlace, long withMedia, long withoutMedia) {
+        this.gender = gender;
+        this.birthDecade = birthDecade;
+        this.birthPlace = birthPlace;
+        this.withMedia = withMedia;
+        this.withoutMedia = withoutMedia;
+    }
+
+    public Map<String, Long> getGender() {
+        return gender;
+    }
+
+    public void setGender(Map<String, Long> gender) {
+        this.gender = gender;
+    }
+
+    public Map<Integer, Long> getBirthDecade() {
+        return birthDecade;
+    }
+
+    public void setBirthDecade(Map<Integer, Long> birthDecade) {
+        this.birthDecade = birthDecade;
+    }
+
+    public Map<String, Long> getBirthPlace() {
+        return birthPlace;
+    }
+
+    public void setBirthPlace(Map<String, Long> birthPlace) {
+        this.birthPlace = birthPlace;
+    }
+
+    public long getWithMedia() {
+        return withMedia;
+    }
+
+    public void setWithMedia(long withMedia) {
+        this.withMedia = withMedia;
+    }
+
+    public long getWithoutMedia() {
+        return withoutMedia;
+    }
+
+    public void setWithoutMedia(long withoutMedia) {
+        this.withoutMedia = withoutMedia;
+    }
+}
@@ -0,0 +1,45 @@
+package com.project.familytree.tree.dto;
+
+import java.util.List;
+
+/**
+ * Страница результатов поиска персон вместе с общим числом найденных и фасетами
+ */
+public class PersonSearchResponse {
+
+    private List<PersonDTO> data;
+    private long totalCount;
+    private PersonSearchFacetsDTO facets;
+
+    public PersonSearchResponse() {}
+
+    public PersonSearchResponse(List<PersonDTO> data, long totalCount, PersonSearchFacetsDTO facets) {
+        this.data = data;
+        this.totalCount = totalCount;
+        this.facets = facets;
+    }
+
+    public List<PersonDTO> getData() {
+        return data;
+    }
+
+    public void setData(List<PersonDTO> data) {
+        this.data = data;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public void setTotalCount(long totalCount) {
+        this.totalCount = totalCount;
+    }
+
+    public PersonSearchFacetsDTO getFacets() {
+        return facets;
+    }
+
+    public void setFacets(PersonSearchFacetsDTO facets) {
+        this.facets = facets;
+    }
+}
@@ -0,0 +1,49 @@
+package com.project.familytree.tree.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Подсказка персоны для автодополнения")
+public class PersonSuggestionDTO {
+
+    @Schema(description = "ID персоны")
+    private Long id;
+
+    @Schema(description = "Фамилия, имя и отчество")
+    private String fullName;
+
+    @Schema(description = "Год рождения", nullable = true)
+    private Integer birthYear;
+
+    public PersonSuggestionDTO() {
+    }
+
+    public PersonSuggestionDTO(Long id, String fullName, Integer birthYear) {
+        this.id = id;
+        this.fullName = fullName;
+        this.birthYear = birthYear;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getFullName() {
+        return fullName;
+    }
+
+    public void setFullName(String fullName) {
+        this.fullName = fullName;
+    }
+
+    public Integer getBirthYear() {
+        return birthYear;
+    }
+
+    public void setBirthYear(Integer birthYear) {
+        this.birthYear = birthYear;
+    }
+}
@@ -0,0 +1,146 @@
+package com.project.familytree.tree.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "Фрагмент графа дерева вокруг выбранной персоны")
+public class SubgraphDTO {
+
+    @Schema(description = "ID персоны, вокруг которой построен фрагмент")
+    private Long focusPersonId;
+
+    @Schema(description = "Сколько поколений предков включено")
+    private int up;
+
+    @Schema(description = "Сколько поколений потомков включено")
+    private int down;
+
+    @Schema(description = "Сколько боковых шагов разрешено (партнёры, братья/сёстры, дяди/тёти и т.п.)")
+    private int lateral;
+
+    @Schema(description = "Персоны фрагмента; в связях — только связи между персонами фрагмента")
+    private List<PersonDTO> persons;
+
+    @Schema(description = "Персоны на границе фрагмента, у которых есть не попавшие в него связи")
+    private List<FrontierStub> frontier;
+
+    /** Заглушка «есть ещё» для персоны на границе фрагмента */
+    public static class FrontierStub {
+
+        @Schema(description = "ID персоны")
+        private Long personId;
+
+        @Schema(description = "Количество скрытых родителей")
+        private int hiddenParents;
+
+        @Schema(description = "Количество скрытых детей")
+        private int hiddenChildren;
+
+        @Schema(description = "Количество скрытых партнёров")
+        private int hiddenPartners;
+
+        public FrontierStub() {
+        }
+
+        public FrontierStub(Long personId, int hiddenParents, int hiddenChildren, int hiddenPartners) {
+            this.personId = personId;
+            this.hiddenParents = hiddenParents;
+            this.hiddenChildren = hiddenChildren;
+            this.hiddenPartners = hiddenPartners;
+        }
+
+        public Long getPersonId() {
+            return personId;
+        }
+
+        public void setPersonId(Long personId) {
+            this.personId = personId;
+        }
+
+        public int getHiddenParents() {
+            return hiddenParents;
+        }
+
+        public void setHiddenParents(int hiddenParents) {
+            this.hiddenParents = hiddenParents;
+        }
+
+        public int getHiddenChildren() {
+            return hiddenChildren;
+        }
+
+        public void setHiddenChildren(int hiddenChildren) {
+            this.hiddenChildren = hiddenChildren;
+        }
+
+        public int getHiddenPartners() {
+            return hiddenPartners;
+        }
+
+        public void setHiddenPartners(int hiddenPartners) {
+            this.hiddenPartners = hiddenPartners;
+        }
+    }
+
+    public SubgraphDTO() {
+    }
+
+    public SubgraphDTO(Long focusPersonId, int up, int down, int lateral,
+                       List<PersonDTO> persons, List<FrontierStub> frontier) {
+        this.focusPersonId = focusPersonId;
+        this.up = up;
+        this.down = down;
+        this.lateral = lateral;
+        this.persons = persons;
+        this.frontier = frontier;
+    }
+
+    public Long getFocusPersonId() {
+        return focusPersonId;
+    }
+
+    public void setFocusPersonId(Long focusPersonId) {
+        this.focusPersonId = focusPersonId;
+    }
+
+    public int getUp() {
+        return up;
+    }
+
+    public void setUp(int up) {
+        this.up = up;
+    }
+
+    public int getDown() {
+        return down;
+    }
+
+    public void setDown(int down) {
+        this.down = down;
+    }
+
+    public int getLateral() {
+        return lateral;
+    }
+
+    public void setLateral(int lateral) {
+        this.lateral = lateral;
+    }
+
+    public List<PersonDTO> getPersons() {
+        return persons;
+    }
+
+    public void setPersons(List<PersonDTO> persons) {
+        this.persons = persons;
+    }
+
+    public List<FrontierStub> getFrontier() {
+        return frontier;
+    }
+
+    public void setFrontier(List<FrontierStub> frontier) {
+        this.frontier = frontier;
+    }
+}
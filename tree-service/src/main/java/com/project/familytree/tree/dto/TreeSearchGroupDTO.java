@@ -0,0 +1,64 @@
+package com.project.familytree.tree.dto;
+
+import com.project.familytree.tree.impls.TreeRole;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "Найденные персоны одного дерева в глобальном поиске")
+public class TreeSearchGroupDTO {
+
+    @Schema(description = "ID дерева")
+    private Long treeId;
+
+    @Schema(description = "Название дерева")
+    private String treeName;
+
+    @Schema(description = "Роль текущего пользователя в дереве")
+    private TreeRole role;
+
+    @Schema(description = "Найденные персоны, самые релевантные первыми")
+    private List<PersonDTO> persons;
+
+    public TreeSearchGroupDTO() {
+    }
+
+    public TreeSearchGroupDTO(Long treeId, String treeName, TreeRole role, List<PersonDTO> persons) {
+        this.treeId = treeId;
+        this.treeName = treeName;
+        this.role = role;
+        this.persons = persons;
+    }
+
+    public Long getTreeId() {
+        return treeId;
+    }
+
+    public void setTreeId(Long treeId) {
+        this.treeId = treeId;
+    }
+
+    public String getTreeName() {
+        return treeName;
+    }
+
+    public void setTreeName(String treeName) {
+        this.treeName = treeName;
+    }
+
+    public TreeRole getRole() {
+        return role;
+    }
+
+    public void setRole(TreeRole role) {
+        this.role = role;
+    }
+
+    public List<PersonDTO> getPersons() {
+        return persons;
+    }
+
+    public void setPersons(List<PersonDTO> persons) {
+        this.persons = persons;
+    }
+}
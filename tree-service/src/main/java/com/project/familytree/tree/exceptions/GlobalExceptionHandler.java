@@ -14,6 +14,7 @@ import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import java.nio.file.AccessDeniedException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Глобальный обработчик исключений для tree-service.
@@ -79,6 +80,16 @@ public class GlobalExceptionHandler {
                 .body(CustomApiResponse.error(ex.getMessage()));
     }
 
+    /**
+     * 503 — Очередь загрузок в хранилище заполнена
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<CustomApiResponse<Void>> handleRejected(RejectedExecutionException ex) {
+        log.warn("Rejected: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(CustomApiResponse.error("Сервер перегружен, повторите попытку позже"));
+    }
+
     /**
      * 500 — Непредвиденная ошибка
      */
@@ -0,0 +1,6 @@
+package com.project.familytree.tree.impls;
+
+public enum ExportFormat {
+    GEDCOM,
+    JSON
+}
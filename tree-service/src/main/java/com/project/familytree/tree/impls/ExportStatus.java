@@ -0,0 +1,9 @@
+package com.project.familytree.tree.impls;
+
+public enum ExportStatus {
+    PENDING,
+    RUNNING,
+    COMPLETED,
+    FAILED,
+    EXPIRED
+}
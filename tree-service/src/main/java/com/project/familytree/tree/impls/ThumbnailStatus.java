@@ -0,0 +1,8 @@
+package com.project.familytree.tree.impls;
+
+public enum ThumbnailStatus {
+    PENDING,
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
@@ -0,0 +1,13 @@
+package com.project.familytree.tree.models;
+
+import java.time.Instant;
+
+/**
+ * Строка таблицы фоновых задач: время последнего изменения служит пульсом воркера.
+ */
+public interface BackgroundJob {
+
+    Long getId();
+
+    void setUpdatedAt(Instant updatedAt);
+}
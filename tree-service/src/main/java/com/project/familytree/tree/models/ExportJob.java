@@ -0,0 +1,202 @@
+package com.project.familytree.tree.models;
+
+import com.project.familytree.tree.impls.ExportFormat;
+import com.project.familytree.tree.impls.ExportStatus;
+import jakarta.persistence.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.Instant;
+
+/**
+ * Задача асинхронного экспорта дерева. Результат хранится в S3, строка таблицы — состояние задачи
+ * между перезапусками сервиса.
+ */
+@Entity
+@Table(name = "export_jobs")
+public class ExportJob implements BackgroundJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "tree_id", nullable = false)
+    private Long treeId;
+
+    @Column(name = "requested_by", nullable = false)
+    private Long requestedBy;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "format", nullable = false, length = 20)
+    private ExportFormat format;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private ExportStatus status;
+
+    /** Отпечаток данных дерева на момент постановки задачи — по нему дедуплицируются повторные запросы */
+    @Column(name = "tree_version", nullable = false, length = 100)
+    private String treeVersion;
+
+    /** Сколько персон уже записано */
+    @Column(name = "processed", nullable = false)
+    private long processed;
+
+    /** Сколько персон в дереве на момент старта */
+    @Column(name = "total")
+    private Long total;
+
+    @Column(name = "s3_key", length = 512)
+    private String s3Key;
+
+    @Column(name = "file_size")
+    private Long fileSize;
+
+    @Column(name = "error", columnDefinition = "TEXT")
+    private String error;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @CreationTimestamp
+    @Column(name = "created_at")
+    private Instant createdAt;
+
+    /** Момент последнего изменения; у выполняющейся задачи — пульс воркера */
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
+    @Column(name = "finished_at")
+    private Instant finishedAt;
+
+    public ExportJob() {
+    }
+
+    public ExportJob(Long treeId, Long requestedBy, ExportFormat format, String treeVersion) {
+        this.treeId = treeId;
+        this.requestedBy = requestedBy;
+        this.format = format;
+        this.treeVersion = treeVersion;
+        this.status = ExportStatus.PENDING;
+        this.updatedAt = Instant.now();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getTreeId() {
+        return treeId;
+    }
+
+    public void setTreeId(Long treeId) {
+        this.treeId = treeId;
+    }
+
+    public Long getRequestedBy() {
+        return requestedBy;
+    }
+
+    public void setRequestedBy(Long requestedBy) {
+        this.requestedBy = requestedBy;
+    }
+
+    public ExportFormat getFormat() {
+        return format;
+    }
+
+    public void setFormat(ExportFormat format) {
+        this.format = format;
+    }
+
+    public ExportStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(ExportStatus status) {
+        this.status = status;
+    }
+
+    public String getTreeVersion() {
+        return treeVersion;
+    }
+
+    public void setTreeVersion(String treeVersion) {
+        this.treeVersion = treeVersion;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(long processed) {
+        this.processed = processed;
+    }
+
+    public Long getTotal() {
+        return total;
+    }
+
+    public void setTotal(Long total) {
+        this.total = total;
+    }
+
+    public String getS3Key() {
+        return s3Key;
+    }
+
+    public void setS3Key(String s3Key) {
+        this.s3Key = s3Key;
+    }
+
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+}
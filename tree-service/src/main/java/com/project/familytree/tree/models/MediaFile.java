@@ -39,6 +39,10 @@ public class MediaFile {
     @Column(name = "description", columnDefinition = "TEXT")
     private String description;
 
+    /** Уменьшенные копии изображения построены, см. ThumbnailService */
+    @Column(name = "thumbnails_ready", nullable = false)
+    private boolean thumbnailsReady;
+
     @CreationTimestamp
     @Column(name = "uploaded_at")
     private Instant uploadedAt;
@@ -141,4 +145,12 @@ public class MediaFile {
     public void setUploadedBy(User uploadedBy) {
         this.uploadedBy = uploadedBy;
     }
+
+    public boolean isThumbnailsReady() {
+        return thumbnailsReady;
+    }
+
+    public void setThumbnailsReady(boolean thumbnailsReady) {
+        this.thumbnailsReady = thumbnailsReady;
+    }
 }
@@ -0,0 +1,108 @@
+package com.project.familytree.tree.models;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.Instant;
+
+/**
+ * Выданная, но ещё не подтверждённая прямая загрузка в S3. Подтвердить её может только
+ * пользователь, которому выдан ключ; неподтверждённые загрузки удаляются после истечения срока.
+ */
+@Entity
+@Table(name = "pending_uploads")
+public class PendingUpload {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "s3_key", nullable = false, unique = true, length = 512)
+    private String s3Key;
+
+    /** ID multipart-загрузки (null для одного PUT) */
+    @Column(name = "upload_id", length = 1024)
+    private String uploadId;
+
+    /** Дерево без внешнего ключа: запись должна пережить удаление дерева, чтобы объект был удалён */
+    @Column(name = "tree_id", nullable = false)
+    private Long treeId;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    /** Момент истечения presigned URL */
+    @Column(name = "expires_at", nullable = false)
+    private Instant expiresAt;
+
+    @CreationTimestamp
+    @Column(name = "created_at")
+    private Instant createdAt;
+
+    public PendingUpload() {
+    }
+
+    public PendingUpload(String s3Key, String uploadId, Long treeId, Long userId, Instant expiresAt) {
+        this.s3Key = s3Key;
+        this.uploadId = uploadId;
+        this.treeId = treeId;
+        this.userId = userId;
+        this.expiresAt = expiresAt;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getS3Key() {
+        return s3Key;
+    }
+
+    public void setS3Key(String s3Key) {
+        this.s3Key = s3Key;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public Long getTreeId() {
+        return treeId;
+    }
+
+    public void setTreeId(Long treeId) {
+        this.treeId = treeId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Instant expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
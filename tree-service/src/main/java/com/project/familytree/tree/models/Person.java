@@ -54,6 +54,14 @@ public class Person {
     @Column(name = "avatar_url")
     private String avatarUrl;
 
+    /** Уменьшенные копии аватара построены, см. ThumbnailService */
+    @Column(name = "avatar_thumbnails_ready", nullable = false)
+    private boolean avatarThumbnailsReady;
+
+    /** Фонетический ключ имени (см. PhoneticKey) — для нечёткого поиска */
+    @Column(name = "phonetic_key", columnDefinition = "TEXT")
+    private String phoneticKey;
+
     @NotNull
     @Enumerated(EnumType.STRING)
     @Column(nullable = false, length = 10)
@@ -174,6 +182,22 @@ public class Person {
         this.avatarUrl = avatarUrl;
     }
 
+    public boolean isAvatarThumbnailsReady() {
+        return avatarThumbnailsReady;
+    }
+
+    public void setAvatarThumbnailsReady(boolean avatarThumbnailsReady) {
+        this.avatarThumbnailsReady = avatarThumbnailsReady;
+    }
+
+    public String getPhoneticKey() {
+        return phoneticKey;
+    }
+
+    public void setPhoneticKey(String phoneticKey) {
+        this.phoneticKey = phoneticKey;
+    }
+
     public Gender getGender() {
         return gender;
     }
@@ -0,0 +1,133 @@
+package com.project.familytree.tree.models;
+
+import com.project.familytree.tree.impls.ThumbnailStatus;
+import jakarta.persistence.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.Instant;
+
+/**
+ * Задача генерации уменьшенных копий изображения — медиафайла или аватара персоны.
+ * Строка таблицы хранит очередь между перезапусками сервиса.
+ */
+@Entity
+@Table(name = "thumbnail_jobs")
+public class ThumbnailJob implements BackgroundJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /** Ключ исходного изображения в S3 */
+    @Column(name = "source_key", nullable = false, length = 512)
+    private String sourceKey;
+
+    /** Медиафайл, для которого строятся копии (null для аватара) */
+    @Column(name = "media_file_id")
+    private Long mediaFileId;
+
+    /** Персона, для аватара которой строятся копии (null для медиафайла) */
+    @Column(name = "person_id")
+    private Long personId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private ThumbnailStatus status;
+
+    @Column(name = "error", columnDefinition = "TEXT")
+    private String error;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @CreationTimestamp
+    @Column(name = "created_at")
+    private Instant createdAt;
+
+    /** Момент последнего изменения; у выполняющейся задачи — момент захвата воркером */
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
+    public ThumbnailJob() {
+    }
+
+    public ThumbnailJob(String sourceKey, Long mediaFileId, Long personId) {
+        this.sourceKey = sourceKey;
+        this.mediaFileId = mediaFileId;
+        this.personId = personId;
+        this.status = ThumbnailStatus.PENDING;
+        this.updatedAt = Instant.now();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getSourceKey() {
+        return sourceKey;
+    }
+
+    public void setSourceKey(String sourceKey) {
+        this.sourceKey = sourceKey;
+    }
+
+    public Long getMediaFileId() {
+        return mediaFileId;
+    }
+
+    public void setMediaFileId(Long mediaFileId) {
+        this.mediaFileId = mediaFileId;
+    }
+
+    public Long getPersonId() {
+        return personId;
+    }
+
+    public void setPersonId(Long personId) {
+        this.personId = personId;
+    }
+
+    public ThumbnailStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(ThumbnailStatus status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,80 @@
+package com.project.familytree.tree.repositories;
+
+import com.project.familytree.tree.impls.ExportFormat;
+import com.project.familytree.tree.impls.ExportStatus;
+import com.project.familytree.tree.models.ExportJob;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ExportJobRepository extends JobRepository<ExportJob> {
+
+    /**
+     * Последняя задача экспорта того же состояния дерева в одном из статусов — для дедупликации
+     */
+    Optional<ExportJob> findFirstByTreeIdAndFormatAndTreeVersionAndStatusInOrderByIdDesc(
+            Long treeId, ExportFormat format, String treeVersion, Collection<ExportStatus> statuses);
+
+    /**
+     * Захватить задачу: PENDING → RUNNING. 0 — задачу уже взял другой воркер.
+     */
+    @Modifying
+    @Query("UPDATE ExportJob j SET j.status = com.project.familytree.tree.impls.ExportStatus.RUNNING, " +
+           "j.attempts = j.attempts + 1, j.processed = 0, j.updatedAt = :now " +
+           "WHERE j.id = :id AND j.status = com.project.familytree.tree.impls.ExportStatus.PENDING")
+    int claim(@Param("id") Long id, @Param("now") Instant now);
+
+    /**
+     * Прогресс выполняющейся задачи; заодно обновляет пульс воркера
+     */
+    @Modifying
+    @Query("UPDATE ExportJob j SET j.processed = :processed, j.updatedAt = :now " +
+           "WHERE j.id = :id AND j.status = com.project.familytree.tree.impls.ExportStatus.RUNNING")
+    int updateProgress(@Param("id") Long id, @Param("processed") long processed, @Param("now") Instant now);
+
+    /**
+     * Вернуть в очередь задачи, воркер которых перестал обновлять пульс (узел упал или перезапущен)
+     */
+    @Modifying
+    @Query("UPDATE ExportJob j SET j.status = com.project.familytree.tree.impls.ExportStatus.PENDING, j.updatedAt = :now " +
+           "WHERE j.status = com.project.familytree.tree.impls.ExportStatus.RUNNING " +
+           "AND j.updatedAt < :staleBefore AND j.attempts < :maxAttempts")
+    int requeueStale(@Param("staleBefore") Instant staleBefore, @Param("maxAttempts") int maxAttempts,
+                     @Param("now") Instant now);
+
+    /**
+     * Завершить с ошибкой зависшие задачи, исчерпавшие попытки
+     */
+    @Modifying
+    @Query("UPDATE ExportJob j SET j.status = com.project.familytree.tree.impls.ExportStatus.FAILED, " +
+           "j.error = 'Превышено число попыток', j.updatedAt = :now, j.finishedAt = :now " +
+           "WHERE j.status = com.project.familytree.tree.impls.ExportStatus.RUNNING " +
+           "AND j.updatedAt < :staleBefore AND j.attempts >= :maxAttempts")
+    int failStale(@Param("staleBefore") Instant staleBefore, @Param("maxAttempts") int maxAttempts,
+                  @Param("now") Instant now);
+
+    @Query("SELECT j.id FROM ExportJob j WHERE j.status = com.project.familytree.tree.impls.ExportStatus.PENDING " +
+           "ORDER BY j.id")
+    List<Long> findPendingIds();
+
+    /**
+     * Готовые результаты старше срока хранения — их файлы удаляются из S3
+     */
+    @Query("SELECT j FROM ExportJob j WHERE j.status = com.project.familytree.tree.impls.ExportStatus.COMPLETED " +
+           "AND j.finishedAt < :finishedBefore")
+    List<ExportJob> findCompletedBefore(@Param("finishedBefore") Instant finishedBefore);
+
+    /**
+     * Ключи готовых результатов экспорта дерева — при удалении дерева строки задач удаляются каскадно,
+     * поэтому файлы нужно удалить из S3 заранее
+     */
+    @Query("SELECT j.s3Key FROM ExportJob j WHERE j.treeId = :treeId AND j.s3Key IS NOT NULL")
+    List<String> findS3KeysByTreeId(@Param("treeId") Long treeId);
+}
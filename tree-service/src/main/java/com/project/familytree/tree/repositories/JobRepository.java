@@ -0,0 +1,33 @@
+package com.project.familytree.tree.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.repository.NoRepositoryBean;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Таблица фоновых задач со статусами PENDING → RUNNING → завершена. Запросы объявляются
+ * в репозитории каждой таблицы — у них свои сущности и перечисления статусов.
+ */
+@NoRepositoryBean
+public interface JobRepository<J> extends JpaRepository<J, Long> {
+
+    /**
+     * Захватить задачу: PENDING → RUNNING с увеличением числа попыток. 0 — задачу уже взял другой воркер.
+     */
+    int claim(Long id, Instant now);
+
+    /**
+     * Вернуть в очередь задачи без пульса с {@code staleBefore}, у которых остались попытки.
+     */
+    int requeueStale(Instant staleBefore, int maxAttempts, Instant now);
+
+    /**
+     * Завершить с ошибкой задачи без пульса с {@code staleBefore}, исчерпавшие попытки.
+     */
+    int failStale(Instant staleBefore, int maxAttempts, Instant now);
+
+    /** ID ожидающих задач в порядке постановки */
+    List<Long> findPendingIds();
+}
@@ -0,0 +1,62 @@
+package com.project.familytree.tree.repositories;
+
+import com.project.familytree.tree.models.MediaContent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface MediaContentRepository extends JpaRepository<MediaContent, Long> {
+
+    boolean existsBySha256(String sha256);
+
+    /**
+     * Добавить ссылку на содержимое одним upsert: новая строка создаётся с ключом {@code s3Key} и одной
+     * ссылкой, у существующей увеличивается счётчик (её ключ не меняется). Параллельные загрузки того же
+     * файла сериализуются на строке и обе завершаются успешно. Блокирует строку до конца транзакции.
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO media_contents (sha256, s3_key, file_size, ref_count, created_at)
+            VALUES (:sha256, :s3Key, :fileSize, 1, NOW())
+            ON CONFLICT (sha256) DO UPDATE SET ref_count = media_contents.ref_count + 1
+            """, nativeQuery = true)
+    int addReference(@Param("sha256") String sha256, @Param("s3Key") String s3Key, @Param("fileSize") long fileSize);
+
+    /**
+     * Заблокировать строку содержимого, не меняя счётчик; если строки нет — занять её с нулём ссылок.
+     * Пока строка заблокирована, параллельная загрузка того же файла не может на неё сослаться.
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO media_contents (sha256, s3_key, file_size, ref_count, created_at)
+            VALUES (:sha256, :s3Key, :fileSize, 0, NOW())
+            ON CONFLICT (sha256) DO UPDATE SET ref_count = media_contents.ref_count
+            """, nativeQuery = true)
+    int lock(@Param("sha256") String sha256, @Param("s3Key") String s3Key, @Param("fileSize") long fileSize);
+
+    /**
+     * Строки: s3Key, refCount. Скалярный запрос — значения читаются из БД, а не из сессии,
+     * поэтому видят результат {@link #addReference} и {@link #lock}.
+     */
+    @Query("SELECT c.s3Key, c.refCount FROM MediaContent c WHERE c.sha256 = :sha256")
+    List<Object[]> findReferenceRows(@Param("sha256") String sha256);
+
+    /**
+     * Убрать ссылку на содержимое по ключу S3. 0 — объект не общий (загружен напрямую или до дедупликации).
+     */
+    @Modifying
+    @Query("UPDATE MediaContent c SET c.refCount = c.refCount - 1 WHERE c.s3Key = :s3Key AND c.refCount > 0")
+    int decrementRefCount(@Param("s3Key") String s3Key);
+
+    /**
+     * Удалить запись содержимого, на которое не осталось ссылок. 1 — объект S3 можно удалять.
+     */
+    @Modifying
+    @Query("DELETE FROM MediaContent c WHERE c.s3Key = :s3Key AND c.refCount = 0")
+    int deleteUnreferenced(@Param("s3Key") String s3Key);
+}
@@ -1,9 +1,14 @@
 package com.project.familytree.tree.repositories;
 
 import com.project.familytree.tree.models.MediaFile;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.util.List;
 
 @Repository
@@ -11,10 +16,57 @@ public interface MediaFileRepository extends JpaRepository<MediaFile, Long> {
 
     long countByPersonId(Long personId);
 
+    boolean existsByFilePath(String filePath);
+
+    boolean existsByFilePathAndThumbnailsReadyTrue(String filePath);
+
+    /**
+     * Отметить, что уменьшенные копии изображения готовы, если файл всё ещё указывает на тот же объект S3
+     */
+    @Modifying
+    @Query("UPDATE MediaFile m SET m.thumbnailsReady = true WHERE m.id = :id AND m.filePath = :sourceKey")
+    int markThumbnailsReady(@Param("id") Long id, @Param("sourceKey") String sourceKey);
+
+    /**
+     * Количество медиафайлов по персонам дерева [personId, count] одним GROUP BY
+     */
+    @Query("SELECT m.person.id, COUNT(m) FROM MediaFile m " +
+           "WHERE m.tree.id = :treeId AND m.person IS NOT NULL GROUP BY m.person.id")
+    List<Object[]> countByTreeIdGroupByPerson(@Param("treeId") Long treeId);
+
+    /**
+     * Количество медиафайлов для заданных персон [personId, count] одним GROUP BY
+     */
+    @Query("SELECT m.person.id, COUNT(m) FROM MediaFile m WHERE m.person.id IN :personIds GROUP BY m.person.id")
+    List<Object[]> countByPersonIds(@Param("personIds") List<Long> personIds);
+
+    /**
+     * Отпечаток состояния медиафайлов дерева: [count, max(id)]
+     */
+    @Query("SELECT COUNT(m), MAX(m.id) FROM MediaFile m WHERE m.tree.id = :treeId")
+    List<Object[]> findVersionRowByTreeId(@Param("treeId") Long treeId);
+
     List<MediaFile> findByPersonId(Long personId);
 
     List<MediaFile> findByTreeId(Long treeId);
 
+    /**
+     * Первая страница медиафайлов дерева, новые первыми (индекс idx_media_files_tree_uploaded)
+     */
+    @Query("SELECT m FROM MediaFile m WHERE m.tree.id = :treeId ORDER BY m.uploadedAt DESC, m.id DESC")
+    List<MediaFile> findPageByTreeId(@Param("treeId") Long treeId, Pageable pageable);
+
+    /**
+     * Следующая страница: файлы строго раньше ключа (uploadedAt, id) последнего отданного
+     */
+    @Query("SELECT m FROM MediaFile m WHERE m.tree.id = :treeId AND m.uploadedAt <= :uploadedAt " +
+           "AND (m.uploadedAt < :uploadedAt OR m.id < :id) " +
+           "ORDER BY m.uploadedAt DESC, m.id DESC")
+    List<MediaFile> findPageByTreeIdBefore(@Param("treeId") Long treeId,
+                                           @Param("uploadedAt") Instant uploadedAt,
+                                           @Param("id") Long id,
+                                           Pageable pageable);
+
     List<MediaFile> findByTreeIdAndPersonId(Long treeId, Long personId);
 
     void deleteByPersonId(Long personId);
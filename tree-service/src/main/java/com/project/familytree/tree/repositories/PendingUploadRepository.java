@@ -0,0 +1,20 @@
+package com.project.familytree.tree.repositories;
+
+import com.project.familytree.tree.models.PendingUpload;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface PendingUploadRepository extends JpaRepository<PendingUpload, Long> {
+
+    Optional<PendingUpload> findByS3Key(String s3Key);
+
+    /**
+     * Неподтверждённые загрузки, истёкшие раньше {@code expiredBefore}, — порция для очистки
+     */
+    List<PendingUpload> findTop100ByExpiresAtBeforeOrderByExpiresAt(Instant expiredBefore);
+}
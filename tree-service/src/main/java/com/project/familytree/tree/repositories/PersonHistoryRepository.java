@@ -1,9 +1,13 @@
 package com.project.familytree.tree.repositories;
 
 import com.project.familytree.tree.models.PersonHistory;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.util.List;
 
 @Repository
@@ -11,5 +15,27 @@ public interface PersonHistoryRepository extends JpaRepository<PersonHistory, Lo
 
     List<PersonHistory> findByPersonIdAndTreeIdOrderByCreatedAtDesc(Long personId, Long treeId);
 
+    /**
+     * Первая страница истории персоны, новые записи первыми (индекс idx_person_history_person_created)
+     */
+    @Query("SELECT h FROM PersonHistory h WHERE h.personId = :personId AND h.treeId = :treeId " +
+           "ORDER BY h.createdAt DESC, h.id DESC")
+    List<PersonHistory> findPage(@Param("personId") Long personId,
+                                 @Param("treeId") Long treeId,
+                                 Pageable pageable);
+
+    /**
+     * Следующая страница истории: записи строго раньше ключа (createdAt, id) последней отданной
+     */
+    @Query("SELECT h FROM PersonHistory h WHERE h.personId = :personId AND h.treeId = :treeId " +
+           "AND h.createdAt <= :createdAt " +
+           "AND (h.createdAt < :createdAt OR h.id < :id) " +
+           "ORDER BY h.createdAt DESC, h.id DESC")
+    List<PersonHistory> findPageBefore(@Param("personId") Long personId,
+                                       @Param("treeId") Long treeId,
+                                       @Param("createdAt") Instant createdAt,
+                                       @Param("id") Long id,
+                                       Pageable pageable);
+
     void deleteByTreeId(Long treeId);
 }
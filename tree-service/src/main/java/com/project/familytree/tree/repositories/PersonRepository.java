@@ -1,21 +1,87 @@
 package com.project.familytree.tree.repositories;
 
 import com.project.familytree.tree.models.Person;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface PersonRepository extends JpaRepository<Person, Long> {
 
     List<Person> findByTreeId(Long treeId);
 
+    /**
+     * Только ID персон дерева — для построения графа без загрузки сущностей
+     */
+    @Query("SELECT p.id FROM Person p WHERE p.tree.id = :treeId")
+    List<Long> findIdsByTreeId(@Param("treeId") Long treeId);
+
+    /**
+     * Краткие данные персон [id, firstName, lastName, middleName, gender] без загрузки сущностей
+     */
+    @Query("SELECT p.id, p.firstName, p.lastName, p.middleName, p.gender FROM Person p WHERE p.id IN :ids")
+    List<Object[]> findSummaryRowsByIds(@Param("ids") List<Long> ids);
+
     @Query("SELECT p FROM Person p WHERE p.tree.id = :treeId ORDER BY p.lastName, p.firstName")
     List<Person> findByTreeIdOrderByLastNameAscFirstNameAsc(@Param("treeId") Long treeId);
 
+    /**
+     * Первая страница персон дерева для keyset-пагинации, порядок (lastName, firstName, id)
+     * совпадает с индексом idx_persons_tree_name_id
+     */
+    @Query("SELECT p FROM Person p WHERE p.tree.id = :treeId ORDER BY p.lastName, p.firstName, p.id")
+    List<Person> findPageByTreeId(@Param("treeId") Long treeId, Pageable pageable);
+
+    /**
+     * Следующая страница: персоны строго после ключа (lastName, firstName, id) последней отданной.
+     * Условие {@code lastName >= :lastName} дублирует первую часть ключа, чтобы планировщик начинал
+     * чтение индекса с нужного места.
+     */
+    @Query("SELECT p FROM Person p WHERE p.tree.id = :treeId AND p.lastName >= :lastName " +
+           "AND (p.lastName > :lastName " +
+           "     OR (p.lastName = :lastName AND (p.firstName > :firstName " +
+           "         OR (p.firstName = :firstName AND p.id > :id)))) " +
+           "ORDER BY p.lastName, p.firstName, p.id")
+    List<Person> findPageByTreeIdAfter(@Param("treeId") Long treeId,
+                                       @Param("lastName") String lastName,
+                                       @Param("firstName") String firstName,
+                                       @Param("id") Long id,
+                                       Pageable pageable);
+
+    boolean existsByIdAndTreeId(Long id, Long treeId);
+
+    /**
+     * Персоны дерева через курсор: строки читаются порциями по fetch size, а не списком целиком.
+     * Поток нужно закрывать и читать внутри транзакции.
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT p FROM Person p WHERE p.tree.id = :treeId ORDER BY p.lastName, p.firstName, p.id")
+    Stream<Person> streamByTreeId(@Param("treeId") Long treeId);
+
+    /**
+     * Имена персон дерева [id, firstName, lastName] без загрузки сущностей
+     */
+    @Query("SELECT p.id, p.firstName, p.lastName FROM Person p WHERE p.tree.id = :treeId")
+    List<Object[]> findNameRowsByTreeId(@Param("treeId") Long treeId);
+
+    /**
+     * Данные для индекса автодополнения [id, firstName, lastName, middleName, birthDate] без загрузки сущностей
+     */
+    @Query("SELECT p.id, p.firstName, p.lastName, p.middleName, p.birthDate FROM Person p WHERE p.tree.id = :treeId")
+    List<Object[]> findSuggestRowsByTreeId(@Param("treeId") Long treeId);
+
     /**
      * Поиск персон по имени, фамилии или отчеству (регистронезависимый)
      */
@@ -26,7 +92,7 @@ public interface PersonRepository extends JpaRepository<Person, Long> {
     List<Person> searchByName(@Param("treeId") Long treeId, @Param("q") String q);
 
     /**
-     * Расширенный поиск персон с фильтрацией по имени, году рождения и месту рождения
+     * Расширенный поиск персон с фильтрацией по имени, году рождения, месту рождения и наличию медиафайлов
      */
     @Query("SELECT p FROM Person p WHERE p.tree.id = :treeId " +
            "AND (:query IS NULL OR LOWER(p.firstName) LIKE LOWER(CONCAT('%', :query, '%')) " +
@@ -34,19 +100,166 @@ public interface PersonRepository extends JpaRepository<Person, Long> {
            "     OR LOWER(p.middleName) LIKE LOWER(CONCAT('%', :query, '%'))) " +
            "AND (:birthYearFrom IS NULL OR YEAR(p.birthDate) >= :birthYearFrom) " +
            "AND (:birthYearTo IS NULL OR YEAR(p.birthDate) <= :birthYearTo) " +
-           "AND (:birthPlace IS NULL OR LOWER(p.birthPlace) LIKE LOWER(CONCAT('%', :birthPlace, '%')))")
+           "AND (:birthPlace IS NULL OR LOWER(p.birthPlace) LIKE LOWER(CONCAT('%', :birthPlace, '%'))) " +
+           "AND (:hasMedia = false OR EXISTS (SELECT m.id FROM MediaFile m WHERE m.person = p)) " +
+           "ORDER BY p.lastName, p.firstName, p.id")
     List<Person> searchPersons(@Param("treeId") Long treeId,
                                @Param("query") String query,
                                @Param("birthYearFrom") Integer birthYearFrom,
                                @Param("birthYearTo") Integer birthYearTo,
-                               @Param("birthPlace") String birthPlace);
+                               @Param("birthPlace") String birthPlace,
+                               @Param("hasMedia") boolean hasMedia);
+
+    /**
+     * Полнотекстовый поиск (только PostgreSQL): имя ищется по {@code search_vector} и триграммам,
+     * место рождения — по триграммам, год рождения — по индексу на выражении.
+     * Результаты ранжируются по ts_rank + similarity и режутся limit/offset на стороне БД.
+     * Выражения совпадают с индексами в init.sql — менять их нужно вместе.
+     */
+    @Query(value = "SELECT p.* FROM persons p WHERE p.tree_id = :treeId " +
+           "AND (CAST(:query AS text) IS NULL " +
+           "     OR p.search_vector @@ plainto_tsquery('simple', :query) " +
+           "     OR lower(p.first_name || ' ' || p.last_name || ' ' || coalesce(p.middle_name, '')) " +
+           "        LIKE '%' || lower(:query) || '%') " +
+           "AND (CAST(:birthYearFrom AS integer) IS NULL OR EXTRACT(YEAR FROM p.birth_date) >= :birthYearFrom) " +
+           "AND (CAST(:birthYearTo AS integer) IS NULL OR EXTRACT(YEAR FROM p.birth_date) <= :birthYearTo) " +
+           "AND (CAST(:birthPlace AS text) IS NULL OR lower(p.birth_place) LIKE '%' || lower(:birthPlace) || '%') " +
+           "AND (:hasMedia = false OR EXISTS (SELECT 1 FROM media_files m WHERE m.person_id = p.id)) " +
+           "ORDER BY CASE WHEN CAST(:query AS text) IS NULL THEN 0 ELSE " +
+           "    ts_rank(p.search_vector, plainto_tsquery('simple', :query)) + " +
+           "    similarity(lower(p.first_name || ' ' || p.last_name || ' ' || coalesce(p.middle_name, '')), lower(:query)) " +
+           "END DESC, p.last_name, p.first_name, p.id " +
+           "LIMIT :limit OFFSET :offset",
+           nativeQuery = true)
+    List<Person> searchRanked(@Param("treeId") Long treeId,
+                              @Param("query") String query,
+                              @Param("birthYearFrom") Integer birthYearFrom,
+                              @Param("birthYearTo") Integer birthYearTo,
+                              @Param("birthPlace") String birthPlace,
+                              @Param("hasMedia") boolean hasMedia,
+                              @Param("limit") int limit,
+                              @Param("offset") int offset);
+
+    /**
+     * Нечёткий поиск по фонетическому ключу (только PostgreSQL). {@code keyQuery} — выражение
+     * to_tsquery из кодов запроса (см. PhoneticKey#toTsQuery); остальные фильтры как в {@link #searchRanked}.
+     */
+    @Query(value = "SELECT p.* FROM persons p WHERE p.tree_id = :treeId " +
+           "AND to_tsvector('simple', coalesce(p.phonetic_key, '')) @@ to_tsquery('simple', :keyQuery) " +
+           "AND (CAST(:birthYearFrom AS integer) IS NULL OR EXTRACT(YEAR FROM p.birth_date) >= :birthYearFrom) " +
+           "AND (CAST(:birthYearTo AS integer) IS NULL OR EXTRACT(YEAR FROM p.birth_date) <= :birthYearTo) " +
+           "AND (CAST(:birthPlace AS text) IS NULL OR lower(p.birth_place) LIKE '%' || lower(:birthPlace) || '%') " +
+           "AND (:hasMedia = false OR EXISTS (SELECT 1 FROM media_files m WHERE m.person_id = p.id)) " +
+           "ORDER BY ts_rank(to_tsvector('simple', coalesce(p.phonetic_key, '')), to_tsquery('simple', :keyQuery)) DESC, " +
+           "p.last_name, p.first_name, p.id " +
+           "LIMIT :limit OFFSET :offset",
+           nativeQuery = true)
+    List<Person> searchPhonetic(@Param("treeId") Long treeId,
+                                @Param("keyQuery") String keyQuery,
+                                @Param("birthYearFrom") Integer birthYearFrom,
+                                @Param("birthYearTo") Integer birthYearTo,
+                                @Param("birthPlace") String birthPlace,
+                                @Param("hasMedia") boolean hasMedia,
+                                @Param("limit") int limit,
+                                @Param("offset") int offset);
+
+    /**
+     * Имена персон без фонетического ключа [id, firstName, lastName, middleName] — для дозаполнения после миграции
+     */
+    @Query("SELECT p.id, p.firstName, p.lastName, p.middleName FROM Person p WHERE p.phoneticKey IS NULL ORDER BY p.id")
+    List<Object[]> findNameRowsWithoutPhoneticKey(Pageable pageable);
+
+    /**
+     * Точечная запись ключа — без загрузки сущности и без изменения updated_at
+     */
+    @Modifying
+    @Query("UPDATE Person p SET p.phoneticKey = :key WHERE p.id = :id")
+    int updatePhoneticKey(@Param("id") Long id, @Param("key") String key);
+
+    /**
+     * Отметить, что копии аватара готовы, если аватар с тех пор не заменили; без изменения updated_at
+     */
+    @Modifying
+    @Query("UPDATE Person p SET p.avatarThumbnailsReady = true WHERE p.id = :id AND p.avatarUrl = :sourceKey")
+    int markAvatarThumbnailsReady(@Param("id") Long id, @Param("sourceKey") String sourceKey);
+
+    /**
+     * Глобальный поиск по всем деревьям пользователя (только PostgreSQL): персоны соединяются
+     * с tree_memberships по (user_id, tree_id), имя ищется так же, как в {@link #searchRanked}.
+     * В каждом дереве остаются {@code perTree} самых релевантных персон, всего — не больше {@code limit}.
+     */
+    @Query(value = "SELECT p.* FROM persons p JOIN (" +
+           "  SELECT x.id, x.score FROM (" +
+           "    SELECT q.id, q.score, " +
+           "           row_number() OVER (PARTITION BY q.tree_id ORDER BY q.score DESC, q.id) AS tree_rank " +
+           "    FROM (" +
+           "      SELECT pp.id, pp.tree_id, " +
+           "             ts_rank(pp.search_vector, plainto_tsquery('simple', :query)) + " +
+           "             similarity(lower(pp.first_name || ' ' || pp.last_name || ' ' || coalesce(pp.middle_name, '')), " +
+           "                        lower(:query)) AS score " +
+           "      FROM persons pp " +
+           "      JOIN tree_memberships tm ON tm.tree_id = pp.tree_id AND tm.user_id = :userId " +
+           "      WHERE pp.search_vector @@ plainto_tsquery('simple', :query) " +
+           "         OR lower(pp.first_name || ' ' || pp.last_name || ' ' || coalesce(pp.middle_name, '')) " +
+           "            LIKE '%' || lower(:query) || '%'" +
+           "    ) q" +
+           "  ) x WHERE x.tree_rank <= :perTree" +
+           ") r ON r.id = p.id " +
+           "ORDER BY r.score DESC, p.last_name, p.first_name, p.id " +
+           "LIMIT :limit",
+           nativeQuery = true)
+    List<Person> searchAcrossTrees(@Param("userId") Long userId,
+                                   @Param("query") String query,
+                                   @Param("perTree") int perTree,
+                                   @Param("limit") int limit);
+
+    /**
+     * Глобальный поиск по имени через LIKE — для СУБД без полнотекстового поиска
+     */
+    @Query("SELECT p FROM Person p WHERE p.tree.id IN " +
+           "(SELECT tm.tree.id FROM TreeMembership tm WHERE tm.user.id = :userId) AND (" +
+           "LOWER(p.firstName) LIKE LOWER(CONCAT('%', :q, '%')) OR " +
+           "LOWER(p.lastName) LIKE LOWER(CONCAT('%', :q, '%')) OR " +
+           "LOWER(p.middleName) LIKE LOWER(CONCAT('%', :q, '%'))) " +
+           "ORDER BY p.lastName, p.firstName, p.id")
+    List<Person> searchByNameInUserTrees(@Param("userId") Long userId, @Param("q") String q);
 
     /**
-     * Персоны дерева у которых есть хотя бы один медиафайл
+     * Фасеты поиска (только PostgreSQL) одним запросом через GROUPING SETS. Фильтры те же, что
+     * в {@link #searchRanked} ({@code query}) или {@link #searchPhonetic} ({@code keyQuery}).
+     * Строки: [gender, decade, birth_place, has_media, grouping, count], где grouping — битовая маска
+     * GROUPING(gender, decade, birth_place, has_media): 7 — по полу, 11 — по десятилетию,
+     * 13 — по месту рождения, 14 — по наличию медиа, 15 — общее число найденных.
      */
-    @Query("SELECT DISTINCT p FROM Person p WHERE p.tree.id = :treeId " +
-           "AND EXISTS (SELECT m FROM MediaFile m WHERE m.personId = p.id)")
-    List<Person> findByTreeIdWithMedia(@Param("treeId") Long treeId);
+    @Query(value = "WITH matched AS (" +
+           "  SELECT p.gender, " +
+           "         CAST(floor(EXTRACT(YEAR FROM p.birth_date) / 10) * 10 AS integer) AS decade, " +
+           "         p.birth_place, " +
+           "         EXISTS (SELECT 1 FROM media_files m WHERE m.person_id = p.id) AS has_media " +
+           "  FROM persons p WHERE p.tree_id = :treeId " +
+           "  AND (CAST(:query AS text) IS NULL " +
+           "       OR p.search_vector @@ plainto_tsquery('simple', :query) " +
+           "       OR lower(p.first_name || ' ' || p.last_name || ' ' || coalesce(p.middle_name, '')) " +
+           "          LIKE '%' || lower(:query) || '%') " +
+           "  AND (CAST(:keyQuery AS text) IS NULL " +
+           "       OR to_tsvector('simple', coalesce(p.phonetic_key, '')) @@ to_tsquery('simple', :keyQuery)) " +
+           "  AND (CAST(:birthYearFrom AS integer) IS NULL OR EXTRACT(YEAR FROM p.birth_date) >= :birthYearFrom) " +
+           "  AND (CAST(:birthYearTo AS integer) IS NULL OR EXTRACT(YEAR FROM p.birth_date) <= :birthYearTo) " +
+           "  AND (CAST(:birthPlace AS text) IS NULL OR lower(p.birth_place) LIKE '%' || lower(:birthPlace) || '%') " +
+           "  AND (:hasMedia = false OR EXISTS (SELECT 1 FROM media_files m WHERE m.person_id = p.id))" +
+           ") " +
+           "SELECT gender, decade, birth_place, has_media, " +
+           "       GROUPING(gender, decade, birth_place, has_media) AS grp, COUNT(*) AS cnt " +
+           "FROM matched " +
+           "GROUP BY GROUPING SETS ((gender), (decade), (birth_place), (has_media), ())",
+           nativeQuery = true)
+    List<Object[]> searchFacets(@Param("treeId") Long treeId,
+                                @Param("query") String query,
+                                @Param("keyQuery") String keyQuery,
+                                @Param("birthYearFrom") Integer birthYearFrom,
+                                @Param("birthYearTo") Integer birthYearTo,
+                                @Param("birthPlace") String birthPlace,
+                                @Param("hasMedia") boolean hasMedia);
 
     /**
      * Bulk count of persons grouped by treeId — used to populate personCount in TreeDTO
@@ -54,4 +267,11 @@ public interface PersonRepository extends JpaRepository<Person, Long> {
      */
     @Query("SELECT p.tree.id, COUNT(p) FROM Person p WHERE p.tree.id IN :treeIds GROUP BY p.tree.id")
     List<Object[]> countByTreeIds(@Param("treeIds") List<Long> treeIds);
-}
\ No newline at end of file
+
+    /**
+     * Отпечаток состояния персон дерева: [count, max(updatedAt), max(id)] — меняется при любом
+     * добавлении, изменении или удалении персоны
+     */
+    @Query("SELECT COUNT(p), MAX(p.updatedAt), MAX(p.id) FROM Person p WHERE p.tree.id = :treeId")
+    List<Object[]> findVersionRowByTreeId(@Param("treeId") Long treeId);
+}
@@ -2,13 +2,17 @@ package com.project.familytree.tree.repositories;
 
 import com.project.familytree.tree.impls.RelationshipType;
 import com.project.familytree.tree.models.Relationship;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface RelationshipRepository extends JpaRepository<Relationship, Long> {
@@ -17,6 +21,28 @@ public interface RelationshipRepository extends JpaRepository<Relationship, Long
 
     List<Relationship> findByTreeIdAndType(Long treeId, RelationshipType type);
 
+    /**
+     * Связи дерева в виде строк [id, person1Id, person2Id, type, startDate, endDate]
+     * без загрузки сущностей — используется {@code TreeGraphIndex}.
+     */
+    @Query("SELECT r.id, r.person1.id, r.person2.id, r.type, r.startDate, r.endDate " +
+           "FROM Relationship r WHERE r.tree.id = :treeId")
+    List<Object[]> findEdgeRowsByTreeId(@Param("treeId") Long treeId);
+
+    /**
+     * Все связи дерева вместе с обеими персонами — один запрос вместо запроса на каждую персону
+     */
+    @Query("SELECT r FROM Relationship r JOIN FETCH r.person1 JOIN FETCH r.person2 WHERE r.tree.id = :treeId")
+    List<Relationship> findByTreeIdWithPersons(@Param("treeId") Long treeId);
+
+    /**
+     * Связи, в которых участвует любая из персон {@code personIds}, вместе с обеими персонами
+     */
+    @Query("SELECT r FROM Relationship r JOIN FETCH r.person1 JOIN FETCH r.person2 " +
+           "WHERE r.tree.id = :treeId AND (r.person1.id IN :personIds OR r.person2.id IN :personIds)")
+    List<Relationship> findByTreeIdAndPersonIdsWithPersons(@Param("treeId") Long treeId,
+                                                           @Param("personIds") List<Long> personIds);
+
     /**
      * Все связи, в которых участвует данная персона (как person1 или person2)
      */
@@ -42,9 +68,71 @@ public interface RelationshipRepository extends JpaRepository<Relationship, Long
                                                          @Param("person2Id") Long person2Id,
                                                          @Param("type") RelationshipType type);
 
+    /**
+     * Предки персоны до глубины {@code depth} одним рекурсивным запросом, через курсор.
+     * Строки: [personId, generation, viaPersonId, firstName, lastName, middleName, gender, birthDate, deathDate].
+     * viaPersonId — ребёнок, через которого найден предок (NULL для исходной персоны).
+     * UNION (а не UNION ALL) отсекает повторы при «схлопывании» родословной; персона, найденная
+     * несколькими путями, приходит несколькими строками подряд — с минимальным поколением во всех.
+     * Поток нужно закрывать и читать внутри транзакции.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(value = "WITH RECURSIVE lineage(person_id, generation, via_id) AS (" +
+                   "  SELECT p.id, 0, CAST(NULL AS BIGINT) FROM persons p " +
+                   "  WHERE p.id = :personId AND p.tree_id = :treeId " +
+                   "  UNION " +
+                   "  SELECT r.person1_id, l.generation + 1, r.person2_id " +
+                   "  FROM relationships r JOIN lineage l ON r.person2_id = l.person_id " +
+                   "  WHERE r.tree_id = :treeId AND r.type = 'PARENT_CHILD' AND l.generation < :depth" +
+                   "), paths AS (" +
+                   "  SELECT l.person_id, l.generation, l.via_id, " +
+                   "         MIN(l.generation) OVER (PARTITION BY l.person_id) AS first_generation " +
+                   "  FROM lineage l" +
+                   ") " +
+                   "SELECT l.person_id, l.first_generation, l.via_id, p.first_name, p.last_name, p.middle_name, " +
+                   "       p.gender, p.birth_date, p.death_date " +
+                   "FROM paths l JOIN persons p ON p.id = l.person_id " +
+                   "ORDER BY l.first_generation, p.last_name, p.first_name, l.person_id, l.generation, l.via_id",
+           nativeQuery = true)
+    Stream<Object[]> streamAncestorRows(@Param("treeId") Long treeId,
+                                        @Param("personId") Long personId,
+                                        @Param("depth") int depth);
+
+    /**
+     * Потомки персоны до глубины {@code depth} одним рекурсивным запросом, через курсор.
+     * Формат строк — как у {@link #streamAncestorRows}; viaPersonId — родитель, через которого найден потомок.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(value = "WITH RECURSIVE lineage(person_id, generation, via_id) AS (" +
+                   "  SELECT p.id, 0, CAST(NULL AS BIGINT) FROM persons p " +
+                   "  WHERE p.id = :personId AND p.tree_id = :treeId " +
+                   "  UNION " +
+                   "  SELECT r.person2_id, l.generation + 1, r.person1_id " +
+                   "  FROM relationships r JOIN lineage l ON r.person1_id = l.person_id " +
+                   "  WHERE r.tree_id = :treeId AND r.type = 'PARENT_CHILD' AND l.generation < :depth" +
+                   "), paths AS (" +
+                   "  SELECT l.person_id, l.generation, l.via_id, " +
+                   "         MIN(l.generation) OVER (PARTITION BY l.person_id) AS first_generation " +
+                   "  FROM lineage l" +
+                   ") " +
+                   "SELECT l.person_id, l.first_generation, l.via_id, p.first_name, p.last_name, p.middle_name, " +
+                   "       p.gender, p.birth_date, p.death_date " +
+                   "FROM paths l JOIN persons p ON p.id = l.person_id " +
+                   "ORDER BY l.first_generation, p.last_name, p.first_name, l.person_id, l.generation, l.via_id",
+           nativeQuery = true)
+    Stream<Object[]> streamDescendantRows(@Param("treeId") Long treeId,
+                                          @Param("personId") Long personId,
+                                          @Param("depth") int depth);
+
     /**
      * Удалить все связи персоны при её удалении
      */
     @Query("DELETE FROM Relationship r WHERE r.person1.id = :personId OR r.person2.id = :personId")
     void deleteAllByPersonId(@Param("personId") Long personId);
+
+    /**
+     * Отпечаток состояния связей дерева: [count, max(id)]
+     */
+    @Query("SELECT COUNT(r), MAX(r.id) FROM Relationship r WHERE r.tree.id = :treeId")
+    List<Object[]> findVersionRowByTreeId(@Param("treeId") Long treeId);
 }
@@ -0,0 +1,48 @@
+package com.project.familytree.tree.repositories;
+
+import com.project.familytree.tree.models.ThumbnailJob;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface ThumbnailJobRepository extends JobRepository<ThumbnailJob> {
+
+    /**
+     * Захватить задачу: PENDING → RUNNING. 0 — задачу уже взял другой воркер.
+     */
+    @Modifying
+    @Query("UPDATE ThumbnailJob j SET j.status = com.project.familytree.tree.impls.ThumbnailStatus.RUNNING, " +
+           "j.attempts = j.attempts + 1, j.updatedAt = :now " +
+           "WHERE j.id = :id AND j.status = com.project.familytree.tree.impls.ThumbnailStatus.PENDING")
+    int claim(@Param("id") Long id, @Param("now") Instant now);
+
+    /**
+     * Вернуть в очередь задачи, зависшие в RUNNING (узел упал или перезапущен)
+     */
+    @Modifying
+    @Query("UPDATE ThumbnailJob j SET j.status = com.project.familytree.tree.impls.ThumbnailStatus.PENDING, j.updatedAt = :now " +
+           "WHERE j.status = com.project.familytree.tree.impls.ThumbnailStatus.RUNNING " +
+           "AND j.updatedAt < :staleBefore AND j.attempts < :maxAttempts")
+    int requeueStale(@Param("staleBefore") Instant staleBefore, @Param("maxAttempts") int maxAttempts,
+                     @Param("now") Instant now);
+
+    /**
+     * Завершить с ошибкой зависшие задачи, исчерпавшие попытки
+     */
+    @Modifying
+    @Query("UPDATE ThumbnailJob j SET j.status = com.project.familytree.tree.impls.ThumbnailStatus.FAILED, " +
+           "j.error = 'Превышено число попыток', j.updatedAt = :now " +
+           "WHERE j.status = com.project.familytree.tree.impls.ThumbnailStatus.RUNNING " +
+           "AND j.updatedAt < :staleBefore AND j.attempts >= :maxAttempts")
+    int failStale(@Param("staleBefore") Instant staleBefore, @Param("maxAttempts") int maxAttempts,
+                  @Param("now") Instant now);
+
+    @Query("SELECT j.id FROM ThumbnailJob j WHERE j.status = com.project.familytree.tree.impls.ThumbnailStatus.PENDING " +
+           "ORDER BY j.id")
+    List<Long> findPendingIds();
+}
@@ -0,0 +1,290 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.dto.ExportJobDTO;
+import com.project.familytree.tree.exceptions.ResourceNotFoundException;
+import com.project.familytree.tree.impls.ExportFormat;
+import com.project.familytree.tree.impls.ExportStatus;
+import com.project.familytree.tree.models.ExportJob;
+import com.project.familytree.tree.repositories.ExportJobRepository;
+import com.project.familytree.tree.repositories.MediaFileRepository;
+import com.project.familytree.tree.repositories.PersonRepository;
+import com.project.familytree.tree.repositories.RelationshipRepository;
+import com.project.familytree.tree.repositories.TreeRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.StreamUtils;
+
+import java.io.OutputStream;
+import java.nio.file.AccessDeniedException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+
+/**
+ * Асинхронный экспорт дерева в файл в S3.
+ * <p>
+ * {@link #createExport} только записывает задачу в таблицу {@code export_jobs} и ставит её в очередь
+ * ограниченного пула воркеров — поток запроса не ждёт генерации файла. Воркер захватывает задачу
+ * атомарным переходом PENDING → RUNNING, пишет файл потоком прямо в S3 ({@link S3Service#openUpload},
+ * multipart) и после каждой порции персон обновляет прогресс, который служит и пульсом воркера.
+ * <p>
+ * Состояние живёт в таблице ({@link JobRunner}), поэтому задачи переживают перезапуск: периодический проход
+ * ({@link #sweep}) возвращает в очередь задачи без пульса дольше {@code tree.export.stale-after-minutes}
+ * и подхватывает PENDING, не попавшие в очередь. Он же удаляет из S3 результаты старше срока хранения.
+ * <p>
+ * Повторный запрос экспорта того же состояния дерева (см. {@link #treeVersion}) в том же формате
+ * возвращает уже существующую задачу — ожидающую, выполняющуюся или готовую. Одновременные вставки
+ * дублей отсекает частичный уникальный индекс {@code uq_export_jobs_active}.
+ */
+@Service
+public class ExportJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(ExportJobService.class);
+
+    private static final Set<ExportStatus> REUSABLE =
+            EnumSet.of(ExportStatus.PENDING, ExportStatus.RUNNING, ExportStatus.COMPLETED);
+
+    private final TreeService treeService;
+    private final TreeRepository treeRepository;
+    private final PersonRepository personRepository;
+    private final RelationshipRepository relationshipRepository;
+    private final MediaFileRepository mediaFileRepository;
+    private final ExportJobRepository exportJobRepository;
+    private final GedcomService gedcomService;
+    private final PersonStreamService personStreamService;
+    private final S3Service s3Service;
+    /** Изменения задачи идут в отдельных коротких транзакциях, независимых от транзакции чтения дерева */
+    private final JobRunner<ExportJob> jobs;
+    private final Clock clock;
+
+    private final Duration retention;
+
+    @Autowired
+    public ExportJobService(TreeService treeService,
+                            TreeRepository treeRepository,
+                            PersonRepository personRepository,
+                            RelationshipRepository relationshipRepository,
+                            MediaFileRepository mediaFileRepository,
+                            ExportJobRepository exportJobRepository,
+                            GedcomService gedcomService,
+                            PersonStreamService personStreamService,
+                            S3Service s3Service,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${tree.export.workers:2}") int workers,
+                            @Value("${tree.export.queue-capacity:100}") int queueCapacity,
+                            @Value("${tree.export.max-attempts:3}") int maxAttempts,
+                            @Value("${tree.export.stale-after-minutes:10}") long staleAfterMinutes,
+                            @Value("${tree.export.retention-hours:24}") long retentionHours) {
+        this(treeService, treeRepository, personRepository, relationshipRepository, mediaFileRepository,
+                exportJobRepository, gedcomService, personStreamService, s3Service, transactionManager,
+                maxAttempts, staleAfterMinutes, retentionHours,
+                JobRunner.workerPool("export-worker", workers, queueCapacity), Clock.systemUTC());
+    }
+
+    ExportJobService(TreeService treeService,
+                     TreeRepository treeRepository,
+                     PersonRepository personRepository,
+                     RelationshipRepository relationshipRepository,
+                     MediaFileRepository mediaFileRepository,
+                     ExportJobRepository exportJobRepository,
+                     GedcomService gedcomService,
+                     PersonStreamService personStreamService,
+                     S3Service s3Service,
+                     PlatformTransactionManager transactionManager,
+                     int maxAttempts,
+                     long staleAfterMinutes,
+                     long retentionHours,
+                     Executor executor,
+                     Clock clock) {
+        this.treeService = treeService;
+        this.treeRepository = treeRepository;
+        this.personRepository = personRepository;
+        this.relationshipRepository = relationshipRepository;
+        this.mediaFileRepository = mediaFileRepository;
+        this.exportJobRepository = exportJobRepository;
+        this.gedcomService = gedcomService;
+        this.personStreamService = personStreamService;
+        this.s3Service = s3Service;
+        this.clock = clock;
+        this.retention = Duration.ofHours(retentionHours);
+        this.jobs = new JobRunner<>("Export", exportJobRepository, transactionManager, executor, clock,
+                maxAttempts, Duration.ofMinutes(staleAfterMinutes), this::process);
+    }
+
+    /**
+     * Поставить экспорт дерева в очередь или вернуть задачу, уже созданную для того же состояния дерева.
+     */
+    public ExportJobDTO createExport(Long treeId, ExportFormat format, Long userId) throws AccessDeniedException {
+        if (!treeService.canView(treeId, userId)) {
+            throw new AccessDeniedException("Нет прав на просмотр дерева");
+        }
+        if (!treeRepository.existsById(treeId)) {
+            throw new ResourceNotFoundException("Дерево не найдено");
+        }
+
+        String version = treeVersion(treeId);
+        ExportJob existing = exportJobRepository
+                .findFirstByTreeIdAndFormatAndTreeVersionAndStatusInOrderByIdDesc(treeId, format, version, REUSABLE)
+                .orElse(null);
+        if (existing != null) {
+            log.debug("Reusing export job {} for tree {} ({}, version {})", existing.getId(), treeId, format, version);
+            return toDTO(existing);
+        }
+
+        ExportJob job;
+        try {
+            job = jobs.inTransaction(status -> exportJobRepository.save(new ExportJob(treeId, userId, format, version)));
+        } catch (DataIntegrityViolationException e) {
+            // Такую же задачу только что поставил параллельный запрос
+            return toDTO(exportJobRepository
+                    .findFirstByTreeIdAndFormatAndTreeVersionAndStatusInOrderByIdDesc(treeId, format, version, REUSABLE)
+                    .orElseThrow(() -> e));
+        }
+        log.info("Queued export job {} for tree {} ({}) by user {}", job.getId(), treeId, format, userId);
+        jobs.submit(job.getId());
+        return toDTO(job);
+    }
+
+    /**
+     * Состояние задачи и, если файл готов, временная ссылка на скачивание.
+     */
+    public ExportJobDTO getJob(Long jobId, Long userId) throws AccessDeniedException {
+        ExportJob job = exportJobRepository.findById(jobId)
+                .orElseThrow(() -> new ResourceNotFoundException("Задача экспорта не найдена"));
+        if (!treeService.canView(job.getTreeId(), userId)) {
+            throw new AccessDeniedException("Нет прав на просмотр дерева");
+        }
+        return toDTO(job);
+    }
+
+    /**
+     * Отпечаток данных дерева: число и максимальные ID персон, связей и медиафайлов плюс время последнего
+     * изменения персоны (смена аватара тоже его обновляет). Связи и медиафайлы не редактируются на месте,
+     * поэтому отпечаток меняется при любом изменении того, что попадает в файл экспорта. Presigned URL
+     * и готовность миниатюр в экспорт не пишутся (см. {@link PersonStreamService#writePersons}) и на него не влияют.
+     */
+    String treeVersion(Long treeId) {
+        Object[] persons = personRepository.findVersionRowByTreeId(treeId).get(0);
+        Object[] relationships = relationshipRepository.findVersionRowByTreeId(treeId).get(0);
+        Object[] media = mediaFileRepository.findVersionRowByTreeId(treeId).get(0);
+        Instant updatedAt = (Instant) persons[1];
+        return "p" + persons[0] + "." + (updatedAt != null ? updatedAt.toEpochMilli() : 0) + "." + persons[2]
+                + "-r" + relationships[0] + "." + relationships[1]
+                + "-m" + media[0] + "." + media[1];
+    }
+
+    /**
+     * Периодический проход: вернуть в очередь задачи упавших воркеров, подхватить ожидающие,
+     * удалить просроченные результаты.
+     */
+    @Scheduled(fixedDelayString = "${tree.export.sweep-interval-ms:60000}",
+               initialDelayString = "${tree.export.sweep-initial-delay-ms:10000}")
+    public void sweep() {
+        jobs.sweep();
+
+        for (ExportJob job : exportJobRepository.findCompletedBefore(clock.instant().minus(retention))) {
+            try {
+                s3Service.delete(job.getS3Key());
+            } catch (RuntimeException e) {
+                log.warn("Failed to delete expired export {} from S3: {}", job.getS3Key(), e.getMessage());
+                continue;
+            }
+            jobs.update(job.getId(), j -> {
+                j.setStatus(ExportStatus.EXPIRED);
+                j.setS3Key(null);
+            });
+        }
+    }
+
+    void run(Long jobId) {
+        jobs.run(jobId);
+    }
+
+    private void process(ExportJob job) {
+        Long jobId = job.getId();
+        Long treeId = job.getTreeId();
+        long total = ((Number) personRepository.findVersionRowByTreeId(treeId).get(0)[0]).longValue();
+        jobs.update(jobId, j -> j.setTotal(total));
+
+        String s3Key = "trees/" + treeId + "/exports/" + jobId + (job.getFormat() == ExportFormat.GEDCOM ? ".ged" : ".json");
+        S3Service.UploadStream upload = s3Service.openUpload(s3Key,
+                job.getFormat() == ExportFormat.GEDCOM ? "application/x-gedcom; charset=UTF-8" : "application/json");
+        long started = System.nanoTime();
+        try {
+            LongConsumer progress = written -> jobs.inTransaction(
+                    status -> exportJobRepository.updateProgress(jobId, written, clock.instant()));
+            // Генераторы могут закрыть поток сами — загрузка завершается только явно, после успешной записи
+            OutputStream out = StreamUtils.nonClosing(upload);
+            switch (job.getFormat()) {
+                case GEDCOM -> gedcomService.writeGedcom(treeId, out, progress);
+                case JSON -> personStreamService.writePersons(treeId, out, progress);
+            }
+            upload.close();
+        } catch (Exception e) {
+            upload.abort();
+            if (jobs.isShuttingDown()) {
+                log.info("Export job {} interrupted by shutdown", jobId);
+                return;
+            }
+            log.error("Export job {} for tree {} failed", jobId, treeId, e);
+            String error = JobRunner.errorMessage(e);
+            jobs.update(jobId, j -> {
+                j.setStatus(ExportStatus.FAILED);
+                j.setError(error);
+                j.setFinishedAt(clock.instant());
+            });
+            return;
+        }
+
+        long size = upload.size();
+        boolean recorded = jobs.update(jobId, j -> {
+            j.setStatus(ExportStatus.COMPLETED);
+            j.setProcessed(total);
+            j.setS3Key(s3Key);
+            j.setFileSize(size);
+            j.setFinishedAt(clock.instant());
+        });
+        if (!recorded) {
+            // Дерево удалили во время экспорта: на файл больше никто не сошлётся
+            log.info("Export job {} finished after tree {} was deleted, discarding {}", jobId, treeId, s3Key);
+            s3Service.delete(s3Key);
+            return;
+        }
+        log.info("Export job {} for tree {} completed: {} bytes in {} ms",
+                jobId, treeId, size, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private ExportJobDTO toDTO(ExportJob job) {
+        ExportJobDTO dto = new ExportJobDTO();
+        dto.setId(job.getId());
+        dto.setTreeId(job.getTreeId());
+        dto.setFormat(job.getFormat());
+        dto.setStatus(job.getStatus());
+        dto.setProcessed(job.getProcessed());
+        dto.setTotal(job.getTotal());
+        dto.setFileSize(job.getFileSize());
+        dto.setError(job.getError());
+        dto.setCreatedAt(job.getCreatedAt());
+        dto.setFinishedAt(job.getFinishedAt());
+        if (job.getStatus() == ExportStatus.COMPLETED && job.getS3Key() != null) {
+            dto.setDownloadUrl(s3Service.generatePresignedUrl(job.getS3Key()));
+        }
+        return dto;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        jobs.shutdown();
+    }
+}
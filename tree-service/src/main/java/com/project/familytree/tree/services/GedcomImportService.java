@@ -0,0 +1,505 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.dto.GedcomImportReportDTO;
+import com.project.familytree.tree.exceptions.ResourceNotFoundException;
+import com.project.familytree.tree.impls.Gender;
+import com.project.familytree.tree.impls.RelationshipType;
+import com.project.familytree.tree.repositories.TreeRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AccessDeniedException;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Импорт GEDCOM в существующее дерево.
+ * <p>
+ * Файл разбирается потоково ({@link GedcomReader}), по одной записи. Персоны (INDI) копятся порциями
+ * по {@link #BATCH_SIZE} и вставляются одним JDBC-батчем с возвратом сгенерированных ID — без
+ * {@code save()} по одной сущности и без контекста персистентности. Из файла в памяти остаётся только
+ * соответствие «xref → ID» и семьи, ссылающиеся на ещё не прочитанные персоны.
+ * <p>
+ * Семья (FAM) превращается в связи: HUSB–WIFE — партнёрство (даты MARR/DIV), каждый из родителей —
+ * родитель каждого CHIL. Весь импорт — одна транзакция: данные дерева меняются целиком или никак.
+ * Проблемные записи при этом не прерывают импорт — они пропускаются или импортируются частично
+ * и попадают в отчёт.
+ */
+@Service
+public class GedcomImportService {
+
+    private static final Logger log = LoggerFactory.getLogger(GedcomImportService.class);
+
+    static final int BATCH_SIZE = 500;
+    static final int MAX_REPORTED_ERRORS = 100;
+    private static final int PROGRESS_EVERY = 10_000;
+
+    private static final int NAME_LENGTH = 100;
+    private static final int PLACE_LENGTH = 255;
+    private static final String UNKNOWN_NAME = "Неизвестно";
+
+    private static final String INSERT_PERSON =
+            "INSERT INTO persons (tree_id, first_name, last_name, middle_name, gender, birth_date, death_date, " +
+            "birth_place, death_place, biography, phonetic_key, created_at, updated_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /** Одна и та же пара может встретиться в нескольких FAM — повтор связи пропускается */
+    private static final String INSERT_RELATIONSHIP =
+            "INSERT INTO relationships (tree_id, person1_id, person2_id, type, start_date, end_date, created_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?) ON CONFLICT DO NOTHING";
+
+    private static final Map<String, Integer> MONTHS = Map.ofEntries(
+            Map.entry("JAN", 1), Map.entry("FEB", 2), Map.entry("MAR", 3), Map.entry("APR", 4),
+            Map.entry("MAY", 5), Map.entry("JUN", 6), Map.entry("JUL", 7), Map.entry("AUG", 8),
+            Map.entry("SEP", 9), Map.entry("OCT", 10), Map.entry("NOV", 11), Map.entry("DEC", 12));
+
+    /** Модификаторы приблизительных дат — дата берётся как есть */
+    private static final Set<String> DATE_QUALIFIERS =
+            Set.of("ABT", "BEF", "AFT", "CAL", "EST", "BET", "FROM", "INT");
+
+    private final TreeService treeService;
+    private final TreeRepository treeRepository;
+    private final TreeGraphIndex treeGraphIndex;
+    private final PersonSuggestIndex personSuggestIndex;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transaction;
+
+    public GedcomImportService(TreeService treeService,
+                               TreeRepository treeRepository,
+                               TreeGraphIndex treeGraphIndex,
+                               PersonSuggestIndex personSuggestIndex,
+                               JdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager) {
+        this.treeService = treeService;
+        this.treeRepository = treeRepository;
+        this.treeGraphIndex = treeGraphIndex;
+        this.personSuggestIndex = personSuggestIndex;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transaction = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Импортировать GEDCOM из потока в дерево. Поток закрывается.
+     */
+    public GedcomImportReportDTO importGedcom(Long treeId, InputStream in, Long userId)
+            throws AccessDeniedException, IOException {
+        if (!treeService.canEdit(treeId, userId)) {
+            throw new AccessDeniedException("Нет прав на редактирование дерева");
+        }
+        if (!treeRepository.existsById(treeId)) {
+            throw new ResourceNotFoundException("Дерево не найдено");
+        }
+
+        long started = System.nanoTime();
+        try (GedcomReader reader = new GedcomReader(in)) {
+            GedcomImportReportDTO report = transaction.execute(status -> {
+                Import job = new Import(treeId);
+                try {
+                    job.run(reader);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                treeGraphIndex.invalidate(treeId);
+                personSuggestIndex.invalidate(treeId);
+                return job.report;
+            });
+            log.info("Imported GEDCOM into tree {}: {} persons, {} families, {} relationships, {} errors in {} ms",
+                    treeId, report.getPersonsImported(), report.getFamiliesImported(),
+                    report.getRelationshipsImported(), report.getErrorCount(), (System.nanoTime() - started) / 1_000_000);
+            return report;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Дата GEDCOM: {@code 12 MAR 1950}, {@code MAR 1950}, {@code 1950}, в том числе с модификаторами
+     * ({@code ABT}, {@code BEF}, ...). У диапазона берётся первая дата, неизвестные день и месяц — 1.
+     * {@code null}, если дату не удалось разобрать.
+     */
+    static LocalDate parseDate(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        List<String> parts = new ArrayList<>(3);
+        for (String token : value.trim().toUpperCase(Locale.ROOT).split("\\s+")) {
+            if (token.equals("AND") || token.equals("TO") || token.startsWith("(")) {
+                break;
+            }
+            if (token.startsWith("@#")) {
+                continue;
+            }
+            if (DATE_QUALIFIERS.contains(token)) {
+                if (!parts.isEmpty()) {
+                    break;
+                }
+                continue;
+            }
+            parts.add(token);
+        }
+        if (parts.isEmpty() || parts.size() > 3) {
+            return null;
+        }
+
+        try {
+            // 1699/00 — двойная датировка, берётся первый год
+            String yearPart = parts.get(parts.size() - 1);
+            int slash = yearPart.indexOf('/');
+            int year = Integer.parseInt(slash > 0 ? yearPart.substring(0, slash) : yearPart);
+            int month = 1;
+            int day = 1;
+            if (parts.size() >= 2) {
+                Integer m = MONTHS.get(parts.get(parts.size() - 2));
+                if (m == null) {
+                    return null;
+                }
+                month = m;
+            }
+            if (parts.size() == 3) {
+                day = Integer.parseInt(parts.get(0));
+            }
+            return year > 0 ? LocalDate.of(year, month, day) : null;
+        } catch (NumberFormatException | DateTimeException e) {
+            return null;
+        }
+    }
+
+    private static String limit(String value, int maxLength) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.strip();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        return trimmed.length() <= maxLength ? trimmed : trimmed.substring(0, maxLength);
+    }
+
+    private record PersonRow(String xref, String firstName, String lastName, String middleName, Gender gender,
+                             LocalDate birthDate, LocalDate deathDate, String birthPlace, String deathPlace,
+                             String biography) {
+    }
+
+    private record FamilyRecord(int line, String xref, String husband, String wife, List<String> children,
+                                LocalDate married, LocalDate divorced) {
+    }
+
+    /**
+     * Состояние одного импорта: текущие порции, соответствие xref → ID и отчёт.
+     */
+    private final class Import {
+
+        private final Long treeId;
+        private final Timestamp now = Timestamp.from(Instant.now());
+        private final GedcomImportReportDTO report = new GedcomImportReportDTO();
+
+        private final Map<String, Long> ids = new HashMap<>();
+        private final List<PersonRow> pendingPersons = new ArrayList<>(BATCH_SIZE);
+        private final List<Object[]> pendingRelationships = new ArrayList<>(BATCH_SIZE);
+        /** Семьи, ссылающиеся на персоны, которые ещё не встретились в файле */
+        private final List<FamilyRecord> deferredFamilies = new ArrayList<>();
+
+        Import(Long treeId) {
+            this.treeId = treeId;
+        }
+
+        void run(GedcomReader reader) throws IOException {
+            GedcomReader.Record record;
+            while ((record = reader.next()) != null) {
+                GedcomReader.Node root = record.root();
+                for (String problem : record.problems()) {
+                    error(root.line(), root.xref(), problem);
+                }
+                switch (root.tag()) {
+                    case "INDI" -> readIndividual(root);
+                    case "FAM" -> readFamily(root);
+                    default -> {
+                        // HEAD, SOUR, NOTE, OBJE, TRLR и прочие записи не импортируются
+                    }
+                }
+                report.setRecordsRead(report.getRecordsRead() + 1);
+                if (report.getRecordsRead() % PROGRESS_EVERY == 0) {
+                    log.info("GEDCOM import into tree {}: {} records read, {} persons, {} families",
+                            treeId, report.getRecordsRead(), report.getPersonsImported(), report.getFamiliesImported());
+                }
+            }
+
+            flushPersons();
+            for (FamilyRecord family : deferredFamilies) {
+                linkFamily(family);
+            }
+            flushRelationships();
+        }
+
+        private void readIndividual(GedcomReader.Node indi) {
+            String xref = indi.xref();
+            if (xref != null && ids.containsKey(xref)) {
+                error(indi.line(), xref, "Повторный идентификатор персоны — запись пропущена");
+                return;
+            }
+
+            String given = null;
+            String surname = null;
+            GedcomReader.Node name = indi.child("NAME");
+            if (name != null) {
+                String value = name.value();
+                int open = value.indexOf('/');
+                if (open >= 0) {
+                    int close = value.indexOf('/', open + 1);
+                    given = value.substring(0, open);
+                    surname = close > 0 ? value.substring(open + 1, close) : value.substring(open + 1);
+                } else {
+                    given = value;
+                }
+                if (name.childValue("GIVN") != null) {
+                    given = name.childValue("GIVN");
+                }
+                if (name.childValue("SURN") != null) {
+                    surname = name.childValue("SURN");
+                }
+            }
+
+            // Первое из личных имён — имя, остальные — отчество (второе имя)
+            String firstName = null;
+            String middleName = null;
+            if (given != null) {
+                String[] words = given.strip().split("\\s+", 2);
+                firstName = limit(words[0], NAME_LENGTH);
+                middleName = words.length > 1 ? limit(words[1], NAME_LENGTH) : null;
+            }
+            String lastName = limit(surname, NAME_LENGTH);
+
+            String sex = indi.childValue("SEX");
+            Gender gender = sex == null ? Gender.OTHER
+                    : switch (sex.strip().toUpperCase(Locale.ROOT)) {
+                        case "M" -> Gender.MALE;
+                        case "F" -> Gender.FEMALE;
+                        default -> Gender.OTHER;
+                    };
+
+            GedcomReader.Node birth = indi.child("BIRT");
+            GedcomReader.Node death = indi.child("DEAT");
+            LocalDate birthDate = eventDate(indi, birth);
+            LocalDate deathDate = eventDate(indi, death);
+            if (birthDate != null && deathDate != null && birthDate.isAfter(deathDate)) {
+                error(indi.line(), xref, "Дата рождения позже даты смерти — дата смерти не импортирована");
+                deathDate = null;
+            }
+
+            StringBuilder biography = new StringBuilder();
+            for (GedcomReader.Node child : indi.children()) {
+                // Ссылки на записи NOTE (@N1@) не разыменовываются
+                if (child.tag().equals("NOTE") && !child.value().isBlank() && !child.value().startsWith("@")) {
+                    if (!biography.isEmpty()) {
+                        biography.append("\n\n");
+                    }
+                    biography.append(child.value().strip());
+                }
+            }
+
+            pendingPersons.add(new PersonRow(xref,
+                    firstName != null ? firstName : UNKNOWN_NAME,
+                    lastName != null ? lastName : UNKNOWN_NAME,
+                    middleName, gender, birthDate, deathDate,
+                    birth != null ? limit(birth.childValue("PLAC"), PLACE_LENGTH) : null,
+                    death != null ? limit(death.childValue("PLAC"), PLACE_LENGTH) : null,
+                    biography.isEmpty() ? null : biography.toString()));
+            if (xref != null) {
+                // Место под ID занято сразу, чтобы повтор xref в той же порции тоже был замечен
+                ids.put(xref, null);
+            }
+            if (pendingPersons.size() >= BATCH_SIZE) {
+                flushPersons();
+            }
+        }
+
+        private LocalDate eventDate(GedcomReader.Node record, GedcomReader.Node event) {
+            if (event == null) {
+                return null;
+            }
+            String value = event.childValue("DATE");
+            LocalDate date = parseDate(value);
+            if (date == null && value != null && !value.isBlank()) {
+                error(record.line(), record.xref(), "Не удалось разобрать дату «" + value.strip() + "» ("
+                        + event.tag() + ") — дата не импортирована");
+            }
+            return date;
+        }
+
+        private void readFamily(GedcomReader.Node fam) {
+            List<String> children = new ArrayList<>();
+            for (GedcomReader.Node child : fam.children()) {
+                if (child.tag().equals("CHIL")) {
+                    children.add(child.value().strip());
+                }
+            }
+            GedcomReader.Node marriage = fam.child("MARR");
+            GedcomReader.Node divorce = fam.child("DIV");
+            String husband = fam.childValue("HUSB");
+            String wife = fam.childValue("WIFE");
+            FamilyRecord family = new FamilyRecord(fam.line(), fam.xref(),
+                    husband != null ? husband.strip() : null, wife != null ? wife.strip() : null, children,
+                    eventDate(fam, marriage), eventDate(fam, divorce));
+
+            if (!pendingPersons.isEmpty()) {
+                flushPersons();
+            }
+            if (!allKnown(family)) {
+                deferredFamilies.add(family);
+                return;
+            }
+            linkFamily(family);
+        }
+
+        private boolean allKnown(FamilyRecord family) {
+            if (family.husband() != null && !ids.containsKey(family.husband())) {
+                return false;
+            }
+            if (family.wife() != null && !ids.containsKey(family.wife())) {
+                return false;
+            }
+            for (String child : family.children()) {
+                if (!ids.containsKey(child)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void linkFamily(FamilyRecord family) {
+            Long husband = resolve(family, family.husband());
+            Long wife = resolve(family, family.wife());
+            report.setFamiliesImported(report.getFamiliesImported() + 1);
+
+            if (husband != null && wife != null && !husband.equals(wife)) {
+                addRelationship(husband, wife, RelationshipType.PARTNERSHIP, family.married(), family.divorced());
+            }
+            for (String childXref : family.children()) {
+                Long child = resolve(family, childXref);
+                if (child == null) {
+                    continue;
+                }
+                for (Long parent : new Long[]{husband, wife}) {
+                    if (parent == null) {
+                        continue;
+                    }
+                    if (parent.equals(child)) {
+                        error(family.line(), family.xref(), "Персона " + childXref + " указана родителем самой себя");
+                        continue;
+                    }
+                    addRelationship(parent, child, RelationshipType.PARENT_CHILD, null, null);
+                }
+            }
+        }
+
+        private Long resolve(FamilyRecord family, String xref) {
+            if (xref == null) {
+                return null;
+            }
+            Long id = ids.get(xref);
+            if (id == null) {
+                error(family.line(), family.xref(), "Ссылка на неизвестную персону " + xref);
+            }
+            return id;
+        }
+
+        private void addRelationship(Long person1, Long person2, RelationshipType type,
+                                     LocalDate startDate, LocalDate endDate) {
+            pendingRelationships.add(new Object[]{treeId, person1, person2, type.name(),
+                    startDate != null ? Date.valueOf(startDate) : null,
+                    endDate != null ? Date.valueOf(endDate) : null, now});
+            if (pendingRelationships.size() >= BATCH_SIZE) {
+                flushRelationships();
+            }
+        }
+
+        private void flushPersons() {
+            if (pendingPersons.isEmpty()) {
+                return;
+            }
+            KeyHolder keys = new GeneratedKeyHolder();
+            jdbcTemplate.batchUpdate(con -> con.prepareStatement(INSERT_PERSON, new String[]{"id"}),
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            bindPerson(ps, pendingPersons.get(i));
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return pendingPersons.size();
+                        }
+                    }, keys);
+
+            List<Map<String, Object>> generated = keys.getKeyList();
+            for (int i = 0; i < pendingPersons.size(); i++) {
+                String xref = pendingPersons.get(i).xref();
+                if (xref != null) {
+                    ids.put(xref, ((Number) generated.get(i).get("id")).longValue());
+                }
+            }
+            report.setPersonsImported(report.getPersonsImported() + pendingPersons.size());
+            pendingPersons.clear();
+        }
+
+        private void bindPerson(PreparedStatement ps, PersonRow row) throws SQLException {
+            ps.setLong(1, treeId);
+            ps.setString(2, row.firstName());
+            ps.setString(3, row.lastName());
+            ps.setString(4, row.middleName());
+            ps.setString(5, row.gender().name());
+            ps.setDate(6, row.birthDate() != null ? Date.valueOf(row.birthDate()) : null);
+            ps.setDate(7, row.deathDate() != null ? Date.valueOf(row.deathDate()) : null);
+            ps.setString(8, row.birthPlace());
+            ps.setString(9, row.deathPlace());
+            ps.setString(10, row.biography());
+            ps.setString(11, PhoneticKey.of(row.firstName(), row.lastName(), row.middleName()));
+            ps.setTimestamp(12, now);
+            ps.setTimestamp(13, now);
+        }
+
+        private void flushRelationships() {
+            if (pendingRelationships.isEmpty()) {
+                return;
+            }
+            int[] counts = jdbcTemplate.batchUpdate(INSERT_RELATIONSHIP, pendingRelationships);
+            long inserted = 0;
+            for (int count : counts) {
+                // SUCCESS_NO_INFO (-2) — драйвер не сообщил число строк, связь считается вставленной
+                if (count != 0) {
+                    inserted++;
+                }
+            }
+            report.setRelationshipsImported(report.getRelationshipsImported() + inserted);
+            pendingRelationships.clear();
+        }
+
+        private void error(int line, String xref, String message) {
+            report.setErrorCount(report.getErrorCount() + 1);
+            if (report.getErrors().size() < MAX_REPORTED_ERRORS) {
+                report.getErrors().add(new GedcomImportReportDTO.RecordError(line, xref, message));
+            }
+        }
+    }
+}
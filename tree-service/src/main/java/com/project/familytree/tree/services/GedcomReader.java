@@ -0,0 +1,216 @@
+package com.project.familytree.tree.services;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Потоковое чтение GEDCOM: файл читается построчно, наружу отдаётся по одной записи уровня 0
+ * ({@code INDI}, {@code FAM}, {@code HEAD}, ...) с вложенными строками. В памяти — только текущая запись,
+ * поэтому потребление памяти не зависит от размера файла.
+ * <p>
+ * Продолжения {@code CONT}/{@code CONC} склеиваются со значением родительской строки.
+ * Строки, которые не удалось разобрать, не прерывают чтение — они попадают в {@link Record#problems()}.
+ * Ожидается кодировка UTF-8 (BOM допускается).
+ */
+public final class GedcomReader implements Closeable {
+
+    private final BufferedReader reader;
+    private int lineNumber;
+    /** Первая строка следующей записи, прочитанная при дочитывании текущей */
+    private Node pendingRoot;
+    private final List<String> pendingProblems = new ArrayList<>();
+
+    public GedcomReader(InputStream in) {
+        this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Следующая запись уровня 0 или {@code null}, если файл закончился.
+     */
+    public Record next() throws IOException {
+        Node root = pendingRoot;
+        pendingRoot = null;
+        List<String> problems = new ArrayList<>(pendingProblems);
+        pendingProblems.clear();
+
+        Deque<Node> path = new ArrayDeque<>();
+        if (root != null) {
+            path.push(root);
+        }
+
+        String raw;
+        while ((raw = reader.readLine()) != null) {
+            lineNumber++;
+            if (lineNumber == 1 && !raw.isEmpty() && raw.charAt(0) == '\uFEFF') {
+                raw = raw.substring(1);
+            }
+            // Хвостовые пробелы значимы для CONC, поэтому обрезается только начало строки
+            String text = raw.stripLeading();
+            if (text.isBlank()) {
+                continue;
+            }
+
+            Node node = parseLine(text, lineNumber);
+            if (node == null) {
+                (root == null ? pendingProblems : problems).add("Строка " + lineNumber + ": не удалось разобрать «"
+                        + abbreviate(text) + "»");
+                continue;
+            }
+
+            if (node.level == 0) {
+                if (root != null) {
+                    pendingRoot = node;
+                    return new Record(root, problems);
+                }
+                root = node;
+                path.push(node);
+                problems.addAll(pendingProblems);
+                pendingProblems.clear();
+                continue;
+            }
+            if (root == null) {
+                pendingProblems.add("Строка " + lineNumber + ": строка вне записи");
+                continue;
+            }
+
+            while (!path.isEmpty() && path.peek().level >= node.level) {
+                path.pop();
+            }
+            Node parent = path.peek();
+            if (parent == null || node.level > parent.level + 1) {
+                problems.add("Строка " + lineNumber + ": неверный уровень " + node.level);
+                continue;
+            }
+
+            if (node.tag.equals("CONT")) {
+                parent.value = parent.value + "\n" + node.value;
+            } else if (node.tag.equals("CONC")) {
+                parent.value = parent.value + node.value;
+            } else {
+                parent.children.add(node);
+                path.push(node);
+            }
+        }
+
+        return root != null ? new Record(root, problems) : null;
+    }
+
+    /**
+     * {@code level [@xref@] TAG [value]}; {@code null}, если строка не по формату.
+     */
+    private static Node parseLine(String text, int lineNumber) {
+        int space = text.indexOf(' ');
+        if (space <= 0) {
+            return null;
+        }
+        int level;
+        try {
+            level = Integer.parseInt(text.substring(0, space));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (level < 0) {
+            return null;
+        }
+
+        String rest = text.substring(space + 1).stripLeading();
+        String xref = null;
+        if (rest.startsWith("@")) {
+            int end = rest.indexOf('@', 1);
+            if (end < 0) {
+                return null;
+            }
+            xref = rest.substring(0, end + 1);
+            rest = rest.substring(end + 1).stripLeading();
+        }
+
+        int tagEnd = rest.indexOf(' ');
+        String tag = (tagEnd < 0 ? rest : rest.substring(0, tagEnd)).toUpperCase();
+        // Одиночный пробел после тега — разделитель, остальное — значение как есть
+        String value = tagEnd < 0 ? "" : rest.substring(tagEnd + 1);
+        if (tag.isEmpty()) {
+            return null;
+        }
+        return new Node(level, xref, tag, value, lineNumber);
+    }
+
+    private static String abbreviate(String text) {
+        return text.length() <= 50 ? text : text.substring(0, 50) + "…";
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Строка GEDCOM с вложенными строками.
+     */
+    public static final class Node {
+
+        final int level;
+        final String xref;
+        final String tag;
+        String value;
+        final int line;
+        final List<Node> children = new ArrayList<>(2);
+
+        Node(int level, String xref, String tag, String value, int line) {
+            this.level = level;
+            this.xref = xref;
+            this.tag = tag;
+            this.value = value;
+            this.line = line;
+        }
+
+        public String xref() {
+            return xref;
+        }
+
+        public String tag() {
+            return tag;
+        }
+
+        public String value() {
+            return value;
+        }
+
+        public int line() {
+            return line;
+        }
+
+        public List<Node> children() {
+            return children;
+        }
+
+        /** Первая вложенная строка с тегом или {@code null} */
+        public Node child(String tag) {
+            for (Node child : children) {
+                if (child.tag.equals(tag)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        /** Значение первой вложенной строки с тегом или {@code null} */
+        public String childValue(String tag) {
+            Node child = child(tag);
+            return child != null ? child.value : null;
+        }
+    }
+
+    /**
+     * Запись уровня 0 и замечания по её строкам.
+     */
+    public record Record(Node root, List<String> problems) {
+    }
+}
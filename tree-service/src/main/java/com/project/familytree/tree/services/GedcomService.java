@@ -1,156 +1,331 @@
 package com.project.familytree.tree.services;
 
+import com.project.familytree.tree.exceptions.ResourceNotFoundException;
 import com.project.familytree.tree.impls.Gender;
-import com.project.familytree.tree.impls.RelationshipType;
 import com.project.familytree.tree.models.Person;
-import com.project.familytree.tree.models.Relationship;
-import com.project.familytree.tree.models.Tree;
 import com.project.familytree.tree.repositories.PersonRepository;
-import com.project.familytree.tree.repositories.RelationshipRepository;
 import com.project.familytree.tree.repositories.TreeRepository;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
 
+/**
+ * Экспорт дерева в GEDCOM 5.5.1.
+ * <p>
+ * Файл пишется потоком прямо в {@link OutputStream} (ответ HTTP или файл задачи экспорта):
+ * персоны читаются курсором ({@link PersonRepository#streamByTreeId}) порциями по {@link #CHUNK_SIZE}
+ * с очисткой контекста персистентности, поэтому в памяти не бывает ни всех сущностей, ни всего файла.
+ * <p>
+ * Семьи (FAM) собираются до записи персон по графу связей из {@link TreeGraphIndex}: дети
+ * группируются хеш-индексом по паре родителей, так что сборка линейна по числу связей.
+ * Пара партнёров без детей — отдельная семья; ребёнок с одним известным родителем попадает в
+ * семью из одного родителя. В памяти держится только этот индекс (ID, без сущностей).
+ */
 @Service
 public class GedcomService {
 
+    private static final Logger log = LoggerFactory.getLogger(GedcomService.class);
+
     private static final DateTimeFormatter GEDCOM_DATE_FORMAT =
             DateTimeFormatter.ofPattern("d MMM yyyy", Locale.ENGLISH);
 
+    /** Через сколько персон очищать контекст персистентности и сбрасывать буфер в поток */
+    static final int CHUNK_SIZE = 500;
+
+    private static final long NO_PARENT = 0L;
+
+    private final TreeService treeService;
     private final TreeRepository treeRepository;
     private final PersonRepository personRepository;
-    private final RelationshipRepository relationshipRepository;
+    private final TreeGraphIndex treeGraphIndex;
+    private final EntityManager entityManager;
+    private final TransactionTemplate readOnlyTransaction;
 
-    public GedcomService(TreeRepository treeRepository,
+    public GedcomService(TreeService treeService,
+                         TreeRepository treeRepository,
                          PersonRepository personRepository,
-                         RelationshipRepository relationshipRepository) {
+                         TreeGraphIndex treeGraphIndex,
+                         EntityManager entityManager,
+                         PlatformTransactionManager transactionManager) {
+        this.treeService = treeService;
         this.treeRepository = treeRepository;
         this.personRepository = personRepository;
-        this.relationshipRepository = relationshipRepository;
+        this.treeGraphIndex = treeGraphIndex;
+        this.entityManager = entityManager;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
     }
 
     /**
-     * Generates a GEDCOM 5.5.1 string for the given tree.
-     *
-     * @param treeId the ID of the tree to export
-     * @return GEDCOM-formatted string
+     * Тело ответа с GEDCOM-файлом дерева. Права и существование дерева проверяются до начала записи.
      */
-    public String generateGedcom(Long treeId) {
-        Tree tree = treeRepository.findById(treeId)
-                .orElseThrow(() -> new IllegalArgumentException("Tree not found: " + treeId));
-
-        List<Person> persons = personRepository.findByTreeId(treeId);
-        List<Relationship> relationships = relationshipRepository.findByTreeId(treeId);
-
-        StringBuilder sb = new StringBuilder();
-
-        // HEAD
-        sb.append("0 HEAD\n");
-        sb.append("1 SOUR FamilyTree\n");
-        sb.append("2 VERS 1.0\n");
-        sb.append("1 GEDC\n");
-        sb.append("2 VERS 5.5.1\n");
-        sb.append("2 FORM LINEAGE-LINKED\n");
-        sb.append("1 CHAR UTF-8\n");
-
-        // INDI records for each person
-        for (Person person : persons) {
-            sb.append("0 @I").append(person.getId()).append("@ INDI\n");
-
-            // NAME: FirstName /LastName/
-            String firstName = person.getFirstName() != null ? person.getFirstName() : "";
-            String lastName = person.getLastName() != null ? person.getLastName() : "";
-            sb.append("1 NAME ").append(firstName).append(" /").append(lastName).append("/\n");
-
-            // SEX
-            if (person.getGender() == Gender.MALE) {
-                sb.append("1 SEX M\n");
-            } else if (person.getGender() == Gender.FEMALE) {
-                sb.append("1 SEX F\n");
-            }
-            // OTHER gender is omitted per spec
-
-            // BIRT
-            if (person.getBirthDate() != null || person.getBirthPlace() != null) {
-                sb.append("1 BIRT\n");
-                if (person.getBirthDate() != null) {
-                    sb.append("2 DATE ").append(
-                            person.getBirthDate().format(GEDCOM_DATE_FORMAT).toUpperCase(Locale.ENGLISH)
-                    ).append("\n");
-                }
-                if (person.getBirthPlace() != null && !person.getBirthPlace().isBlank()) {
-                    sb.append("2 PLAC ").append(person.getBirthPlace()).append("\n");
+    public StreamingResponseBody exportGedcom(Long treeId, Long userId) throws AccessDeniedException {
+        if (!treeService.canView(treeId, userId)) {
+            throw new AccessDeniedException("Нет прав на просмотр дерева");
+        }
+        if (!treeRepository.existsById(treeId)) {
+            throw new ResourceNotFoundException("Дерево не найдено");
+        }
+        return out -> writeGedcom(treeId, out);
+    }
+
+    /**
+     * Записать GEDCOM дерева в поток. Поток не закрывается.
+     */
+    public void writeGedcom(Long treeId, OutputStream out) throws IOException {
+        writeGedcom(treeId, out, written -> { });
+    }
+
+    /**
+     * Записать GEDCOM дерева в поток, сообщая число записанных персон после каждой порции.
+     * Поток не закрывается.
+     */
+    public void writeGedcom(Long treeId, OutputStream out, LongConsumer progress) throws IOException {
+        long started = System.nanoTime();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+
+        writeHeader(writer);
+        Families families = Families.of(treeGraphIndex.get(treeId));
+
+        try {
+            Integer written = readOnlyTransaction.execute(status -> {
+                int count = 0;
+                try (Stream<Person> persons = personRepository.streamByTreeId(treeId)) {
+                    Iterator<Person> it = persons.iterator();
+                    while (it.hasNext()) {
+                        Person person = it.next();
+                        writeIndividual(writer, person, families);
+                        families.rememberGender(person);
+                        if (++count % CHUNK_SIZE == 0) {
+                            entityManager.clear();
+                            writer.flush();
+                            progress.accept(count);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
+                return count;
+            });
+
+            for (Family family : families.list) {
+                writeFamily(writer, family, families);
             }
+            writer.write("0 TRLR\n");
+            writer.flush();
+            progress.accept(written);
+            log.debug("Exported GEDCOM for tree {}: {} persons, {} families in {} ms", treeId, written,
+                    families.list.size(), (System.nanoTime() - started) / 1_000_000);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void writeHeader(Writer w) throws IOException {
+        w.write("0 HEAD\n");
+        w.write("1 SOUR FamilyTree\n");
+        w.write("2 VERS 1.0\n");
+        w.write("1 GEDC\n");
+        w.write("2 VERS 5.5.1\n");
+        w.write("2 FORM LINEAGE-LINKED\n");
+        w.write("1 CHAR UTF-8\n");
+    }
+
+    private static void writeIndividual(Writer w, Person person, Families families) throws IOException {
+        w.write("0 @I" + person.getId() + "@ INDI\n");
+
+        // NAME: FirstName /LastName/
+        String firstName = person.getFirstName() != null ? person.getFirstName() : "";
+        String lastName = person.getLastName() != null ? person.getLastName() : "";
+        w.write("1 NAME " + line(firstName) + " /" + line(lastName) + "/\n");
+
+        // SEX; OTHER не выгружается по спецификации
+        if (person.getGender() == Gender.MALE) {
+            w.write("1 SEX M\n");
+        } else if (person.getGender() == Gender.FEMALE) {
+            w.write("1 SEX F\n");
+        }
+
+        writeEvent(w, "BIRT", person.getBirthDate(), person.getBirthPlace());
+        writeEvent(w, "DEAT", person.getDeathDate(), person.getDeathPlace());
+
+        for (Family family : families.childOf(person.getId())) {
+            w.write("1 FAMC @F" + family.number + "@\n");
+        }
+        for (Family family : families.spouseIn(person.getId())) {
+            w.write("1 FAMS @F" + family.number + "@\n");
+        }
+    }
 
-            // DEAT
-            if (person.getDeathDate() != null || person.getDeathPlace() != null) {
-                sb.append("1 DEAT\n");
-                if (person.getDeathDate() != null) {
-                    sb.append("2 DATE ").append(
-                            person.getDeathDate().format(GEDCOM_DATE_FORMAT).toUpperCase(Locale.ENGLISH)
-                    ).append("\n");
+    private static void writeEvent(Writer w, String tag, LocalDate date, String place) throws IOException {
+        if (date == null && place == null) {
+            return;
+        }
+        w.write("1 " + tag + "\n");
+        if (date != null) {
+            w.write("2 DATE " + date.format(GEDCOM_DATE_FORMAT).toUpperCase(Locale.ENGLISH) + "\n");
+        }
+        if (place != null && !place.isBlank()) {
+            w.write("2 PLAC " + line(place) + "\n");
+        }
+    }
+
+    /**
+     * HUSB/WIFE по полу: женщина — WIFE, иначе HUSB; при одинаковом поле первый — HUSB, второй — WIFE.
+     */
+    private static void writeFamily(Writer w, Family family, Families families) throws IOException {
+        w.write("0 @F" + family.number + "@ FAM\n");
+
+        Gender first = families.genders.get(family.parent1);
+        if (family.parent2 == NO_PARENT) {
+            w.write((first == Gender.FEMALE ? "1 WIFE @I" : "1 HUSB @I") + family.parent1 + "@\n");
+        } else if (first == Gender.FEMALE && families.genders.get(family.parent2) != Gender.FEMALE) {
+            w.write("1 WIFE @I" + family.parent1 + "@\n");
+            w.write("1 HUSB @I" + family.parent2 + "@\n");
+        } else {
+            w.write("1 HUSB @I" + family.parent1 + "@\n");
+            w.write("1 WIFE @I" + family.parent2 + "@\n");
+        }
+
+        for (int i = 0; i < family.childCount; i++) {
+            w.write("1 CHIL @I" + family.children[i] + "@\n");
+        }
+    }
+
+    /** Значение строки GEDCOM не может содержать перевод строки */
+    private static String line(String value) {
+        return value.replace('\r', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * Семья: один или два родителя (parent2 == {@link #NO_PARENT} — семья из одного родителя) и дети.
+     */
+    private static final class Family {
+
+        final long parent1;
+        final long parent2;
+        long[] children = new long[0];
+        int childCount;
+        int number;
+
+        Family(long parent1, long parent2) {
+            this.parent1 = parent1;
+            this.parent2 = parent2;
+        }
+
+        void addChild(long childId) {
+            if (childCount == children.length) {
+                children = Arrays.copyOf(children, Math.max(4, childCount * 2));
+            }
+            children[childCount++] = childId;
+        }
+    }
+
+    private record FamilyKey(long parent1, long parent2) {
+
+        static FamilyKey of(long a, long b) {
+            return a <= b ? new FamilyKey(a, b) : new FamilyKey(b, a);
+        }
+    }
+
+    /**
+     * Индекс семей дерева: семьи по паре родителей и обратные ссылки персона → семьи.
+     */
+    private static final class Families {
+
+        final List<Family> list;
+        private final Map<Long, List<Family>> asChild = new HashMap<>();
+        private final Map<Long, List<Family>> asSpouse = new HashMap<>();
+        /** Пол только родителей семей — нужен для HUSB/WIFE, заполняется при записи INDI */
+        final Map<Long, Gender> genders = new HashMap<>();
+
+        private Families(List<Family> list) {
+            this.list = list;
+            for (Family family : list) {
+                asSpouse.computeIfAbsent(family.parent1, id -> new ArrayList<>(1)).add(family);
+                if (family.parent2 != NO_PARENT) {
+                    asSpouse.computeIfAbsent(family.parent2, id -> new ArrayList<>(1)).add(family);
                 }
-                if (person.getDeathPlace() != null && !person.getDeathPlace().isBlank()) {
-                    sb.append("2 PLAC ").append(person.getDeathPlace()).append("\n");
+                for (int i = 0; i < family.childCount; i++) {
+                    asChild.computeIfAbsent(family.children[i], id -> new ArrayList<>(1)).add(family);
                 }
             }
         }
 
-        // FAM records for PARTNERSHIP relationships
-        List<Relationship> partnerships = relationships.stream()
-                .filter(r -> r.getType() == RelationshipType.PARTNERSHIP)
-                .collect(Collectors.toList());
-
-        // PARENT_CHILD relationships for finding children of couples
-        List<Relationship> parentChildRels = relationships.stream()
-                .filter(r -> r.getType() == RelationshipType.PARENT_CHILD)
-                .collect(Collectors.toList());
-
-        long famId = 1;
-        for (Relationship partnership : partnerships) {
-            Person p1 = partnership.getPerson1();
-            Person p2 = partnership.getPerson2();
-
-            sb.append("0 @F").append(famId).append("@ FAM\n");
-
-            // Determine HUSB/WIFE by gender
-            // If p1 is MALE → HUSB, p2 → WIFE
-            // If p1 is FEMALE → WIFE, p2 → HUSB
-            // If same gender or OTHER, use HUSB for p1, WIFE for p2
-            if (p1.getGender() == Gender.FEMALE && p2.getGender() != Gender.FEMALE) {
-                sb.append("1 WIFE @I").append(p1.getId()).append("@\n");
-                sb.append("1 HUSB @I").append(p2.getId()).append("@\n");
-            } else {
-                sb.append("1 HUSB @I").append(p1.getId()).append("@\n");
-                sb.append("1 WIFE @I").append(p2.getId()).append("@\n");
-            }
+        static Families of(TreeGraphIndex.Graph graph) {
+            Map<FamilyKey, Family> byParents = new HashMap<>();
+            for (int i = 0; i < graph.size(); i++) {
+                long personId = graph.personIdAt(i);
+
+                // Партнёрства — семьи и без детей; каждая пара учитывается один раз
+                for (long partner : graph.partnersOf(personId)) {
+                    if (personId < partner) {
+                        byParents.computeIfAbsent(FamilyKey.of(personId, partner),
+                                k -> new Family(k.parent1(), k.parent2()));
+                    }
+                }
 
-            // Find children: persons whose parent is p1 OR p2 (PARENT_CHILD where person1=parent, person2=child)
-            List<Long> childIds = new ArrayList<>();
-            for (Relationship pc : parentChildRels) {
-                Long parentId = pc.getPerson1().getId();
-                Long childId = pc.getPerson2().getId();
-                if ((parentId.equals(p1.getId()) || parentId.equals(p2.getId()))
-                        && !childIds.contains(childId)) {
-                    childIds.add(childId);
+                long[] parents = graph.parentsOf(personId);
+                if (parents.length == 0) {
+                    continue;
+                }
+                Arrays.sort(parents);
+                // Больше двух родителей — первая пара общая, остальные как семьи из одного родителя
+                FamilyKey key = parents.length == 1
+                        ? new FamilyKey(parents[0], NO_PARENT)
+                        : new FamilyKey(parents[0], parents[1]);
+                byParents.computeIfAbsent(key, k -> new Family(k.parent1(), k.parent2())).addChild(personId);
+                for (int p = 2; p < parents.length; p++) {
+                    byParents.computeIfAbsent(new FamilyKey(parents[p], NO_PARENT),
+                            k -> new Family(k.parent1(), k.parent2())).addChild(personId);
                 }
             }
-            for (Long childId : childIds) {
-                sb.append("1 CHIL @I").append(childId).append("@\n");
+
+            List<Family> list = new ArrayList<>(byParents.values());
+            list.sort(Comparator.<Family>comparingLong(f -> f.parent1).thenComparingLong(f -> f.parent2));
+            for (int i = 0; i < list.size(); i++) {
+                list.get(i).number = i + 1;
             }
+            return new Families(list);
+        }
 
-            famId++;
+        List<Family> childOf(long personId) {
+            return asChild.getOrDefault(personId, List.of());
         }
 
-        // TRLR
-        sb.append("0 TRLR\n");
+        List<Family> spouseIn(long personId) {
+            return asSpouse.getOrDefault(personId, List.of());
+        }
 
-        return sb.toString();
+        void rememberGender(Person person) {
+            if (asSpouse.containsKey(person.getId()) && person.getGender() != null) {
+                genders.put(person.getId(), person.getGender());
+            }
+        }
     }
 }
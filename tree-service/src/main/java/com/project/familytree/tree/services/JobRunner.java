@@ -0,0 +1,183 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.models.BackgroundJob;
+import com.project.familytree.tree.repositories.JobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Очередь фоновых задач, живущая в таблице БД (см. {@link JobRepository}), — общая часть
+ * {@link ThumbnailService} и {@link ExportJobService}.
+ * <p>
+ * Задача уходит в ограниченный пул воркеров узла; воркер захватывает её переходом PENDING → RUNNING
+ * и передаёт сервису. Если пул полон, задача остаётся PENDING. Периодический проход ({@link #sweep})
+ * возвращает в очередь задачи без пульса (узел упал или перезапущен) и подхватывает ожидающие.
+ * Каждое изменение задачи — отдельная короткая транзакция.
+ */
+class JobRunner<J extends BackgroundJob> {
+
+    private static final Logger log = LoggerFactory.getLogger(JobRunner.class);
+
+    static final int MAX_ERROR_LENGTH = 1000;
+
+    private final String name;
+    private final JobRepository<J> repository;
+    private final TransactionTemplate requiresNew;
+    private final Executor executor;
+    private final Clock clock;
+    private final int maxAttempts;
+    private final Duration staleAfter;
+    private final Consumer<J> worker;
+
+    /** Задачи, уже стоящие в очереди этого узла, — чтобы проход не ставил их повторно */
+    private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+    private volatile boolean shuttingDown;
+
+    /**
+     * @param name   имя очереди для логов
+     * @param worker обработка захваченной задачи; вызывается в потоке воркера без транзакции
+     */
+    JobRunner(String name, JobRepository<J> repository, PlatformTransactionManager transactionManager,
+              Executor executor, Clock clock, int maxAttempts, Duration staleAfter, Consumer<J> worker) {
+        this.name = name;
+        this.repository = repository;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.executor = executor;
+        this.clock = clock;
+        this.maxAttempts = maxAttempts;
+        this.staleAfter = staleAfter;
+        this.worker = worker;
+    }
+
+    /**
+     * Пул из {@code workers} потоков с очередью на {@code queueCapacity} задач; сверх неё задачи отклоняются.
+     */
+    static ExecutorService workerPool(String threadPrefix, int workers, int queueCapacity) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, threadPrefix + "-" + threadNumber.incrementAndGet()));
+    }
+
+    /**
+     * Отдать задачу воркерам. В транзакции — только после её коммита, иначе воркер может не увидеть строку.
+     */
+    void submit(Long jobId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(jobId);
+                }
+            });
+        } else {
+            enqueue(jobId);
+        }
+    }
+
+    private void enqueue(Long jobId) {
+        if (shuttingDown || !queued.add(jobId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> run(jobId));
+        } catch (RejectedExecutionException e) {
+            // Очередь полна — задача остаётся PENDING и будет подхвачена следующим проходом
+            queued.remove(jobId);
+            log.debug("{} queue is full, job {} stays pending", name, jobId);
+        }
+    }
+
+    /**
+     * Вернуть в очередь задачи упавших воркеров и подхватить ожидающие.
+     */
+    void sweep() {
+        Instant now = clock.instant();
+        Instant staleBefore = now.minus(staleAfter);
+        requiresNew.executeWithoutResult(status -> {
+            int requeued = repository.requeueStale(staleBefore, maxAttempts, now);
+            int failed = repository.failStale(staleBefore, maxAttempts, now);
+            if (requeued > 0 || failed > 0) {
+                log.warn("{} jobs without heartbeat: {} requeued, {} failed", name, requeued, failed);
+            }
+        });
+
+        for (Long jobId : repository.findPendingIds()) {
+            if (!queued.contains(jobId)) {
+                enqueue(jobId);
+            }
+        }
+    }
+
+    void run(Long jobId) {
+        queued.remove(jobId);
+        Integer claimed = requiresNew.execute(status -> repository.claim(jobId, clock.instant()));
+        if (claimed == null || claimed == 0) {
+            return;
+        }
+        J job = repository.findById(jobId).orElse(null);
+        if (job == null) {
+            // Задача удалена вместе с владельцем (деревом, медиафайлом, персоной)
+            return;
+        }
+        worker.accept(job);
+    }
+
+    /**
+     * Изменить задачу в отдельной транзакции. false — задачи уже нет.
+     */
+    boolean update(Long jobId, Consumer<J> change) {
+        return Boolean.TRUE.equals(requiresNew.execute(status -> repository.findById(jobId).map(job -> {
+            change.accept(job);
+            job.setUpdatedAt(clock.instant());
+            repository.save(job);
+            return true;
+        }).orElse(false)));
+    }
+
+    /** Выполнить действие в отдельной короткой транзакции */
+    <T> T inTransaction(TransactionCallback<T> action) {
+        return requiresNew.execute(action);
+    }
+
+    /**
+     * Задачу прервала остановка узла: она остаётся RUNNING и после перезапуска вернётся в очередь как зависшая.
+     */
+    boolean isShuttingDown() {
+        return shuttingDown;
+    }
+
+    void shutdown() {
+        shuttingDown = true;
+        if (executor instanceof ExecutorService service) {
+            service.shutdownNow();
+        }
+    }
+
+    /** Текст ошибки для колонки error */
+    static String errorMessage(Exception e) {
+        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        return message.length() <= MAX_ERROR_LENGTH ? message : message.substring(0, MAX_ERROR_LENGTH);
+    }
+}
@@ -0,0 +1,449 @@
+package com.project.familytree.tree.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.project.familytree.tree.dto.KinshipDTO;
+import com.project.familytree.tree.exceptions.ResourceNotFoundException;
+import com.project.familytree.tree.impls.Gender;
+import com.project.familytree.tree.repositories.PersonRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.file.AccessDeniedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Калькулятор родства между двумя персонами дерева.
+ * <p>
+ * Кратчайший путь ищется двунаправленным поиском в ширину по графу {@link TreeGraphIndex}
+ * (связи PARENT_CHILD и PARTNERSHIP). Найденные пути запоминаются в кеше Caffeine с ключом
+ * (treeId, версия графа, from, to): любое изменение персон или связей меняет версию, и
+ * старые записи просто перестают находиться. В кеше хранится только путь — имена и пол
+ * персон читаются при каждом запросе, поэтому переименование не требует сброса кеша.
+ */
+@Service
+public class KinshipService {
+
+    private static final Logger log = LoggerFactory.getLogger(KinshipService.class);
+
+    /** Следующая персона пути — родитель предыдущей */
+    static final byte STEP_UP = 0;
+    /** Следующая персона пути — ребёнок предыдущей */
+    static final byte STEP_DOWN = 1;
+    /** Следующая персона пути — партнёр предыдущей */
+    static final byte STEP_PARTNER = 2;
+
+    static final String CACHE_NAME = "tree.kinship";
+
+    private static final String NOT_RELATED = "Родство не найдено";
+
+    private static final CachedPath NO_PATH = new CachedPath(new long[0], new byte[0]);
+
+    private final TreeGraphIndex treeGraphIndex;
+    private final PersonRepository personRepository;
+    private final TreeService treeService;
+
+    /** Запомненные пути; записи устаревших версий графа вытесняются по размеру */
+    private final Cache<KinshipKey, CachedPath> cache;
+
+    public KinshipService(TreeGraphIndex treeGraphIndex,
+                          PersonRepository personRepository,
+                          TreeService treeService,
+                          @Value("${tree.kinship.cache-size:10000}") long cacheSize,
+                          MeterRegistry meterRegistry) {
+        this.treeGraphIndex = treeGraphIndex;
+        this.personRepository = personRepository;
+        this.treeService = treeService;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Определить, кем персона {@code toPersonId} приходится персоне {@code fromPersonId}.
+     */
+    @Transactional(readOnly = true)
+    public KinshipDTO getKinship(Long treeId, Long fromPersonId, Long toPersonId, Long userId)
+            throws AccessDeniedException {
+        if (!treeService.canView(treeId, userId)) {
+            throw new AccessDeniedException("Нет прав на просмотр дерева");
+        }
+
+        TreeGraphIndex.Graph graph = treeGraphIndex.get(treeId);
+        if (!graph.contains(fromPersonId) || !graph.contains(toPersonId)) {
+            throw new ResourceNotFoundException("Персона не найдена");
+        }
+
+        KinshipKey key = new KinshipKey(treeId, graph.version(), fromPersonId, toPersonId);
+        CachedPath path = cache.getIfPresent(key);
+        if (path == null) {
+            path = findPath(graph, graph.indexOf(fromPersonId), graph.indexOf(toPersonId));
+            log.debug("Kinship path {} -> {} in tree {}: {} steps",
+                    fromPersonId, toPersonId, treeId, path.steps().length);
+            cache.put(key, path);
+        }
+
+        if (path == NO_PATH) {
+            return new KinshipDTO(fromPersonId, toPersonId, false, NOT_RELATED, false, null, null, List.of());
+        }
+        return toDTO(fromPersonId, toPersonId, path);
+    }
+
+    private KinshipDTO toDTO(Long fromPersonId, Long toPersonId, CachedPath path) {
+        List<Long> ids = new ArrayList<>(path.personIds.length);
+        for (long id : path.personIds) {
+            ids.add(id);
+        }
+        // Строки: id, firstName, lastName, middleName, gender
+        Map<Long, Object[]> rows = new HashMap<>();
+        for (Object[] row : personRepository.findSummaryRowsByIds(ids)) {
+            rows.put(((Number) row[0]).longValue(), row);
+        }
+
+        Gender[] genders = new Gender[path.personIds.length];
+        List<KinshipDTO.Step> steps = new ArrayList<>(path.personIds.length);
+        for (int i = 0; i < path.personIds.length; i++) {
+            Object[] row = rows.get(path.personIds[i]);
+            genders[i] = row != null ? (Gender) row[4] : null;
+            String relation = i == 0 ? null : relationName(path.steps[i - 1]);
+            steps.add(new KinshipDTO.Step(path.personIds[i], row != null ? fullName(row) : null, relation));
+        }
+
+        boolean blood = true;
+        int up = 0;
+        int down = 0;
+        for (byte step : path.steps) {
+            if (step == STEP_PARTNER) {
+                blood = false;
+            } else if (step == STEP_UP) {
+                up++;
+            } else {
+                down++;
+            }
+        }
+        // Поколения имеют смысл, только если путь — один подъём к общему предку и один спуск
+        boolean singleLine = blood && isUpThenDown(path.steps);
+
+        return new KinshipDTO(fromPersonId, toPersonId, true, describe(path.steps, genders), blood,
+                singleLine ? up : null, singleLine ? down : null, steps);
+    }
+
+    private static boolean isUpThenDown(byte[] steps) {
+        boolean descending = false;
+        for (byte step : steps) {
+            if (step == STEP_DOWN) {
+                descending = true;
+            } else if (descending) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String fullName(Object[] row) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(row[2]).append(" ").append(row[1]);
+        String middleName = (String) row[3];
+        if (middleName != null && !middleName.trim().isEmpty()) {
+            sb.append(" ").append(middleName);
+        }
+        return sb.toString();
+    }
+
+    private static String relationName(byte step) {
+        return switch (step) {
+            case STEP_UP -> "PARENT";
+            case STEP_DOWN -> "CHILD";
+            default -> "PARTNER";
+        };
+    }
+
+    // ─── Поиск пути ──────────────────────────────────────────────────────────────
+
+    /**
+     * Двунаправленный BFS по индексам графа. На каждом шаге целиком раскрывается меньший
+     * из двух фронтов; после уровня, на котором фронты встретились, лучший найденный стык
+     * даёт кратчайший путь.
+     */
+    static CachedPath findPath(TreeGraphIndex.Graph graph, int source, int target) {
+        if (source == target) {
+            return new CachedPath(new long[]{graph.personIdAt(source)}, new byte[0]);
+        }
+
+        int n = graph.size();
+        int[] distF = new int[n];
+        int[] distB = new int[n];
+        int[] predF = new int[n];
+        int[] predB = new int[n];
+        Arrays.fill(distF, -1);
+        Arrays.fill(distB, -1);
+        distF[source] = 0;
+        distB[target] = 0;
+
+        int[] frontF = {source};
+        int[] frontB = {target};
+        int sizeF = 1;
+        int sizeB = 1;
+        int best = Integer.MAX_VALUE;
+        int meetFrom = -1;
+        int meetTo = -1;
+
+        while (sizeF > 0 && sizeB > 0 && best == Integer.MAX_VALUE) {
+            boolean forward = sizeF <= sizeB;
+            int[] front = forward ? frontF : frontB;
+            int size = forward ? sizeF : sizeB;
+            int[] dist = forward ? distF : distB;
+            int[] pred = forward ? predF : predB;
+            int[] otherDist = forward ? distB : distF;
+
+            int[] next = new int[Math.max(16, size * 2)];
+            int nextSize = 0;
+            for (int k = 0; k < size; k++) {
+                int u = front[k];
+                for (int e = graph.edgeStart(u); e < graph.edgeEnd(u); e++) {
+                    int v = graph.indexOf(graph.target(e));
+                    if (v < 0) {
+                        continue;
+                    }
+                    if (otherDist[v] >= 0) {
+                        int total = dist[u] + 1 + otherDist[v];
+                        if (total < best) {
+                            best = total;
+                            meetFrom = forward ? u : v;
+                            meetTo = forward ? v : u;
+                        }
+                    }
+                    if (dist[v] < 0) {
+                        dist[v] = dist[u] + 1;
+                        pred[v] = u;
+                        if (nextSize == next.length) {
+                            next = Arrays.copyOf(next, next.length * 2);
+                        }
+                        next[nextSize++] = v;
+                    }
+                }
+            }
+
+            if (forward) {
+                frontF = next;
+                sizeF = nextSize;
+            } else {
+                frontB = next;
+                sizeB = nextSize;
+            }
+        }
+
+        if (best == Integer.MAX_VALUE) {
+            return NO_PATH;
+        }
+
+        // Путь: source .. meetFrom (по predF), затем meetTo .. target (по predB)
+        int[] order = new int[best + 1];
+        int pos = distF[meetFrom];
+        for (int v = meetFrom; ; v = predF[v]) {
+            order[pos--] = v;
+            if (v == source) {
+                break;
+            }
+        }
+        pos = distF[meetFrom] + 1;
+        for (int v = meetTo; ; v = predB[v]) {
+            order[pos++] = v;
+            if (v == target) {
+                break;
+            }
+        }
+
+        long[] personIds = new long[order.length];
+        byte[] steps = new byte[order.length - 1];
+        for (int i = 0; i < order.length; i++) {
+            personIds[i] = graph.personIdAt(order[i]);
+            if (i > 0) {
+                steps[i - 1] = stepBetween(graph, order[i - 1], personIds[i]);
+            }
+        }
+        return new CachedPath(personIds, steps);
+    }
+
+    private static byte stepBetween(TreeGraphIndex.Graph graph, int from, long toPersonId) {
+        for (int e = graph.edgeStart(from); e < graph.edgeEnd(from); e++) {
+            if (graph.target(e) == toPersonId) {
+                byte kind = graph.kind(e);
+                if (kind == TreeGraphIndex.KIND_PARENT) {
+                    return STEP_UP;
+                }
+                if (kind == TreeGraphIndex.KIND_CHILD) {
+                    return STEP_DOWN;
+                }
+                return STEP_PARTNER;
+            }
+        }
+        throw new IllegalStateException("Ребро пути отсутствует в графе");
+    }
+
+    // ─── Название родства ────────────────────────────────────────────────────────
+
+    /**
+     * Название родства по шагам пути. {@code genders[i]} — пол i-й персоны пути
+     * (0 — исходная, последняя — искомая).
+     */
+    static String describe(byte[] steps, Gender[] genders) {
+        Gender target = genders[genders.length - 1];
+        if (steps.length == 0) {
+            return "та же персона";
+        }
+
+        String inLaw = inLawName(steps, genders[1], target);
+        if (inLaw != null) {
+            return inLaw;
+        }
+
+        // Путь разбивается на кровные участки (подъём, затем спуск) и партнёрские шаги
+        List<String> parts = new ArrayList<>();
+        int i = 0;
+        while (i < steps.length) {
+            if (steps[i] == STEP_PARTNER) {
+                parts.add(pick(genders[i + 1], "муж", "жена"));
+                i++;
+                continue;
+            }
+            int up = 0;
+            int down = 0;
+            while (i < steps.length && steps[i] == STEP_UP) {
+                up++;
+                i++;
+            }
+            while (i < steps.length && steps[i] == STEP_DOWN) {
+                down++;
+                i++;
+            }
+            parts.add(bloodName(up, down, genders[i]));
+        }
+        return String.join(" → ", parts);
+    }
+
+    private static String inLawName(byte[] steps, Gender partner, Gender target) {
+        String pattern = pattern(steps);
+        return switch (pattern) {
+            case "P" -> pick(target, "муж", "жена");
+            case "PU" -> partner == Gender.MALE ? pick(target, "свёкор", "свекровь")
+                    : partner == Gender.FEMALE ? pick(target, "тесть", "тёща") : null;
+            case "UP" -> pick(target, "отчим", "мачеха");
+            case "PD" -> pick(target, "пасынок", "падчерица");
+            case "DP", "UDP" -> pick(target, "зять", "невестка");
+            case "PUD" -> partner == Gender.MALE ? pick(target, "деверь", "золовка")
+                    : partner == Gender.FEMALE ? pick(target, "шурин", "свояченица") : null;
+            default -> null;
+        };
+    }
+
+    private static String pattern(byte[] steps) {
+        StringBuilder sb = new StringBuilder(steps.length);
+        for (byte step : steps) {
+            sb.append(step == STEP_UP ? 'U' : step == STEP_DOWN ? 'D' : 'P');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Кровное родство: {@code up} поколений вверх до общего предка и {@code down} вниз.
+     */
+    static String bloodName(int up, int down, Gender gender) {
+        if (up == 0 && down == 0) {
+            return "та же персона";
+        }
+        if (down == 0) {
+            if (up == 1) {
+                return pick(gender, "отец", "мать");
+            }
+            return "пра".repeat(up - 2) + pick(gender, "дедушка", "бабушка");
+        }
+        if (up == 0) {
+            if (down == 1) {
+                return pick(gender, "сын", "дочь");
+            }
+            return "пра".repeat(down - 2) + pick(gender, "внук", "внучка");
+        }
+        if (up == 1 && down == 1) {
+            return pick(gender, "брат", "сестра");
+        }
+        if (up == 1) {
+            if (down == 2) {
+                return pick(gender, "племянник", "племянница");
+            }
+            return "пра".repeat(down - 3) + pick(gender, "внучатый племянник", "внучатая племянница");
+        }
+        if (down == 1) {
+            if (up == 2) {
+                return pick(gender, "дядя", "тётя");
+            }
+            String pra = "пра".repeat(up - 3);
+            return pick(gender, "двоюродный " + pra + "дедушка", "двоюродная " + pra + "бабушка");
+        }
+
+        String cousin = cousinPrefix(Math.min(up, down) - 1, gender) + " " + pick(gender, "брат", "сестра");
+        int diff = up - down;
+        if (diff == 0) {
+            return cousin;
+        }
+        int generations = Math.abs(diff);
+        return cousin + ", на " + generations + " " + generationsWord(generations) + " "
+                + (diff > 0 ? "старше" : "младше");
+    }
+
+    private static final String[] COUSIN_DEGREES = {
+            "двоюродн", "троюродн", "четвероюродн", "пятиюродн", "шестиюродн",
+            "семиюродн", "восьмиюродн", "девятиюродн", "десятиюродн"
+    };
+
+    private static String cousinPrefix(int degree, Gender gender) {
+        String stem = degree <= COUSIN_DEGREES.length
+                ? COUSIN_DEGREES[degree - 1]
+                : (degree + 1) + "-юродн";
+        return gender == Gender.FEMALE ? stem + "ая" : stem + "ый";
+    }
+
+    private static String generationsWord(int n) {
+        int mod100 = n % 100;
+        int mod10 = n % 10;
+        if (mod100 >= 11 && mod100 <= 14) {
+            return "поколений";
+        }
+        if (mod10 == 1) {
+            return "поколение";
+        }
+        if (mod10 >= 2 && mod10 <= 4) {
+            return "поколения";
+        }
+        return "поколений";
+    }
+
+    /** Форма по полу; если пол не мужской и не женский — обе формы через «или» */
+    private static String pick(Gender gender, String male, String female) {
+        if (gender == Gender.MALE) {
+            return male;
+        }
+        if (gender == Gender.FEMALE) {
+            return female;
+        }
+        return male + " или " + female;
+    }
+
+    record KinshipKey(long treeId, long version, long fromPersonId, long toPersonId) {
+    }
+
+    /** Запомненный путь: ID персон и шаги между ними (STEP_*) */
+    record CachedPath(long[] personIds, byte[] steps) {
+    }
+}
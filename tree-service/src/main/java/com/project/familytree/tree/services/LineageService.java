@@ -0,0 +1,169 @@
+package com.project.familytree.tree.services;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.project.familytree.tree.dto.LineageNodeDTO;
+import com.project.familytree.tree.exceptions.BusinessException;
+import com.project.familytree.tree.exceptions.ResourceNotFoundException;
+import com.project.familytree.tree.impls.Gender;
+import com.project.familytree.tree.repositories.PersonRepository;
+import com.project.familytree.tree.repositories.RelationshipRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AccessDeniedException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Сервис выборки предков и потомков персоны.
+ * Вся родословная до заданной глубины читается одним рекурсивным запросом (WITH RECURSIVE)
+ * по связям PARENT_CHILD, без пошагового обхода на клиенте.
+ * <p>
+ * Строки запроса читаются курсором и сразу пишутся в ответ через {@link JsonGenerator}, как в
+ * {@link PersonStreamService}: в памяти держится только текущая персона. Формат ответа совпадает с
+ * {@code CustomApiResponse<LineageDTO>}. Права, глубина и наличие персоны проверяются до начала записи.
+ */
+@Service
+public class LineageService {
+
+    private static final Logger log = LoggerFactory.getLogger(LineageService.class);
+
+    public static final int DEFAULT_DEPTH = 4;
+    public static final int MAX_DEPTH = 12;
+
+    private final RelationshipRepository relationshipRepository;
+    private final PersonRepository personRepository;
+    private final TreeService treeService;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public LineageService(RelationshipRepository relationshipRepository,
+                          PersonRepository personRepository,
+                          TreeService treeService,
+                          ObjectMapper objectMapper,
+                          PlatformTransactionManager transactionManager) {
+        this.relationshipRepository = relationshipRepository;
+        this.personRepository = personRepository;
+        this.treeService = treeService;
+        this.objectMapper = objectMapper;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    public StreamingResponseBody streamAncestors(Long treeId, Long personId, int depth, Long userId)
+            throws AccessDeniedException {
+        check(treeId, personId, depth, userId);
+        return body(personId, "ANCESTORS", depth,
+                () -> relationshipRepository.streamAncestorRows(treeId, personId, depth));
+    }
+
+    public StreamingResponseBody streamDescendants(Long treeId, Long personId, int depth, Long userId)
+            throws AccessDeniedException {
+        check(treeId, personId, depth, userId);
+        return body(personId, "DESCENDANTS", depth,
+                () -> relationshipRepository.streamDescendantRows(treeId, personId, depth));
+    }
+
+    private void check(Long treeId, Long personId, int depth, Long userId) throws AccessDeniedException {
+        if (!treeService.canView(treeId, userId)) {
+            throw new AccessDeniedException("Нет прав на просмотр дерева");
+        }
+        if (depth < 1 || depth > MAX_DEPTH) {
+            throw new BusinessException("Глубина должна быть от 1 до " + MAX_DEPTH);
+        }
+        if (!personRepository.existsByIdAndTreeId(personId, treeId)) {
+            throw new ResourceNotFoundException("Персона не найдена");
+        }
+    }
+
+    /**
+     * Сворачивает строки CTE в узлы: одна персона может прийти несколькими путями — её строки идут
+     * подряд и уже несут минимальное поколение, узел собирает все связующие ID и пишется при смене персоны.
+     */
+    private StreamingResponseBody body(Long personId, String direction, int depth, Supplier<Stream<Object[]>> rows) {
+        return out -> {
+            long started = System.nanoTime();
+            try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+                generator.writeStartObject();
+                generator.writeBooleanField("success", true);
+                generator.writeNullField("message");
+                generator.writeObjectFieldStart("data");
+                generator.writeNumberField("rootPersonId", personId);
+                generator.writeStringField("direction", direction);
+                generator.writeNumberField("depth", depth);
+                generator.writeArrayFieldStart("nodes");
+
+                Integer written = readOnlyTransaction.execute(status -> {
+                    int count = 0;
+                    LineageNodeDTO node = null;
+                    try (Stream<Object[]> stream = rows.get()) {
+                        Iterator<Object[]> it = stream.iterator();
+                        while (it.hasNext()) {
+                            Object[] row = it.next();
+                            Long id = ((Number) row[0]).longValue();
+                            if (node == null || !node.getPersonId().equals(id)) {
+                                if (node != null) {
+                                    generator.writeObject(node);
+                                    count++;
+                                }
+                                node = toNode(id, row);
+                            }
+                            Long viaId = row[2] != null ? ((Number) row[2]).longValue() : null;
+                            if (viaId != null && !node.getLinkedPersonIds().contains(viaId)) {
+                                node.getLinkedPersonIds().add(viaId);
+                            }
+                        }
+                        if (node != null) {
+                            generator.writeObject(node);
+                            count++;
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return count;
+                });
+
+                generator.writeEndArray();
+                generator.writeEndObject();
+                generator.writeEndObject();
+                log.debug("Lineage {} of person {} (depth {}): {} persons in {} ms",
+                        direction, personId, depth, written, (System.nanoTime() - started) / 1_000_000);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    private static LineageNodeDTO toNode(Long id, Object[] row) {
+        return new LineageNodeDTO(
+                id,
+                (String) row[3],
+                (String) row[4],
+                (String) row[5],
+                row[6] != null ? Gender.valueOf(row[6].toString()) : null,
+                toLocalDate(row[7]),
+                toLocalDate(row[8]),
+                ((Number) row[1]).intValue(),
+                new ArrayList<>());
+    }
+
+    private static LocalDate toLocalDate(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof LocalDate localDate) {
+            return localDate;
+        }
+        return ((java.sql.Date) value).toLocalDate();
+    }
+}
@@ -0,0 +1,183 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.models.MediaFile;
+import com.project.familytree.tree.repositories.MediaContentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.function.Function;
+
+/**
+ * Хранение содержимого медиафайлов с дедупликацией по SHA-256: одинаковые файлы, загруженные к разным
+ * персонам и деревьям, ссылаются на один объект S3, который удаляется вместе с последней ссылкой.
+ * Объекты, загруженные клиентом напрямую в S3, и файлы, загруженные до дедупликации, в таблице
+ * media_contents не учитываются и принадлежат единственной записи media_files.
+ */
+@Service
+public class MediaContentService {
+
+    private static final Logger log = LoggerFactory.getLogger(MediaContentService.class);
+
+    /** Общие объекты лежат вне каталогов деревьев: на них могут ссылаться файлы разных деревьев */
+    static final String CONTENT_PREFIX = "trees/content/";
+
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private final MediaContentRepository mediaContentRepository;
+    private final S3Service s3Service;
+    private final ThumbnailService thumbnailService;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate requiresNew;
+
+    public MediaContentService(MediaContentRepository mediaContentRepository,
+                               S3Service s3Service,
+                               ThumbnailService thumbnailService,
+                               PlatformTransactionManager transactionManager) {
+        this.mediaContentRepository = mediaContentRepository;
+        this.s3Service = s3Service;
+        this.thumbnailService = thumbnailService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Сохранить содержимое файла и в одной транзакции с добавлением ссылки на него выполнить
+     * {@code saveFile} с итоговым ключом S3 (сохранение записи media_files). Вызывается вне транзакции.
+     * <p>
+     * Ключ зависит только от содержимого, поэтому новый файл загружается в S3 до транзакции —
+     * параллельные загрузки того же файла пишут один и тот же объект, а ссылка добавляется одним
+     * upsert. Дубликат уже сохранённого содержимого повторно не загружается. Если транзакция
+     * откатилась, загруженный объект удаляется, когда на него никто не ссылается.
+     */
+    public <T> T store(MultipartFile file, String extension, String contentType,
+                       Function<String, T> saveFile) throws IOException {
+        // Multipart-файл уже лежит у нас (в памяти или во временном файле), поэтому хеш считается
+        // до загрузки — дубликат вообще не отправляется в S3
+        String sha256;
+        try (InputStream in = file.getInputStream()) {
+            sha256 = sha256(in);
+        }
+        String ownKey = CONTENT_PREFIX + sha256 + extension;
+        boolean uploaded = !mediaContentRepository.existsBySha256(sha256);
+        if (uploaded) {
+            upload(file, ownKey, contentType);
+        }
+
+        try {
+            return transactionTemplate.execute(status -> {
+                mediaContentRepository.addReference(sha256, ownKey, file.getSize());
+                Object[] row = mediaContentRepository.findReferenceRows(sha256).get(0);
+                String s3Key = (String) row[0];
+                if (((Number) row[1]).intValue() == 1) {
+                    // Строку создал этот запрос. Объект мог удалить release последней ссылки, пока
+                    // загрузка шла без блокировки, — тогда он загружается заново под блокировкой строки
+                    if (!uploaded || !s3Service.exists(s3Key)) {
+                        try {
+                            upload(file, s3Key, contentType);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    log.info("Stored new media content {}", s3Key);
+                } else {
+                    if (uploaded && !s3Key.equals(ownKey)) {
+                        // То же содержимое уже хранится под ключом с другим расширением
+                        deleteObject(ownKey);
+                    }
+                    log.info("Reusing stored media content {} for duplicate upload", s3Key);
+                }
+                return saveFile.apply(s3Key);
+            });
+        } catch (RuntimeException e) {
+            if (uploaded) {
+                discard(sha256, ownKey, file.getSize());
+            }
+            throw e;
+        }
+    }
+
+    private void upload(MultipartFile file, String s3Key, String contentType) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            s3Service.upload(s3Key, in, contentType, file.getSize());
+        }
+    }
+
+    /**
+     * Удалить объект, загруженный для откатившейся транзакции, если на него никто не ссылается.
+     * Строка содержимого блокируется, чтобы параллельная загрузка не сослалась на удаляемый объект.
+     */
+    private void discard(String sha256, String s3Key, long fileSize) {
+        try {
+            requiresNew.executeWithoutResult(status -> {
+                mediaContentRepository.lock(sha256, s3Key, fileSize);
+                Object[] row = mediaContentRepository.findReferenceRows(sha256).get(0);
+                if (!s3Key.equals(row[0]) || mediaContentRepository.deleteUnreferenced(s3Key) > 0) {
+                    deleteObject(s3Key);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.warn("Could not discard unreferenced media content {}", s3Key, e);
+        }
+    }
+
+    /**
+     * Освободить объект S3 удаляемого медиафайла: общий объект удаляется только вместе с последней ссылкой.
+     * Ошибки S3 только логируются — запись в БД удаляется в любом случае.
+     */
+    @Transactional
+    public void release(MediaFile mediaFile) {
+        String s3Key = mediaFile.getFilePath();
+        if (mediaContentRepository.decrementRefCount(s3Key) == 0) {
+            // Объект принадлежит только этому файлу
+            deleteObject(s3Key);
+            if (mediaFile.isThumbnailsReady()) {
+                thumbnailService.deleteVariants(s3Key);
+            }
+            return;
+        }
+        if (mediaContentRepository.deleteUnreferenced(s3Key) > 0) {
+            // Копии могли построить для любой из ссылок, поэтому флаг этого файла не показателен
+            deleteObject(s3Key);
+            if (ThumbnailService.supports(s3Key)) {
+                thumbnailService.deleteVariants(s3Key);
+            }
+            log.info("Deleted media content {}: no references left", s3Key);
+        }
+    }
+
+    private void deleteObject(String s3Key) {
+        try {
+            s3Service.delete(s3Key);
+        } catch (Exception e) {
+            log.warn("Could not delete file from S3: {}", s3Key, e);
+        }
+    }
+
+    static String sha256(InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -2,31 +2,48 @@ package com.project.familytree.tree.services;
 
 import com.project.familytree.auth.models.User;
 import com.project.familytree.auth.services.UserService;
+import com.project.familytree.tree.dto.CursorPageResponse;
 import com.project.familytree.tree.dto.MediaFileDTO;
+import com.project.familytree.tree.dto.MediaUploadConfirmRequest;
+import com.project.familytree.tree.dto.MediaUploadDTO;
+import com.project.familytree.tree.dto.MediaUploadRequest;
 import com.project.familytree.tree.exceptions.BusinessException;
 import com.project.familytree.tree.exceptions.ResourceNotFoundException;
 import com.project.familytree.tree.impls.MediaFileType;
 import com.project.familytree.tree.models.MediaFile;
+import com.project.familytree.tree.models.PendingUpload;
 import com.project.familytree.tree.models.Person;
 import com.project.familytree.tree.models.Tree;
 import com.project.familytree.tree.repositories.MediaFileRepository;
+import com.project.familytree.tree.repositories.PendingUploadRepository;
 import com.project.familytree.tree.repositories.PersonRepository;
 import com.project.familytree.tree.repositories.TreeRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.AccessDeniedException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.regex.Pattern;
 
 /**
  * Сервис управления медиафайлами.
@@ -35,6 +52,12 @@ import java.util.UUID;
  * Структура ключей в бакете:
  *   trees/{treeId}/media/{uuid}.ext   — медиафайлы персон
  *   trees/{treeId}/avatars/{uuid}.ext — аватары персон
+ * <p>
+ * Кроме загрузки через бэкенд ({@link #uploadFile}) поддерживается прямая загрузка в хранилище:
+ * {@link #initiateUpload} выдаёт presigned URL (один PUT или части multipart-загрузки),
+ * клиент загружает файл сам, а {@link #confirmUpload} проверяет объект через HEAD и создаёт запись.
+ * Выданные ключи хранятся в pending_uploads: подтвердить загрузку может только получивший её
+ * пользователь, а неподтверждённые загрузки прерывает {@link #sweepAbandonedUploads()}.
  */
 @Service
 public class MediaFileService {
@@ -42,6 +65,14 @@ public class MediaFileService {
     private static final Logger log = LoggerFactory.getLogger(MediaFileService.class);
     private static final int MAX_MEDIA_FILES = 10;
 
+    /** Максимальный размер файла при прямой загрузке — тот же, что spring.servlet.multipart.max-file-size */
+    static final long MAX_FILE_SIZE = 50L * 1024 * 1024;
+
+    /** Буфер копирования при скачивании — в памяти не бывает больше одного буфера на запрос */
+    static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+
+    private static final Pattern SINGLE_BYTE_RANGE = Pattern.compile("bytes=(\\d+-\\d*|-\\d+)");
+
     /** Whitelist of allowed file extensions. Executable and script types are blocked. */
     private static final Set<String> ALLOWED_EXTENSIONS = Set.of(
             ".jpg", ".jpeg", ".png", ".gif", ".webp", ".bmp", ".svg",
@@ -58,22 +89,40 @@ public class MediaFileService {
     private final UserService userService;
     private final TreeService treeService;
     private final S3Service s3Service;
+    private final ThumbnailService thumbnailService;
+    private final MediaContentService mediaContentService;
+    private final PendingUploadRepository pendingUploadRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${tree.direct-upload.abandon-after-minutes:60}")
+    private long abandonAfterMinutes = 60;
 
     public MediaFileService(MediaFileRepository mediaFileRepository,
                             PersonRepository personRepository,
                             TreeRepository treeRepository,
                             UserService userService,
                             TreeService treeService,
-                            S3Service s3Service) {
+                            S3Service s3Service,
+                            ThumbnailService thumbnailService,
+                            MediaContentService mediaContentService,
+                            PendingUploadRepository pendingUploadRepository,
+                            PlatformTransactionManager transactionManager) {
         this.mediaFileRepository = mediaFileRepository;
         this.personRepository = personRepository;
         this.treeRepository = treeRepository;
         this.userService = userService;
         this.treeService = treeService;
         this.s3Service = s3Service;
+        this.thumbnailService = thumbnailService;
+        this.mediaContentService = mediaContentService;
+        this.pendingUploadRepository = pendingUploadRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
-    @Transactional
+    /**
+     * Загрузить файл через бэкенд. Транзакции нет на время загрузки в S3: содержимое загружается до неё,
+     * а запись media_files сохраняется вместе со ссылкой на содержимое, см. {@link MediaContentService#store}.
+     */
     public MediaFileDTO uploadFile(Long treeId, Long personId, MultipartFile file,
                                    MediaFileType fileType, String description,
                                    Long userId) throws AccessDeniedException, IOException {
@@ -84,55 +133,195 @@ public class MediaFileService {
         Tree tree = treeRepository.findById(treeId)
                 .orElseThrow(() -> new ResourceNotFoundException("Дерево не найдено"));
 
-        Person person = null;
-        if (personId != null) {
-            person = personRepository.findById(personId)
-                    .orElseThrow(() -> new ResourceNotFoundException("Персона не найдена"));
-            if (!person.getTree().getId().equals(treeId)) {
-                throw new AccessDeniedException("Персона не принадлежит этому дереву");
+        Person person = findPersonForUpload(treeId, personId);
+
+        User uploader = userService.findById(userId);
+
+        String originalFilename = file.getOriginalFilename();
+        String extension = checkExtension(originalFilename);
+
+        // Загружаем в S3 или ссылаемся на уже сохранённый файл с тем же содержимым
+        return mediaContentService.store(file, extension, resolveContentType(file.getContentType(), extension), s3Key -> {
+            log.info("Stored media file in S3: {} (tree={}, person={})", s3Key, treeId, personId);
+
+            // Сохраняем метаданные в БД (filePath = s3Key)
+            MediaFile mediaFile = new MediaFile(
+                    person,
+                    tree,
+                    originalFilename != null ? originalFilename : s3Key,
+                    s3Key,
+                    fileType,
+                    file.getSize(),
+                    description,
+                    uploader
+            );
+            // У общего объекта копии могли уже построить для другой ссылки
+            mediaFile.setThumbnailsReady(mediaFileRepository.existsByFilePathAndThumbnailsReadyTrue(s3Key));
+
+            mediaFile = mediaFileRepository.save(mediaFile);
+            if (!mediaFile.isThumbnailsReady()) {
+                thumbnailService.enqueueMedia(mediaFile);
             }
-            long existingCount = mediaFileRepository.countByPersonId(personId);
-            if (existingCount >= MAX_MEDIA_FILES) {
-                throw new BusinessException("Достигнут лимит медиафайлов (" + MAX_MEDIA_FILES + ") для данной персоны");
+            return convertToDTO(mediaFile);
+        });
+    }
+
+    /**
+     * Первая фаза прямой загрузки: проверить права, лимит и тип файла и выдать presigned URL.
+     * Файл до {@link S3Service#UPLOAD_PART_SIZE} загружается одним PUT, больший — частями
+     * multipart-загрузки. Размер и MIME-тип входят в подпись URL.
+     */
+    public MediaUploadDTO initiateUpload(Long treeId, Long personId, MediaUploadRequest request,
+                                         Long userId) throws AccessDeniedException {
+        if (!treeService.canEdit(treeId, userId)) {
+            throw new AccessDeniedException("Нет прав на редактирование дерева");
+        }
+        if (!treeRepository.existsById(treeId)) {
+            throw new ResourceNotFoundException("Дерево не найдено");
+        }
+        findPersonForUpload(treeId, personId);
+
+        String extension = checkExtension(request.fileName());
+        long fileSize = request.fileSize();
+        if (fileSize <= 0 || fileSize > MAX_FILE_SIZE) {
+            throw new BusinessException("Размер файла должен быть от 1 байта до " + MAX_FILE_SIZE / (1024 * 1024) + " МБ");
+        }
+
+        // Для известных расширений тип определяет сервер — заявленный клиентом тип не должен с ним расходиться
+        String knownType = knownContentType(extension);
+        String contentType = knownType != null ? knownType : resolveContentType(request.contentType(), extension);
+        String s3Key = mediaPrefix(treeId) + UUID.randomUUID() + extension;
+
+        MediaUploadDTO dto = new MediaUploadDTO();
+        dto.setS3Key(s3Key);
+        dto.setContentType(contentType);
+        if (fileSize <= S3Service.UPLOAD_PART_SIZE) {
+            S3Service.PresignedUrl put = s3Service.presignPut(s3Key, contentType, fileSize);
+            dto.setUploadUrl(put.url());
+            dto.setExpiresAt(put.expiresAt());
+        } else {
+            String uploadId = s3Service.createMultipartUpload(s3Key, contentType);
+            int partCount = (int) ((fileSize + S3Service.UPLOAD_PART_SIZE - 1) / S3Service.UPLOAD_PART_SIZE);
+            List<String> partUrls = new ArrayList<>(partCount);
+            for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+                long partSize = Math.min(S3Service.UPLOAD_PART_SIZE, fileSize - (long) (partNumber - 1) * S3Service.UPLOAD_PART_SIZE);
+                S3Service.PresignedUrl part = s3Service.presignUploadPart(s3Key, uploadId, partNumber, partSize);
+                partUrls.add(part.url());
+                dto.setExpiresAt(part.expiresAt());
             }
+            dto.setUploadId(uploadId);
+            dto.setPartUrls(partUrls);
+            dto.setPartSize((long) S3Service.UPLOAD_PART_SIZE);
         }
+        pendingUploadRepository.save(new PendingUpload(s3Key, dto.getUploadId(), treeId, userId, dto.getExpiresAt()));
+        log.info("Issued direct upload for {} (tree={}, person={}, {} bytes, {})",
+                s3Key, treeId, personId, fileSize, dto.getUploadId() != null ? "multipart" : "single PUT");
+        return dto;
+    }
 
-        User uploader = userService.findById(userId);
+    /**
+     * Вторая фаза прямой загрузки: завершить multipart-загрузку (если была), проверить объект
+     * через HEAD и сохранить метаданные. Объект, не прошедший проверку, удаляется из хранилища.
+     * Ключ должен быть выдан этому пользователю для этого дерева; ID multipart-загрузки берётся
+     * из выданной записи, а не из запроса. Обращения к S3 идут до транзакции: в ней только сохраняется
+     * запись media_files и удаляется выданная запись.
+     */
+    public MediaFileDTO confirmUpload(Long treeId, Long personId, MediaUploadConfirmRequest request,
+                                      Long userId) throws AccessDeniedException {
+        if (!treeService.canEdit(treeId, userId)) {
+            throw new AccessDeniedException("Нет прав на редактирование дерева");
+        }
 
-        // Генерируем S3-ключ: trees/{treeId}/media/{uuid}.ext
-        String originalFilename = file.getOriginalFilename();
-        String extension = extractExtension(originalFilename);
+        Tree tree = treeRepository.findById(treeId)
+                .orElseThrow(() -> new ResourceNotFoundException("Дерево не найдено"));
 
-        // Validate extension against whitelist
-        if (!ALLOWED_EXTENSIONS.contains(extension)) {
-            throw new BusinessException("Недопустимый тип файла: " + extension +
-                    ". Разрешены: изображения, PDF, видео, аудио, документы Office, текстовые файлы.");
+        String s3Key = request.s3Key();
+        String prefix = mediaPrefix(treeId);
+        if (!s3Key.startsWith(prefix) || s3Key.indexOf('/', prefix.length()) >= 0) {
+            throw new AccessDeniedException("Файл не принадлежит этому дереву");
+        }
+        String extension = checkExtension(s3Key);
+        if (mediaFileRepository.existsByFilePath(s3Key)) {
+            throw new BusinessException("Загрузка уже подтверждена");
         }
+        PendingUpload pending = pendingUploadRepository.findByS3Key(s3Key)
+                .filter(upload -> upload.getTreeId().equals(treeId) && upload.getUserId().equals(userId))
+                .orElseThrow(() -> new AccessDeniedException("Загрузка не выдавалась этому пользователю"));
+        if (pending.getExpiresAt().plus(Duration.ofMinutes(abandonAfterMinutes)).isBefore(Instant.now())) {
+            throw new BusinessException("Срок загрузки истёк, начните загрузку заново");
+        }
+        String uploadId = pending.getUploadId();
 
-        String s3Key = "trees/" + treeId + "/media/" + UUID.randomUUID() + extension;
-
-        // Загружаем в S3
-        s3Service.upload(s3Key, file.getInputStream(),
-                resolveContentType(file.getContentType(), extension),
-                file.getSize());
-        log.info("Uploaded media file to S3: {} (tree={}, person={})", s3Key, treeId, personId);
-
-        // Сохраняем метаданные в БД (filePath = s3Key)
-        MediaFile mediaFile = new MediaFile(
-                person,
-                tree,
-                originalFilename != null ? originalFilename : s3Key,
-                s3Key,
-                fileType,
-                file.getSize(),
-                description,
-                uploader
-        );
+        Person person;
+        try {
+            person = findPersonForUpload(treeId, personId);
+        } catch (BusinessException e) {
+            // Лимит мог исчерпаться, пока файл загружался — загруженное не должно остаться в бакете
+            discardUpload(s3Key, uploadId);
+            throw e;
+        }
 
-        mediaFile = mediaFileRepository.save(mediaFile);
+        if (uploadId != null) {
+            if (request.eTags() == null || request.eTags().isEmpty()) {
+                throw new BusinessException("Не переданы ETag загруженных частей");
+            }
+            try {
+                s3Service.completeMultipartUpload(s3Key, uploadId, request.eTags());
+            } catch (S3Exception e) {
+                log.warn("Could not complete multipart upload {} for {}: {}", uploadId, s3Key, e.getMessage());
+                throw new BusinessException("Не удалось завершить загрузку: части файла загружены не полностью");
+            }
+        }
+
+        HeadObjectResponse head = s3Service.head(s3Key);
+        if (head == null) {
+            throw new BusinessException("Файл не загружен в хранилище");
+        }
+        String problem = checkUploadedObject(head, extension);
+        if (problem != null) {
+            discardUpload(s3Key, null);
+            throw new BusinessException(problem);
+        }
+
+        User uploader = userService.findById(userId);
+        MediaFile mediaFile = transactionTemplate.execute(status -> {
+            MediaFile saved = mediaFileRepository.save(new MediaFile(
+                    person,
+                    tree,
+                    request.fileName(),
+                    s3Key,
+                    request.fileType(),
+                    head.contentLength(),
+                    request.description(),
+                    uploader
+            ));
+            pendingUploadRepository.delete(pending);
+            thumbnailService.enqueueMedia(saved);
+            return saved;
+        });
+        log.info("Confirmed direct upload {} as media file {} (tree={}, person={})", s3Key, mediaFile.getId(), treeId, personId);
         return convertToDTO(mediaFile);
     }
 
+    /**
+     * Прервать прямые загрузки, не подтверждённые за {@code tree.direct-upload.abandon-after-minutes}
+     * после истечения их URL: незавершённые части multipart-загрузки и загруженный объект удаляются.
+     */
+    @Scheduled(fixedDelayString = "${tree.direct-upload.sweep-interval-ms:600000}",
+               initialDelayString = "${tree.direct-upload.sweep-interval-ms:600000}")
+    public void sweepAbandonedUploads() {
+        Instant expiredBefore = Instant.now().minus(Duration.ofMinutes(abandonAfterMinutes));
+        for (PendingUpload pending : pendingUploadRepository.findTop100ByExpiresAtBeforeOrderByExpiresAt(expiredBefore)) {
+            if (!discardUpload(pending.getS3Key(), pending.getUploadId())) {
+                // Хранилище недоступно — запись остаётся до следующего прохода
+                continue;
+            }
+            pendingUploadRepository.delete(pending);
+            log.info("Discarded abandoned direct upload {} (tree={}, user={})",
+                    pending.getS3Key(), pending.getTreeId(), pending.getUserId());
+        }
+    }
+
     public List<MediaFileDTO> getPersonMedia(Long treeId, Long personId, Long userId) throws AccessDeniedException {
         if (!treeService.canView(treeId, userId)) {
             throw new AccessDeniedException("Нет прав на просмотр дерева");
@@ -156,15 +345,83 @@ public class MediaFileService {
     }
 
     /**
-     * Результат скачивания файла: ресурс + оригинальное имя файла.
+     * Страница медиафайлов дерева с keyset-пагинацией по (uploadedAt, id), новые файлы первыми.
      */
-    public record DownloadResult(Resource resource, String fileName) {}
+    public CursorPageResponse<MediaFileDTO> getTreeMediaPage(Long treeId, String cursor, int limit, Long userId)
+            throws AccessDeniedException {
+        if (!treeService.canView(treeId, userId)) {
+            throw new AccessDeniedException("Нет прав на просмотр дерева");
+        }
+        PageCursor.checkLimit(limit);
+
+        PageRequest page = PageRequest.of(0, limit + 1);
+        List<MediaFile> files;
+        if (cursor == null || cursor.isBlank()) {
+            files = mediaFileRepository.findPageByTreeId(treeId, page);
+        } else {
+            String[] key = PageCursor.decode(cursor, 2);
+            files = mediaFileRepository.findPageByTreeIdBefore(treeId,
+                    PageCursor.parse(key[0], Instant::parse), PageCursor.parse(key[1], Long::valueOf), page);
+        }
+
+        String next = PageCursor.next(files, limit, m -> PageCursor.encode(m.getUploadedAt(), m.getId()));
+        List<MediaFileDTO> data = files.stream()
+                .limit(limit)
+                .map(this::convertToDTO)
+                .toList();
+        return new CursorPageResponse<>(data, next, next != null);
+    }
 
     /**
-     * Скачать файл из S3 и вернуть как Resource (проксирование через бэкенд).
-     * Используется для файлов, которые не должны быть публично доступны.
+     * Условия скачивания из заголовков Range, If-Range и If-None-Match; любое может быть null.
      */
-    public DownloadResult downloadFile(Long treeId, Long personId, Long fileId, Long userId)
+    public record DownloadRequest(String range, String ifRange, String ifNoneMatch) {
+
+        /** Скачать файл целиком, без условий */
+        public static final DownloadRequest FULL = new DownloadRequest(null, null, null);
+    }
+
+    /**
+     * Результат скачивания файла: HTTP-статус (200, 206, 304 или 416), поток содержимого из S3
+     * (null без тела), оригинальное имя файла и значения заголовков ответа.
+     */
+    public record DownloadResult(HttpStatus status,
+                                 ResponseInputStream<GetObjectResponse> content,
+                                 String fileName,
+                                 String contentType,
+                                 Long contentLength,
+                                 String contentRange,
+                                 String eTag) {
+
+        /**
+         * Скопировать содержимое в ответ буфером фиксированного размера. Поток S3 закрывается в любом случае;
+         * если клиент отключился посреди файла, соединение с S3 обрывается, а не дочитывается.
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+            try {
+                int read;
+                while ((read = content.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } catch (IOException | RuntimeException e) {
+                // close() дочитал бы остаток объекта ради переиспользования соединения — обрываем его
+                content.abort();
+                throw e;
+            }
+            content.close();
+        }
+    }
+
+    /**
+     * Скачать файл из S3 потоком через бэкенд (для файлов, которые не должны быть публично доступны).
+     * <p>
+     * Поддерживается один диапазон {@code Range: bytes=...} (ответ 206 с Content-Range); несколько
+     * диапазонов или некорректный заголовок отдают файл целиком. {@code If-Range} с сильным ETag
+     * передаётся в S3 как If-Match: если файл изменился, отдаётся целиком. {@code If-None-Match}
+     * проверяется S3 по ETag объекта — при совпадении возвращается 304 без чтения содержимого.
+     */
+    public DownloadResult downloadFile(Long treeId, Long personId, Long fileId, DownloadRequest request, Long userId)
             throws AccessDeniedException {
         if (!treeService.canView(treeId, userId)) {
             throw new AccessDeniedException("Нет прав на просмотр дерева");
@@ -181,9 +438,52 @@ public class MediaFileService {
             throw new AccessDeniedException("Файл не принадлежит этой персоне");
         }
 
-        ResponseInputStream<GetObjectResponse> s3Stream = s3Service.download(mediaFile.getFilePath());
         String fileName = mediaFile.getFileName() != null ? mediaFile.getFileName() : "file";
-        return new DownloadResult(new InputStreamResource(s3Stream), fileName);
+        String range = singleByteRange(request.range());
+        String ifMatch = null;
+        if (range != null && request.ifRange() != null) {
+            // If-Range требует сильного сравнения; дату (вместо ETag) не проверяем — отдаём файл целиком
+            String ifRange = request.ifRange().trim();
+            if (ifRange.startsWith("\"")) {
+                ifMatch = ifRange;
+            } else {
+                range = null;
+            }
+        }
+
+        try {
+            return fetch(mediaFile, fileName, range, ifMatch, request.ifNoneMatch());
+        } catch (S3Exception e) {
+            if (e.statusCode() == HttpStatus.PRECONDITION_FAILED.value() && ifMatch != null) {
+                // Файл изменился после того, как клиент получил его начало, — отдаём новую версию целиком
+                return fetch(mediaFile, fileName, null, null, request.ifNoneMatch());
+            }
+            throw e;
+        }
+    }
+
+    private DownloadResult fetch(MediaFile mediaFile, String fileName, String range, String ifMatch, String ifNoneMatch) {
+        ResponseInputStream<GetObjectResponse> s3Stream;
+        try {
+            s3Stream = s3Service.download(mediaFile.getFilePath(), range, ifMatch, ifNoneMatch);
+        } catch (S3Exception e) {
+            if (e.statusCode() == HttpStatus.NOT_MODIFIED.value()) {
+                String eTag = e.awsErrorDetails() != null && e.awsErrorDetails().sdkHttpResponse() != null
+                        ? e.awsErrorDetails().sdkHttpResponse().firstMatchingHeader("ETag").orElse(null)
+                        : null;
+                return new DownloadResult(HttpStatus.NOT_MODIFIED, null, fileName, null, null, null, eTag);
+            }
+            if (e.statusCode() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value()) {
+                return new DownloadResult(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, null, fileName, null, null,
+                        "bytes */" + mediaFile.getFileSize(), null);
+            }
+            throw e;
+        }
+
+        GetObjectResponse response = s3Stream.response();
+        HttpStatus status = range != null && response.contentRange() != null ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK;
+        return new DownloadResult(status, s3Stream, fileName, response.contentType(), response.contentLength(),
+                status == HttpStatus.PARTIAL_CONTENT ? response.contentRange() : null, response.eTag());
     }
 
     @Transactional
@@ -203,12 +503,8 @@ public class MediaFileService {
             throw new AccessDeniedException("Файл не принадлежит этой персоне");
         }
 
-        // Удаляем из S3
-        try {
-            s3Service.delete(mediaFile.getFilePath());
-        } catch (Exception e) {
-            log.warn("Could not delete file from S3: {}", mediaFile.getFilePath(), e);
-        }
+        // Удаляем из S3, если на объект больше никто не ссылается
+        mediaContentService.release(mediaFile);
 
         mediaFileRepository.delete(mediaFile);
     }
@@ -222,7 +518,7 @@ public class MediaFileService {
             log.warn("Could not generate presigned URL for {}: {}", mediaFile.getFilePath(), e.getMessage());
         }
 
-        return new MediaFileDTO(
+        MediaFileDTO dto = new MediaFileDTO(
                 mediaFile.getId(),
                 mediaFile.getPerson() != null ? mediaFile.getPerson().getId() : null,
                 mediaFile.getTree().getId(),
@@ -234,10 +530,104 @@ public class MediaFileService {
                 mediaFile.getUploadedBy().getId(),
                 url
         );
+        if (mediaFile.isThumbnailsReady()) {
+            try {
+                dto.setThumbnailUrls(thumbnailService.variantUrls(mediaFile.getFilePath()));
+            } catch (Exception e) {
+                log.warn("Could not generate thumbnail URLs for {}: {}", mediaFile.getFilePath(), e.getMessage());
+            }
+        }
+        return dto;
     }
 
     // ─── helpers ─────────────────────────────────────────────────────────────────
 
+    /**
+     * Заголовок Range, если он задаёт ровно один диапазон байт ({@code bytes=0-99}, {@code bytes=100-},
+     * {@code bytes=-500}); иначе null — файл отдаётся целиком.
+     */
+    static String singleByteRange(String range) {
+        if (range == null) {
+            return null;
+        }
+        String value = range.trim();
+        return SINGLE_BYTE_RANGE.matcher(value).matches() ? value : null;
+    }
+
+    private static String mediaPrefix(Long treeId) {
+        return "trees/" + treeId + "/media/";
+    }
+
+    /**
+     * Персона, к которой привязывается файл (null — файл дерева), с проверкой принадлежности и лимита файлов.
+     */
+    private Person findPersonForUpload(Long treeId, Long personId) throws AccessDeniedException {
+        if (personId == null) {
+            return null;
+        }
+        Person person = personRepository.findById(personId)
+                .orElseThrow(() -> new ResourceNotFoundException("Персона не найдена"));
+        if (!person.getTree().getId().equals(treeId)) {
+            throw new AccessDeniedException("Персона не принадлежит этому дереву");
+        }
+        long existingCount = mediaFileRepository.countByPersonId(personId);
+        if (existingCount >= MAX_MEDIA_FILES) {
+            throw new BusinessException("Достигнут лимит медиафайлов (" + MAX_MEDIA_FILES + ") для данной персоны");
+        }
+        return person;
+    }
+
+    /** Расширение файла, если оно есть в whitelist, иначе BusinessException */
+    private String checkExtension(String filename) {
+        String extension = extractExtension(filename);
+        if (!ALLOWED_EXTENSIONS.contains(extension)) {
+            throw new BusinessException("Недопустимый тип файла: " + extension +
+                    ". Разрешены: изображения, PDF, видео, аудио, документы Office, текстовые файлы.");
+        }
+        return extension;
+    }
+
+    /**
+     * Проверка загруженного клиентом объекта по ответу HEAD.
+     *
+     * @return описание проблемы или null, если объект подходит
+     */
+    private String checkUploadedObject(HeadObjectResponse head, String extension) {
+        Long size = head.contentLength();
+        if (size == null || size <= 0 || size > MAX_FILE_SIZE) {
+            return "Размер файла должен быть от 1 байта до " + MAX_FILE_SIZE / (1024 * 1024) + " МБ";
+        }
+        String knownType = knownContentType(extension);
+        if (knownType != null && !knownType.equals(head.contentType())) {
+            return "Тип загруженного файла не соответствует расширению " + extension;
+        }
+        return null;
+    }
+
+    /**
+     * Удалить объект прямой загрузки и прервать её multipart-загрузку. false — хранилище недоступно.
+     */
+    private boolean discardUpload(String s3Key, String uploadId) {
+        if (uploadId != null) {
+            try {
+                s3Service.abortMultipartUpload(s3Key, uploadId);
+            } catch (S3Exception e) {
+                // Загрузку уже завершили или прервали — остаётся удалить сам объект
+                log.debug("Could not abort multipart upload {} for {}: {}", uploadId, s3Key, e.getMessage());
+            } catch (Exception e) {
+                log.warn("Could not discard rejected upload {}: {}", s3Key, e.getMessage());
+                return false;
+            }
+        }
+        try {
+            s3Service.delete(s3Key);
+            return true;
+        } catch (Exception e) {
+            log.warn("Could not discard rejected upload {}: {}", s3Key, e.getMessage());
+            return false;
+        }
+    }
+
     private String extractExtension(String filename) {
         if (filename != null && filename.contains(".")) {
             return filename.substring(filename.lastIndexOf(".")).toLowerCase();
@@ -249,6 +639,12 @@ public class MediaFileService {
         if (contentType != null && !contentType.isBlank() && !contentType.equals("application/octet-stream")) {
             return contentType;
         }
+        String knownType = knownContentType(extension);
+        return knownType != null ? knownType : "application/octet-stream";
+    }
+
+    /** MIME-тип, однозначно соответствующий расширению, или null */
+    private String knownContentType(String extension) {
         return switch (extension) {
             case ".jpg", ".jpeg" -> "image/jpeg";
             case ".png"          -> "image/png";
@@ -259,7 +655,7 @@ public class MediaFileService {
             case ".mp3"          -> "audio/mpeg";
             case ".doc"          -> "application/msword";
             case ".docx"         -> "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
-            default              -> "application/octet-stream";
+            default              -> null;
         };
     }
 }
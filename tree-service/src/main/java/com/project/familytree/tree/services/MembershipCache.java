@@ -0,0 +1,95 @@
+package com.project.familytree.tree.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.project.familytree.tree.impls.TreeRole;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Кеш ролей участников дерева по ключу (treeId, userId) для canView / canEdit / isOwner.
+ * <p>
+ * Кешируется и отсутствие членства, поэтому любое изменение участников должно сопровождаться
+ * {@link #invalidate(Long, Long)} или {@link #invalidateTree(Long)}. Изменения на других
+ * экземплярах сервиса приходят через {@link MembershipNotifier} (PostgreSQL LISTEN/NOTIFY);
+ * TTL — страховка на случай потерянного уведомления. Статистика кеша пишется в метрики
+ * {@code cache.*} с тегом {@code cache=}{@value #CACHE_NAME}.
+ */
+@Service
+public class MembershipCache {
+
+    static final String CACHE_NAME = "tree.membership";
+
+    /** (treeId, userId) -> роль; чтение попадания идёт без блокировок */
+    private final Cache<Key, Optional<TreeRole>> roles;
+
+    public MembershipCache(@Value("${tree.membership-cache.max-entries:100000}") long maxEntries,
+                           @Value("${tree.membership-cache.ttl-seconds:300}") long ttlSeconds,
+                           MeterRegistry meterRegistry) {
+        this.roles = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, roles, CACHE_NAME);
+    }
+
+    /**
+     * Роль пользователя в дереве; при промахе загружается через {@code loader}.
+     * Сброс ключа во время загрузки дожидается её окончания и удаляет загруженное значение.
+     */
+    public Optional<TreeRole> getRole(Long treeId, Long userId, Supplier<Optional<TreeRole>> loader) {
+        return roles.get(new Key(treeId, userId), key -> loader.get());
+    }
+
+    /**
+     * Сбросить роль пользователя в дереве. Если идёт транзакция, сброс повторяется после неё:
+     * параллельный запрос мог прочитать старое членство до коммита и успеть его закешировать.
+     */
+    public void invalidate(Long treeId, Long userId) {
+        evict(treeId, userId);
+        afterCompletion(() -> evict(treeId, userId));
+    }
+
+    /**
+     * Сбросить роли всех пользователей дерева (с тем же повтором после транзакции).
+     */
+    public void invalidateTree(Long treeId) {
+        evictTree(treeId);
+        afterCompletion(() -> evictTree(treeId));
+    }
+
+    void evict(Long treeId, Long userId) {
+        roles.invalidate(new Key(treeId, userId));
+    }
+
+    void evictTree(Long treeId) {
+        roles.asMap().keySet().removeIf(key -> key.treeId().equals(treeId));
+    }
+
+    void clear() {
+        roles.invalidateAll();
+    }
+
+    private static void afterCompletion(Runnable eviction) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    eviction.run();
+                }
+            });
+        }
+    }
+
+    private record Key(Long treeId, Long userId) {
+    }
+}
@@ -0,0 +1,154 @@
+package com.project.familytree.tree.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Межузловая инвалидация {@link MembershipCache} через PostgreSQL LISTEN/NOTIFY.
+ * <p>
+ * {@link #publish} выполняет {@code pg_notify} в текущей транзакции — PostgreSQL доставляет
+ * уведомление всем слушателям только после коммита. Каждый экземпляр сервиса держит одно
+ * соединение с {@code LISTEN} в фоновом потоке и сбрасывает у себя полученные ключи. Это соединение
+ * открывается через {@link DriverManager} в обход пула: оно занято всё время работы сервиса, и Hikari
+ * считал бы его утёкшим, а пулу оставалось бы на одно соединение меньше.
+ * После переподключения кеш очищается целиком, так как уведомления за время разрыва потеряны.
+ * <p>
+ * На других СУБД (H2 в тестах) механизм отключён — остаётся только локальный сброс и TTL.
+ */
+@Service
+public class MembershipNotifier {
+
+    private static final Logger log = LoggerFactory.getLogger(MembershipNotifier.class);
+
+    static final String CHANNEL = "tree_membership";
+
+    private static final int POLL_TIMEOUT_MS = 5_000;
+    private static final long RECONNECT_DELAY_MS = 5_000;
+
+    private final MembershipCache membershipCache;
+    private final JdbcTemplate jdbcTemplate;
+    private final String datasourceUrl;
+    private final String username;
+    private final String password;
+    private final boolean enabled;
+
+    private volatile boolean running;
+    private Thread listenerThread;
+
+    public MembershipNotifier(MembershipCache membershipCache,
+                              JdbcTemplate jdbcTemplate,
+                              @Value("${spring.datasource.url:}") String datasourceUrl,
+                              @Value("${spring.datasource.username:}") String username,
+                              @Value("${spring.datasource.password:}") String password,
+                              @Value("${tree.membership-cache.notify-enabled:true}") boolean notifyEnabled) {
+        this.membershipCache = membershipCache;
+        this.jdbcTemplate = jdbcTemplate;
+        this.datasourceUrl = datasourceUrl;
+        this.username = username;
+        this.password = password;
+        this.enabled = notifyEnabled && datasourceUrl.startsWith("jdbc:postgresql:");
+    }
+
+    /**
+     * Сообщить остальным экземплярам об изменении роли пользователя в дереве.
+     */
+    public void publish(Long treeId, Long userId) {
+        send(treeId + ":" + userId);
+    }
+
+    /**
+     * Сообщить остальным экземплярам об изменении всех участников дерева.
+     */
+    public void publishTree(Long treeId) {
+        send(String.valueOf(treeId));
+    }
+
+    private void send(String payload) {
+        if (!enabled) {
+            return;
+        }
+        jdbcTemplate.query("SELECT pg_notify(?, ?)", rs -> { }, CHANNEL, payload);
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            log.info("Membership LISTEN/NOTIFY disabled — cache is invalidated locally only");
+            return;
+        }
+        running = true;
+        listenerThread = new Thread(this::listen, "membership-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        if (listenerThread != null) {
+            listenerThread.interrupt();
+        }
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(datasourceUrl, username, password);
+                 Statement statement = connection.createStatement()) {
+                statement.execute("LISTEN " + CHANNEL);
+                membershipCache.clear();
+                log.info("Listening for membership changes on channel {}", CHANNEL);
+
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MS);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            handle(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Membership listener connection lost, reconnecting in {} ms: {}",
+                        RECONNECT_DELAY_MS, e.getMessage());
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Payload: {@code "treeId"} — сбросить всё дерево, {@code "treeId:userId"} — одного участника.
+     */
+    void handle(String payload) {
+        try {
+            int sep = payload.indexOf(':');
+            if (sep < 0) {
+                membershipCache.evictTree(Long.parseLong(payload));
+            } else {
+                membershipCache.evict(Long.parseLong(payload.substring(0, sep)),
+                        Long.parseLong(payload.substring(sep + 1)));
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring malformed membership notification: {}", payload);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.exceptions.BusinessException;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Непрозрачный курсор для keyset-пагинации.
+ * <p>
+ * Курсор — значения ключа сортировки последней отданной строки (например, фамилия, имя, id),
+ * закодированные в Base64url. Следующая страница читается условием «строго после ключа» по
+ * составному индексу, поэтому время ответа не зависит от номера страницы, в отличие от OFFSET.
+ */
+public final class PageCursor {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+
+    private PageCursor() {
+    }
+
+    public static String encode(Object... keys) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(URLEncoder.encode(String.valueOf(keys[i]), StandardCharsets.UTF_8));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Значения ключа из курсора; {@link BusinessException}, если курсор повреждён или от другого списка.
+     */
+    public static String[] decode(String cursor, int keyCount) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] keys = raw.split(",", -1);
+            if (keys.length != keyCount) {
+                throw new BusinessException("Некорректный курсор");
+            }
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = URLDecoder.decode(keys[i], StandardCharsets.UTF_8);
+            }
+            return keys;
+        } catch (IllegalArgumentException e) {
+            throw new BusinessException("Некорректный курсор");
+        }
+    }
+
+    /**
+     * Разбор одного значения ключа; ошибки формата — {@link BusinessException}.
+     */
+    public static <T> T parse(String key, Function<String, T> parser) {
+        try {
+            return parser.apply(key);
+        } catch (RuntimeException e) {
+            throw new BusinessException("Некорректный курсор");
+        }
+    }
+
+    public static void checkLimit(int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new BusinessException("limit должен быть от 1 до " + MAX_LIMIT);
+        }
+    }
+
+    /**
+     * Курсор следующей страницы по строкам, прочитанным с запасом в одну ({@code limit + 1}):
+     * лишняя строка только сообщает, что страница не последняя, и отбрасывается.
+     */
+    public static <T> String next(List<T> rows, int limit, Function<T, String> cursorOf) {
+        return rows.size() > limit ? cursorOf.apply(rows.get(limit - 1)) : null;
+    }
+}
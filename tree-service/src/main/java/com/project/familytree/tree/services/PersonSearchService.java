@@ -0,0 +1,425 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.dto.PersonDTO;
+import com.project.familytree.tree.dto.PersonSearchFacetsDTO;
+import com.project.familytree.tree.dto.PersonSearchResponse;
+import com.project.familytree.tree.dto.PersonSuggestionDTO;
+import com.project.familytree.tree.dto.TreeSearchGroupDTO;
+import com.project.familytree.tree.exceptions.BusinessException;
+import com.project.familytree.tree.models.Person;
+import com.project.familytree.tree.models.TreeMembership;
+import com.project.familytree.tree.repositories.MediaFileRepository;
+import com.project.familytree.tree.repositories.PersonRepository;
+import com.project.familytree.tree.repositories.TreeMembershipRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.AccessDeniedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Поиск персон в дереве по имени, году и месту рождения.
+ * <p>
+ * На PostgreSQL поиск идёт по индексам из init.sql ({@code search_vector}, триграммы pg_trgm,
+ * индекс на году рождения): ранжирование и limit/offset выполняются в БД.
+ * На других СУБД (H2 в тестах) используются прежние JPQL-запросы с LIKE, а страница
+ * вырезается из полного результата.
+ * <p>
+ * Режим {@code fuzzy} ищет не по подстроке, а по фонетическому ключу ({@link PhoneticKey}):
+ * «Иванов» находит «Ivanov» и «Iwanow». Ключ пишется при создании и изменении персоны;
+ * персоны без ключа (созданные до его появления) дозаполняются при старте сервиса.
+ * <p>
+ * Все фильтры, включая наличие медиафайлов, проверяются в SQL (EXISTS по media_files).
+ */
+@Service
+public class PersonSearchService {
+
+    private static final Logger log = LoggerFactory.getLogger(PersonSearchService.class);
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+
+    /** Глобальный поиск по всем деревьям пользователя: персон в одном дереве по умолчанию и максимум */
+    public static final int DEFAULT_PER_TREE_LIMIT = 10;
+    public static final int MAX_PER_TREE_LIMIT = 100;
+
+    /** Сколько самых частых мест рождения отдавать в фасете */
+    public static final int PLACE_FACET_LIMIT = 20;
+
+    public static final int DEFAULT_SUGGEST_LIMIT = 10;
+    public static final int MAX_SUGGEST_LIMIT = 50;
+
+    private static final int BACKFILL_BATCH_SIZE = 500;
+
+    private final TreeService treeService;
+    private final PersonRepository personRepository;
+    private final MediaFileRepository mediaFileRepository;
+    private final TreeMembershipRepository membershipRepository;
+    private final PersonSuggestIndex personSuggestIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean fullTextEnabled;
+
+    public PersonSearchService(TreeService treeService,
+                               PersonRepository personRepository,
+                               MediaFileRepository mediaFileRepository,
+                               TreeMembershipRepository membershipRepository,
+                               PersonSuggestIndex personSuggestIndex,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${spring.datasource.url:}") String datasourceUrl,
+                               @Value("${tree.search.full-text-enabled:true}") boolean fullTextEnabled) {
+        this.treeService = treeService;
+        this.personRepository = personRepository;
+        this.mediaFileRepository = mediaFileRepository;
+        this.membershipRepository = membershipRepository;
+        this.personSuggestIndex = personSuggestIndex;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.fullTextEnabled = fullTextEnabled && datasourceUrl.startsWith("jdbc:postgresql:");
+    }
+
+    @Transactional(readOnly = true)
+    public List<PersonDTO> searchPersons(Long treeId, String query, Integer birthYearFrom,
+                                         Integer birthYearTo, String birthPlace, Boolean hasMedia,
+                                         boolean fuzzy, int offset, int limit, Long userId) throws AccessDeniedException {
+        checkSearch(treeId, offset, limit, userId);
+        Criteria criteria = Criteria.of(query, fuzzy, birthYearFrom, birthYearTo, birthPlace, hasMedia);
+        if (criteria == null) {
+            return List.of();
+        }
+
+        List<Person> persons = fullTextEnabled
+                ? searchIndexed(treeId, criteria, offset, limit)
+                : page(searchFallback(treeId, criteria), offset, limit);
+
+        log.debug("Search in tree {} ({}{}): {} persons", treeId, fullTextEnabled ? "full-text" : "JPQL",
+                criteria.codes() != null ? ", fuzzy" : "", persons.size());
+        return treeService.convertToDTOs(persons, treeId);
+    }
+
+    /**
+     * Поиск со страницей результатов, общим числом найденных и фасетами (пол, десятилетие
+     * рождения, место рождения, наличие медиа). На PostgreSQL фасеты считаются одним запросом
+     * через GROUPING SETS с теми же фильтрами; на других СУБД — в памяти по полному результату.
+     */
+    @Transactional(readOnly = true)
+    public PersonSearchResponse searchPersonsFaceted(Long treeId, String query, Integer birthYearFrom,
+                                                     Integer birthYearTo, String birthPlace, Boolean hasMedia,
+                                                     boolean fuzzy, int offset, int limit, Long userId)
+            throws AccessDeniedException {
+        checkSearch(treeId, offset, limit, userId);
+        Criteria criteria = Criteria.of(query, fuzzy, birthYearFrom, birthYearTo, birthPlace, hasMedia);
+        if (criteria == null) {
+            return new PersonSearchResponse(List.of(), 0, new FacetCounts().toDTO());
+        }
+
+        List<Person> persons;
+        FacetCounts facets = new FacetCounts();
+        if (fullTextEnabled) {
+            persons = searchIndexed(treeId, criteria, offset, limit);
+            for (Object[] row : personRepository.searchFacets(treeId, criteria.query(), criteria.keyQuery(),
+                    criteria.birthYearFrom(), criteria.birthYearTo(), criteria.birthPlace(), criteria.mediaOnly())) {
+                facets.addRow(row);
+            }
+        } else {
+            List<Person> all = searchFallback(treeId, criteria);
+            Set<Long> withMedia = criteria.mediaOnly() ? null : personIdsWithMedia(all);
+            for (Person person : all) {
+                facets.add(person, withMedia == null || withMedia.contains(person.getId()));
+            }
+            persons = page(all, offset, limit);
+        }
+
+        log.debug("Faceted search in tree {} ({}): {} of {} persons", treeId,
+                fullTextEnabled ? "full-text" : "JPQL", persons.size(), facets.total);
+        return new PersonSearchResponse(treeService.convertToDTOs(persons, treeId), facets.total, facets.toDTO());
+    }
+
+    /**
+     * Поиск по имени сразу во всех деревьях, где пользователь — участник. Результат сгруппирован
+     * по деревьям: сначала дерево с самым релевантным совпадением; в каждом дереве не больше
+     * {@code perTreeLimit} персон, всего — не больше {@code limit}.
+     */
+    @Transactional(readOnly = true)
+    public List<TreeSearchGroupDTO> searchAcrossTrees(String query, int limit, int perTreeLimit, Long userId) {
+        String q = blankToNull(query);
+        if (q == null) {
+            throw new BusinessException("Укажите строку поиска");
+        }
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new BusinessException("limit должен быть от 1 до " + MAX_LIMIT);
+        }
+        if (perTreeLimit < 1 || perTreeLimit > MAX_PER_TREE_LIMIT) {
+            throw new BusinessException("perTree должен быть от 1 до " + MAX_PER_TREE_LIMIT);
+        }
+
+        Map<Long, TreeMembership> memberships = new HashMap<>();
+        for (TreeMembership membership : membershipRepository.findByUserId(userId)) {
+            memberships.put(membership.getTree().getId(), membership);
+        }
+        if (memberships.isEmpty()) {
+            return List.of();
+        }
+
+        List<Person> persons = fullTextEnabled
+                ? personRepository.searchAcrossTrees(userId, q, perTreeLimit, limit)
+                : personRepository.searchByNameInUserTrees(userId, q);
+
+        // Порядок групп — по первому (самому релевантному) совпадению
+        Map<Long, List<Person>> byTree = new LinkedHashMap<>();
+        int total = 0;
+        for (Person person : persons) {
+            if (total >= limit) {
+                break;
+            }
+            List<Person> group = byTree.computeIfAbsent(person.getTree().getId(), id -> new ArrayList<>());
+            if (group.size() < perTreeLimit) {
+                group.add(person);
+                total++;
+            }
+        }
+
+        List<TreeSearchGroupDTO> groups = new ArrayList<>(byTree.size());
+        for (Map.Entry<Long, List<Person>> entry : byTree.entrySet()) {
+            TreeMembership membership = memberships.get(entry.getKey());
+            if (membership == null) {
+                continue; // участника удалили из дерева между запросами
+            }
+            groups.add(new TreeSearchGroupDTO(entry.getKey(), membership.getTree().getName(), membership.getRole(),
+                    treeService.convertToDTOs(entry.getValue(), entry.getKey())));
+        }
+
+        log.debug("Global search for user {} ({}): {} persons in {} trees", userId,
+                fullTextEnabled ? "full-text" : "JPQL", total, groups.size());
+        return groups;
+    }
+
+    /**
+     * Автодополнение по префиксу фамилии, имени или отчества из in-memory индекса ({@link PersonSuggestIndex}).
+     */
+    public List<PersonSuggestionDTO> suggest(Long treeId, String prefix, int limit, Long userId)
+            throws AccessDeniedException {
+        if (!treeService.canView(treeId, userId)) {
+            throw new AccessDeniedException("Нет прав на просмотр дерева");
+        }
+        if (limit < 1 || limit > MAX_SUGGEST_LIMIT) {
+            throw new BusinessException("limit должен быть от 1 до " + MAX_SUGGEST_LIMIT);
+        }
+        return personSuggestIndex.suggest(treeId, prefix, limit);
+    }
+
+    /**
+     * Дозаполнение фонетических ключей у персон, созданных до их появления. Пишется только
+     * колонка ключа, пачками по {@value #BACKFILL_BATCH_SIZE} в отдельных транзакциях.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillPhoneticKeys() {
+        int total = 0;
+        while (true) {
+            Integer updated = transactionTemplate.execute(status -> {
+                List<Object[]> rows = personRepository.findNameRowsWithoutPhoneticKey(
+                        PageRequest.of(0, BACKFILL_BATCH_SIZE));
+                for (Object[] row : rows) {
+                    personRepository.updatePhoneticKey((Long) row[0],
+                            PhoneticKey.of((String) row[1], (String) row[2], (String) row[3]));
+                }
+                return rows.size();
+            });
+            if (updated == null || updated == 0) {
+                break;
+            }
+            total += updated;
+        }
+        if (total > 0) {
+            log.info("Backfilled phonetic keys for {} persons", total);
+        }
+    }
+
+    private void checkSearch(Long treeId, int offset, int limit, Long userId) throws AccessDeniedException {
+        if (!treeService.canView(treeId, userId)) {
+            throw new AccessDeniedException("Нет прав на просмотр дерева");
+        }
+        if (offset < 0) {
+            throw new BusinessException("offset не может быть отрицательным");
+        }
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new BusinessException("limit должен быть от 1 до " + MAX_LIMIT);
+        }
+    }
+
+    private List<Person> searchIndexed(Long treeId, Criteria criteria, int offset, int limit) {
+        if (criteria.codes() != null) {
+            return personRepository.searchPhonetic(treeId, criteria.keyQuery(), criteria.birthYearFrom(),
+                    criteria.birthYearTo(), criteria.birthPlace(), criteria.mediaOnly(), limit, offset);
+        }
+        return personRepository.searchRanked(treeId, criteria.query(), criteria.birthYearFrom(),
+                criteria.birthYearTo(), criteria.birthPlace(), criteria.mediaOnly(), limit, offset);
+    }
+
+    /**
+     * Прежний путь через LIKE — без индексов и ранжирования; страницу вырезает {@link #page}.
+     * Все фильтры, кроме фонетического ключа, проверяются в запросе.
+     */
+    private List<Person> searchFallback(Long treeId, Criteria criteria) {
+        List<Person> persons;
+        if (criteria.birthYearFrom() != null || criteria.birthYearTo() != null
+                || criteria.birthPlace() != null || criteria.mediaOnly()) {
+            persons = personRepository.searchPersons(treeId, criteria.query(), criteria.birthYearFrom(),
+                    criteria.birthYearTo(), criteria.birthPlace(), criteria.mediaOnly());
+        } else if (criteria.query() != null) {
+            persons = personRepository.searchByName(treeId, criteria.query());
+        } else {
+            persons = personRepository.findByTreeIdOrderByLastNameAscFirstNameAsc(treeId);
+        }
+
+        if (criteria.codes() != null) {
+            persons = persons.stream()
+                    .filter(p -> PhoneticKey.matches(p.getPhoneticKey(), criteria.codes()))
+                    .toList();
+        }
+        return persons;
+    }
+
+    private Set<Long> personIdsWithMedia(List<Person> persons) {
+        if (persons.isEmpty()) {
+            return Set.of();
+        }
+        List<Long> ids = persons.stream().map(Person::getId).toList();
+        // Строки: personId, count
+        return mediaFileRepository.countByPersonIds(ids).stream()
+                .map(row -> (Long) row[0])
+                .collect(Collectors.toSet());
+    }
+
+    private static List<Person> page(List<Person> persons, int offset, int limit) {
+        if (offset >= persons.size()) {
+            return List.of();
+        }
+        return persons.subList(offset, Math.min(persons.size(), offset + limit));
+    }
+
+    private static String blankToNull(String value) {
+        return value != null && !value.isBlank() ? value.trim() : null;
+    }
+
+    /**
+     * Нормализованные фильтры поиска. В нечётком режиме вместо {@code query} заданы
+     * коды запроса {@code codes} (см. {@link PhoneticKey#queryCodes}).
+     */
+    private record Criteria(String query, List<Set<String>> codes, Integer birthYearFrom, Integer birthYearTo,
+                            String birthPlace, boolean mediaOnly) {
+
+        /**
+         * {@code null}, если нечёткий запрос не дал ни одного кода — искать нечего.
+         */
+        static Criteria of(String query, boolean fuzzy, Integer birthYearFrom, Integer birthYearTo,
+                           String birthPlace, Boolean hasMedia) {
+            String q = blankToNull(query);
+            List<Set<String>> codes = null;
+            if (fuzzy && q != null) {
+                codes = PhoneticKey.queryCodes(q);
+                if (codes.isEmpty()) {
+                    return null;
+                }
+                q = null;
+            }
+            return new Criteria(q, codes, birthYearFrom, birthYearTo, blankToNull(birthPlace),
+                    Boolean.TRUE.equals(hasMedia));
+        }
+
+        String keyQuery() {
+            return codes != null ? PhoneticKey.toTsQuery(codes) : null;
+        }
+    }
+
+    /**
+     * Счётчики фасетов — из строк GROUPING SETS или по персонам в памяти.
+     */
+    private static final class FacetCounts {
+
+        private static final int GROUP_GENDER = 7;
+        private static final int GROUP_DECADE = 11;
+        private static final int GROUP_PLACE = 13;
+        private static final int GROUP_MEDIA = 14;
+        private static final int GROUP_TOTAL = 15;
+
+        private final Map<String, Long> gender = new TreeMap<>();
+        private final Map<Integer, Long> decade = new TreeMap<>();
+        private final Map<String, Long> place = new HashMap<>();
+        private long withMedia;
+        private long withoutMedia;
+        private long total;
+
+        /** Строка {@link PersonRepository#searchFacets}: gender, decade, birth_place, has_media, grouping, count */
+        void addRow(Object[] row) {
+            long count = ((Number) row[5]).longValue();
+            switch (((Number) row[4]).intValue()) {
+                case GROUP_GENDER -> {
+                    if (row[0] != null) {
+                        gender.merge((String) row[0], count, Long::sum);
+                    }
+                }
+                case GROUP_DECADE -> {
+                    if (row[1] != null) {
+                        decade.merge(((Number) row[1]).intValue(), count, Long::sum);
+                    }
+                }
+                case GROUP_PLACE -> {
+                    if (row[2] != null && !((String) row[2]).isBlank()) {
+                        place.merge((String) row[2], count, Long::sum);
+                    }
+                }
+                case GROUP_MEDIA -> {
+                    if (Boolean.TRUE.equals(row[3])) {
+                        withMedia += count;
+                    } else {
+                        withoutMedia += count;
+                    }
+                }
+                case GROUP_TOTAL -> total += count;
+                default -> { }
+            }
+        }
+
+        void add(Person person, boolean hasMedia) {
+            total++;
+            if (person.getGender() != null) {
+                gender.merge(person.getGender().name(), 1L, Long::sum);
+            }
+            if (person.getBirthDate() != null) {
+                decade.merge(Math.floorDiv(person.getBirthDate().getYear(), 10) * 10, 1L, Long::sum);
+            }
+            if (person.getBirthPlace() != null && !person.getBirthPlace().isBlank()) {
+                place.merge(person.getBirthPlace(), 1L, Long::sum);
+            }
+            if (hasMedia) {
+                withMedia++;
+            } else {
+                withoutMedia++;
+            }
+        }
+
+        PersonSearchFacetsDTO toDTO() {
+            Map<String, Long> topPlaces = new LinkedHashMap<>();
+            place.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed()
+                            .thenComparing(Map.Entry.comparingByKey()))
+                    .limit(PLACE_FACET_LIMIT)
+                    .forEach(e -> topPlaces.put(e.getKey(), e.getValue()));
+            return new PersonSearchFacetsDTO(gender, decade, topPlaces, withMedia, withoutMedia);
+        }
+    }
+}
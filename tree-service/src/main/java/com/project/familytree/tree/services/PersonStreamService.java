@@ -0,0 +1,180 @@
+package com.project.familytree.tree.services;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.project.familytree.tree.dto.PersonDTO;
+import com.project.familytree.tree.dto.RelationshipDTO;
+import com.project.familytree.tree.exceptions.ResourceNotFoundException;
+import com.project.familytree.tree.models.Person;
+import com.project.familytree.tree.models.Tree;
+import com.project.familytree.tree.repositories.PersonRepository;
+import com.project.familytree.tree.repositories.TreeRepository;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AccessDeniedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Потоковая выдача списков персон в JSON.
+ * <p>
+ * Персоны читаются курсором ({@link PersonRepository#streamByTreeId}) порциями по {@link #CHUNK_SIZE},
+ * каждая порция пакетно преобразуется в DTO и сразу пишется в ответ через {@link JsonGenerator}.
+ * После порции контекст персистентности очищается, поэтому объём кучи не зависит от размера дерева. Формат ответа совпадает с
+ * {@code CustomApiResponse}: {@code {"success":true,"message":null,"data":[...]}}.
+ * <p>
+ * Права проверяются до начала записи — после первого байта ответа статус уже не поменять.
+ */
+@Service
+public class PersonStreamService {
+
+    private static final Logger log = LoggerFactory.getLogger(PersonStreamService.class);
+
+    /**
+     * Размер порции: персоны порции пакетно преобразуются в DTO, после записи контекст
+     * персистентности очищается, а буфер сбрасывается в сокет
+     */
+    static final int CHUNK_SIZE = 200;
+
+    private final TreeService treeService;
+    private final PersonRepository personRepository;
+    private final TreeRepository treeRepository;
+    private final TreeGraphIndex treeGraphIndex;
+    private final ObjectMapper objectMapper;
+    private final EntityManager entityManager;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public PersonStreamService(TreeService treeService,
+                               PersonRepository personRepository,
+                               TreeRepository treeRepository,
+                               TreeGraphIndex treeGraphIndex,
+                               ObjectMapper objectMapper,
+                               EntityManager entityManager,
+                               PlatformTransactionManager transactionManager) {
+        this.treeService = treeService;
+        this.personRepository = personRepository;
+        this.treeRepository = treeRepository;
+        this.treeGraphIndex = treeGraphIndex;
+        this.objectMapper = objectMapper;
+        this.entityManager = entityManager;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Потоковый аналог {@link TreeService#getPersons}.
+     */
+    public StreamingResponseBody streamPersons(Long treeId, Long userId) throws AccessDeniedException {
+        checkView(treeId, userId);
+        return body(treeId, () -> chunk -> treeService.convertToDTOs(chunk, treeId));
+    }
+
+    /**
+     * Потоковый аналог {@link TreeService#getTreeGraph}: связи берутся из {@link TreeGraphIndex},
+     * из БД дополнительно читаются только имена персон (без сущностей) для кратких ссылок в связях.
+     */
+    public StreamingResponseBody streamTreeGraph(Long treeId, Long userId) throws AccessDeniedException {
+        checkView(treeId, userId);
+        return body(treeId, () -> {
+            TreeGraphIndex.Graph graph = treeGraphIndex.get(treeId);
+            Map<Long, RelationshipDTO.PersonSummary> summaries = new HashMap<>();
+            for (Object[] row : personRepository.findNameRowsByTreeId(treeId)) {
+                Long id = (Long) row[0];
+                summaries.put(id, new RelationshipDTO.PersonSummary(id, (String) row[1], (String) row[2]));
+            }
+            return chunk -> treeService.toGraphPersonDTOs(chunk, treeId, graph, summaries);
+        });
+    }
+
+    /**
+     * Потоковый аналог {@link TreeService#getPublicTree}.
+     */
+    public StreamingResponseBody streamPublicTree(String token) {
+        Tree tree = treeRepository.findByPublicLinkToken(token)
+                .orElseThrow(() -> new ResourceNotFoundException("Дерево не найдено или ссылка недействительна"));
+        Long treeId = tree.getId();
+        return body(treeId, () -> chunk -> treeService.convertToDTOs(chunk, treeId));
+    }
+
+    /**
+     * Записать персоны дерева в формате {@link #streamPersons} в поток, сообщая число записанных персон
+     * после каждой порции. Права не проверяются — для фоновых задач, проверивших их при постановке.
+     * Presigned URL не пишутся: файл экспорта живёт дольше их срока действия.
+     */
+    public void writePersons(Long treeId, OutputStream out, LongConsumer progress) throws IOException {
+        write(treeId, () -> chunk -> treeService.convertToExportDTOs(chunk, treeId), out, progress);
+    }
+
+    private void checkView(Long treeId, Long userId) throws AccessDeniedException {
+        if (!treeService.canView(treeId, userId)) {
+            throw new AccessDeniedException("Нет прав на просмотр дерева");
+        }
+    }
+
+    /**
+     * Тело ответа: конвертер создаётся уже внутри транзакции записи, поэтому может читать БД.
+     */
+    private StreamingResponseBody body(Long treeId,
+                                       Supplier<Function<List<Person>, List<PersonDTO>>> converterFactory) {
+        return out -> write(treeId, converterFactory, out, written -> { });
+    }
+
+    private void write(Long treeId, Supplier<Function<List<Person>, List<PersonDTO>>> converterFactory,
+                       OutputStream out, LongConsumer progress) throws IOException {
+        long started = System.nanoTime();
+        try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeBooleanField("success", true);
+            generator.writeNullField("message");
+            generator.writeArrayFieldStart("data");
+
+            Integer written = readOnlyTransaction.execute(status -> {
+                Function<List<Person>, List<PersonDTO>> converter = converterFactory.get();
+                int count = 0;
+                List<Person> chunk = new ArrayList<>(CHUNK_SIZE);
+                try (Stream<Person> persons = personRepository.streamByTreeId(treeId)) {
+                    Iterator<Person> it = persons.iterator();
+                    while (it.hasNext()) {
+                        chunk.add(it.next());
+                        if (chunk.size() == CHUNK_SIZE || !it.hasNext()) {
+                            for (PersonDTO dto : converter.apply(chunk)) {
+                                generator.writeObject(dto);
+                            }
+                            count += chunk.size();
+                            chunk.clear();
+                            entityManager.clear();
+                            generator.flush();
+                            progress.accept(count);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return count;
+            });
+
+            generator.writeEndArray();
+            generator.writeEndObject();
+            log.debug("Streamed {} persons of tree {} in {} ms",
+                    written, treeId, (System.nanoTime() - started) / 1_000_000);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
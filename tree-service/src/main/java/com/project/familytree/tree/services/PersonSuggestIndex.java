@@ -0,0 +1,339 @@
+package com.project.familytree.tree.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.project.familytree.tree.dto.PersonSuggestionDTO;
+import com.project.familytree.tree.models.Person;
+import com.project.familytree.tree.repositories.PersonRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * In-memory индекс для автодополнения персон по префиксу имени.
+ * <p>
+ * Для каждого дерева хранится отсортированный массив ключей (ФИО, «имя фамилия», отчество
+ * в нижнем регистре) с параллельным массивом подсказок; поиск — бинарный поиск нижней границы
+ * и проход вперёд, пока ключ начинается с префикса. Массивы неизменяемы: запросы читают снимок
+ * без блокировок, а изменение персоны создаёт новый снимок с заменёнными ключами — без
+ * повторного чтения дерева из БД. Изменения применяются после коммита транзакции.
+ * <p>
+ * Индекс строится лениво и вытесняется Caffeine, когда суммарное число ключей превышает
+ * {@code tree.suggest-index.max-entries}. Индекс локален для экземпляра сервиса.
+ */
+@Service
+public class PersonSuggestIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(PersonSuggestIndex.class);
+
+    static final String CACHE_NAME = "tree.suggest_index";
+
+    private final PersonRepository personRepository;
+
+    /** treeId -> снимок индекса; вес записи — число ключей, суммарный вес ограничен {@code tree.suggest-index.max-entries} */
+    private final Cache<Long, Snapshot> snapshots;
+
+    /** treeId -> версия; увеличивается при каждом изменении, чтобы не кешировать устаревшую сборку */
+    private final ConcurrentHashMap<Long, Long> versions = new ConcurrentHashMap<>();
+
+    public PersonSuggestIndex(PersonRepository personRepository,
+                              @Value("${tree.suggest-index.max-entries:1000000}") long maxEntries,
+                              MeterRegistry meterRegistry) {
+        this.personRepository = personRepository;
+        this.snapshots = Caffeine.newBuilder()
+                .maximumWeight(maxEntries)
+                .weigher((Long treeId, Snapshot snapshot) -> Math.max(1, snapshot.size()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, snapshots, CACHE_NAME);
+    }
+
+    /**
+     * До {@code limit} персон дерева, у которых фамилия, имя или отчество начинается с {@code prefix}.
+     */
+    public List<PersonSuggestionDTO> suggest(Long treeId, String prefix, int limit) {
+        String key = normalize(prefix);
+        if (key.isEmpty()) {
+            return List.of();
+        }
+        return get(treeId).find(key, limit);
+    }
+
+    /**
+     * Добавить или обновить персону в индексе дерева.
+     */
+    public void put(Long treeId, Person person) {
+        Suggestion suggestion = Suggestion.of(person.getId(), person.getFirstName(), person.getLastName(),
+                person.getMiddleName(), person.getBirthDate());
+        afterCommit(treeId, snapshot -> snapshot.with(suggestion));
+    }
+
+    /**
+     * Удалить персону из индекса дерева.
+     */
+    public void remove(Long treeId, Long personId) {
+        afterCommit(treeId, snapshot -> snapshot.without(personId));
+    }
+
+    /**
+     * Сбросить индекс дерева целиком (массовые изменения, удаление дерева).
+     */
+    public void invalidate(Long treeId) {
+        afterCommit(treeId, snapshot -> null);
+    }
+
+    /**
+     * Забыть удалённое дерево: после коммита удаляются снимок и счётчик версий дерева.
+     */
+    public void removeTree(Long treeId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        forget(treeId);
+                    } else {
+                        apply(treeId, UnaryOperator.identity());
+                    }
+                }
+            });
+        } else {
+            forget(treeId);
+        }
+    }
+
+    Snapshot get(Long treeId) {
+        long version = versions.getOrDefault(treeId, 0L);
+        Snapshot cached = snapshots.getIfPresent(treeId);
+        if (cached != null) {
+            return cached;
+        }
+
+        Snapshot snapshot = build(treeId);
+        // Дерево могло измениться во время построения — тогда не кешируем устаревший снимок
+        Snapshot cachedNow = snapshots.asMap().compute(treeId, (id, existing) ->
+                existing == null && versions.getOrDefault(id, 0L) == version ? snapshot : existing);
+        return cachedNow != null ? cachedNow : snapshot;
+    }
+
+    private void afterCommit(Long treeId, UnaryOperator<Snapshot> change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    // При откате изменение не применяется, но версия растёт — сборка, начатая
+                    // во время транзакции, всё равно не попадёт в кеш
+                    apply(treeId, status == STATUS_COMMITTED ? change : UnaryOperator.identity());
+                }
+            });
+        } else {
+            apply(treeId, change);
+        }
+    }
+
+    private void apply(Long treeId, UnaryOperator<Snapshot> change) {
+        versions.merge(treeId, 1L, Long::sum);
+        // Вернувший null change удаляет снимок; отсутствующий снимок построится при следующем запросе
+        snapshots.asMap().computeIfPresent(treeId, (id, current) -> change.apply(current));
+    }
+
+    private void forget(Long treeId) {
+        versions.remove(treeId);
+        snapshots.invalidate(treeId);
+    }
+
+    /** Суммарное число ключей закешированных снимков (после применения отложенных вытеснений) */
+    long cachedEntries() {
+        snapshots.cleanUp();
+        return snapshots.policy().eviction().orElseThrow().weightedSize().orElse(0L);
+    }
+
+    private Snapshot build(Long treeId) {
+        long started = System.nanoTime();
+        // Строки: id, firstName, lastName, middleName, birthDate
+        List<Object[]> rows = personRepository.findSuggestRowsByTreeId(treeId);
+        List<Suggestion> suggestions = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            suggestions.add(Suggestion.of((Long) row[0], (String) row[1], (String) row[2],
+                    (String) row[3], (LocalDate) row[4]));
+        }
+        Snapshot snapshot = Snapshot.of(suggestions);
+        log.debug("Built suggest index for tree {}: {} persons, {} keys in {} µs",
+                treeId, rows.size(), snapshot.size(), (System.nanoTime() - started) / 1_000);
+        return snapshot;
+    }
+
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT).replace('ё', 'е');
+    }
+
+    /**
+     * Подсказка и ключи, по которым её можно найти.
+     */
+    record Suggestion(long id, String fullName, Integer birthYear, String[] keys) {
+
+        static Suggestion of(Long id, String firstName, String lastName, String middleName, LocalDate birthDate) {
+            String first = normalize(firstName);
+            String last = normalize(lastName);
+            String middle = normalize(middleName);
+
+            StringBuilder fullName = new StringBuilder();
+            fullName.append(lastName).append(' ').append(firstName);
+            if (!middle.isEmpty()) {
+                fullName.append(' ').append(middleName.trim());
+            }
+
+            Set<String> keys = new HashSet<>();
+            keys.add(normalize(last + " " + first + " " + middle));
+            keys.add(normalize(first + " " + last));
+            if (!middle.isEmpty()) {
+                keys.add(middle);
+            }
+            keys.remove("");
+            return new Suggestion(id, fullName.toString(), birthDate != null ? birthDate.getYear() : null,
+                    keys.toArray(String[]::new));
+        }
+
+        PersonSuggestionDTO toDTO() {
+            return new PersonSuggestionDTO(id, fullName, birthYear);
+        }
+    }
+
+    /**
+     * Неизменяемый снимок индекса дерева: ключи по возрастанию и подсказка для каждого ключа.
+     */
+    static final class Snapshot {
+
+        private final String[] keys;
+        private final Suggestion[] owners;
+
+        private Snapshot(String[] keys, Suggestion[] owners) {
+            this.keys = keys;
+            this.owners = owners;
+        }
+
+        static Snapshot of(List<Suggestion> suggestions) {
+            int n = 0;
+            for (Suggestion s : suggestions) {
+                n += s.keys().length;
+            }
+            Integer[] order = new Integer[n];
+            String[] keys = new String[n];
+            Suggestion[] owners = new Suggestion[n];
+            int i = 0;
+            for (Suggestion s : suggestions) {
+                for (String key : s.keys()) {
+                    keys[i] = key;
+                    owners[i] = s;
+                    order[i] = i;
+                    i++;
+                }
+            }
+            Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+            String[] sortedKeys = new String[n];
+            Suggestion[] sortedOwners = new Suggestion[n];
+            for (int j = 0; j < n; j++) {
+                sortedKeys[j] = keys[order[j]];
+                sortedOwners[j] = owners[order[j]];
+            }
+            return new Snapshot(sortedKeys, sortedOwners);
+        }
+
+        int size() {
+            return keys.length;
+        }
+
+        List<PersonSuggestionDTO> find(String prefix, int limit) {
+            List<PersonSuggestionDTO> result = new ArrayList<>(Math.min(limit, 16));
+            Set<Long> seen = new HashSet<>();
+            for (int i = lowerBound(prefix); i < keys.length && result.size() < limit; i++) {
+                if (!keys[i].startsWith(prefix)) {
+                    break;
+                }
+                if (seen.add(owners[i].id())) {
+                    result.add(owners[i].toDTO());
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Новый снимок, где ключи персоны заменены ключами {@code suggestion}.
+         */
+        Snapshot with(Suggestion suggestion) {
+            Snapshot base = without(suggestion.id());
+            String[] added = suggestion.keys().clone();
+            Arrays.sort(added);
+
+            int n = base.keys.length + added.length;
+            String[] keys = new String[n];
+            Suggestion[] owners = new Suggestion[n];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < n; k++) {
+                if (j >= added.length || (i < base.keys.length && base.keys[i].compareTo(added[j]) <= 0)) {
+                    keys[k] = base.keys[i];
+                    owners[k] = base.owners[i++];
+                } else {
+                    keys[k] = added[j++];
+                    owners[k] = suggestion;
+                }
+            }
+            return new Snapshot(keys, owners);
+        }
+
+        Snapshot without(long personId) {
+            int kept = 0;
+            for (Suggestion owner : owners) {
+                if (owner.id() != personId) {
+                    kept++;
+                }
+            }
+            if (kept == owners.length) {
+                return this;
+            }
+            String[] keys = new String[kept];
+            Suggestion[] owners = new Suggestion[kept];
+            int k = 0;
+            for (int i = 0; i < this.keys.length; i++) {
+                if (this.owners[i].id() != personId) {
+                    keys[k] = this.keys[i];
+                    owners[k++] = this.owners[i];
+                }
+            }
+            return new Snapshot(keys, owners);
+        }
+
+        private int lowerBound(String prefix) {
+            int lo = 0;
+            int hi = keys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid].compareTo(prefix) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}
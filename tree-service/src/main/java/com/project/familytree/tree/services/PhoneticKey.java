@@ -0,0 +1,147 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.models.Person;
+import org.apache.commons.codec.language.DaitchMokotoffSoundex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Фонетический ключ имени для нечёткого поиска ({@code fuzzy=true}).
+ * <p>
+ * Каждое слово имени транслитерируется в латиницу (включая дореформенные буквы) и кодируется
+ * Daitch–Mokotoff Soundex. Одно слово может дать несколько кодов — все они попадают в ключ.
+ * Ключ персоны — отсортированные уникальные коды имени, фамилии и отчества через пробел,
+ * поэтому «Иванов», «Ivanov» и «Iwanow» получают одинаковый код.
+ */
+public final class PhoneticKey {
+
+    private static final DaitchMokotoffSoundex SOUNDEX = new DaitchMokotoffSoundex();
+
+    private static final Map<Character, String> CYRILLIC = Map.ofEntries(
+            Map.entry('а', "a"), Map.entry('б', "b"), Map.entry('в', "v"), Map.entry('г', "g"),
+            Map.entry('д', "d"), Map.entry('е', "e"), Map.entry('ё', "e"), Map.entry('ж', "zh"),
+            Map.entry('з', "z"), Map.entry('и', "i"), Map.entry('й', "y"), Map.entry('к', "k"),
+            Map.entry('л', "l"), Map.entry('м', "m"), Map.entry('н', "n"), Map.entry('о', "o"),
+            Map.entry('п', "p"), Map.entry('р', "r"), Map.entry('с', "s"), Map.entry('т', "t"),
+            Map.entry('у', "u"), Map.entry('ф', "f"), Map.entry('х', "kh"), Map.entry('ц', "ts"),
+            Map.entry('ч', "ch"), Map.entry('ш', "sh"), Map.entry('щ', "shch"), Map.entry('ъ', ""),
+            Map.entry('ы', "y"), Map.entry('ь', ""), Map.entry('э', "e"), Map.entry('ю', "yu"),
+            Map.entry('я', "ya"),
+            // украинский и белорусский
+            Map.entry('і', "i"), Map.entry('ї', "yi"), Map.entry('є', "ye"), Map.entry('ґ', "g"),
+            Map.entry('ў', "u"),
+            // дореформенная орфография
+            Map.entry('ѣ', "e"), Map.entry('ѳ', "f"), Map.entry('ѵ', "i"));
+
+    private PhoneticKey() {
+    }
+
+    /**
+     * Ключ персоны по имени, фамилии и отчеству; пустая строка, если закодировать нечего.
+     */
+    public static String of(Person person) {
+        return of(person.getFirstName(), person.getLastName(), person.getMiddleName());
+    }
+
+    public static String of(String firstName, String lastName, String middleName) {
+        Set<String> codes = new TreeSet<>();
+        codes.addAll(codes(firstName));
+        codes.addAll(codes(lastName));
+        codes.addAll(codes(middleName));
+        return String.join(" ", codes);
+    }
+
+    /**
+     * Коды запроса по словам: персона подходит, если для каждого слова в её ключе есть хотя бы один код.
+     * Слова, из которых не получилось ни одного кода (цифры, знаки), пропускаются.
+     */
+    public static List<Set<String>> queryCodes(String query) {
+        List<Set<String>> result = new ArrayList<>();
+        for (String word : words(query)) {
+            Set<String> codes = encode(word);
+            if (!codes.isEmpty()) {
+                result.add(codes);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Запрос для {@code to_tsquery('simple', ...)}: коды одного слова через {@code |}, слова через {@code &}.
+     */
+    public static String toTsQuery(List<Set<String>> queryCodes) {
+        List<String> groups = new ArrayList<>(queryCodes.size());
+        for (Set<String> codes : queryCodes) {
+            groups.add("(" + String.join(" | ", codes) + ")");
+        }
+        return String.join(" & ", groups);
+    }
+
+    /**
+     * Проверка ключа в памяти — для СУБД без полнотекстового поиска.
+     */
+    public static boolean matches(String key, List<Set<String>> queryCodes) {
+        if (key == null || key.isEmpty() || queryCodes.isEmpty()) {
+            return false;
+        }
+        Set<String> personCodes = Set.of(key.split(" "));
+        for (Collection<String> codes : queryCodes) {
+            if (codes.stream().noneMatch(personCodes::contains)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Set<String> codes(String text) {
+        Set<String> codes = new LinkedHashSet<>();
+        for (String word : words(text)) {
+            codes.addAll(encode(word));
+        }
+        return codes;
+    }
+
+    private static Set<String> encode(String word) {
+        String latin = transliterate(word);
+        if (latin.chars().noneMatch(Character::isLetter)) {
+            return Set.of();
+        }
+        Set<String> codes = new LinkedHashSet<>();
+        for (String code : SOUNDEX.soundex(latin).split("\\|")) {
+            if (!code.isEmpty()) {
+                codes.add(code);
+            }
+        }
+        return codes;
+    }
+
+    private static List<String> words(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        List<String> words = new ArrayList<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    static String transliterate(String word) {
+        StringBuilder sb = new StringBuilder(word.length() + 4);
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            String latin = CYRILLIC.get(c);
+            sb.append(latin != null ? latin : String.valueOf(c));
+        }
+        return sb.toString();
+    }
+}
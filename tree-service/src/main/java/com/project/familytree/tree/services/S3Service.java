@@ -1,19 +1,50 @@
 package com.project.familytree.tree.services;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedUploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.Upload;
+import software.amazon.awssdk.transfer.s3.model.UploadRequest;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Clock;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Сервис для работы с Yandex Object Storage (S3-совместимый).
@@ -21,28 +52,114 @@ import java.time.Duration;
  * Ключи объектов (s3Key) имеют формат:
  *   trees/{treeId}/media/{uuid}.ext   — медиафайлы
  *   trees/{treeId}/avatars/{uuid}.ext — аватары персон
+ * <p>
+ * Presigned URL кешируются по ключу объекта: подпись SigV4 пересчитывается, только когда до
+ * истечения закешированного URL остаётся меньше {@code s3.presigned-url-cache.safety-margin-minutes}.
+ * Кеш ограничен по размеру, статистика пишется в метрики {@code cache.*} с тегом {@code cache=}{@value #CACHE_NAME}.
+ * <p>
+ * Файлы от {@code s3.transfer.threshold-mb} загружаются через {@link S3TransferManager}:
+ * параллельными частями с повтором каждой части, см. {@link com.project.familytree.tree.config.S3Config}.
  */
 @Service
 public class S3Service {
 
     private static final Logger log = LoggerFactory.getLogger(S3Service.class);
 
+    static final String CACHE_NAME = "s3.presigned_url";
+
+    /** Размер части multipart-загрузки; S3 требует не меньше 5 МБ для всех частей, кроме последней */
+    static final int UPLOAD_PART_SIZE = 8 * 1024 * 1024;
+
     private final S3Client s3Client;
     private final S3Presigner s3Presigner;
+    private final S3TransferManager transferManager;
 
     @Value("${s3.bucket}")
     private String bucket;
 
-    @Value("${s3.presigned-url-expiry-minutes:60}")
-    private long presignedUrlExpiryMinutes;
+    private final long presignedUrlExpiryMinutes;
+
+    @Value("${s3.transfer.threshold-mb:16}")
+    private long transferThresholdMb;
+
+    @Value("${s3.presigned-upload-expiry-minutes:15}")
+    private long presignedUploadExpiryMinutes;
+
+    private final Clock clock;
+
+    /**
+     * Потоки, читающие InputStream файла для асинхронного клиента: по одному на идущую загрузку частями,
+     * не больше {@code s3.transfer.max-concurrency}; остальные загрузки ждут потока в очереди.
+     */
+    private final AtomicInteger readerNumber = new AtomicInteger();
+    private final ExecutorService uploadReaders;
+
+    /**
+     * Загрузки частями, которые идут или ждут потока. Сверх этого загрузка отклоняется сразу, до обращения
+     * к S3, — переполнение пула внутри асинхронного клиента не дошло бы до вызывающего потока.
+     */
+    private final Semaphore uploadSlots;
+
+    /**
+     * s3Key -> подписанный URL. Запись живёт {@code expiry - safety margin} по часам {@link #clock},
+     * поэтому отданный из кеша URL действителен ещё как минимум safety margin.
+     */
+    private final Cache<String, String> presignedUrls;
 
-    public S3Service(S3Client s3Client, S3Presigner s3Presigner) {
+    @Autowired
+    public S3Service(S3Client s3Client, S3Presigner s3Presigner, S3TransferManager transferManager,
+                     MeterRegistry meterRegistry,
+                     @Value("${s3.presigned-url-expiry-minutes:60}") long presignedUrlExpiryMinutes,
+                     @Value("${s3.presigned-url-cache.max-entries:10000}") long presignedUrlCacheMaxEntries,
+                     @Value("${s3.presigned-url-cache.safety-margin-minutes:10}") long presignedUrlCacheSafetyMarginMinutes,
+                     @Value("${s3.transfer.max-concurrency:4}") int maxConcurrentUploads,
+                     @Value("${s3.transfer.upload-queue-capacity:16}") int uploadQueueCapacity) {
+        this(s3Client, s3Presigner, transferManager, meterRegistry, presignedUrlExpiryMinutes,
+                presignedUrlCacheMaxEntries, presignedUrlCacheSafetyMarginMinutes,
+                maxConcurrentUploads, uploadQueueCapacity, Clock.systemUTC());
+    }
+
+    S3Service(S3Client s3Client, S3Presigner s3Presigner, S3TransferManager transferManager,
+              MeterRegistry meterRegistry,
+              long presignedUrlExpiryMinutes,
+              long presignedUrlCacheMaxEntries,
+              long presignedUrlCacheSafetyMarginMinutes,
+              int maxConcurrentUploads,
+              int uploadQueueCapacity,
+              Clock clock) {
         this.s3Client = s3Client;
+        this.clock = clock;
         this.s3Presigner = s3Presigner;
+        this.transferManager = transferManager;
+        this.presignedUrlExpiryMinutes = presignedUrlExpiryMinutes;
+
+        this.uploadSlots = new Semaphore(maxConcurrentUploads + uploadQueueCapacity);
+        // Очередь с запасом на потоки, которые ещё дочитывают поток уже завершённой загрузки
+        this.uploadReaders = new ThreadPoolExecutor(maxConcurrentUploads, maxConcurrentUploads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxConcurrentUploads + uploadQueueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "s3-upload-reader-" + readerNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        Duration reuseFor = Duration.ofMinutes(presignedUrlExpiryMinutes - presignedUrlCacheSafetyMarginMinutes);
+        this.presignedUrls = Caffeine.newBuilder()
+                // Margin не меньше срока подписи — URL не переиспользуются
+                .maximumSize(reuseFor.isNegative() || reuseFor.isZero() ? 0 : presignedUrlCacheMaxEntries)
+                .expireAfterWrite(reuseFor.isNegative() ? Duration.ZERO : reuseFor)
+                .ticker(() -> TimeUnit.MILLISECONDS.toNanos(clock.millis()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, presignedUrls, CACHE_NAME);
     }
 
     /**
-     * Загрузить файл в S3.
+     * Загрузить файл в S3. Файл от {@code s3.transfer.threshold-mb} загружается параллельными частями
+     * через Transfer Manager; при ошибке части, исчерпавшей повторы, загрузка прерывается целиком.
+     * Если загрузок частями уже идёт и ждёт больше, чем позволяют {@code s3.transfer.max-concurrency} и
+     * {@code s3.transfer.upload-queue-capacity}, бросается {@link RejectedExecutionException} (HTTP 503).
      *
      * @param s3Key       ключ объекта в бакете (путь внутри бакета)
      * @param inputStream содержимое файла
@@ -57,10 +174,142 @@ public class S3Service {
                 .contentLength(fileSize)
                 .build();
 
+        if (fileSize >= transferThresholdMb * 1024 * 1024) {
+            uploadInParts(request, inputStream, fileSize);
+            return;
+        }
         s3Client.putObject(request, RequestBody.fromInputStream(inputStream, fileSize));
         log.info("Uploaded file to S3: s3://{}/{}", bucket, s3Key);
     }
 
+    private void uploadInParts(PutObjectRequest request, InputStream inputStream, long fileSize) {
+        if (!uploadSlots.tryAcquire()) {
+            throw new RejectedExecutionException("Too many concurrent S3 uploads, rejected " + request.key());
+        }
+        try {
+            Upload upload = transferManager.upload(UploadRequest.builder()
+                    .putObjectRequest(request)
+                    .requestBody(AsyncRequestBody.fromInputStream(inputStream, fileSize, uploadReaders))
+                    .build());
+            upload.completionFuture().join();
+        } catch (CompletionException e) {
+            // Незавершённую multipart-загрузку клиент уже прервал — остаётся пробросить исходную ошибку
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        } finally {
+            uploadSlots.release();
+        }
+        log.info("Uploaded file to S3 in parts: s3://{}/{} ({} bytes)", bucket, request.key(), fileSize);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        uploadReaders.shutdownNow();
+    }
+
+    /**
+     * Открыть поток записи объекта заранее неизвестного размера (например, генерируемого экспорта).
+     * <p>
+     * Данные копятся в буфере размером {@link #UPLOAD_PART_SIZE} и уходят в S3 частями multipart-загрузки,
+     * поэтому в памяти никогда не бывает больше одной части. Объект, уместившийся в одну часть,
+     * загружается обычным PUT. Загрузка завершается на {@link UploadStream#close()};
+     * при ошибке записи нужно вызвать {@link UploadStream#abort()}, чтобы S3 удалил уже загруженные части.
+     *
+     * @param s3Key       ключ объекта в бакете
+     * @param contentType MIME-тип объекта
+     */
+    public UploadStream openUpload(String s3Key, String contentType) {
+        return new UploadStream(s3Key, contentType);
+    }
+
+    /**
+     * Presigned PUT для загрузки объекта напрямую клиентом, минуя бэкенд.
+     * Content-Type и Content-Length входят в подпись: по URL можно загрузить только объект
+     * заявленного типа и размера. URL действителен {@code s3.presigned-upload-expiry-minutes} минут.
+     *
+     * @param s3Key         ключ объекта в бакете
+     * @param contentType   MIME-тип, который клиент обязан передать в заголовке Content-Type
+     * @param contentLength точный размер объекта в байтах
+     */
+    public PresignedUrl presignPut(String s3Key, String contentType, long contentLength) {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(s3Key)
+                .contentType(contentType)
+                .contentLength(contentLength)
+                .build();
+
+        PresignedPutObjectRequest presigned = s3Presigner.presignPutObject(PutObjectPresignRequest.builder()
+                .signatureDuration(Duration.ofMinutes(presignedUploadExpiryMinutes))
+                .putObjectRequest(putObjectRequest)
+                .build());
+        return new PresignedUrl(presigned.url().toString(), presigned.expiration());
+    }
+
+    /**
+     * Начать multipart-загрузку, части которой клиент загрузит сам по {@link #presignUploadPart}.
+     *
+     * @return uploadId загрузки
+     */
+    public String createMultipartUpload(String s3Key, String contentType) {
+        return s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(s3Key)
+                .contentType(contentType)
+                .build()).uploadId();
+    }
+
+    /**
+     * Presigned URL для загрузки одной части multipart-загрузки; размер части входит в подпись.
+     */
+    public PresignedUrl presignUploadPart(String s3Key, String uploadId, int partNumber, long contentLength) {
+        UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+                .bucket(bucket)
+                .key(s3Key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength(contentLength)
+                .build();
+
+        PresignedUploadPartRequest presigned = s3Presigner.presignUploadPart(UploadPartPresignRequest.builder()
+                .signatureDuration(Duration.ofMinutes(presignedUploadExpiryMinutes))
+                .uploadPartRequest(uploadPartRequest)
+                .build());
+        return new PresignedUrl(presigned.url().toString(), presigned.expiration());
+    }
+
+    /**
+     * Завершить multipart-загрузку, части которой загрузил клиент.
+     *
+     * @param eTags ETag частей в порядке их номеров (первый элемент — часть 1)
+     */
+    public void completeMultipartUpload(String s3Key, String uploadId, List<String> eTags) {
+        List<CompletedPart> parts = new ArrayList<>(eTags.size());
+        for (int i = 0; i < eTags.size(); i++) {
+            parts.add(CompletedPart.builder().partNumber(i + 1).eTag(eTags.get(i)).build());
+        }
+        s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(s3Key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                .build());
+        log.info("Completed multipart upload to S3: s3://{}/{} ({} parts)", bucket, s3Key, parts.size());
+    }
+
+    /**
+     * Прервать multipart-загрузку: S3 удаляет уже загруженные части.
+     */
+    public void abortMultipartUpload(String s3Key, String uploadId) {
+        s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(s3Key)
+                .uploadId(uploadId)
+                .build());
+    }
+
     /**
      * Скачать файл из S3 как InputStream.
      *
@@ -68,12 +317,28 @@ public class S3Service {
      * @return поток байт файла
      */
     public ResponseInputStream<GetObjectResponse> download(String s3Key) {
+        return download(s3Key, null, null, null);
+    }
+
+    /**
+     * Скачать файл или его часть с условиями. Невыполненное условие S3 возвращает ошибкой:
+     * {@link S3Exception} со статусом 304 (If-None-Match), 412 (If-Match) или 416 (диапазон вне объекта).
+     *
+     * @param s3Key       ключ объекта в бакете
+     * @param range       диапазон в формате заголовка Range ({@code bytes=0-1023}) или null
+     * @param ifMatch     ETag, который должен совпасть с текущим, или null
+     * @param ifNoneMatch значение If-None-Match или null
+     */
+    public ResponseInputStream<GetObjectResponse> download(String s3Key, String range, String ifMatch, String ifNoneMatch) {
         GetObjectRequest request = GetObjectRequest.builder()
                 .bucket(bucket)
                 .key(s3Key)
+                .range(range)
+                .ifMatch(ifMatch)
+                .ifNoneMatch(ifNoneMatch)
                 .build();
 
-        log.info("Downloading file from S3: s3://{}/{}", bucket, s3Key);
+        log.info("Downloading file from S3: s3://{}/{}{}", bucket, s3Key, range != null ? " (" + range + ")" : "");
         return s3Client.getObject(request);
     }
 
@@ -89,17 +354,23 @@ public class S3Service {
                 .build();
 
         s3Client.deleteObject(request);
+        presignedUrls.invalidate(s3Key);
         log.info("Deleted file from S3: s3://{}/{}", bucket, s3Key);
     }
 
     /**
-     * Сгенерировать presigned URL для временного доступа к файлу.
-     * URL действителен в течение {@code s3.presigned-url-expiry-minutes} минут.
+     * Получить presigned URL для временного доступа к файлу.
+     * URL действителен в течение {@code s3.presigned-url-expiry-minutes} минут с момента подписи;
+     * закешированный URL отдаётся, пока до его истечения больше safety margin.
      *
      * @param s3Key ключ объекта в бакете
      * @return временный URL для скачивания файла
      */
     public String generatePresignedUrl(String s3Key) {
+        return presignedUrls.get(s3Key, this::presign);
+    }
+
+    private String presign(String s3Key) {
         GetObjectRequest getObjectRequest = GetObjectRequest.builder()
                 .bucket(bucket)
                 .key(s3Key)
@@ -116,6 +387,29 @@ public class S3Service {
         return url;
     }
 
+    /**
+     * Сгенерировать presigned URL для набора ключей за один проход (повторяющиеся ключи
+     * подписываются один раз). Подпись вычисляется локально, запросов к S3 не выполняется.
+     *
+     * @param s3Keys ключи объектов
+     * @return ключ → временный URL
+     */
+    public Map<String, String> generatePresignedUrls(Collection<String> s3Keys) {
+        Map<String, String> urls = new HashMap<>(s3Keys.size() * 2);
+        for (String s3Key : s3Keys) {
+            if (!urls.containsKey(s3Key)) {
+                urls.put(s3Key, generatePresignedUrl(s3Key));
+            }
+        }
+        return urls;
+    }
+
+    /** Количество закешированных presigned URL (после применения отложенных вытеснений) */
+    long cachedUrlCount() {
+        presignedUrls.cleanUp();
+        return presignedUrls.estimatedSize();
+    }
+
     /**
      * Проверить существование объекта в S3.
      *
@@ -123,14 +417,167 @@ public class S3Service {
      * @return true если объект существует
      */
     public boolean exists(String s3Key) {
+        return head(s3Key) != null;
+    }
+
+    /**
+     * Метаданные объекта (размер, MIME-тип) без скачивания содержимого.
+     *
+     * @param s3Key ключ объекта
+     * @return ответ HEAD или null, если объекта нет
+     */
+    public HeadObjectResponse head(String s3Key) {
         try {
-            s3Client.headObject(HeadObjectRequest.builder()
+            return s3Client.headObject(HeadObjectRequest.builder()
                     .bucket(bucket)
                     .key(s3Key)
                     .build());
-            return true;
         } catch (NoSuchKeyException e) {
-            return false;
+            return null;
+        }
+    }
+
+    /** Подписанный URL и момент его истечения */
+    public record PresignedUrl(String url, Instant expiresAt) {
+    }
+
+    /**
+     * Поток multipart-загрузки, см. {@link #openUpload}.
+     */
+    public class UploadStream extends OutputStream {
+
+        private final String s3Key;
+        private final String contentType;
+        private final byte[] buffer = new byte[UPLOAD_PART_SIZE];
+        private final List<CompletedPart> parts = new ArrayList<>();
+        private int buffered;
+        private long size;
+        private String uploadId;
+        private boolean closed;
+
+        UploadStream(String s3Key, String contentType) {
+            this.s3Key = s3Key;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public void write(int b) {
+            ensureOpen();
+            if (buffered == buffer.length) {
+                uploadPart();
+            }
+            buffer[buffered++] = (byte) b;
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b) {
+            write(b, 0, b.length);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureOpen();
+            while (len > 0) {
+                // Часть отправляется, только когда есть что писать дальше — последняя часть не бывает пустой
+                if (buffered == buffer.length) {
+                    uploadPart();
+                }
+                int n = Math.min(len, buffer.length - buffered);
+                System.arraycopy(b, off, buffer, buffered, n);
+                buffered += n;
+                size += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /** Сколько байт записано в поток */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Завершить загрузку. Повторный вызов ничего не делает.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (uploadId == null) {
+                    s3Client.putObject(PutObjectRequest.builder()
+                                    .bucket(bucket)
+                                    .key(s3Key)
+                                    .contentType(contentType)
+                                    .contentLength((long) buffered)
+                                    .build(),
+                            RequestBody.fromInputStream(new ByteArrayInputStream(buffer, 0, buffered), buffered));
+                } else {
+                    uploadPart();
+                    s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                            .bucket(bucket)
+                            .key(s3Key)
+                            .uploadId(uploadId)
+                            .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                            .build());
+                }
+            } catch (RuntimeException e) {
+                abortUpload();
+                throw e;
+            }
+            log.info("Uploaded file to S3: s3://{}/{} ({} bytes, {} parts)", bucket, s3Key, size, Math.max(1, parts.size()));
+        }
+
+        /**
+         * Прервать загрузку: объект не создаётся, загруженные части удаляются.
+         */
+        public void abort() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            abortUpload();
+        }
+
+        private void uploadPart() {
+            if (uploadId == null) {
+                uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(s3Key)
+                        .contentType(contentType)
+                        .build()).uploadId();
+            }
+            int partNumber = parts.size() + 1;
+            UploadPartResponse response = s3Client.uploadPart(UploadPartRequest.builder()
+                            .bucket(bucket)
+                            .key(s3Key)
+                            .uploadId(uploadId)
+                            .partNumber(partNumber)
+                            .contentLength((long) buffered)
+                            .build(),
+                    RequestBody.fromInputStream(new ByteArrayInputStream(buffer, 0, buffered), buffered));
+            parts.add(CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build());
+            buffered = 0;
+        }
+
+        private void abortUpload() {
+            if (uploadId == null) {
+                return;
+            }
+            try {
+                abortMultipartUpload(s3Key, uploadId);
+            } catch (RuntimeException e) {
+                log.warn("Failed to abort multipart upload {} for s3://{}/{}", uploadId, bucket, s3Key, e);
+            }
+        }
+
+        private void ensureOpen() {
+            if (closed) {
+                throw new IllegalStateException("Загрузка " + s3Key + " уже завершена");
+            }
         }
     }
 }
@@ -0,0 +1,358 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.impls.MediaFileType;
+import com.project.familytree.tree.impls.ThumbnailStatus;
+import com.project.familytree.tree.models.MediaFile;
+import com.project.familytree.tree.models.Person;
+import com.project.familytree.tree.models.ThumbnailJob;
+import com.project.familytree.tree.repositories.MediaFileRepository;
+import com.project.familytree.tree.repositories.PersonRepository;
+import com.project.familytree.tree.repositories.ThumbnailJobRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Фоновая генерация уменьшенных копий изображений — медиафайлов типа IMAGE и аватаров персон.
+ * <p>
+ * Загрузка изображения только добавляет строку в {@code thumbnail_jobs} в транзакции загрузки; после коммита
+ * задача уходит в ограниченный пул воркеров. Воркер захватывает задачу переходом PENDING → RUNNING,
+ * скачивает исходник, декодирует его с прореживанием (в памяти — не больше чем вдвое крупнее самой
+ * большой копии) и загружает JPEG-копии со стороной {@code tree.thumbnails.sizes} px по производным ключам
+ * {@code {ключ без расширения}_{размер}.jpg}. Затем отмечает медиафайл или персону флагом готовности —
+ * только если исходник с тех пор не заменили; по флагу DTO отдают ссылки на копии.
+ * <p>
+ * Очередь живёт в таблице ({@link JobRunner}): периодический проход ({@link #sweep}) возвращает в очередь
+ * задачи, зависшие после перезапуска, и подхватывает PENDING, не попавшие в пул (очередь была полна или
+ * задача ждёт повтора).
+ */
+@Service
+public class ThumbnailService {
+
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailService.class);
+
+    /** Форматы, которые ImageIO читает без дополнительных плагинов */
+    private static final Set<String> SUPPORTED_EXTENSIONS = Set.of(".jpg", ".jpeg", ".png", ".gif", ".bmp");
+
+    private static final String VARIANT_CONTENT_TYPE = "image/jpeg";
+    private static final float JPEG_QUALITY = 0.85f;
+    /** Защита от «бомб» декомпрессии: исходники больше этого числа пикселей не декодируются */
+    private static final long MAX_SOURCE_PIXELS = 200_000_000L;
+
+    private final ThumbnailJobRepository thumbnailJobRepository;
+    private final MediaFileRepository mediaFileRepository;
+    private final PersonRepository personRepository;
+    private final S3Service s3Service;
+    private final JobRunner<ThumbnailJob> jobs;
+
+    private final int[] sizes;
+    private final int maxAttempts;
+
+    @Autowired
+    public ThumbnailService(ThumbnailJobRepository thumbnailJobRepository,
+                            MediaFileRepository mediaFileRepository,
+                            PersonRepository personRepository,
+                            S3Service s3Service,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${tree.thumbnails.sizes:64,256,1024}") int[] sizes,
+                            @Value("${tree.thumbnails.workers:1}") int workers,
+                            @Value("${tree.thumbnails.queue-capacity:500}") int queueCapacity,
+                            @Value("${tree.thumbnails.max-attempts:3}") int maxAttempts,
+                            @Value("${tree.thumbnails.stale-after-minutes:5}") long staleAfterMinutes) {
+        this(thumbnailJobRepository, mediaFileRepository, personRepository, s3Service, transactionManager,
+                sizes, maxAttempts, staleAfterMinutes,
+                JobRunner.workerPool("thumbnail-worker", workers, queueCapacity), Clock.systemUTC());
+    }
+
+    ThumbnailService(ThumbnailJobRepository thumbnailJobRepository,
+                     MediaFileRepository mediaFileRepository,
+                     PersonRepository personRepository,
+                     S3Service s3Service,
+                     PlatformTransactionManager transactionManager,
+                     int[] sizes,
+                     int maxAttempts,
+                     long staleAfterMinutes,
+                     Executor executor,
+                     Clock clock) {
+        this.thumbnailJobRepository = thumbnailJobRepository;
+        this.mediaFileRepository = mediaFileRepository;
+        this.personRepository = personRepository;
+        this.s3Service = s3Service;
+        this.sizes = Arrays.stream(sizes).sorted().toArray();
+        this.maxAttempts = maxAttempts;
+        this.jobs = new JobRunner<>("Thumbnail", thumbnailJobRepository, transactionManager, executor, clock,
+                maxAttempts, Duration.ofMinutes(staleAfterMinutes), this::process);
+    }
+
+    /**
+     * Поставить в очередь копии изображения медиафайла. Вызывается в транзакции загрузки:
+     * задача попадает к воркеру только после её коммита.
+     */
+    public void enqueueMedia(MediaFile mediaFile) {
+        if (mediaFile.getFileType() != MediaFileType.IMAGE || !supports(mediaFile.getFilePath())) {
+            return;
+        }
+        enqueue(new ThumbnailJob(mediaFile.getFilePath(), mediaFile.getId(), null));
+    }
+
+    /**
+     * Поставить в очередь копии текущего аватара персоны.
+     */
+    public void enqueueAvatar(Person person) {
+        if (!supports(person.getAvatarUrl())) {
+            return;
+        }
+        enqueue(new ThumbnailJob(person.getAvatarUrl(), null, person.getId()));
+    }
+
+    /** Ключи копий изображения от меньшей к большей */
+    public List<String> variantKeys(String sourceKey) {
+        List<String> keys = new ArrayList<>(sizes.length);
+        for (int size : sizes) {
+            keys.add(variantKey(sourceKey, size));
+        }
+        return keys;
+    }
+
+    /**
+     * Ссылки на копии по уже подписанным URL ключей (см. {@link S3Service#generatePresignedUrls}):
+     * размер → URL. Копии без URL пропускаются.
+     */
+    public Map<Integer, String> variantUrls(String sourceKey, Map<String, String> presigned) {
+        Map<Integer, String> urls = new LinkedHashMap<>();
+        for (int size : sizes) {
+            String url = presigned.get(variantKey(sourceKey, size));
+            if (url != null) {
+                urls.put(size, url);
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Ссылки на копии одного изображения: размер → presigned URL.
+     */
+    public Map<Integer, String> variantUrls(String sourceKey) {
+        return variantUrls(sourceKey, s3Service.generatePresignedUrls(variantKeys(sourceKey)));
+    }
+
+    /**
+     * Удалить копии изображения из S3. Ошибки только логируются — как и при удалении исходников.
+     */
+    public void deleteVariants(String sourceKey) {
+        for (String key : variantKeys(sourceKey)) {
+            try {
+                s3Service.delete(key);
+            } catch (Exception e) {
+                log.warn("Failed to delete thumbnail {} from S3: {}", key, e.getMessage());
+            }
+        }
+    }
+
+    static String variantKey(String sourceKey, int size) {
+        int slash = sourceKey.lastIndexOf('/');
+        int dot = sourceKey.lastIndexOf('.');
+        String base = dot > slash ? sourceKey.substring(0, dot) : sourceKey;
+        return base + "_" + size + ".jpg";
+    }
+
+    static boolean supports(String sourceKey) {
+        if (sourceKey == null || !sourceKey.startsWith("trees/")) {
+            return false;
+        }
+        int dot = sourceKey.lastIndexOf('.');
+        return dot > sourceKey.lastIndexOf('/') && SUPPORTED_EXTENSIONS.contains(sourceKey.substring(dot).toLowerCase());
+    }
+
+    private void enqueue(ThumbnailJob job) {
+        jobs.submit(thumbnailJobRepository.save(job).getId());
+    }
+
+    /**
+     * Периодический проход: вернуть в очередь задачи упавших воркеров и подхватить ожидающие.
+     */
+    @Scheduled(fixedDelayString = "${tree.thumbnails.sweep-interval-ms:30000}",
+               initialDelayString = "${tree.thumbnails.sweep-initial-delay-ms:15000}")
+    public void sweep() {
+        jobs.sweep();
+    }
+
+    void run(Long jobId) {
+        jobs.run(jobId);
+    }
+
+    private void process(ThumbnailJob job) {
+        Long jobId = job.getId();
+        String sourceKey = job.getSourceKey();
+        long started = System.nanoTime();
+        try {
+            render(sourceKey);
+        } catch (Exception e) {
+            if (jobs.isShuttingDown()) {
+                log.info("Thumbnail job {} interrupted by shutdown", jobId);
+                return;
+            }
+            // Нечитаемое изображение не исправится повтором; сбой S3 — повторяется следующим проходом
+            boolean retry = !(e instanceof UnreadableImageException) && job.getAttempts() < maxAttempts;
+            log.warn("Thumbnail job {} for {} failed{}: {}", jobId, sourceKey, retry ? " (will retry)" : "", e.getMessage());
+            String error = JobRunner.errorMessage(e);
+            jobs.update(jobId, j -> {
+                j.setStatus(retry ? ThumbnailStatus.PENDING : ThumbnailStatus.FAILED);
+                j.setError(error);
+            });
+            return;
+        }
+
+        Integer marked = jobs.inTransaction(status -> job.getMediaFileId() != null
+                ? mediaFileRepository.markThumbnailsReady(job.getMediaFileId(), sourceKey)
+                : personRepository.markAvatarThumbnailsReady(job.getPersonId(), sourceKey));
+        if ((marked == null || marked == 0) && !mediaFileRepository.existsByFilePath(sourceKey)) {
+            // Исходник заменили или удалили, пока строились копии, и другие файлы на него не ссылаются
+            deleteVariants(sourceKey);
+        }
+        jobs.update(jobId, j -> {
+            j.setStatus(ThumbnailStatus.COMPLETED);
+            j.setError(null);
+        });
+        log.info("Thumbnail job {} for {} completed in {} ms", jobId, sourceKey, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Скачать исходник, построить и загрузить все копии.
+     */
+    private void render(String sourceKey) throws IOException {
+        BufferedImage source;
+        try (ResponseInputStream<GetObjectResponse> in = s3Service.download(sourceKey)) {
+            source = decode(in, sizes[sizes.length - 1]);
+        }
+
+        // От большей копии к меньшей: каждая следующая уменьшается из предыдущей, а не из исходника
+        BufferedImage current = source;
+        for (int i = sizes.length - 1; i >= 0; i--) {
+            current = scale(current, sizes[i]);
+            byte[] jpeg = encodeJpeg(current);
+            s3Service.upload(variantKey(sourceKey, sizes[i]), new ByteArrayInputStream(jpeg), VARIANT_CONTENT_TYPE, jpeg.length);
+        }
+    }
+
+    /**
+     * Декодировать изображение с прореживанием: большая сторона результата — не меньше {@code 2 * largest}.
+     */
+    static BufferedImage decode(InputStream in, int largest) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = iis != null ? ImageIO.getImageReaders(iis) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new UnreadableImageException("Формат изображения не поддерживается");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_SOURCE_PIXELS) {
+                    throw new UnreadableImageException("Изображение слишком большое: " + width + "x" + height);
+                }
+                int step = Math.max(1, Math.max(width, height) / (2 * largest));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } catch (IIOException | RuntimeException e) {
+                // Повреждённые данные; прочие IOException — сбой чтения из S3, его стоит повторить
+                throw new UnreadableImageException("Не удалось прочитать изображение: " + e.getMessage());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Вписать изображение в квадрат {@code maxSide}, не увеличивая. Уменьшение идёт шагами не больше
+     * чем вдвое — билинейная интерполяция на больших шагах даёт «лесенку». Прозрачность заливается белым.
+     */
+    static BufferedImage scale(BufferedImage image, int maxSide) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double ratio = Math.min(1.0, (double) maxSide / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * ratio));
+        int targetHeight = Math.max(1, (int) Math.round(height * ratio));
+
+        BufferedImage current = image;
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(current, 0, 0, width, height, Color.WHITE, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (width > targetWidth || height > targetHeight);
+        return current;
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        jobs.shutdown();
+    }
+
+    /** Исходник не является читаемым изображением — повтор не поможет */
+    static class UnreadableImageException extends IOException {
+        UnreadableImageException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.project.familytree.tree.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.project.familytree.tree.impls.RelationshipType;
+import com.project.familytree.tree.repositories.PersonRepository;
+import com.project.familytree.tree.repositories.RelationshipRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory индекс графа связей для каждого дерева.
+ * <p>
+ * Граф хранится в CSR-формате на примитивных массивах: отсортированный {@code long[]} ID персон,
+ * {@code int[]} смещений и параллельные массивы рёбер. Каждая связь даёт два ребра — по одному
+ * на каждую из персон. Сущности Hibernate при построении не загружаются: читаются только ID
+ * персон и «сырые» строки связей.
+ * <p>
+ * Индекс строится лениво при первом обращении, сбрасывается при любом изменении персон или
+ * связей дерева ({@link #invalidate(Long)}) и вытесняется Caffeine, когда суммарное число рёбер
+ * превышает {@code tree.graph-index.max-edges}. Индекс локален для экземпляра сервиса.
+ */
+@Service
+public class TreeGraphIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(TreeGraphIndex.class);
+
+    /** Соседняя персона — родитель текущей (PARENT_CHILD, текущая = person2) */
+    public static final byte KIND_PARENT = 0;
+    /** Соседняя персона — ребёнок текущей (PARENT_CHILD, текущая = person1) */
+    public static final byte KIND_CHILD = 1;
+    /** Партнёрство, текущая персона = person1 */
+    public static final byte KIND_PARTNER_OUT = 2;
+    /** Партнёрство, текущая персона = person2 */
+    public static final byte KIND_PARTNER_IN = 3;
+
+    /** Значение epochDay для отсутствующей даты */
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    static final String CACHE_NAME = "tree.graph_index";
+
+    private final PersonRepository personRepository;
+    private final RelationshipRepository relationshipRepository;
+
+    /** treeId -> граф; вес записи — число рёбер, суммарный вес ограничен {@code tree.graph-index.max-edges} */
+    private final Cache<Long, Graph> graphs;
+
+    /** treeId -> версия дерева; увеличивается при каждом изменении персон или связей */
+    private final ConcurrentHashMap<Long, Long> versions = new ConcurrentHashMap<>();
+
+    public TreeGraphIndex(PersonRepository personRepository,
+                          RelationshipRepository relationshipRepository,
+                          @Value("${tree.graph-index.max-edges:2000000}") long maxEdges,
+                          MeterRegistry meterRegistry) {
+        this.personRepository = personRepository;
+        this.relationshipRepository = relationshipRepository;
+        this.graphs = Caffeine.newBuilder()
+                .maximumWeight(maxEdges)
+                .weigher((Long treeId, Graph graph) -> Math.max(1, graph.edgeCount()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, graphs, CACHE_NAME);
+    }
+
+    /**
+     * Получить актуальный граф дерева, построив его при необходимости.
+     * Построение идёт вне блокировок кеша: параллельные чтения других деревьев его не ждут.
+     */
+    public Graph get(Long treeId) {
+        long version = currentVersion(treeId);
+        Graph cached = graphs.getIfPresent(treeId);
+        if (cached != null && cached.version == version) {
+            return cached;
+        }
+
+        Graph graph = build(treeId, version);
+        // Дерево могло измениться во время построения — тогда не кешируем устаревший граф
+        graphs.asMap().compute(treeId, (id, existing) -> currentVersion(id) == version ? graph : existing);
+        return graph;
+    }
+
+    /**
+     * Текущая версия дерева. Меняется при каждом {@link #invalidate(Long)}.
+     */
+    public long currentVersion(Long treeId) {
+        return versions.getOrDefault(treeId, 0L);
+    }
+
+    /**
+     * Сбросить граф дерева. Если вызывается внутри транзакции, сброс повторяется после её
+     * завершения — чтобы граф, построенный параллельно по ещё не закоммиченным данным,
+     * не остался в кеше.
+     */
+    public void invalidate(Long treeId) {
+        evict(treeId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(treeId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Забыть удалённое дерево: кроме графа удаляется и его счётчик версий, иначе записи
+     * {@code versions} копились бы для каждого когда-либо изменённого дерева. Счётчик удаляется
+     * только после коммита; при откате вызов работает как {@link #invalidate(Long)}.
+     */
+    public void remove(Long treeId) {
+        evict(treeId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        forget(treeId);
+                    } else {
+                        evict(treeId);
+                    }
+                }
+            });
+        } else {
+            forget(treeId);
+        }
+    }
+
+    /** Суммарное число рёбер закешированных графов (после применения отложенных вытеснений) */
+    long cachedEdges() {
+        graphs.cleanUp();
+        return graphs.policy().eviction().orElseThrow().weightedSize().orElse(0L);
+    }
+
+    private void evict(Long treeId) {
+        versions.merge(treeId, 1L, Long::sum);
+        graphs.invalidate(treeId);
+    }
+
+    private void forget(Long treeId) {
+        versions.remove(treeId);
+        graphs.invalidate(treeId);
+    }
+
+    private Graph build(Long treeId, long version) {
+        long started = System.nanoTime();
+
+        List<Long> ids = personRepository.findIdsByTreeId(treeId);
+        long[] personIds = new long[ids.size()];
+        for (int i = 0; i < personIds.length; i++) {
+            personIds[i] = ids.get(i);
+        }
+        Arrays.sort(personIds);
+
+        // Строки: id, person1Id, person2Id, type, startDate, endDate
+        List<Object[]> rows = relationshipRepository.findEdgeRowsByTreeId(treeId);
+
+        int n = personIds.length;
+        int[] offsets = new int[n + 1];
+        for (Object[] row : rows) {
+            int i1 = Arrays.binarySearch(personIds, (Long) row[1]);
+            int i2 = Arrays.binarySearch(personIds, (Long) row[2]);
+            if (i1 >= 0 && i2 >= 0) {
+                offsets[i1 + 1]++;
+                offsets[i2 + 1]++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+
+        int m = offsets[n];
+        long[] targets = new long[m];
+        long[] relationshipIds = new long[m];
+        byte[] kinds = new byte[m];
+        int[] startDays = new int[m];
+        int[] endDays = new int[m];
+
+        int[] cursor = Arrays.copyOf(offsets, n);
+        for (Object[] row : rows) {
+            long relId = (Long) row[0];
+            long p1 = (Long) row[1];
+            long p2 = (Long) row[2];
+            int i1 = Arrays.binarySearch(personIds, p1);
+            int i2 = Arrays.binarySearch(personIds, p2);
+            if (i1 < 0 || i2 < 0) {
+                continue;
+            }
+            boolean parentChild = row[3] == RelationshipType.PARENT_CHILD;
+            int start = toEpochDay((LocalDate) row[4]);
+            int end = toEpochDay((LocalDate) row[5]);
+
+            int e1 = cursor[i1]++;
+            targets[e1] = p2;
+            relationshipIds[e1] = relId;
+            kinds[e1] = parentChild ? KIND_CHILD : KIND_PARTNER_OUT;
+            startDays[e1] = start;
+            endDays[e1] = end;
+
+            int e2 = cursor[i2]++;
+            targets[e2] = p1;
+            relationshipIds[e2] = relId;
+            kinds[e2] = parentChild ? KIND_PARENT : KIND_PARTNER_IN;
+            startDays[e2] = start;
+            endDays[e2] = end;
+        }
+
+        Graph graph = new Graph(version, personIds, offsets, targets, relationshipIds, kinds, startDays, endDays);
+        log.debug("Built graph index for tree {}: {} persons, {} edges in {} ms",
+                treeId, n, m, (System.nanoTime() - started) / 1_000_000);
+        return graph;
+    }
+
+    private static int toEpochDay(LocalDate date) {
+        return date != null ? (int) date.toEpochDay() : NO_DATE;
+    }
+
+    /**
+     * Неизменяемый снимок графа дерева в CSR-формате.
+     * Рёбра персоны с индексом {@code i} лежат в диапазоне {@code [offsets[i], offsets[i + 1])}.
+     */
+    public static final class Graph {
+
+        private final long version;
+        private final long[] personIds;
+        private final int[] offsets;
+        private final long[] targets;
+        private final long[] relationshipIds;
+        private final byte[] kinds;
+        private final int[] startDays;
+        private final int[] endDays;
+
+        Graph(long version, long[] personIds, int[] offsets, long[] targets, long[] relationshipIds,
+              byte[] kinds, int[] startDays, int[] endDays) {
+            this.version = version;
+            this.personIds = personIds;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.relationshipIds = relationshipIds;
+            this.kinds = kinds;
+            this.startDays = startDays;
+            this.endDays = endDays;
+        }
+
+        public long version() {
+            return version;
+        }
+
+        /** Количество персон */
+        public int size() {
+            return personIds.length;
+        }
+
+        /** Количество рёбер (каждая связь учитывается дважды) */
+        public int edgeCount() {
+            return targets.length;
+        }
+
+        /** Индекс персоны в графе или -1, если персоны нет */
+        public int indexOf(long personId) {
+            int idx = Arrays.binarySearch(personIds, personId);
+            return idx >= 0 ? idx : -1;
+        }
+
+        public boolean contains(long personId) {
+            return indexOf(personId) >= 0;
+        }
+
+        public long personIdAt(int index) {
+            return personIds[index];
+        }
+
+        public int edgeStart(int index) {
+            return offsets[index];
+        }
+
+        public int edgeEnd(int index) {
+            return offsets[index + 1];
+        }
+
+        public long target(int edge) {
+            return targets[edge];
+        }
+
+        public long relationshipId(int edge) {
+            return relationshipIds[edge];
+        }
+
+        public byte kind(int edge) {
+            return kinds[edge];
+        }
+
+        public LocalDate startDate(int edge) {
+            return startDays[edge] == NO_DATE ? null : LocalDate.ofEpochDay(startDays[edge]);
+        }
+
+        public LocalDate endDate(int edge) {
+            return endDays[edge] == NO_DATE ? null : LocalDate.ofEpochDay(endDays[edge]);
+        }
+
+        public long[] parentsOf(long personId) {
+            return neighbours(personId, KIND_PARENT, KIND_PARENT);
+        }
+
+        public long[] childrenOf(long personId) {
+            return neighbours(personId, KIND_CHILD, KIND_CHILD);
+        }
+
+        public long[] partnersOf(long personId) {
+            return neighbours(personId, KIND_PARTNER_OUT, KIND_PARTNER_IN);
+        }
+
+        private long[] neighbours(long personId, byte kindA, byte kindB) {
+            int idx = indexOf(personId);
+            if (idx < 0) {
+                return new long[0];
+            }
+            long[] result = new long[offsets[idx + 1] - offsets[idx]];
+            int count = 0;
+            for (int e = offsets[idx]; e < offsets[idx + 1]; e++) {
+                if (kinds[e] == kindA || kinds[e] == kindB) {
+                    result[count++] = targets[e];
+                }
+            }
+            return count == result.length ? result : Arrays.copyOf(result, count);
+        }
+    }
+}
@@ -2,11 +2,13 @@ package com.project.familytree.tree.services;
 
 import com.project.familytree.auth.services.MailSenderService;
 import com.project.familytree.auth.services.UserService;
+import com.project.familytree.tree.dto.CursorPageResponse;
 import com.project.familytree.tree.dto.PersonDTO;
 import com.project.familytree.tree.dto.PersonHistoryDTO;
 import com.project.familytree.tree.dto.PersonRelationshipRequest;
 import com.project.familytree.tree.dto.PersonRequest;
 import com.project.familytree.tree.dto.RelationshipDTO;
+import com.project.familytree.tree.dto.SubgraphDTO;
 import com.project.familytree.tree.dto.TreeDTO;
 import com.project.familytree.tree.dto.TreeMemberDTO;
 import com.project.familytree.tree.impls.HistoryAction;
@@ -20,6 +22,7 @@ import com.project.familytree.tree.models.Relationship;
 import com.project.familytree.tree.models.Tree;
 import com.project.familytree.tree.models.TreeMembership;
 import com.project.familytree.tree.repositories.CommentRepository;
+import com.project.familytree.tree.repositories.ExportJobRepository;
 import com.project.familytree.tree.repositories.InvitationRepository;
 import com.project.familytree.tree.repositories.MediaFileRepository;
 import com.project.familytree.tree.repositories.PersonHistoryRepository;
@@ -31,6 +34,7 @@ import com.project.familytree.tree.exceptions.BusinessException;
 import com.project.familytree.tree.exceptions.ResourceNotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
@@ -39,10 +43,15 @@ import java.io.IOException;
 import java.nio.file.AccessDeniedException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -51,6 +60,23 @@ public class TreeService {
 
     private static final Logger log = LoggerFactory.getLogger(TreeService.class);
 
+    /** Окно графа вокруг персоны: значения по умолчанию и пределы (см. {@link #getSubgraph}) */
+    public static final int DEFAULT_WINDOW_GENERATIONS = 2;
+    public static final int DEFAULT_WINDOW_LATERAL = 1;
+    public static final int MAX_WINDOW_GENERATIONS = 10;
+    public static final int MAX_WINDOW_LATERAL = 4;
+
+    /** Сколько записей истории отдаёт {@link #getPersonHistory} без курсора */
+    public static final int HISTORY_LIMIT = 50;
+
+    /** Сколько ID передавать в IN (...) при пакетной сборке DTO; больше — читаем всё дерево */
+    private static final int BULK_IN_LIMIT = 1000;
+
+    /** Направление последнего шага при обходе окна */
+    private static final int DIR_NONE = 0;
+    private static final int DIR_UP = 1;
+    private static final int DIR_DOWN = 2;
+
     private final UserService userService;
     private final TreeRepository treeRepository;
     private final TreeMembershipRepository membershipRepository;
@@ -63,6 +89,13 @@ public class TreeService {
     private final PersonHistoryRepository personHistoryRepository;
     private final NotificationService notificationService;
     private final CommentRepository commentRepository;
+    private final TreeGraphIndex treeGraphIndex;
+    private final MembershipCache membershipCache;
+    private final MembershipNotifier membershipNotifier;
+    private final PersonSuggestIndex personSuggestIndex;
+    private final ThumbnailService thumbnailService;
+    private final MediaContentService mediaContentService;
+    private final ExportJobRepository exportJobRepository;
 
     @org.springframework.beans.factory.annotation.Value("${app.base-url:http://localhost:3000}")
     private String baseUrl;
@@ -78,7 +111,14 @@ public class TreeService {
                        S3Service s3Service,
                        PersonHistoryRepository personHistoryRepository,
                        NotificationService notificationService,
-                       CommentRepository commentRepository) {
+                       CommentRepository commentRepository,
+                       TreeGraphIndex treeGraphIndex,
+                       MembershipCache membershipCache,
+                       MembershipNotifier membershipNotifier,
+                       PersonSuggestIndex personSuggestIndex,
+                       ThumbnailService thumbnailService,
+                       MediaContentService mediaContentService,
+                       ExportJobRepository exportJobRepository) {
         this.userService = userService;
         this.treeRepository = treeRepository;
         this.membershipRepository = membershipRepository;
@@ -91,6 +131,13 @@ public class TreeService {
         this.personHistoryRepository = personHistoryRepository;
         this.notificationService = notificationService;
         this.commentRepository = commentRepository;
+        this.treeGraphIndex = treeGraphIndex;
+        this.membershipCache = membershipCache;
+        this.membershipNotifier = membershipNotifier;
+        this.personSuggestIndex = personSuggestIndex;
+        this.thumbnailService = thumbnailService;
+        this.mediaContentService = mediaContentService;
+        this.exportJobRepository = exportJobRepository;
     }
 
     // ─── Tree management ────────────────────────────────────────────────────────
@@ -106,6 +153,7 @@ public class TreeService {
         owner.setUser(userService.findById(ownerId));
         owner.setRole(TreeRole.OWNER);
         membershipRepository.save(owner);
+        invalidateMembership(tree.getId(), ownerId);
 
         return new TreeDTO(tree.getId(), tree.getName(), tree.getCreatedAt(), TreeRole.OWNER, tree.getPublicLinkToken(), 0L);
     }
@@ -138,6 +186,14 @@ public class TreeService {
         for (Person person : persons) {
             deletePersonS3Files(person);
         }
+        // Export results: export_jobs rows go away with the tree (ON DELETE CASCADE)
+        for (String exportKey : exportJobRepository.findS3KeysByTreeId(treeId)) {
+            try {
+                s3Service.delete(exportKey);
+            } catch (Exception e) {
+                log.warn("Failed to delete export {} of tree {} from S3: {}", exportKey, treeId, e.getMessage());
+            }
+        }
 
         // Delete all child records in dependency order before deleting the tree
         // 1. Comments (FK → Person)
@@ -156,6 +212,11 @@ public class TreeService {
         membershipRepository.deleteByTreeId(treeId);
         // 8. Finally delete the tree itself
         treeRepository.deleteById(treeId);
+
+        treeGraphIndex.remove(treeId);
+        personSuggestIndex.removeTree(treeId);
+        membershipCache.invalidateTree(treeId);
+        membershipNotifier.publishTree(treeId);
     }
 
     @Transactional
@@ -165,11 +226,28 @@ public class TreeService {
         treeMembership.setUser(userService.findById(userId));
         treeMembership.setRole(role);
         membershipRepository.save(treeMembership);
+        invalidateMembership(treeId, userId);
+    }
+
+    /**
+     * Сбросить закешированную роль локально и на остальных экземплярах сервиса.
+     */
+    private void invalidateMembership(Long treeId, Long userId) {
+        membershipCache.invalidate(treeId, userId);
+        membershipNotifier.publish(treeId, userId);
+    }
+
+    /**
+     * Роль пользователя в дереве (через {@link MembershipCache}).
+     */
+    private Optional<TreeRole> findRole(Long treeId, Long userId) {
+        return membershipCache.getRole(treeId, userId,
+                () -> membershipRepository.findByTreeIdAndUserId(treeId, userId).map(TreeMembership::getRole));
     }
 
     public boolean hasRole(Long treeId, Long userId, TreeRole required) {
-        return membershipRepository.findByTreeIdAndUserId(treeId, userId)
-                .map(m -> m.getRole().hasPermission(required))
+        return findRole(treeId, userId)
+                .map(role -> role.hasPermission(required))
                 .orElse(false);
     }
 
@@ -188,8 +266,8 @@ public class TreeService {
     }
 
     public String getMyRole(Long treeId, Long userId) throws AccessDeniedException {
-        return membershipRepository.findByTreeIdAndUserId(treeId, userId)
-                .map(m -> m.getRole().name())
+        return findRole(treeId, userId)
+                .map(TreeRole::name)
                 .orElseThrow(() -> new AccessDeniedException("Вы не являетесь участником этого дерева"));
     }
 
@@ -257,9 +335,7 @@ public class TreeService {
         Tree tree = treeRepository.findByPublicLinkToken(token)
                 .orElseThrow(() -> new ResourceNotFoundException("Дерево не найдено или ссылка недействительна"));
         List<Person> persons = personRepository.findByTreeIdOrderByLastNameAscFirstNameAsc(tree.getId());
-        return persons.stream()
-                .map(p -> convertToDTO(p, tree.getId()))
-                .toList();
+        return convertToDTOs(persons, tree.getId());
     }
 
     // ─── Invitations ─────────────────────────────────────────────────────────────
@@ -349,8 +425,11 @@ public class TreeService {
         person.setDeathPlace(request.getDeathPlace());
         person.setOccupation(request.getOccupation());
         person.setBiography(request.getBiography());
+        person.setPhoneticKey(PhoneticKey.of(person));
 
         person = personRepository.save(person);
+        treeGraphIndex.invalidate(treeId);
+        personSuggestIndex.put(treeId, person);
 
         // Record CREATE history
         com.project.familytree.auth.models.User user = userService.findById(userId);
@@ -380,49 +459,34 @@ public class TreeService {
         }
 
         List<Person> persons = personRepository.findByTreeIdOrderByLastNameAscFirstNameAsc(treeId);
-        return persons.stream()
-                .map(p -> convertToDTO(p, treeId))
-                .toList();
+        return convertToDTOs(persons, treeId);
     }
 
-    public List<PersonDTO> searchPersons(Long treeId, String query, Integer birthYearFrom,
-                                         Integer birthYearTo, String birthPlace,
-                                         Boolean hasMedia, Long userId) throws AccessDeniedException {
+    /**
+     * Страница персон дерева с keyset-пагинацией по (фамилия, имя, id).
+     */
+    @Transactional(readOnly = true)
+    public CursorPageResponse<PersonDTO> getPersonsPage(Long treeId, String cursor, int limit, Long userId)
+            throws AccessDeniedException {
         if (!canView(treeId, userId)) {
             throw new AccessDeniedException("Нет прав на просмотр дерева");
         }
+        PageCursor.checkLimit(limit);
 
+        PageRequest page = PageRequest.of(0, limit + 1);
         List<Person> persons;
-        boolean hasAdvancedFilters = birthYearFrom != null || birthYearTo != null
-                || (birthPlace != null && !birthPlace.isBlank());
-
-        if (hasAdvancedFilters) {
-            persons = personRepository.searchPersons(treeId,
-                    (query != null && !query.isBlank()) ? query : null,
-                    birthYearFrom,
-                    birthYearTo,
-                    (birthPlace != null && !birthPlace.isBlank()) ? birthPlace : null);
-        } else if (query != null && !query.isBlank()) {
-            persons = personRepository.searchByName(treeId, query);
+        if (cursor == null || cursor.isBlank()) {
+            persons = personRepository.findPageByTreeId(treeId, page);
         } else {
-            persons = personRepository.findByTreeIdOrderByLastNameAscFirstNameAsc(treeId);
-        }
-
-        // Apply hasMedia filter
-        if (Boolean.TRUE.equals(hasMedia)) {
-            java.util.Set<Long> personIdsWithMedia = mediaFileRepository.findByTreeId(treeId)
-                    .stream()
-                    .filter(m -> m.getPerson() != null)
-                    .map(m -> m.getPerson().getId())
-                    .collect(Collectors.toSet());
-            persons = persons.stream()
-                    .filter(p -> personIdsWithMedia.contains(p.getId()))
-                    .toList();
+            String[] key = PageCursor.decode(cursor, 3);
+            persons = personRepository.findPageByTreeIdAfter(treeId, key[0], key[1],
+                    PageCursor.parse(key[2], Long::valueOf), page);
         }
 
-        return persons.stream()
-                .map(p -> convertToDTO(p, treeId))
-                .toList();
+        String next = PageCursor.next(persons, limit,
+                p -> PageCursor.encode(p.getLastName(), p.getFirstName(), p.getId()));
+        List<Person> data = persons.size() > limit ? persons.subList(0, limit) : persons;
+        return new CursorPageResponse<>(convertToDTOs(data, treeId), next, next != null);
     }
 
     public PersonDTO getPerson(Long treeId, Long personId, Long userId) throws AccessDeniedException {
@@ -494,8 +558,11 @@ public class TreeService {
         person.setOccupation(request.getOccupation());
         person.setBiography(request.getBiography());
         person.setGender(request.getGender());
+        person.setPhoneticKey(PhoneticKey.of(person));
 
-        return personRepository.save(person);
+        person = personRepository.save(person);
+        personSuggestIndex.put(treeId, person);
+        return person;
     }
 
     @Transactional
@@ -525,6 +592,8 @@ public class TreeService {
         mediaFileRepository.deleteByPersonId(personId);
 
         personRepository.delete(person);
+        treeGraphIndex.invalidate(treeId);
+        personSuggestIndex.remove(treeId, personId);
     }
 
     // ─── Relationship management ─────────────────────────────────────────────────
@@ -572,6 +641,7 @@ public class TreeService {
         }
 
         relationshipRepository.save(relationship);
+        treeGraphIndex.invalidate(treeId);
     }
 
     @Transactional
@@ -585,6 +655,24 @@ public class TreeService {
                 .orElseThrow(() -> new ResourceNotFoundException("Связь не найдена"));
 
         relationshipRepository.delete(relationship);
+        treeGraphIndex.invalidate(treeId);
+    }
+
+    @Transactional
+    public void removeRelationshipById(Long treeId, Long relationshipId, Long userId) throws AccessDeniedException {
+        if (!canEdit(treeId, userId)) {
+            throw new AccessDeniedException("Нет прав на редактирование дерева");
+        }
+
+        Relationship relationship = relationshipRepository.findById(relationshipId)
+                .orElseThrow(() -> new ResourceNotFoundException("Связь не найдена"));
+
+        if (!relationship.getTree().getId().equals(treeId)) {
+            throw new AccessDeniedException("Связь не принадлежит этому дереву");
+        }
+
+        relationshipRepository.delete(relationship);
+        treeGraphIndex.invalidate(treeId);
     }
 
     public List<PersonDTO> getTreeGraph(Long treeId, Long userId) throws AccessDeniedException {
@@ -594,21 +682,208 @@ public class TreeService {
 
         List<Person> persons = personRepository.findByTreeId(treeId);
 
-        // Load all relationships for the tree in a single query (avoids N+1)
-        List<Relationship> allRelationships = relationshipRepository.findByTreeId(treeId);
-        Map<Long, List<Relationship>> relsByPersonId = allRelationships.stream()
-                .flatMap(r -> java.util.stream.Stream.of(
-                        new java.util.AbstractMap.SimpleEntry<>(r.getPerson1().getId(), r),
-                        new java.util.AbstractMap.SimpleEntry<>(r.getPerson2().getId(), r)
-                ))
-                .collect(Collectors.groupingBy(
-                        java.util.AbstractMap.SimpleEntry::getKey,
-                        Collectors.mapping(java.util.AbstractMap.SimpleEntry::getValue, Collectors.toList())
-                ));
+        // Relationships come from the cached CSR graph index — no Relationship entities are loaded
+        TreeGraphIndex.Graph graph = treeGraphIndex.get(treeId);
+        Map<Long, RelationshipDTO.PersonSummary> summaries = new HashMap<>(persons.size() * 2);
+        for (Person p : persons) {
+            summaries.put(p.getId(), new RelationshipDTO.PersonSummary(p.getId(), p.getFirstName(), p.getLastName()));
+        }
 
-        return persons.stream()
-                .map(p -> convertToDTO(p, treeId, relsByPersonId))
-                .toList();
+        return toGraphPersonDTOs(persons, treeId, graph, summaries);
+    }
+
+    // ─── Subgraph window ──────────────────────────────────────────────────────────
+
+    /**
+     * Фрагмент графа вокруг персоны: предки до {@code up} поколений, потомки до {@code down},
+     * и не более {@code lateral} боковых шагов. Боковой шаг — переход к партнёру или смена
+     * направления (спуск от предка к его другим детям, подъём от ребёнка к его другому родителю):
+     * при lateral = 0 остаётся только прямая линия, при lateral = 1 добавляются партнёры,
+     * братья/сёстры, дяди/тёти и т.п.
+     * <p>
+     * Обход идёт по {@link TreeGraphIndex} и затрагивает только персоны окна и их соседей,
+     * поэтому стоимость запроса зависит от размера окна, а не дерева. Для персон на границе
+     * возвращаются заглушки с числом скрытых связей, чтобы клиент мог догрузить их отдельно.
+     */
+    @Transactional(readOnly = true)
+    public SubgraphDTO getSubgraph(Long treeId, Long personId, int up, int down, int lateral,
+                                   Long userId) throws AccessDeniedException {
+        if (!canView(treeId, userId)) {
+            throw new AccessDeniedException("Нет прав на просмотр дерева");
+        }
+        if (up < 0 || up > MAX_WINDOW_GENERATIONS || down < 0 || down > MAX_WINDOW_GENERATIONS) {
+            throw new BusinessException("Число поколений должно быть от 0 до " + MAX_WINDOW_GENERATIONS);
+        }
+        if (lateral < 0 || lateral > MAX_WINDOW_LATERAL) {
+            throw new BusinessException("Число боковых шагов должно быть от 0 до " + MAX_WINDOW_LATERAL);
+        }
+
+        TreeGraphIndex.Graph graph = treeGraphIndex.get(treeId);
+        int focus = graph.indexOf(personId);
+        if (focus < 0) {
+            throw new ResourceNotFoundException("Персона не найдена");
+        }
+
+        // 0-1 BFS по состояниям (персона, направление последнего шага): боковой шаг стоит 1
+        Map<Long, Integer> bestLateral = new HashMap<>();
+        Map<Integer, Integer> included = new LinkedHashMap<>();
+        ArrayDeque<int[]> queue = new ArrayDeque<>();
+        queue.add(new int[]{focus, DIR_NONE, 0, 0});
+        bestLateral.put((long) focus * 3 + DIR_NONE, 0);
+
+        while (!queue.isEmpty()) {
+            int[] state = queue.poll();
+            int idx = state[0];
+            int dir = state[1];
+            int used = state[2];
+            int generation = state[3];
+            if (bestLateral.get((long) idx * 3 + dir) < used) {
+                continue;
+            }
+            included.putIfAbsent(idx, generation);
+
+            for (int e = graph.edgeStart(idx); e < graph.edgeEnd(idx); e++) {
+                int next = graph.indexOf(graph.target(e));
+                if (next < 0) {
+                    continue;
+                }
+                byte kind = graph.kind(e);
+                int nextDir;
+                int nextGeneration;
+                int cost;
+                if (kind == TreeGraphIndex.KIND_PARENT) {
+                    nextDir = DIR_UP;
+                    nextGeneration = generation + 1;
+                    cost = dir == DIR_DOWN ? 1 : 0;
+                } else if (kind == TreeGraphIndex.KIND_CHILD) {
+                    nextDir = DIR_DOWN;
+                    nextGeneration = generation - 1;
+                    cost = dir == DIR_UP ? 1 : 0;
+                } else {
+                    nextDir = DIR_NONE;
+                    nextGeneration = generation;
+                    cost = 1;
+                }
+                int nextUsed = used + cost;
+                if (nextGeneration > up || nextGeneration < -down || nextUsed > lateral) {
+                    continue;
+                }
+                long key = (long) next * 3 + nextDir;
+                Integer known = bestLateral.get(key);
+                if (known != null && known <= nextUsed) {
+                    continue;
+                }
+                bestLateral.put(key, nextUsed);
+                int[] nextState = {next, nextDir, nextUsed, nextGeneration};
+                if (cost == 0) {
+                    queue.addFirst(nextState);
+                } else {
+                    queue.addLast(nextState);
+                }
+            }
+        }
+
+        List<Long> ids = new ArrayList<>(included.size());
+        List<SubgraphDTO.FrontierStub> frontier = new ArrayList<>();
+        for (int idx : included.keySet()) {
+            ids.add(graph.personIdAt(idx));
+            int hiddenParents = 0;
+            int hiddenChildren = 0;
+            int hiddenPartners = 0;
+            for (int e = graph.edgeStart(idx); e < graph.edgeEnd(idx); e++) {
+                int other = graph.indexOf(graph.target(e));
+                if (other < 0 || included.containsKey(other)) {
+                    continue;
+                }
+                byte kind = graph.kind(e);
+                if (kind == TreeGraphIndex.KIND_PARENT) {
+                    hiddenParents++;
+                } else if (kind == TreeGraphIndex.KIND_CHILD) {
+                    hiddenChildren++;
+                } else {
+                    hiddenPartners++;
+                }
+            }
+            if (hiddenParents + hiddenChildren + hiddenPartners > 0) {
+                frontier.add(new SubgraphDTO.FrontierStub(
+                        graph.personIdAt(idx), hiddenParents, hiddenChildren, hiddenPartners));
+            }
+        }
+
+        Map<Long, Person> persons = new HashMap<>(ids.size() * 2);
+        for (Person p : personRepository.findAllById(ids)) {
+            persons.put(p.getId(), p);
+        }
+        Map<Long, RelationshipDTO.PersonSummary> summaries = new HashMap<>(ids.size() * 2);
+        for (Person p : persons.values()) {
+            summaries.put(p.getId(), new RelationshipDTO.PersonSummary(p.getId(), p.getFirstName(), p.getLastName()));
+        }
+
+        List<Person> ordered = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Person p = persons.get(id);
+            if (p != null) {
+                ordered.add(p);
+            }
+        }
+        List<PersonDTO> dtos = toGraphPersonDTOs(ordered, treeId, graph, summaries);
+
+        log.debug("Subgraph around person {} in tree {} (up={}, down={}, lateral={}): {} persons, {} frontier",
+                personId, treeId, up, down, lateral, dtos.size(), frontier.size());
+        return new SubgraphDTO(personId, up, down, lateral, dtos, frontier);
+    }
+
+    /**
+     * DTO персон для графа: связи берутся из индекса, а не из БД; количество медиафайлов
+     * и аватары — пакетно, как в {@link #convertToDTOs}.
+     */
+    List<PersonDTO> toGraphPersonDTOs(List<Person> persons, Long treeId, TreeGraphIndex.Graph graph,
+                                      Map<Long, RelationshipDTO.PersonSummary> summaries) {
+        Map<Long, Long> mediaCounts = mediaCounts(persons, treeId);
+        Map<String, String> avatarUrls = avatarUrls(persons);
+        List<PersonDTO> result = new ArrayList<>(persons.size());
+        for (Person p : persons) {
+            result.add(toPersonDTO(p, graphRelationships(graph, p.getId(), summaries),
+                    mediaCounts.getOrDefault(p.getId(), 0L), resolveAvatar(p.getAvatarUrl(), avatarUrls),
+                    avatarThumbnails(p, avatarUrls)));
+        }
+        return result;
+    }
+
+    /**
+     * Связи персоны из графа-индекса в виде DTO (ориентация person1/person2 восстанавливается по типу ребра).
+     * Связи с персонами, которых нет в {@code summaries}, пропускаются.
+     */
+    private List<RelationshipDTO> graphRelationships(TreeGraphIndex.Graph graph, Long personId,
+                                                     Map<Long, RelationshipDTO.PersonSummary> summaries) {
+        int idx = graph.indexOf(personId);
+        if (idx < 0) {
+            return Collections.emptyList();
+        }
+        List<RelationshipDTO> result = new ArrayList<>(graph.edgeEnd(idx) - graph.edgeStart(idx));
+        for (int e = graph.edgeStart(idx); e < graph.edgeEnd(idx); e++) {
+            long other = graph.target(e);
+            if (!summaries.containsKey(other)) {
+                continue;
+            }
+            byte kind = graph.kind(e);
+            boolean selfIsFirst = kind == TreeGraphIndex.KIND_CHILD || kind == TreeGraphIndex.KIND_PARTNER_OUT;
+            Long person1Id = selfIsFirst ? personId : other;
+            Long person2Id = selfIsFirst ? other : personId;
+            RelationshipType type = (kind == TreeGraphIndex.KIND_PARENT || kind == TreeGraphIndex.KIND_CHILD)
+                    ? RelationshipType.PARENT_CHILD
+                    : RelationshipType.PARTNERSHIP;
+            result.add(new RelationshipDTO(
+                    graph.relationshipId(e),
+                    person1Id,
+                    person2Id,
+                    type,
+                    summaries.get(person1Id),
+                    summaries.get(person2Id),
+                    graph.startDate(e),
+                    graph.endDate(e)));
+        }
+        return result;
     }
 
     // ─── Avatar upload ────────────────────────────────────────────────────────────
@@ -635,6 +910,9 @@ public class TreeService {
             } catch (Exception e) {
                 // не критично — продолжаем загрузку нового
             }
+            if (person.isAvatarThumbnailsReady()) {
+                thumbnailService.deleteVariants(oldAvatarKey);
+            }
         }
 
         // Загружаем новый аватар в S3: trees/{treeId}/avatars/{uuid}.ext
@@ -650,7 +928,9 @@ public class TreeService {
 
         // Сохраняем S3-ключ как avatarUrl — presigned URL генерируется при чтении
         person.setAvatarUrl(s3Key);
+        person.setAvatarThumbnailsReady(false);
         person = personRepository.save(person);
+        thumbnailService.enqueueAvatar(person);
         return convertToDTO(person, treeId);
     }
 
@@ -661,27 +941,57 @@ public class TreeService {
             throw new AccessDeniedException("Нет прав на просмотр истории");
         }
 
-        List<PersonHistory> history = personHistoryRepository
-                .findByPersonIdAndTreeIdOrderByCreatedAtDesc(personId, treeId);
-
-        return history.stream()
-                .limit(50)
-                .map(h -> new PersonHistoryDTO(
-                        h.getId(),
-                        h.getAction().name(),
-                        h.getFieldName(),
-                        h.getOldValue(),
-                        h.getNewValue(),
-                        h.getUserName(),
-                        h.getCreatedAt() != null ? h.getCreatedAt().toString() : null
-                ))
+        return personHistoryRepository.findPage(personId, treeId, PageRequest.of(0, HISTORY_LIMIT))
+                .stream()
+                .map(this::convertToHistoryDTO)
                 .toList();
     }
 
+    /**
+     * Страница истории изменений персоны с keyset-пагинацией по (createdAt, id), новые записи первыми.
+     */
+    public CursorPageResponse<PersonHistoryDTO> getPersonHistoryPage(Long treeId, Long personId, String cursor,
+                                                                     int limit, Long userId) throws AccessDeniedException {
+        if (!canEdit(treeId, userId)) {
+            throw new AccessDeniedException("Нет прав на просмотр истории");
+        }
+        PageCursor.checkLimit(limit);
+
+        PageRequest page = PageRequest.of(0, limit + 1);
+        List<PersonHistory> history;
+        if (cursor == null || cursor.isBlank()) {
+            history = personHistoryRepository.findPage(personId, treeId, page);
+        } else {
+            String[] key = PageCursor.decode(cursor, 2);
+            history = personHistoryRepository.findPageBefore(personId, treeId,
+                    PageCursor.parse(key[0], Instant::parse), PageCursor.parse(key[1], Long::valueOf), page);
+        }
+
+        String next = PageCursor.next(history, limit, h -> PageCursor.encode(h.getCreatedAt(), h.getId()));
+        List<PersonHistoryDTO> data = history.stream()
+                .limit(limit)
+                .map(this::convertToHistoryDTO)
+                .toList();
+        return new CursorPageResponse<>(data, next, next != null);
+    }
+
+    private PersonHistoryDTO convertToHistoryDTO(PersonHistory h) {
+        return new PersonHistoryDTO(
+                h.getId(),
+                h.getAction().name(),
+                h.getFieldName(),
+                h.getOldValue(),
+                h.getNewValue(),
+                h.getUserName(),
+                h.getCreatedAt() != null ? h.getCreatedAt().toString() : null
+        );
+    }
+
     // ─── S3 cleanup helpers ──────────────────────────────────────────────────────
 
     /**
      * Deletes all S3 objects associated with a person (media files + avatar).
+     * Media content shared with other files is kept until its last reference goes.
      * Does NOT delete DB records — that is handled by the caller.
      * Failures are logged as warnings and do not abort the operation.
      */
@@ -690,11 +1000,8 @@ public class TreeService {
         List<com.project.familytree.tree.models.MediaFile> mediaFiles =
                 mediaFileRepository.findByPersonId(person.getId());
         for (com.project.familytree.tree.models.MediaFile file : mediaFiles) {
-            try {
-                s3Service.delete(file.getFilePath());
-            } catch (Exception e) {
-                log.warn("Failed to delete media file {} from S3: {}", file.getId(), e.getMessage());
-            }
+            // Общий с другими файлами объект удаляется только вместе с последней ссылкой
+            mediaContentService.release(file);
         }
         // Delete avatar from S3
         String avatarKey = person.getAvatarUrl();
@@ -704,6 +1011,9 @@ public class TreeService {
             } catch (Exception e) {
                 log.warn("Failed to delete avatar from S3 for person {}: {}", person.getId(), e.getMessage());
             }
+            if (person.isAvatarThumbnailsReady()) {
+                thumbnailService.deleteVariants(avatarKey);
+            }
         }
     }
 
@@ -744,42 +1054,158 @@ public class TreeService {
         return buildPersonDTO(person, relationships);
     }
 
-    private PersonDTO convertToDTO(Person person, Long treeId, Map<Long, List<Relationship>> relsByPersonId) {
-        List<Relationship> relationships = relsByPersonId.getOrDefault(person.getId(), Collections.emptyList());
-        return buildPersonDTO(person, relationships);
+    /**
+     * Пакетная сборка DTO для списка персон дерева. Связи (вместе с обеими персонами),
+     * количество медиафайлов и ссылки на аватары читаются фиксированным числом запросов
+     * независимо от размера списка — в отличие от {@link #convertToDTO(Person, Long)} по одной персоне.
+     */
+    public List<PersonDTO> convertToDTOs(List<Person> persons, Long treeId) {
+        return convertToDTOs(persons, treeId, true);
     }
 
-    private PersonDTO buildPersonDTO(Person person, List<Relationship> relationships) {
-        List<RelationshipDTO> relationshipDTOs = relationships.stream()
-                .map(r -> new RelationshipDTO(
-                        r.getId(),
+    /**
+     * То же, что {@link #convertToDTOs(List, Long)}, но без presigned URL: для файлов экспорта, которые
+     * хранятся дольше срока действия подписи. Аватар в S3 опускается, внешняя ссылка на аватар остаётся.
+     */
+    public List<PersonDTO> convertToExportDTOs(List<Person> persons, Long treeId) {
+        return convertToDTOs(persons, treeId, false);
+    }
+
+    private List<PersonDTO> convertToDTOs(List<Person> persons, Long treeId, boolean presign) {
+        if (persons.isEmpty()) {
+            return List.of();
+        }
+
+        // Для больших списков выгоднее один запрос по дереву, чем длинный IN (...)
+        List<Relationship> relationships = persons.size() > BULK_IN_LIMIT
+                ? relationshipRepository.findByTreeIdWithPersons(treeId)
+                : relationshipRepository.findByTreeIdAndPersonIdsWithPersons(treeId, personIds(persons));
+
+        Map<Long, List<RelationshipDTO>> byPerson = new HashMap<>(persons.size() * 2);
+        for (Relationship r : relationships) {
+            RelationshipDTO dto = toRelationshipDTO(r);
+            byPerson.computeIfAbsent(r.getPerson1().getId(), id -> new ArrayList<>()).add(dto);
+            if (!r.getPerson2().getId().equals(r.getPerson1().getId())) {
+                byPerson.computeIfAbsent(r.getPerson2().getId(), id -> new ArrayList<>()).add(dto);
+            }
+        }
+
+        Map<Long, Long> mediaCounts = mediaCounts(persons, treeId);
+        Map<String, String> avatarUrls = presign ? avatarUrls(persons) : Map.of();
+
+        List<PersonDTO> result = new ArrayList<>(persons.size());
+        for (Person p : persons) {
+            result.add(toPersonDTO(p,
+                    byPerson.getOrDefault(p.getId(), Collections.emptyList()),
+                    mediaCounts.getOrDefault(p.getId(), 0L),
+                    resolveAvatar(p.getAvatarUrl(), avatarUrls),
+                    presign ? avatarThumbnails(p, avatarUrls) : null));
+        }
+        return result;
+    }
+
+    private static List<Long> personIds(List<Person> persons) {
+        List<Long> ids = new ArrayList<>(persons.size());
+        for (Person p : persons) {
+            ids.add(p.getId());
+        }
+        return ids;
+    }
+
+    /** Количество медиафайлов по персонам одним GROUP BY */
+    private Map<Long, Long> mediaCounts(List<Person> persons, Long treeId) {
+        if (persons.isEmpty()) {
+            return Map.of();
+        }
+        List<Object[]> rows = persons.size() > BULK_IN_LIMIT
+                ? mediaFileRepository.countByTreeIdGroupByPerson(treeId)
+                : mediaFileRepository.countByPersonIds(personIds(persons));
+        Map<Long, Long> counts = new HashMap<>(rows.size() * 2);
+        for (Object[] row : rows) {
+            counts.put((Long) row[0], ((Number) row[1]).longValue());
+        }
+        return counts;
+    }
+
+    /** Presigned URL для всех S3-аватаров списка и их готовых уменьшенных копий за один проход */
+    private Map<String, String> avatarUrls(List<Person> persons) {
+        List<String> keys = new ArrayList<>();
+        for (Person p : persons) {
+            if (isS3Key(p.getAvatarUrl())) {
+                keys.add(p.getAvatarUrl());
+                if (p.isAvatarThumbnailsReady()) {
+                    keys.addAll(thumbnailService.variantKeys(p.getAvatarUrl()));
+                }
+            }
+        }
+        if (keys.isEmpty()) {
+            return Map.of();
+        }
+        try {
+            return s3Service.generatePresignedUrls(keys);
+        } catch (Exception e) {
+            return Map.of(); // не критично — просто не показываем аватары
+        }
+    }
+
+    private static String resolveAvatar(String avatarUrl, Map<String, String> presigned) {
+        return isS3Key(avatarUrl) ? presigned.get(avatarUrl) : avatarUrl;
+    }
+
+    private Map<Integer, String> avatarThumbnails(Person person, Map<String, String> presigned) {
+        if (!person.isAvatarThumbnailsReady() || !isS3Key(person.getAvatarUrl())) {
+            return null;
+        }
+        return thumbnailService.variantUrls(person.getAvatarUrl(), presigned);
+    }
+
+    // Если avatarUrl — S3-ключ (начинается с "trees/"), вместо него отдаётся presigned URL
+    private static boolean isS3Key(String avatarUrl) {
+        return avatarUrl != null && avatarUrl.startsWith("trees/");
+    }
+
+    private static RelationshipDTO toRelationshipDTO(Relationship r) {
+        return new RelationshipDTO(
+                r.getId(),
+                r.getPerson1().getId(),
+                r.getPerson2().getId(),
+                r.getType(),
+                new RelationshipDTO.PersonSummary(
                         r.getPerson1().getId(),
+                        r.getPerson1().getFirstName(),
+                        r.getPerson1().getLastName()),
+                new RelationshipDTO.PersonSummary(
                         r.getPerson2().getId(),
-                        r.getType(),
-                        new RelationshipDTO.PersonSummary(
-                                r.getPerson1().getId(),
-                                r.getPerson1().getFirstName(),
-                                r.getPerson1().getLastName()),
-                        new RelationshipDTO.PersonSummary(
-                                r.getPerson2().getId(),
-                                r.getPerson2().getFirstName(),
-                                r.getPerson2().getLastName()),
-                        r.getStartDate(),
-                        r.getEndDate()))
+                        r.getPerson2().getFirstName(),
+                        r.getPerson2().getLastName()),
+                r.getStartDate(),
+                r.getEndDate());
+    }
+
+    private PersonDTO buildPersonDTO(Person person, List<Relationship> relationships) {
+        List<RelationshipDTO> relationshipDTOs = relationships.stream()
+                .map(TreeService::toRelationshipDTO)
                 .toList();
 
-        // Если avatarUrl — S3-ключ (начинается с "trees/"), генерируем presigned URL
         String avatarUrl = person.getAvatarUrl();
-        if (avatarUrl != null && avatarUrl.startsWith("trees/")) {
+        Map<Integer, String> avatarThumbnails = null;
+        if (isS3Key(avatarUrl)) {
             try {
                 avatarUrl = s3Service.generatePresignedUrl(avatarUrl);
+                if (person.isAvatarThumbnailsReady()) {
+                    avatarThumbnails = thumbnailService.variantUrls(person.getAvatarUrl());
+                }
             } catch (Exception e) {
                 avatarUrl = null; // не критично — просто не показываем аватар
             }
         }
 
-        long mediaCount = mediaFileRepository.countByPersonId(person.getId());
+        return toPersonDTO(person, relationshipDTOs, mediaFileRepository.countByPersonId(person.getId()),
+                avatarUrl, avatarThumbnails);
+    }
 
+    private PersonDTO toPersonDTO(Person person, List<RelationshipDTO> relationshipDTOs,
+                                  long mediaCount, String avatarUrl, Map<Integer, String> avatarThumbnails) {
         PersonDTO dto = new PersonDTO(
                 person.getId(),
                 person.getTree().getId(),
@@ -798,6 +1224,7 @@ public class TreeService {
         );
         dto.setOccupation(person.getOccupation());
         dto.setMediaCount(mediaCount);
+        dto.setAvatarThumbnailUrls(avatarThumbnails);
         return dto;
     }
 }
@@ -3,6 +3,9 @@
 -- PostgreSQL
 -- ============================================================
 
+-- Trigram indexes for person search
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
 -- Users (managed by family-tree-auth-starter)
 CREATE TABLE IF NOT EXISTS users (
     id          BIGSERIAL PRIMARY KEY,
@@ -46,6 +49,9 @@ CREATE TABLE IF NOT EXISTS tree_memberships (
     UNIQUE (tree_id, user_id)
 );
 
+-- Деревья пользователя (getUserTrees, глобальный поиск): уникальный индекс начинается с tree_id
+CREATE INDEX IF NOT EXISTS idx_tree_memberships_user_tree ON tree_memberships(user_id, tree_id);
+
 -- Invitations (email-based or link-based)
 CREATE TABLE IF NOT EXISTS invitations (
     id         BIGSERIAL PRIMARY KEY,
@@ -76,6 +82,28 @@ CREATE TABLE IF NOT EXISTS persons (
 );
 
 CREATE INDEX IF NOT EXISTS idx_persons_tree_id ON persons(tree_id);
+-- Keyset-пагинация списка персон: ORDER BY last_name, first_name, id
+CREATE INDEX IF NOT EXISTS idx_persons_tree_name_id ON persons(tree_id, last_name, first_name, id);
+
+-- Full-text search over names and places (PersonSearchService).
+-- The 'simple' configuration: no stemming, names are matched as written.
+ALTER TABLE persons ADD COLUMN IF NOT EXISTS search_vector tsvector
+    GENERATED ALWAYS AS (to_tsvector('simple',
+        coalesce(first_name, '') || ' ' || coalesce(last_name, '') || ' ' || coalesce(middle_name, '') || ' ' ||
+        coalesce(birth_place, '') || ' ' || coalesce(death_place, ''))) STORED;
+
+CREATE INDEX IF NOT EXISTS idx_persons_search_vector ON persons USING GIN (search_vector);
+-- Substring search (LIKE '%q%') and similarity ranking; expressions must match the queries in PersonRepository
+CREATE INDEX IF NOT EXISTS idx_persons_full_name_trgm ON persons
+    USING GIN (lower(first_name || ' ' || last_name || ' ' || coalesce(middle_name, '')) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_persons_birth_place_trgm ON persons USING GIN (lower(birth_place) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_persons_tree_birth_year ON persons (tree_id, (EXTRACT(YEAR FROM birth_date)));
+
+-- Phonetic key (Daitch–Mokotoff codes of the transliterated names) for fuzzy search;
+-- computed in the application, existing rows are backfilled on startup
+ALTER TABLE persons ADD COLUMN IF NOT EXISTS phonetic_key TEXT;
+CREATE INDEX IF NOT EXISTS idx_persons_phonetic_key ON persons
+    USING GIN (to_tsvector('simple', coalesce(phonetic_key, '')));
 
 -- Relationships between persons (PARENT_CHILD or PARTNERSHIP)
 -- For PARENT_CHILD: person1 = parent, person2 = child
@@ -110,6 +138,8 @@ CREATE TABLE IF NOT EXISTS media_files (
 
 CREATE INDEX IF NOT EXISTS idx_media_files_tree_id   ON media_files(tree_id);
 CREATE INDEX IF NOT EXISTS idx_media_files_person_id ON media_files(person_id);
+-- Keyset-пагинация медиафайлов дерева: ORDER BY uploaded_at DESC, id DESC
+CREATE INDEX IF NOT EXISTS idx_media_files_tree_uploaded ON media_files(tree_id, uploaded_at DESC, id DESC);
 
 -- Avatar URL for persons (added in v2)
 ALTER TABLE persons ADD COLUMN IF NOT EXISTS avatar_url VARCHAR(512);
@@ -162,3 +192,79 @@ CREATE TABLE IF NOT EXISTS person_history (
 );
 
 CREATE INDEX IF NOT EXISTS idx_person_history_person_tree ON person_history(person_id, tree_id);
+-- Keyset-пагинация истории: ORDER BY created_at DESC, id DESC
+CREATE INDEX IF NOT EXISTS idx_person_history_person_created
+    ON person_history(person_id, tree_id, created_at DESC, id DESC);
+
+-- Asynchronous export jobs: state survives restarts, the file itself lives in S3
+CREATE TABLE IF NOT EXISTS export_jobs (
+    id           BIGSERIAL PRIMARY KEY,
+    tree_id      BIGINT       NOT NULL REFERENCES trees(id) ON DELETE CASCADE,
+    requested_by BIGINT       NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    format       VARCHAR(20)  NOT NULL CHECK (format IN ('GEDCOM', 'JSON')),
+    status       VARCHAR(20)  NOT NULL CHECK (status IN ('PENDING', 'RUNNING', 'COMPLETED', 'FAILED', 'EXPIRED')),
+    tree_version VARCHAR(100) NOT NULL,
+    processed    BIGINT       NOT NULL DEFAULT 0,
+    total        BIGINT,
+    s3_key       VARCHAR(512),
+    file_size    BIGINT,
+    error        TEXT,
+    attempts     INT          NOT NULL DEFAULT 0,
+    created_at   TIMESTAMP WITH TIME ZONE DEFAULT NOW(),
+    updated_at   TIMESTAMP WITH TIME ZONE DEFAULT NOW(),
+    finished_at  TIMESTAMP WITH TIME ZONE
+);
+
+-- Dedupe: at most one queued or running export per tree state and format
+CREATE UNIQUE INDEX IF NOT EXISTS uq_export_jobs_active ON export_jobs(tree_id, format, tree_version)
+    WHERE status IN ('PENDING', 'RUNNING');
+CREATE INDEX IF NOT EXISTS idx_export_jobs_status ON export_jobs(status, updated_at);
+
+-- Уменьшенные копии изображений (64/256/1024 px), см. ThumbnailService
+ALTER TABLE media_files ADD COLUMN IF NOT EXISTS thumbnails_ready BOOLEAN NOT NULL DEFAULT FALSE;
+ALTER TABLE persons ADD COLUMN IF NOT EXISTS avatar_thumbnails_ready BOOLEAN NOT NULL DEFAULT FALSE;
+
+CREATE TABLE IF NOT EXISTS thumbnail_jobs (
+    id            BIGSERIAL PRIMARY KEY,
+    source_key    VARCHAR(512) NOT NULL,
+    media_file_id BIGINT       REFERENCES media_files(id) ON DELETE CASCADE,
+    person_id     BIGINT       REFERENCES persons(id) ON DELETE CASCADE,
+    status        VARCHAR(20)  NOT NULL CHECK (status IN ('PENDING', 'RUNNING', 'COMPLETED', 'FAILED')),
+    error         TEXT,
+    attempts      INT          NOT NULL DEFAULT 0,
+    created_at    TIMESTAMP WITH TIME ZONE DEFAULT NOW(),
+    updated_at    TIMESTAMP WITH TIME ZONE DEFAULT NOW()
+);
+
+CREATE INDEX IF NOT EXISTS idx_thumbnail_jobs_status ON thumbnail_jobs(status, updated_at);
+
+-- Содержимое медиафайлов с дедупликацией по SHA-256: один объект S3 на одинаковые загрузки
+CREATE TABLE IF NOT EXISTS media_contents (
+    id         BIGSERIAL PRIMARY KEY,
+    sha256     VARCHAR(64)  NOT NULL UNIQUE,
+    s3_key     VARCHAR(512) NOT NULL UNIQUE,
+    file_size  BIGINT       NOT NULL,
+    ref_count  INT          NOT NULL CHECK (ref_count >= 0),
+    created_at TIMESTAMP WITH TIME ZONE DEFAULT NOW()
+);
+
+-- Поиск других ссылок на тот же объект S3
+CREATE INDEX IF NOT EXISTS idx_media_files_file_path ON media_files(file_path);
+
+-- Выданные, но не подтверждённые прямые загрузки; tree_id без внешнего ключа, чтобы запись
+-- пережила удаление дерева и незавершённая загрузка была прервана очисткой
+CREATE TABLE IF NOT EXISTS pending_uploads (
+    id         BIGSERIAL PRIMARY KEY,
+    s3_key     VARCHAR(512)  NOT NULL UNIQUE,
+    upload_id  VARCHAR(1024),
+    tree_id    BIGINT        NOT NULL,
+    user_id    BIGINT        NOT NULL,
+    expires_at TIMESTAMP WITH TIME ZONE NOT NULL,
+    created_at TIMESTAMP WITH TIME ZONE DEFAULT NOW()
+);
+
+CREATE INDEX IF NOT EXISTS idx_pending_uploads_expires_at ON pending_uploads(expires_at);
+
+-- Версия безопасности пользователя: попадает в claim ver JWT и увеличивается при смене пароля,
+-- токены с прежней версией отклоняются. 1 — значение ver у токенов, выпущенных до колонки
+ALTER TABLE users ADD COLUMN IF NOT EXISTS security_version INT NOT NULL DEFAULT 1;
@@ -9,6 +9,9 @@ import com.project.familytree.tree.dto.PersonRequest;
 import com.project.familytree.tree.impls.Gender;
 import com.project.familytree.tree.impls.RelationshipType;
 import com.project.familytree.tree.models.Person;
+import com.project.familytree.tree.services.LineageService;
+import com.project.familytree.tree.services.PersonSearchService;
+import com.project.familytree.tree.services.PersonStreamService;
 import com.project.familytree.tree.services.TreeService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -52,6 +55,15 @@ class PersonControllerTest {
     @MockBean
     private TreeService treeService;
 
+    @MockBean
+    private LineageService lineageService;
+
+    @MockBean
+    private PersonStreamService personStreamService;
+
+    @MockBean
+    private PersonSearchService personSearchService;
+
     // From auth-starter — must be mocked so the security filter chain can be built.
     // UserService is used by both the controller and TokenFilter.
     @MockBean
@@ -364,7 +376,8 @@ class PersonControllerTest {
     @Test
     @WithMockUser(username = "user@test.com")
     void searchPersons_returns200_withResults() throws Exception {
-        when(treeService.searchPersons(eq(TREE_ID), eq("Иван"), isNull(), isNull(), isNull(), isNull(), eq(USER_ID)))
+        when(personSearchService.searchPersons(eq(TREE_ID), eq("Иван"), isNull(), isNull(), isNull(), isNull(),
+                eq(false), eq(0), eq(PersonSearchService.DEFAULT_LIMIT), eq(USER_ID)))
                 .thenReturn(List.of(personDTO()));
 
         mockMvc.perform(get("/trees/{treeId}/persons/search", TREE_ID)
@@ -377,7 +390,8 @@ class PersonControllerTest {
     @Test
     @WithMockUser(username = "user@test.com")
     void searchPersons_returnsEmptyList_whenNoMatch() throws Exception {
-        when(treeService.searchPersons(eq(TREE_ID), eq("Несуществующий"), isNull(), isNull(), isNull(), isNull(), eq(USER_ID)))
+        when(personSearchService.searchPersons(eq(TREE_ID), eq("Несуществующий"), isNull(), isNull(), isNull(), isNull(),
+                eq(false), eq(0), eq(PersonSearchService.DEFAULT_LIMIT), eq(USER_ID)))
                 .thenReturn(List.of());
 
         mockMvc.perform(get("/trees/{treeId}/persons/search", TREE_ID)
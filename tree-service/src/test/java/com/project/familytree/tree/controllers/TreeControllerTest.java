@@ -8,6 +8,10 @@ import com.project.familytree.tree.dto.TreeDTO;
 import com.project.familytree.tree.dto.TreeMemberDTO;
 import com.project.familytree.tree.dto.TreeRequest;
 import com.project.familytree.tree.impls.TreeRole;
+import com.project.familytree.tree.services.GedcomImportService;
+import com.project.familytree.tree.services.GedcomService;
+import com.project.familytree.tree.services.MediaFileService;
+import com.project.familytree.tree.services.PersonStreamService;
 import com.project.familytree.tree.services.TreeService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -50,6 +54,18 @@ class TreeControllerTest {
     @MockBean
     private TreeService treeService;
 
+    @MockBean
+    private PersonStreamService personStreamService;
+
+    @MockBean
+    private MediaFileService mediaFileService;
+
+    @MockBean
+    private GedcomService gedcomService;
+
+    @MockBean
+    private GedcomImportService gedcomImportService;
+
     // From auth-starter — must be mocked so the security filter chain can be built.
     // UserService is used by both the controller and TokenFilter.
     @MockBean
@@ -0,0 +1,231 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.dto.ExportJobDTO;
+import com.project.familytree.tree.impls.ExportFormat;
+import com.project.familytree.tree.impls.ExportStatus;
+import com.project.familytree.tree.models.ExportJob;
+import com.project.familytree.tree.repositories.ExportJobRepository;
+import com.project.familytree.tree.repositories.MediaFileRepository;
+import com.project.familytree.tree.repositories.PersonRepository;
+import com.project.familytree.tree.repositories.RelationshipRepository;
+import com.project.familytree.tree.repositories.TreeRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AccessDeniedException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.LongConsumer;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ExportJobServiceTest {
+
+    @Mock private TreeService treeService;
+    @Mock private TreeRepository treeRepository;
+    @Mock private PersonRepository personRepository;
+    @Mock private RelationshipRepository relationshipRepository;
+    @Mock private MediaFileRepository mediaFileRepository;
+    @Mock private ExportJobRepository exportJobRepository;
+    @Mock private GedcomService gedcomService;
+    @Mock private PersonStreamService personStreamService;
+    @Mock private S3Service s3Service;
+    @Mock private PlatformTransactionManager transactionManager;
+    @Mock private S3Service.UploadStream upload;
+
+    private static final Instant NOW = Instant.parse("2026-01-01T12:00:00Z");
+
+    private ExportJobService exportJobService;
+
+    @BeforeEach
+    void setUp() {
+        // Задачи выполняются сразу в вызывающем потоке
+        exportJobService = new ExportJobService(treeService, treeRepository, personRepository, relationshipRepository,
+                mediaFileRepository, exportJobRepository, gedcomService, personStreamService, s3Service, transactionManager,
+                3, 10, 24, Runnable::run, Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    private void stubTreeVersion() {
+        List<Object[]> persons = new ArrayList<>();
+        persons.add(new Object[]{3L, Instant.ofEpochMilli(1000), 12L});
+        List<Object[]> relationships = new ArrayList<>();
+        relationships.add(new Object[]{2L, 5L});
+        when(personRepository.findVersionRowByTreeId(7L)).thenReturn(persons);
+        lenient().when(relationshipRepository.findVersionRowByTreeId(7L)).thenReturn(relationships);
+        lenient().when(mediaFileRepository.findVersionRowByTreeId(7L)).thenReturn(mediaRow(4L, 8L));
+    }
+
+    private static List<Object[]> mediaRow(long count, long maxId) {
+        List<Object[]> media = new ArrayList<>();
+        media.add(new Object[]{count, maxId});
+        return media;
+    }
+
+    private void stubAccess() {
+        when(treeService.canView(7L, 42L)).thenReturn(true);
+        when(treeRepository.existsById(7L)).thenReturn(true);
+    }
+
+    private static ExportJob job(Long id, ExportStatus status) {
+        ExportJob job = new ExportJob(7L, 42L, ExportFormat.GEDCOM, "p3.1000.12-r2.5-m4.8");
+        job.setId(id);
+        job.setStatus(status);
+        return job;
+    }
+
+    // ─── createExport ───
+
+    @Test
+    @DisplayName("createExport: для того же состояния дерева возвращается существующая задача")
+    void createExport_reusesJobForSameTreeVersion() throws Exception {
+        stubAccess();
+        stubTreeVersion();
+        ExportJob running = job(5L, ExportStatus.RUNNING);
+        when(exportJobRepository.findFirstByTreeIdAndFormatAndTreeVersionAndStatusInOrderByIdDesc(
+                eq(7L), eq(ExportFormat.GEDCOM), eq("p3.1000.12-r2.5-m4.8"), anyCollection())).thenReturn(Optional.of(running));
+
+        ExportJobDTO dto = exportJobService.createExport(7L, ExportFormat.GEDCOM, 42L);
+
+        assertThat(dto.getId()).isEqualTo(5L);
+        assertThat(dto.getStatus()).isEqualTo(ExportStatus.RUNNING);
+        verify(exportJobRepository, never()).save(any());
+        verifyNoInteractions(s3Service);
+    }
+
+    @Test
+    @DisplayName("createExport: новая задача выполняется воркером — файл пишется в S3, прогресс сохраняется")
+    void createExport_runsJobAndUploadsResult() throws Exception {
+        stubAccess();
+        stubTreeVersion();
+        ExportJob saved = job(9L, ExportStatus.PENDING);
+        when(exportJobRepository.findFirstByTreeIdAndFormatAndTreeVersionAndStatusInOrderByIdDesc(
+                any(), any(), any(), anyCollection())).thenReturn(Optional.empty());
+        when(exportJobRepository.save(any(ExportJob.class))).thenReturn(saved);
+        when(exportJobRepository.claim(eq(9L), any())).thenReturn(1);
+        when(exportJobRepository.findById(9L)).thenReturn(Optional.of(saved));
+        when(s3Service.openUpload("trees/7/exports/9.ged", "application/x-gedcom; charset=UTF-8")).thenReturn(upload);
+        when(upload.size()).thenReturn(128L);
+        doAnswer(inv -> {
+            LongConsumer progress = inv.getArgument(2);
+            progress.accept(3);
+            return null;
+        }).when(gedcomService).writeGedcom(eq(7L), any(OutputStream.class), any(LongConsumer.class));
+
+        exportJobService.createExport(7L, ExportFormat.GEDCOM, 42L);
+
+        verify(exportJobRepository).updateProgress(eq(9L), eq(3L), any());
+        verify(upload).close();
+        assertThat(saved.getStatus()).isEqualTo(ExportStatus.COMPLETED);
+        assertThat(saved.getS3Key()).isEqualTo("trees/7/exports/9.ged");
+        assertThat(saved.getFileSize()).isEqualTo(128L);
+        assertThat(saved.getTotal()).isEqualTo(3L);
+    }
+
+    @Test
+    @DisplayName("createExport: без прав на просмотр — AccessDeniedException")
+    void createExport_requiresViewAccess() {
+        when(treeService.canView(7L, 42L)).thenReturn(false);
+
+        assertThatThrownBy(() -> exportJobService.createExport(7L, ExportFormat.GEDCOM, 42L))
+                .isInstanceOf(AccessDeniedException.class);
+        verifyNoInteractions(exportJobRepository);
+    }
+
+    // ─── treeVersion ───
+
+    @Test
+    @DisplayName("treeVersion: загрузка или удаление медиафайла меняет версию")
+    void treeVersion_changesWithMedia() {
+        stubTreeVersion();
+        String before = exportJobService.treeVersion(7L);
+
+        when(mediaFileRepository.findVersionRowByTreeId(7L)).thenReturn(mediaRow(3L, 8L));
+
+        assertThat(before).isEqualTo("p3.1000.12-r2.5-m4.8");
+        assertThat(exportJobService.treeVersion(7L)).isEqualTo("p3.1000.12-r2.5-m3.8");
+    }
+
+    // ─── run ───
+
+    @Test
+    @DisplayName("run: ошибка генерации — загрузка прерывается, задача FAILED с причиной")
+    void run_marksJobFailedAndAbortsUpload() throws Exception {
+        stubTreeVersion();
+        ExportJob job = job(9L, ExportStatus.RUNNING);
+        when(exportJobRepository.claim(eq(9L), any())).thenReturn(1);
+        when(exportJobRepository.findById(9L)).thenReturn(Optional.of(job));
+        when(s3Service.openUpload(anyString(), anyString())).thenReturn(upload);
+        doThrow(new IOException("disk full")).when(gedcomService)
+                .writeGedcom(eq(7L), any(OutputStream.class), any(LongConsumer.class));
+
+        exportJobService.run(9L);
+
+        verify(upload).abort();
+        verify(upload, never()).close();
+        assertThat(job.getStatus()).isEqualTo(ExportStatus.FAILED);
+        assertThat(job.getError()).isEqualTo("disk full");
+    }
+
+    @Test
+    @DisplayName("run: дерево удалили во время выгрузки — записанный файл удаляется из S3")
+    void run_deletesResultOfJobRemovedWithTree() throws Exception {
+        stubTreeVersion();
+        when(exportJobRepository.claim(eq(9L), any())).thenReturn(1);
+        ExportJob job = job(9L, ExportStatus.RUNNING);
+        // Задача есть при захвате и записи total, но пропала к завершению
+        when(exportJobRepository.findById(9L)).thenReturn(Optional.of(job), Optional.of(job), Optional.empty());
+        when(s3Service.openUpload(anyString(), anyString())).thenReturn(upload);
+
+        exportJobService.run(9L);
+
+        verify(upload).close();
+        verify(s3Service).delete("trees/7/exports/9.ged");
+    }
+
+    @Test
+    @DisplayName("run: задачу уже захватил другой воркер — ничего не делается")
+    void run_skipsJobClaimedElsewhere() {
+        when(exportJobRepository.claim(eq(9L), any())).thenReturn(0);
+
+        exportJobService.run(9L);
+
+        verifyNoInteractions(s3Service, gedcomService);
+    }
+
+    // ─── sweep ───
+
+    @Test
+    @DisplayName("sweep: ставит в очередь ожидающие задачи и удаляет просроченные файлы")
+    void sweep_submitsPendingAndExpiresOldResults() {
+        ExportJob old = job(3L, ExportStatus.COMPLETED);
+        old.setS3Key("trees/7/exports/3.ged");
+        when(exportJobRepository.findPendingIds()).thenReturn(List.of(9L));
+        when(exportJobRepository.claim(eq(9L), any())).thenReturn(0);
+        when(exportJobRepository.findCompletedBefore(any())).thenReturn(List.of(old));
+        when(exportJobRepository.findById(3L)).thenReturn(Optional.of(old));
+
+        exportJobService.sweep();
+
+        verify(exportJobRepository).requeueStale(NOW.minus(Duration.ofMinutes(10)), 3, NOW);
+        verify(exportJobRepository).findCompletedBefore(NOW.minus(Duration.ofHours(24)));
+        verify(exportJobRepository).claim(eq(9L), any());
+        verify(s3Service).delete("trees/7/exports/3.ged");
+        assertThat(old.getStatus()).isEqualTo(ExportStatus.EXPIRED);
+        assertThat(old.getS3Key()).isNull();
+    }
+}
@@ -0,0 +1,221 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.dto.GedcomImportReportDTO;
+import com.project.familytree.tree.repositories.TreeRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class GedcomImportServiceTest {
+
+    @Mock private TreeService treeService;
+    @Mock private TreeRepository treeRepository;
+    @Mock private TreeGraphIndex treeGraphIndex;
+    @Mock private PersonSuggestIndex personSuggestIndex;
+    @Mock private JdbcTemplate jdbcTemplate;
+    @Mock private PlatformTransactionManager transactionManager;
+    @Mock private PreparedStatement statement;
+
+    private GedcomImportService importService;
+
+    /** Строки, переданные в батч вставки связей */
+    private final List<Object[]> relationshipRows = new ArrayList<>();
+    private long nextId = 100L;
+
+    @BeforeEach
+    void setUp() {
+        importService = new GedcomImportService(treeService, treeRepository, treeGraphIndex, personSuggestIndex,
+                jdbcTemplate, transactionManager);
+    }
+
+    private void stubInserts() throws Exception {
+        doAnswer(inv -> {
+            BatchPreparedStatementSetter setter = inv.getArgument(1);
+            KeyHolder keys = inv.getArgument(2);
+            int[] counts = new int[setter.getBatchSize()];
+            for (int i = 0; i < counts.length; i++) {
+                setter.setValues(statement, i);
+                keys.getKeyList().add(Map.of("id", nextId++));
+                counts[i] = 1;
+            }
+            return counts;
+        }).when(jdbcTemplate).batchUpdate(any(PreparedStatementCreator.class),
+                any(BatchPreparedStatementSetter.class), any(KeyHolder.class));
+
+        lenient().doAnswer(inv -> {
+            List<Object[]> rows = inv.getArgument(1);
+            relationshipRows.addAll(rows);
+            int[] counts = new int[rows.size()];
+            Arrays.fill(counts, 1);
+            return counts;
+        }).when(jdbcTemplate).batchUpdate(anyString(), ArgumentMatchers.<Object[]>anyList());
+    }
+
+    private GedcomImportReportDTO importText(String gedcom) throws Exception {
+        when(treeService.canEdit(7L, 42L)).thenReturn(true);
+        when(treeRepository.existsById(7L)).thenReturn(true);
+        InputStream in = new ByteArrayInputStream(gedcom.getBytes(StandardCharsets.UTF_8));
+        return importService.importGedcom(7L, in, 42L);
+    }
+
+    private static final String SAMPLE = String.join("\n",
+            "\uFEFF0 HEAD",
+            "1 CHAR UTF-8",
+            "0 @I1@ INDI",
+            "1 NAME Иван Петрович /Иванов/",
+            "1 SEX M",
+            "1 BIRT",
+            "2 DATE ABT 12 MAR 1950",
+            "2 PLAC Тула",
+            "0 @I2@ INDI",
+            "1 NAME Мария /Иванова/",
+            "1 SEX F",
+            "1 NOTE Первая строка",
+            "2 CONT вторая",
+            "2 CONC  строка",
+            // Семья до записи ребёнка — связи создаются после чтения всего файла
+            "0 @F1@ FAM",
+            "1 HUSB @I1@",
+            "1 WIFE @I2@",
+            "1 CHIL @I3@",
+            "1 MARR",
+            "2 DATE 1975",
+            "0 @I3@ INDI",
+            "1 NAME /Иванов/",
+            "1 BIRT",
+            "2 DATE 31 FEB 1980",
+            "0 @F2@ FAM",
+            "1 HUSB @I1@",
+            "1 CHIL @I9@",
+            "мусор",
+            "0 TRLR",
+            "");
+
+    // ─── importGedcom ───
+
+    @Test
+    @DisplayName("importGedcom: персоны вставляются батчами, семьи превращаются в связи")
+    void importGedcom_insertsPersonsAndRelationships() throws Exception {
+        stubInserts();
+
+        GedcomImportReportDTO report = importText(SAMPLE);
+
+        assertThat(report.getRecordsRead()).isEqualTo(7);
+        assertThat(report.getPersonsImported()).isEqualTo(3);
+        assertThat(report.getFamiliesImported()).isEqualTo(2);
+        assertThat(report.getRelationshipsImported()).isEqualTo(3);
+        // I1 и I2 — одна порция (сброшена перед FAM), I3 — вторая
+        verify(jdbcTemplate, times(2)).batchUpdate(any(PreparedStatementCreator.class),
+                any(BatchPreparedStatementSetter.class), any(KeyHolder.class));
+
+        assertThat(relationshipRows).extracting(r -> r[1], r -> r[2], r -> r[3]).containsExactlyInAnyOrder(
+                tuple(100L, 101L, "PARTNERSHIP"),
+                tuple(100L, 102L, "PARENT_CHILD"),
+                tuple(101L, 102L, "PARENT_CHILD"));
+        Object[] partnership = relationshipRows.stream().filter(r -> r[3].equals("PARTNERSHIP")).findFirst().orElseThrow();
+        assertThat(partnership[4]).isEqualTo(Date.valueOf(LocalDate.of(1975, 1, 1)));
+
+        verify(treeGraphIndex).invalidate(7L);
+        verify(personSuggestIndex).invalidate(7L);
+    }
+
+    @Test
+    @DisplayName("importGedcom: имя, отчество, фамилия, даты, места и заметки с CONT/CONC")
+    void importGedcom_mapsIndividualFields() throws Exception {
+        stubInserts();
+
+        importText(SAMPLE);
+
+        verify(statement).setString(2, "Иван");
+        verify(statement).setString(4, "Петрович");
+        verify(statement, times(2)).setString(3, "Иванов");
+        verify(statement).setString(5, "MALE");
+        verify(statement).setDate(6, Date.valueOf(LocalDate.of(1950, 3, 12)));
+        verify(statement).setString(8, "Тула");
+        verify(statement).setString(10, "Первая строка\nвторая строка");
+        // У I3 нет личного имени
+        verify(statement).setString(2, "Неизвестно");
+    }
+
+    @Test
+    @DisplayName("importGedcom: ошибки записей не прерывают импорт и попадают в отчёт с номером строки")
+    void importGedcom_reportsRecordErrors() throws Exception {
+        stubInserts();
+
+        GedcomImportReportDTO report = importText(SAMPLE);
+
+        assertThat(report.getErrorCount()).isEqualTo(3);
+        assertThat(report.getErrors()).extracting(GedcomImportReportDTO.RecordError::getXref)
+                .containsExactlyInAnyOrder("@I3@", "@F2@", "@F2@");
+        assertThat(report.getErrors()).anySatisfy(e -> {
+            assertThat(e.getLine()).isEqualTo(21);
+            assertThat(e.getMessage()).contains("31 FEB 1980");
+        });
+        assertThat(report.getErrors()).anySatisfy(e -> assertThat(e.getMessage()).contains("@I9@"));
+        assertThat(report.getErrors()).anySatisfy(e -> assertThat(e.getMessage()).contains("Строка 28"));
+    }
+
+    @Test
+    @DisplayName("importGedcom: повторный xref персоны — запись пропускается")
+    void importGedcom_skipsDuplicateXref() throws Exception {
+        stubInserts();
+
+        GedcomImportReportDTO report = importText("0 @I1@ INDI\n1 NAME А /Б/\n0 @I1@ INDI\n1 NAME В /Г/\n");
+
+        assertThat(report.getPersonsImported()).isEqualTo(1);
+        assertThat(report.getErrors()).singleElement()
+                .satisfies(e -> assertThat(e.getLine()).isEqualTo(3));
+    }
+
+    @Test
+    @DisplayName("importGedcom: без прав на редактирование — AccessDeniedException, файл не читается")
+    void importGedcom_requiresEditAccess() {
+        when(treeService.canEdit(7L, 42L)).thenReturn(false);
+
+        assertThatThrownBy(() -> importService.importGedcom(7L, InputStream.nullInputStream(), 42L))
+                .isInstanceOf(AccessDeniedException.class);
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    // ─── parseDate ───
+
+    @Test
+    @DisplayName("parseDate: полные и неполные даты, модификаторы и диапазоны")
+    void parseDate_handlesGedcomForms() {
+        assertThat(GedcomImportService.parseDate("12 MAR 1950")).isEqualTo(LocalDate.of(1950, 3, 12));
+        assertThat(GedcomImportService.parseDate("mar 1950")).isEqualTo(LocalDate.of(1950, 3, 1));
+        assertThat(GedcomImportService.parseDate("1950")).isEqualTo(LocalDate.of(1950, 1, 1));
+        assertThat(GedcomImportService.parseDate("BEF 1 JAN 1900")).isEqualTo(LocalDate.of(1900, 1, 1));
+        assertThat(GedcomImportService.parseDate("BET 1850 AND 1855")).isEqualTo(LocalDate.of(1850, 1, 1));
+        assertThat(GedcomImportService.parseDate("@#DJULIAN@ 11 FEB 1699/00")).isEqualTo(LocalDate.of(1699, 2, 11));
+        assertThat(GedcomImportService.parseDate("весной 1950")).isNull();
+        assertThat(GedcomImportService.parseDate("31 FEB 1980")).isNull();
+        assertThat(GedcomImportService.parseDate(null)).isNull();
+    }
+}
@@ -0,0 +1,122 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.exceptions.ResourceNotFoundException;
+import com.project.familytree.tree.impls.Gender;
+import com.project.familytree.tree.impls.RelationshipType;
+import com.project.familytree.tree.models.Person;
+import com.project.familytree.tree.repositories.PersonRepository;
+import com.project.familytree.tree.repositories.RelationshipRepository;
+import com.project.familytree.tree.repositories.TreeRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class GedcomServiceTest {
+
+    @Mock private TreeService treeService;
+    @Mock private TreeRepository treeRepository;
+    @Mock private PersonRepository personRepository;
+    @Mock private RelationshipRepository relationshipRepository;
+    @Mock private EntityManager entityManager;
+    @Mock private PlatformTransactionManager transactionManager;
+
+    private GedcomService gedcomService;
+
+    @BeforeEach
+    void setUp() {
+        TreeGraphIndex treeGraphIndex = new TreeGraphIndex(personRepository, relationshipRepository, 1_000L,
+                new SimpleMeterRegistry());
+        gedcomService = new GedcomService(treeService, treeRepository, personRepository, treeGraphIndex,
+                entityManager, transactionManager);
+    }
+
+    private static Person person(long id, String firstName, String lastName, Gender gender) {
+        Person p = new Person(null, firstName, lastName, null, gender);
+        p.setId(id);
+        return p;
+    }
+
+    /** 1 и 2 — партнёры, 3 — их ребёнок; 4 — ребёнок только 2; 5 — без связей */
+    private String export() throws IOException {
+        Person father = person(1L, "Иван", "Иванов", Gender.MALE);
+        Person mother = person(2L, "Мария", "Иванова", Gender.FEMALE);
+        mother.setBirthDate(LocalDate.of(1960, 3, 8));
+        mother.setBirthPlace("Тула\nТульская губерния");
+        List<Person> persons = List.of(mother, father, person(3L, "Пётр", "Иванов", Gender.MALE),
+                person(4L, "Анна", "Иванова", Gender.FEMALE), person(5L, "Олег", "Петров", Gender.OTHER));
+
+        when(personRepository.findIdsByTreeId(7L)).thenReturn(List.of(1L, 2L, 3L, 4L, 5L));
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{10L, 2L, 1L, RelationshipType.PARTNERSHIP, null, null});
+        rows.add(new Object[]{11L, 1L, 3L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{12L, 2L, 3L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{13L, 2L, 4L, RelationshipType.PARENT_CHILD, null, null});
+        when(relationshipRepository.findEdgeRowsByTreeId(7L)).thenReturn(rows);
+        when(personRepository.streamByTreeId(7L)).thenReturn(persons.stream());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        gedcomService.writeGedcom(7L, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    // ─── writeGedcom ───
+
+    @Test
+    @DisplayName("writeGedcom: семья пары с общим ребёнком и семья из одного родителя")
+    void writeGedcom_groupsChildrenByParentPair() throws IOException {
+        String gedcom = export();
+
+        assertThat(gedcom).startsWith("0 HEAD\n").endsWith("0 TRLR\n");
+        assertThat(gedcom).contains("0 @F1@ FAM\n1 HUSB @I1@\n1 WIFE @I2@\n1 CHIL @I3@\n0 @F2@ FAM");
+        assertThat(gedcom).contains("0 @F2@ FAM\n1 WIFE @I2@\n1 CHIL @I4@\n0 TRLR");
+        assertThat(gedcom).contains("0 @I3@ INDI\n1 NAME Пётр /Иванов/\n1 SEX M\n1 FAMC @F1@\n");
+        assertThat(gedcom).contains("1 FAMS @F1@\n1 FAMS @F2@\n");
+        assertThat(gedcom).contains("0 @I5@ INDI\n1 NAME Олег /Петров/\n0 @F1@");
+    }
+
+    @Test
+    @DisplayName("writeGedcom: даты в формате GEDCOM, переводы строк в значениях заменяются пробелом")
+    void writeGedcom_formatsEvents() throws IOException {
+        String gedcom = export();
+
+        assertThat(gedcom).contains("1 BIRT\n2 DATE 8 MAR 1960\n2 PLAC Тула Тульская губерния\n");
+    }
+
+    // ─── exportGedcom ───
+
+    @Test
+    @DisplayName("exportGedcom: без прав на просмотр — AccessDeniedException до начала записи")
+    void exportGedcom_requiresViewAccess() {
+        when(treeService.canView(7L, 42L)).thenReturn(false);
+
+        assertThatThrownBy(() -> gedcomService.exportGedcom(7L, 42L)).isInstanceOf(AccessDeniedException.class);
+        verifyNoInteractions(personRepository);
+    }
+
+    @Test
+    @DisplayName("exportGedcom: несуществующее дерево — ResourceNotFoundException")
+    void exportGedcom_throwsIfTreeNotFound() {
+        when(treeService.canView(7L, 42L)).thenReturn(true);
+        when(treeRepository.existsById(7L)).thenReturn(false);
+
+        assertThatThrownBy(() -> gedcomService.exportGedcom(7L, 42L)).isInstanceOf(ResourceNotFoundException.class);
+    }
+}
@@ -0,0 +1,172 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.dto.KinshipDTO;
+import com.project.familytree.tree.exceptions.ResourceNotFoundException;
+import com.project.familytree.tree.impls.Gender;
+import com.project.familytree.tree.impls.RelationshipType;
+import com.project.familytree.tree.repositories.PersonRepository;
+import com.project.familytree.tree.repositories.RelationshipRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.AccessDeniedException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class KinshipServiceTest {
+
+    @Mock private TreeGraphIndex treeGraphIndex;
+    @Mock private PersonRepository personRepository;
+    @Mock private TreeService treeService;
+
+    private KinshipService kinshipService;
+
+    private TreeGraphIndex.Graph graph;
+
+    /**
+     * 1 (дед) + 2 (бабушка) → дети 3 (сын) и 4 (дочь); 3 + 5 (жена) → 6; 4 → 7; 6 → 8; 9 — без связей
+     */
+    @BeforeEach
+    void setUp() {
+        kinshipService = new KinshipService(treeGraphIndex, personRepository, treeService, 100,
+                new SimpleMeterRegistry());
+
+        PersonRepository graphPersons = mock(PersonRepository.class);
+        RelationshipRepository graphRelationships = mock(RelationshipRepository.class);
+        when(graphPersons.findIdsByTreeId(1L)).thenReturn(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L));
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{100L, 1L, 2L, RelationshipType.PARTNERSHIP, null, null});
+        rows.add(new Object[]{101L, 1L, 3L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{102L, 2L, 3L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{103L, 1L, 4L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{104L, 2L, 4L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{105L, 3L, 5L, RelationshipType.PARTNERSHIP, null, null});
+        rows.add(new Object[]{106L, 3L, 6L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{107L, 4L, 7L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{108L, 6L, 8L, RelationshipType.PARENT_CHILD, null, null});
+        when(graphRelationships.findEdgeRowsByTreeId(1L)).thenReturn(rows);
+        TreeGraphIndex realIndex = new TreeGraphIndex(graphPersons, graphRelationships, 1_000L, new SimpleMeterRegistry());
+        graph = realIndex.get(1L);
+    }
+
+    private void stubPersons() {
+        when(personRepository.findSummaryRowsByIds(anyList())).thenAnswer(inv -> {
+            List<Long> ids = inv.getArgument(0);
+            List<Object[]> result = new ArrayList<>();
+            for (Long id : ids) {
+                Gender gender = id == 2L || id == 4L || id == 5L || id == 7L ? Gender.FEMALE : Gender.MALE;
+                result.add(new Object[]{id, "Имя" + id, "Иванов", null, gender});
+            }
+            return result;
+        });
+    }
+
+    @Test
+    @DisplayName("getKinship: двоюродная сестра через общих деда и бабушку")
+    void getKinship_findsCousin() throws AccessDeniedException {
+        when(treeService.canView(1L, 10L)).thenReturn(true);
+        when(treeGraphIndex.get(1L)).thenReturn(graph);
+        stubPersons();
+
+        KinshipDTO kinship = kinshipService.getKinship(1L, 6L, 7L, 10L);
+
+        assertThat(kinship.isRelated()).isTrue();
+        assertThat(kinship.isBlood()).isTrue();
+        assertThat(kinship.getName()).isEqualTo("двоюродная сестра");
+        assertThat(kinship.getGenerationsUp()).isEqualTo(2);
+        assertThat(kinship.getGenerationsDown()).isEqualTo(2);
+        assertThat(kinship.getPath()).hasSize(5);
+        assertThat(kinship.getPath().get(0).getPersonId()).isEqualTo(6L);
+        assertThat(kinship.getPath().get(1).getRelation()).isEqualTo("PARENT");
+        assertThat(kinship.getPath().get(4).getPersonId()).isEqualTo(7L);
+        assertThat(kinship.getPath().get(4).getFullName()).isEqualTo("Иванов Имя7");
+    }
+
+    @Test
+    @DisplayName("getKinship: отец мужа — свёкор")
+    void getKinship_namesInLaw() throws AccessDeniedException {
+        when(treeService.canView(1L, 10L)).thenReturn(true);
+        when(treeGraphIndex.get(1L)).thenReturn(graph);
+        stubPersons();
+
+        KinshipDTO kinship = kinshipService.getKinship(1L, 5L, 1L, 10L);
+
+        assertThat(kinship.getName()).isEqualTo("свёкор");
+        assertThat(kinship.isBlood()).isFalse();
+        assertThat(kinship.getGenerationsUp()).isNull();
+        assertThat(kinship.getPath()).extracting(KinshipDTO.Step::getRelation)
+                .containsExactly(null, "PARTNER", "PARENT");
+    }
+
+    @Test
+    @DisplayName("getKinship: повторный запрос берёт путь из кеша, имена читаются заново")
+    void getKinship_reusesCachedPath() throws AccessDeniedException {
+        when(treeService.canView(1L, 10L)).thenReturn(true);
+        TreeGraphIndex.Graph spyGraph = spy(graph);
+        when(treeGraphIndex.get(1L)).thenReturn(spyGraph);
+        stubPersons();
+
+        KinshipDTO first = kinshipService.getKinship(1L, 8L, 7L, 10L);
+        clearInvocations(spyGraph);
+        KinshipDTO second = kinshipService.getKinship(1L, 8L, 7L, 10L);
+
+        assertThat(second.getName()).isEqualTo(first.getName())
+                .isEqualTo("двоюродная сестра, на 1 поколение старше");
+        verify(spyGraph, never()).edgeStart(anyInt());
+        verify(personRepository, times(2)).findSummaryRowsByIds(anyList());
+    }
+
+    @Test
+    @DisplayName("getKinship: персоны без общего пути — родство не найдено")
+    void getKinship_returnsUnrelated() throws AccessDeniedException {
+        when(treeService.canView(1L, 10L)).thenReturn(true);
+        when(treeGraphIndex.get(1L)).thenReturn(graph);
+
+        KinshipDTO kinship = kinshipService.getKinship(1L, 8L, 9L, 10L);
+
+        assertThat(kinship.isRelated()).isFalse();
+        assertThat(kinship.getPath()).isEmpty();
+        verifyNoInteractions(personRepository);
+    }
+
+    @Test
+    @DisplayName("getKinship: персона из другого дерева — 404")
+    void getKinship_throwsForUnknownPerson() {
+        when(treeService.canView(1L, 10L)).thenReturn(true);
+        when(treeGraphIndex.get(1L)).thenReturn(graph);
+
+        assertThatThrownBy(() -> kinshipService.getKinship(1L, 6L, 42L, 10L))
+                .isInstanceOf(ResourceNotFoundException.class);
+    }
+
+    @Test
+    @DisplayName("getKinship: без прав на просмотр — AccessDeniedException")
+    void getKinship_throwsWithoutViewAccess() {
+        when(treeService.canView(1L, 10L)).thenReturn(false);
+
+        assertThatThrownBy(() -> kinshipService.getKinship(1L, 6L, 7L, 10L))
+                .isInstanceOf(AccessDeniedException.class);
+        verifyNoInteractions(treeGraphIndex);
+    }
+
+    @Test
+    @DisplayName("bloodName: названия по числу поколений вверх и вниз")
+    void bloodName_coversCommonDegrees() {
+        assertThat(KinshipService.bloodName(3, 0, Gender.FEMALE)).isEqualTo("прабабушка");
+        assertThat(KinshipService.bloodName(0, 2, Gender.MALE)).isEqualTo("внук");
+        assertThat(KinshipService.bloodName(1, 3, Gender.MALE)).isEqualTo("внучатый племянник");
+        assertThat(KinshipService.bloodName(3, 1, Gender.FEMALE)).isEqualTo("двоюродная бабушка");
+        assertThat(KinshipService.bloodName(3, 3, Gender.MALE)).isEqualTo("троюродный брат");
+        assertThat(KinshipService.bloodName(1, 1, null)).isEqualTo("брат или сестра");
+    }
+}
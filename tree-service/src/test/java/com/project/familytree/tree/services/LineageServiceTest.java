@@ -0,0 +1,138 @@
+package com.project.familytree.tree.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.project.familytree.tree.exceptions.BusinessException;
+import com.project.familytree.tree.exceptions.ResourceNotFoundException;
+import com.project.familytree.tree.repositories.PersonRepository;
+import com.project.familytree.tree.repositories.RelationshipRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.AccessDeniedException;
+import java.time.LocalDate;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class LineageServiceTest {
+
+    @Mock private RelationshipRepository relationshipRepository;
+    @Mock private PersonRepository personRepository;
+    @Mock private TreeService treeService;
+    @Mock private PlatformTransactionManager transactionManager;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private LineageService lineageService;
+
+    @BeforeEach
+    void setUp() {
+        lineageService = new LineageService(relationshipRepository, personRepository, treeService,
+                objectMapper, transactionManager);
+    }
+
+    private static Object[] row(long id, int generation, Long viaId, String firstName) {
+        return new Object[]{id, generation, viaId, firstName, "Иванов", null, "MALE",
+                java.sql.Date.valueOf(LocalDate.of(1900 + (int) id, 1, 1)), null};
+    }
+
+    private JsonNode write(StreamingResponseBody body) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return objectMapper.readTree(out.toByteArray());
+    }
+
+    private void stubAccess(long personId) {
+        when(treeService.canView(1L, 10L)).thenReturn(true);
+        when(personRepository.existsByIdAndTreeId(personId, 1L)).thenReturn(true);
+    }
+
+    @Test
+    @DisplayName("streamAncestors: пишет персоны с номером поколения в формате CustomApiResponse")
+    void streamAncestors_writesNodesWithGenerations() throws Exception {
+        stubAccess(5L);
+        when(relationshipRepository.streamAncestorRows(1L, 5L, 2)).thenReturn(Stream.of(
+                row(5L, 0, null, "Внук"),
+                row(3L, 1, 5L, "Отец"),
+                row(1L, 2, 3L, "Дед")));
+
+        JsonNode json = write(lineageService.streamAncestors(1L, 5L, 2, 10L));
+
+        assertThat(json.get("success").asBoolean()).isTrue();
+        JsonNode data = json.get("data");
+        assertThat(data.get("rootPersonId").asLong()).isEqualTo(5L);
+        assertThat(data.get("direction").asText()).isEqualTo("ANCESTORS");
+        assertThat(data.get("depth").asInt()).isEqualTo(2);
+        assertThat(data.get("nodes")).extracting(node -> node.get("personId").asLong()).containsExactly(5L, 3L, 1L);
+        assertThat(data.get("nodes")).extracting(node -> node.get("generation").asInt()).containsExactly(0, 1, 2);
+        JsonNode grandfather = data.get("nodes").get(2);
+        assertThat(grandfather.get("gender").asText()).isEqualTo("MALE");
+        assertThat(grandfather.get("birthDate").asText()).isEqualTo("1901-01-01");
+        assertThat(grandfather.get("linkedPersonIds")).extracting(JsonNode::asLong).containsExactly(3L);
+    }
+
+    @Test
+    @DisplayName("streamDescendants: персона, найденная двумя путями, попадает в выборку один раз")
+    void streamDescendants_mergesPersonReachedByTwoPaths() throws Exception {
+        stubAccess(1L);
+        // Строки одной персоны идут подряд, поколение в них уже минимальное
+        when(relationshipRepository.streamDescendantRows(1L, 1L, 3)).thenReturn(Stream.of(
+                row(1L, 0, null, "Корень"),
+                row(2L, 1, 1L, "Сын"),
+                row(4L, 2, 2L, "Внук"),
+                row(4L, 2, 3L, "Внук")));
+
+        JsonNode json = write(lineageService.streamDescendants(1L, 1L, 3, 10L));
+
+        JsonNode nodes = json.get("data").get("nodes");
+        assertThat(nodes).hasSize(3);
+        JsonNode grandson = nodes.get(2);
+        assertThat(grandson.get("generation").asInt()).isEqualTo(2);
+        assertThat(grandson.get("linkedPersonIds")).extracting(JsonNode::asLong).containsExactly(2L, 3L);
+    }
+
+    @Test
+    @DisplayName("streamAncestors: 404 до начала записи, если персона не найдена в дереве")
+    void streamAncestors_throwsIfPersonNotInTree() {
+        when(treeService.canView(1L, 10L)).thenReturn(true);
+        when(personRepository.existsByIdAndTreeId(99L, 1L)).thenReturn(false);
+
+        assertThatThrownBy(() -> lineageService.streamAncestors(1L, 99L, 4, 10L))
+                .isInstanceOf(ResourceNotFoundException.class);
+        verifyNoInteractions(relationshipRepository);
+    }
+
+    @Test
+    @DisplayName("streamAncestors: отклоняет глубину вне допустимого диапазона")
+    void streamAncestors_rejectsInvalidDepth() {
+        when(treeService.canView(1L, 10L)).thenReturn(true);
+
+        assertThatThrownBy(() -> lineageService.streamAncestors(1L, 5L, LineageService.MAX_DEPTH + 1, 10L))
+                .isInstanceOf(BusinessException.class);
+        verify(relationshipRepository, never()).streamAncestorRows(anyLong(), anyLong(), anyInt());
+    }
+
+    @Test
+    @DisplayName("streamDescendants: бросает AccessDeniedException без прав просмотра")
+    void streamDescendants_throwsIfNoViewAccess() {
+        when(treeService.canView(1L, 10L)).thenReturn(false);
+
+        assertThatThrownBy(() -> lineageService.streamDescendants(1L, 5L, 2, 10L))
+                .isInstanceOf(AccessDeniedException.class);
+    }
+}
@@ -0,0 +1,203 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.models.MediaFile;
+import com.project.familytree.tree.repositories.MediaContentRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MediaContentServiceTest {
+
+    /** SHA-256 строки "abc" */
+    private static final String ABC_SHA256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+    private static final String CONTENT_KEY = "trees/content/" + ABC_SHA256 + ".jpg";
+
+    @Mock private MediaContentRepository mediaContentRepository;
+    @Mock private S3Service s3Service;
+    @Mock private ThumbnailService thumbnailService;
+    @Mock private PlatformTransactionManager transactionManager;
+
+    private MediaContentService mediaContentService;
+
+    private MockMultipartFile file;
+
+    @BeforeEach
+    void setUp() {
+        mediaContentService = new MediaContentService(mediaContentRepository, s3Service, thumbnailService,
+                transactionManager);
+        file = new MockMultipartFile("file", "scan.jpg", "image/jpeg", "abc".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MediaFile mediaFile(String filePath, boolean thumbnailsReady) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setFilePath(filePath);
+        mediaFile.setThumbnailsReady(thumbnailsReady);
+        return mediaFile;
+    }
+
+    /** Строка media_contents после upsert: ключ и число ссылок */
+    private void stubReference(String s3Key, int refCount) {
+        when(mediaContentRepository.findReferenceRows(ABC_SHA256))
+                .thenReturn(List.<Object[]>of(new Object[]{s3Key, refCount}));
+    }
+
+    private String store() throws IOException {
+        return mediaContentService.store(file, ".jpg", "image/jpeg", s3Key -> s3Key);
+    }
+
+    // ─── store ───
+
+    @Test
+    @DisplayName("sha256: хеш считается потоково по всему содержимому")
+    void sha256_matchesKnownDigest() throws IOException {
+        assertThat(MediaContentService.sha256(new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8))))
+                .isEqualTo(ABC_SHA256);
+    }
+
+    @Test
+    @DisplayName("store: новое содержимое загружается до транзакции, ссылка добавляется upsert-ом")
+    void store_uploadsNewContentBeforeReference() throws IOException {
+        stubReference(CONTENT_KEY, 1);
+        when(s3Service.exists(CONTENT_KEY)).thenReturn(true);
+
+        String key = store();
+
+        assertThat(key).isEqualTo(CONTENT_KEY);
+        InOrder order = inOrder(s3Service, transactionManager, mediaContentRepository);
+        order.verify(s3Service).upload(eq(CONTENT_KEY), any(), eq("image/jpeg"), eq(3L));
+        order.verify(transactionManager).getTransaction(any());
+        order.verify(mediaContentRepository).addReference(ABC_SHA256, CONTENT_KEY, 3L);
+        verify(s3Service, never()).delete(anyString());
+    }
+
+    @Test
+    @DisplayName("store: дубликат ссылается на существующий объект и не загружается повторно")
+    void store_reusesExistingContent() throws IOException {
+        when(mediaContentRepository.existsBySha256(ABC_SHA256)).thenReturn(true);
+        stubReference("trees/content/" + ABC_SHA256 + ".jpeg", 2);
+
+        String key = store();
+
+        assertThat(key).isEqualTo("trees/content/" + ABC_SHA256 + ".jpeg");
+        verifyNoInteractions(s3Service);
+    }
+
+    @Test
+    @DisplayName("store: параллельная загрузка того же файла завершается успешно и не удаляет общий объект")
+    void store_concurrentDuplicateSucceeds() throws IOException {
+        // Оба запроса не нашли содержимое и загрузили один и тот же объект; этот добавил вторую ссылку
+        stubReference(CONTENT_KEY, 2);
+
+        String key = store();
+
+        assertThat(key).isEqualTo(CONTENT_KEY);
+        verify(s3Service).upload(eq(CONTENT_KEY), any(), eq("image/jpeg"), eq(3L));
+        verify(s3Service, never()).delete(anyString());
+    }
+
+    @Test
+    @DisplayName("store: то же содержимое параллельно сохранено с другим расширением — своя копия удаляется")
+    void store_deletesOwnCopyStoredUnderOtherKey() throws IOException {
+        stubReference("trees/content/" + ABC_SHA256 + ".jpeg", 2);
+
+        String key = store();
+
+        assertThat(key).isEqualTo("trees/content/" + ABC_SHA256 + ".jpeg");
+        verify(s3Service).delete(CONTENT_KEY);
+    }
+
+    @Test
+    @DisplayName("store: содержимое удалили после проверки — объект загружается заново под блокировкой строки")
+    void store_reuploadsContentReleasedMeanwhile() throws IOException {
+        when(mediaContentRepository.existsBySha256(ABC_SHA256)).thenReturn(true);
+        stubReference(CONTENT_KEY, 1);
+
+        String key = store();
+
+        assertThat(key).isEqualTo(CONTENT_KEY);
+        verify(s3Service).upload(eq(CONTENT_KEY), any(), eq("image/jpeg"), eq(3L));
+    }
+
+    @Test
+    @DisplayName("store: запись файла не сохранилась — загруженный объект без ссылок удаляется")
+    void store_discardsUploadedObjectWhenSaveFails() {
+        stubReference(CONTENT_KEY, 1);
+        when(s3Service.exists(CONTENT_KEY)).thenReturn(true);
+        when(mediaContentRepository.deleteUnreferenced(CONTENT_KEY)).thenReturn(1);
+
+        assertThatThrownBy(() -> mediaContentService.store(file, ".jpg", "image/jpeg", s3Key -> {
+            throw new DataIntegrityViolationException("media_files");
+        })).isInstanceOf(DataIntegrityViolationException.class);
+
+        verify(mediaContentRepository).lock(ABC_SHA256, CONTENT_KEY, 3L);
+        verify(s3Service).delete(CONTENT_KEY);
+    }
+
+    @Test
+    @DisplayName("store: при откате объект остаётся, если на него уже сослался другой файл")
+    void store_keepsReferencedObjectWhenSaveFails() {
+        stubReference(CONTENT_KEY, 2);
+        when(mediaContentRepository.deleteUnreferenced(CONTENT_KEY)).thenReturn(0);
+
+        assertThatThrownBy(() -> mediaContentService.store(file, ".jpg", "image/jpeg", s3Key -> {
+            throw new DataIntegrityViolationException("media_files");
+        })).isInstanceOf(DataIntegrityViolationException.class);
+
+        verify(s3Service, never()).delete(anyString());
+    }
+
+    // ─── release ───
+
+    @Test
+    @DisplayName("release: общий объект остаётся, пока на него ссылаются другие файлы")
+    void release_keepsSharedContent() {
+        when(mediaContentRepository.decrementRefCount(CONTENT_KEY)).thenReturn(1);
+        when(mediaContentRepository.deleteUnreferenced(CONTENT_KEY)).thenReturn(0);
+
+        mediaContentService.release(mediaFile(CONTENT_KEY, true));
+
+        verifyNoInteractions(s3Service, thumbnailService);
+    }
+
+    @Test
+    @DisplayName("release: последняя ссылка — удаляются объект и его копии")
+    void release_deletesContentWithLastReference() {
+        when(mediaContentRepository.decrementRefCount(CONTENT_KEY)).thenReturn(1);
+        when(mediaContentRepository.deleteUnreferenced(CONTENT_KEY)).thenReturn(1);
+
+        mediaContentService.release(mediaFile(CONTENT_KEY, false));
+
+        verify(s3Service).delete(CONTENT_KEY);
+        verify(thumbnailService).deleteVariants(CONTENT_KEY);
+    }
+
+    @Test
+    @DisplayName("release: необщий объект удаляется сразу; ошибка S3 не прерывает удаление")
+    void release_deletesUnsharedObjectEvenIfS3Fails() {
+        when(mediaContentRepository.decrementRefCount("trees/1/media/uuid.pdf")).thenReturn(0);
+        doThrow(new RuntimeException("S3 unavailable")).when(s3Service).delete("trees/1/media/uuid.pdf");
+
+        assertThatCode(() -> mediaContentService.release(mediaFile("trees/1/media/uuid.pdf", false)))
+                .doesNotThrowAnyException();
+
+        verify(mediaContentRepository, never()).deleteUnreferenced(anyString());
+        verifyNoInteractions(thumbnailService);
+    }
+}
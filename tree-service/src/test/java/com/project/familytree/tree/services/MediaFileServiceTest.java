@@ -2,34 +2,49 @@ package com.project.familytree.tree.services;
 
 import com.project.familytree.auth.models.User;
 import com.project.familytree.auth.services.UserService;
+import com.project.familytree.tree.dto.CursorPageResponse;
 import com.project.familytree.tree.dto.MediaFileDTO;
+import com.project.familytree.tree.dto.MediaUploadConfirmRequest;
+import com.project.familytree.tree.dto.MediaUploadDTO;
+import com.project.familytree.tree.dto.MediaUploadRequest;
 import com.project.familytree.tree.exceptions.BusinessException;
 import com.project.familytree.tree.impls.Gender;
 import com.project.familytree.tree.impls.MediaFileType;
 import com.project.familytree.tree.models.MediaFile;
+import com.project.familytree.tree.models.PendingUpload;
 import com.project.familytree.tree.models.Person;
 import com.project.familytree.tree.models.Tree;
 import com.project.familytree.tree.repositories.MediaFileRepository;
+import com.project.familytree.tree.repositories.PendingUploadRepository;
 import com.project.familytree.tree.repositories.PersonRepository;
 import com.project.familytree.tree.repositories.TreeRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.multipart.MultipartFile;
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.AccessDeniedException;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 
 import static org.assertj.core.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -44,6 +59,10 @@ class MediaFileServiceTest {
     @Mock private UserService userService;
     @Mock private TreeService treeService;
     @Mock private S3Service s3Service;
+    @Mock private ThumbnailService thumbnailService;
+    @Mock private MediaContentService mediaContentService;
+    @Mock private PendingUploadRepository pendingUploadRepository;
+    @Mock private PlatformTransactionManager transactionManager;
 
     @InjectMocks
     private MediaFileService mediaFileService;
@@ -78,11 +97,24 @@ class MediaFileServiceTest {
         mediaFile.setUploadedAt(Instant.now());
     }
 
+    private static ResponseInputStream<GetObjectResponse> s3Stream(GetObjectResponse response) {
+        return new ResponseInputStream<>(response, AbortableInputStream.create(new ByteArrayInputStream(new byte[0])));
+    }
+
+    /** store сразу вызывает сохранение записи с заданным ключом */
+    private void stubStore(String s3Key) throws IOException {
+        when(mediaContentService.store(any(), eq(".jpg"), eq("image/jpeg"), any())).thenAnswer(inv -> {
+            Function<String, ?> saveFile = inv.getArgument(3);
+            return saveFile.apply(s3Key);
+        });
+    }
+
     // ─── uploadFile ───────────────────────────────────────────────────────────────
 
     @Test
     @DisplayName("uploadFile: сохраняет метаданные и загружает в S3")
     void uploadFile_savesMetadataAndUploadsToS3() throws AccessDeniedException, IOException {
+        stubStore("trees/content/abc.jpg");
         when(treeService.canEdit(1L, 5L)).thenReturn(true);
         when(treeRepository.findById(1L)).thenReturn(Optional.of(tree));
         when(personRepository.findById(10L)).thenReturn(Optional.of(person));
@@ -105,8 +137,38 @@ class MediaFileServiceTest {
         assertThat(result.getFileType()).isEqualTo(MediaFileType.IMAGE);
         assertThat(result.getUrl()).isEqualTo("https://s3.example.com/file");
 
-        verify(s3Service).upload(anyString(), any(), anyString(), anyLong());
+        verify(mediaContentService).store(any(), eq(".jpg"), eq("image/jpeg"), any());
         verify(mediaFileRepository).save(any(MediaFile.class));
+        verify(thumbnailService).enqueueMedia(any(MediaFile.class));
+    }
+
+    @Test
+    @DisplayName("uploadFile: дубликат файла с готовыми копиями сразу получает их, без новой задачи")
+    void uploadFile_duplicateReusesReadyThumbnails() throws AccessDeniedException, IOException {
+        when(treeService.canEdit(1L, 5L)).thenReturn(true);
+        when(treeRepository.findById(1L)).thenReturn(Optional.of(tree));
+        when(personRepository.findById(10L)).thenReturn(Optional.of(person));
+        when(userService.findById(5L)).thenReturn(uploader);
+        stubStore("trees/content/abc.jpg");
+        when(mediaFileRepository.existsByFilePathAndThumbnailsReadyTrue("trees/content/abc.jpg")).thenReturn(true);
+        when(mediaFileRepository.save(any(MediaFile.class))).thenAnswer(inv -> {
+            MediaFile mf = inv.getArgument(0);
+            mf.setId(201L);
+            mf.setUploadedAt(Instant.now());
+            return mf;
+        });
+
+        MockMultipartFile file = new MockMultipartFile(
+                "file", "photo.jpg", "image/jpeg", "fake-image-content".getBytes()
+        );
+
+        mediaFileService.uploadFile(1L, 10L, file, MediaFileType.IMAGE, null, 5L);
+
+        ArgumentCaptor<MediaFile> saved = ArgumentCaptor.forClass(MediaFile.class);
+        verify(mediaFileRepository).save(saved.capture());
+        assertThat(saved.getValue().isThumbnailsReady()).isTrue();
+        verify(thumbnailService, never()).enqueueMedia(any());
+        verify(thumbnailService).variantUrls("trees/content/abc.jpg");
     }
 
     @Test
@@ -177,6 +239,189 @@ class MediaFileServiceTest {
                 .hasMessageContaining("не найдено");
     }
 
+    // ─── initiateUpload / confirmUpload ───────────────────────────────────────────
+
+    @Test
+    @DisplayName("initiateUpload: небольшой файл — один presigned PUT с типом по расширению")
+    void initiateUpload_smallFileGetsSinglePut() throws AccessDeniedException {
+        when(treeService.canEdit(1L, 5L)).thenReturn(true);
+        when(treeRepository.existsById(1L)).thenReturn(true);
+        when(personRepository.findById(10L)).thenReturn(Optional.of(person));
+        Instant expiresAt = Instant.parse("2026-01-01T10:15:00Z");
+        when(s3Service.presignPut(startsWith("trees/1/media/"), eq("image/jpeg"), eq(2048L)))
+                .thenReturn(new S3Service.PresignedUrl("https://s3.example.com/put", expiresAt));
+
+        MediaUploadDTO dto = mediaFileService.initiateUpload(1L, 10L,
+                new MediaUploadRequest("photo.JPG", 2048L, "application/x-msdownload"), 5L);
+
+        assertThat(dto.getS3Key()).startsWith("trees/1/media/").endsWith(".jpg");
+        assertThat(dto.getContentType()).isEqualTo("image/jpeg");
+        assertThat(dto.getUploadUrl()).isEqualTo("https://s3.example.com/put");
+        assertThat(dto.getUploadId()).isNull();
+        assertThat(dto.getExpiresAt()).isEqualTo(expiresAt);
+        verify(s3Service, never()).createMultipartUpload(anyString(), anyString());
+
+        ArgumentCaptor<PendingUpload> pending = ArgumentCaptor.forClass(PendingUpload.class);
+        verify(pendingUploadRepository).save(pending.capture());
+        assertThat(pending.getValue().getS3Key()).isEqualTo(dto.getS3Key());
+        assertThat(pending.getValue().getUserId()).isEqualTo(5L);
+        assertThat(pending.getValue().getTreeId()).isEqualTo(1L);
+        assertThat(pending.getValue().getUploadId()).isNull();
+        assertThat(pending.getValue().getExpiresAt()).isEqualTo(expiresAt);
+    }
+
+    @Test
+    @DisplayName("initiateUpload: большой файл — URL на каждую часть, последняя часть короче")
+    void initiateUpload_largeFileGetsPartUrls() throws AccessDeniedException {
+        when(treeService.canEdit(1L, 5L)).thenReturn(true);
+        when(treeRepository.existsById(1L)).thenReturn(true);
+        long size = 2L * S3Service.UPLOAD_PART_SIZE + 100;
+        when(s3Service.createMultipartUpload(startsWith("trees/1/media/"), eq("video/mp4"))).thenReturn("upload-1");
+        when(s3Service.presignUploadPart(anyString(), eq("upload-1"), anyInt(), anyLong())).thenAnswer(inv ->
+                new S3Service.PresignedUrl("https://s3.example.com/part" + inv.getArgument(2), Instant.now()));
+
+        MediaUploadDTO dto = mediaFileService.initiateUpload(1L, null,
+                new MediaUploadRequest("video.mp4", size, null), 5L);
+
+        assertThat(dto.getUploadId()).isEqualTo("upload-1");
+        assertThat(dto.getUploadUrl()).isNull();
+        assertThat(dto.getPartUrls()).containsExactly(
+                "https://s3.example.com/part1", "https://s3.example.com/part2", "https://s3.example.com/part3");
+        verify(s3Service).presignUploadPart(anyString(), eq("upload-1"), eq(1), eq((long) S3Service.UPLOAD_PART_SIZE));
+        verify(s3Service).presignUploadPart(anyString(), eq("upload-1"), eq(3), eq(100L));
+        verify(pendingUploadRepository).save(argThat(pending -> "upload-1".equals(pending.getUploadId())));
+    }
+
+    @Test
+    @DisplayName("initiateUpload: файл больше лимита — BusinessException, URL не выдаются")
+    void initiateUpload_rejectsTooLargeFile() {
+        when(treeService.canEdit(1L, 5L)).thenReturn(true);
+        when(treeRepository.existsById(1L)).thenReturn(true);
+
+        assertThatThrownBy(() -> mediaFileService.initiateUpload(1L, null,
+                new MediaUploadRequest("video.mp4", MediaFileService.MAX_FILE_SIZE + 1, null), 5L))
+                .isInstanceOf(BusinessException.class)
+                .hasMessageContaining("Размер файла");
+
+        verifyNoInteractions(s3Service);
+    }
+
+    private PendingUpload stubPending(String key, String uploadId, Long userId) {
+        PendingUpload pending = new PendingUpload(key, uploadId, 1L, userId, Instant.now().plusSeconds(600));
+        when(pendingUploadRepository.findByS3Key(key)).thenReturn(Optional.of(pending));
+        return pending;
+    }
+
+    @Test
+    @DisplayName("confirmUpload: завершает multipart-загрузку и сохраняет размер из HEAD")
+    void confirmUpload_completesMultipartAndSavesMetadata() throws AccessDeniedException {
+        String key = "trees/1/media/abc.mp4";
+        PendingUpload pending = stubPending(key, "upload-1", 5L);
+        when(treeService.canEdit(1L, 5L)).thenReturn(true);
+        when(treeRepository.findById(1L)).thenReturn(Optional.of(tree));
+        when(personRepository.findById(10L)).thenReturn(Optional.of(person));
+        when(userService.findById(5L)).thenReturn(uploader);
+        when(s3Service.head(key)).thenReturn(HeadObjectResponse.builder()
+                .contentLength(12_000_000L).contentType("video/mp4").build());
+        when(mediaFileRepository.save(any(MediaFile.class))).thenAnswer(inv -> {
+            MediaFile mf = inv.getArgument(0);
+            mf.setId(201L);
+            return mf;
+        });
+
+        MediaFileDTO result = mediaFileService.confirmUpload(1L, 10L, new MediaUploadConfirmRequest(
+                key, "video.mp4", MediaFileType.VIDEO, "Свадьба", List.of("e1", "e2")), 5L);
+
+        // Обращения к S3 идут до транзакции, в ней — только запись в БД
+        InOrder order = inOrder(s3Service, transactionManager, mediaFileRepository, pendingUploadRepository);
+        order.verify(s3Service).completeMultipartUpload(key, "upload-1", List.of("e1", "e2"));
+        order.verify(s3Service).head(key);
+        order.verify(transactionManager).getTransaction(any());
+        order.verify(mediaFileRepository).save(any(MediaFile.class));
+        order.verify(pendingUploadRepository).delete(pending);
+        order.verify(transactionManager).commit(any());
+        assertThat(result.getId()).isEqualTo(201L);
+        assertThat(result.getFileSize()).isEqualTo(12_000_000L);
+        assertThat(result.getFileName()).isEqualTo("video.mp4");
+    }
+
+    @Test
+    @DisplayName("confirmUpload: тип объекта не совпадает с расширением — объект удаляется, запись не создаётся")
+    void confirmUpload_rejectsMismatchedContentType() {
+        String key = "trees/1/media/abc.jpg";
+        stubPending(key, null, 5L);
+        when(treeService.canEdit(1L, 5L)).thenReturn(true);
+        when(treeRepository.findById(1L)).thenReturn(Optional.of(tree));
+        when(s3Service.head(key)).thenReturn(HeadObjectResponse.builder()
+                .contentLength(100L).contentType("text/html").build());
+
+        assertThatThrownBy(() -> mediaFileService.confirmUpload(1L, null, new MediaUploadConfirmRequest(
+                key, "photo.jpg", MediaFileType.IMAGE, null, null), 5L))
+                .isInstanceOf(BusinessException.class)
+                .hasMessageContaining("не соответствует");
+
+        verify(s3Service).delete(key);
+        verify(mediaFileRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("confirmUpload: ключ чужого дерева — AccessDeniedException без обращения к S3")
+    void confirmUpload_rejectsKeyOfAnotherTree() {
+        when(treeService.canEdit(1L, 5L)).thenReturn(true);
+        when(treeRepository.findById(1L)).thenReturn(Optional.of(tree));
+
+        assertThatThrownBy(() -> mediaFileService.confirmUpload(1L, null, new MediaUploadConfirmRequest(
+                "trees/2/media/abc.jpg", "photo.jpg", MediaFileType.IMAGE, null, null), 5L))
+                .isInstanceOf(AccessDeniedException.class);
+
+        verifyNoInteractions(s3Service);
+    }
+
+    @Test
+    @DisplayName("confirmUpload: ключ выдан другому пользователю — AccessDeniedException без обращения к S3")
+    void confirmUpload_rejectsKeyIssuedToAnotherUser() {
+        String key = "trees/1/media/abc.jpg";
+        stubPending(key, null, 6L);
+        when(treeService.canEdit(1L, 5L)).thenReturn(true);
+        when(treeRepository.findById(1L)).thenReturn(Optional.of(tree));
+
+        assertThatThrownBy(() -> mediaFileService.confirmUpload(1L, null, new MediaUploadConfirmRequest(
+                key, "photo.jpg", MediaFileType.IMAGE, null, null), 5L))
+                .isInstanceOf(AccessDeniedException.class);
+
+        verifyNoInteractions(s3Service);
+        verify(mediaFileRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("sweepAbandonedUploads: прерывает multipart-загрузку, удаляет объект и запись")
+    void sweepAbandonedUploads_discardsExpiredUploads() {
+        PendingUpload multipart = new PendingUpload("trees/1/media/a.mp4", "upload-1", 1L, 5L, Instant.now());
+        PendingUpload single = new PendingUpload("trees/1/media/b.jpg", null, 1L, 5L, Instant.now());
+        when(pendingUploadRepository.findTop100ByExpiresAtBeforeOrderByExpiresAt(any()))
+                .thenReturn(List.of(multipart, single));
+
+        mediaFileService.sweepAbandonedUploads();
+
+        verify(s3Service).abortMultipartUpload("trees/1/media/a.mp4", "upload-1");
+        verify(s3Service).delete("trees/1/media/a.mp4");
+        verify(s3Service).delete("trees/1/media/b.jpg");
+        verify(pendingUploadRepository).delete(multipart);
+        verify(pendingUploadRepository).delete(single);
+    }
+
+    @Test
+    @DisplayName("sweepAbandonedUploads: хранилище недоступно — запись остаётся до следующего прохода")
+    void sweepAbandonedUploads_keepsRecordWhenStorageFails() {
+        PendingUpload single = new PendingUpload("trees/1/media/b.jpg", null, 1L, 5L, Instant.now());
+        when(pendingUploadRepository.findTop100ByExpiresAtBeforeOrderByExpiresAt(any())).thenReturn(List.of(single));
+        doThrow(new RuntimeException("S3 unavailable")).when(s3Service).delete("trees/1/media/b.jpg");
+
+        mediaFileService.sweepAbandonedUploads();
+
+        verify(pendingUploadRepository, never()).delete(any());
+    }
+
     // ─── getPersonMedia ───────────────────────────────────────────────────────────
 
     @Test
@@ -202,23 +447,122 @@ class MediaFileServiceTest {
                 .isInstanceOf(AccessDeniedException.class);
     }
 
+    // ─── getTreeMediaPage ─────────────────────────────────────────────────────────
+
+    @Test
+    @DisplayName("getTreeMediaPage: последняя страница — без следующего курсора")
+    void getTreeMediaPage_lastPageHasNoCursor() throws AccessDeniedException {
+        when(treeService.canView(1L, 5L)).thenReturn(true);
+        when(mediaFileRepository.findPageByTreeId(eq(1L), any())).thenReturn(List.of(mediaFile));
+        when(s3Service.generatePresignedUrl(anyString())).thenReturn("https://s3.example.com/file");
+
+        CursorPageResponse<MediaFileDTO> page = mediaFileService.getTreeMediaPage(1L, null, 10, 5L);
+
+        assertThat(page.getData()).hasSize(1);
+        assertThat(page.isHasMore()).isFalse();
+        assertThat(page.getNextCursor()).isNull();
+    }
+
     // ─── downloadFile ─────────────────────────────────────────────────────────────
 
     @Test
-    @DisplayName("downloadFile: возвращает ресурс из S3")
+    @DisplayName("downloadFile: без Range возвращает файл целиком со статусом 200")
     void downloadFile_returnsS3Resource() throws AccessDeniedException {
         when(treeService.canView(1L, 5L)).thenReturn(true);
         when(mediaFileRepository.findById(100L)).thenReturn(Optional.of(mediaFile));
 
-        @SuppressWarnings("unchecked")
-        ResponseInputStream<GetObjectResponse> s3Stream = mock(ResponseInputStream.class);
-        when(s3Service.download("trees/1/media/uuid.jpg")).thenReturn(s3Stream);
+        ResponseInputStream<GetObjectResponse> s3Stream = s3Stream(GetObjectResponse.builder()
+                .contentLength(1024L).contentType("image/jpeg").eTag("\"abc\"").build());
+        when(s3Service.download("trees/1/media/uuid.jpg", null, null, null)).thenReturn(s3Stream);
 
-        MediaFileService.DownloadResult result = mediaFileService.downloadFile(1L, 10L, 100L, 5L);
+        MediaFileService.DownloadResult result = mediaFileService.downloadFile(1L, 10L, 100L,
+                MediaFileService.DownloadRequest.FULL, 5L);
 
         assertThat(result).isNotNull();
         assertThat(result.fileName()).isEqualTo("photo.jpg");
-        assertThat(result.resource()).isNotNull();
+        assertThat(result.content()).isNotNull();
+        assertThat(result.status()).isEqualTo(HttpStatus.OK);
+        assertThat(result.contentLength()).isEqualTo(1024L);
+        assertThat(result.eTag()).isEqualTo("\"abc\"");
+    }
+
+    @Test
+    @DisplayName("downloadFile: Range передаётся в S3, ответ 206 с Content-Range")
+    void downloadFile_rangeReturnsPartialContent() throws AccessDeniedException {
+        when(treeService.canView(1L, 5L)).thenReturn(true);
+        when(mediaFileRepository.findById(100L)).thenReturn(Optional.of(mediaFile));
+        when(s3Service.download("trees/1/media/uuid.jpg", "bytes=100-199", "\"abc\"", null))
+                .thenReturn(s3Stream(GetObjectResponse.builder()
+                        .contentLength(100L).contentRange("bytes 100-199/1024").eTag("\"abc\"").build()));
+
+        MediaFileService.DownloadResult result = mediaFileService.downloadFile(1L, 10L, 100L,
+                new MediaFileService.DownloadRequest("bytes=100-199", "\"abc\"", null), 5L);
+
+        assertThat(result.status()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertThat(result.contentRange()).isEqualTo("bytes 100-199/1024");
+        assertThat(result.contentLength()).isEqualTo(100L);
+    }
+
+    @Test
+    @DisplayName("downloadFile: If-Range не совпал (файл изменился) — файл отдаётся целиком")
+    void downloadFile_staleIfRangeReturnsWholeFile() throws AccessDeniedException {
+        when(treeService.canView(1L, 5L)).thenReturn(true);
+        when(mediaFileRepository.findById(100L)).thenReturn(Optional.of(mediaFile));
+        when(s3Service.download("trees/1/media/uuid.jpg", "bytes=100-", "\"old\"", null))
+                .thenThrow(S3Exception.builder().statusCode(412).build());
+        when(s3Service.download("trees/1/media/uuid.jpg", null, null, null))
+                .thenReturn(s3Stream(GetObjectResponse.builder().contentLength(1024L).eTag("\"new\"").build()));
+
+        MediaFileService.DownloadResult result = mediaFileService.downloadFile(1L, 10L, 100L,
+                new MediaFileService.DownloadRequest("bytes=100-", "\"old\"", null), 5L);
+
+        assertThat(result.status()).isEqualTo(HttpStatus.OK);
+        assertThat(result.contentRange()).isNull();
+    }
+
+    @Test
+    @DisplayName("downloadFile: If-None-Match совпал с ETag — 304 без тела")
+    void downloadFile_matchingIfNoneMatchReturnsNotModified() throws AccessDeniedException {
+        when(treeService.canView(1L, 5L)).thenReturn(true);
+        when(mediaFileRepository.findById(100L)).thenReturn(Optional.of(mediaFile));
+        when(s3Service.download("trees/1/media/uuid.jpg", null, null, "\"abc\""))
+                .thenThrow(S3Exception.builder().statusCode(304).build());
+
+        MediaFileService.DownloadResult result = mediaFileService.downloadFile(1L, 10L, 100L,
+                new MediaFileService.DownloadRequest(null, null, "\"abc\""), 5L);
+
+        assertThat(result.status()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(result.content()).isNull();
+    }
+
+    @Test
+    @DisplayName("downloadFile: несколько диапазонов не поддерживаются — файл отдаётся целиком")
+    void downloadFile_multipleRangesFallBackToWholeFile() throws AccessDeniedException {
+        when(treeService.canView(1L, 5L)).thenReturn(true);
+        when(mediaFileRepository.findById(100L)).thenReturn(Optional.of(mediaFile));
+        when(s3Service.download("trees/1/media/uuid.jpg", null, null, null))
+                .thenReturn(s3Stream(GetObjectResponse.builder().contentLength(1024L).build()));
+
+        MediaFileService.DownloadResult result = mediaFileService.downloadFile(1L, 10L, 100L,
+                new MediaFileService.DownloadRequest("bytes=0-9,20-29", null, null), 5L);
+
+        assertThat(result.status()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    @DisplayName("DownloadResult.writeTo: обрыв записи прерывает поток S3 вместо дочитывания")
+    void downloadResult_writeToAbortsOnClientDisconnect() throws IOException {
+        @SuppressWarnings("unchecked")
+        ResponseInputStream<GetObjectResponse> s3Stream = mock(ResponseInputStream.class);
+        when(s3Stream.read(any(byte[].class))).thenReturn(10);
+        OutputStream out = mock(OutputStream.class);
+        doThrow(new IOException("Broken pipe")).when(out).write(any(byte[].class), eq(0), eq(10));
+        MediaFileService.DownloadResult result = new MediaFileService.DownloadResult(
+                HttpStatus.OK, s3Stream, "photo.jpg", null, 10L, null, null);
+
+        assertThatThrownBy(() -> result.writeTo(out)).isInstanceOf(IOException.class);
+        verify(s3Stream).abort();
+        verify(s3Stream, never()).close();
     }
 
     @Test
@@ -235,7 +579,7 @@ class MediaFileServiceTest {
         when(treeService.canView(1L, 5L)).thenReturn(true);
         when(mediaFileRepository.findById(200L)).thenReturn(Optional.of(fileInOtherTree));
 
-        assertThatThrownBy(() -> mediaFileService.downloadFile(1L, null, 200L, 5L))
+        assertThatThrownBy(() -> mediaFileService.downloadFile(1L, null, 200L, MediaFileService.DownloadRequest.FULL, 5L))
                 .isInstanceOf(AccessDeniedException.class)
                 .hasMessageContaining("не принадлежит");
     }
@@ -243,15 +587,14 @@ class MediaFileServiceTest {
     // ─── deleteFile ───────────────────────────────────────────────────────────────
 
     @Test
-    @DisplayName("deleteFile: удаляет из S3 и из репозитория")
+    @DisplayName("deleteFile: освобождает объект S3 и удаляет запись из репозитория")
     void deleteFile_deletesFromS3AndRepository() throws AccessDeniedException {
         when(treeService.canEdit(1L, 5L)).thenReturn(true);
         when(mediaFileRepository.findById(100L)).thenReturn(Optional.of(mediaFile));
-        doNothing().when(s3Service).delete("trees/1/media/uuid.jpg");
 
         mediaFileService.deleteFile(1L, 10L, 100L, 5L);
 
-        verify(s3Service).delete("trees/1/media/uuid.jpg");
+        verify(mediaContentService).release(mediaFile);
         verify(mediaFileRepository).delete(mediaFile);
     }
 
@@ -263,22 +606,7 @@ class MediaFileServiceTest {
         assertThatThrownBy(() -> mediaFileService.deleteFile(1L, 10L, 100L, 5L))
                 .isInstanceOf(AccessDeniedException.class);
 
-        verifyNoInteractions(mediaFileRepository, s3Service);
-    }
-
-    @Test
-    @DisplayName("deleteFile: продолжает удаление из БД даже если S3 вернул ошибку")
-    void deleteFile_continuesDeletionEvenIfS3Fails() throws AccessDeniedException {
-        when(treeService.canEdit(1L, 5L)).thenReturn(true);
-        when(mediaFileRepository.findById(100L)).thenReturn(Optional.of(mediaFile));
-        doThrow(new RuntimeException("S3 unavailable")).when(s3Service).delete(anyString());
-
-        // Не должно бросать исключение
-        assertThatCode(() -> mediaFileService.deleteFile(1L, 10L, 100L, 5L))
-                .doesNotThrowAnyException();
-
-        // Запись в БД всё равно удаляется
-        verify(mediaFileRepository).delete(mediaFile);
+        verifyNoInteractions(mediaFileRepository, s3Service, mediaContentService);
     }
 
     // ─── convertToDTO ─────────────────────────────────────────────────────────────
@@ -0,0 +1,60 @@
+package com.project.familytree.tree.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MembershipNotifierTest {
+
+    @Mock private MembershipCache membershipCache;
+    @Mock private JdbcTemplate jdbcTemplate;
+
+    private MembershipNotifier notifier;
+
+    @BeforeEach
+    void setUp() {
+        notifier = new MembershipNotifier(membershipCache, jdbcTemplate,
+                "jdbc:postgresql://localhost:5432/familytree", "postgres", "postgres", true);
+    }
+
+    @Test
+    @DisplayName("publish: отправляет pg_notify с ключом участника")
+    void publish_sendsPgNotify() {
+        notifier.publish(1L, 10L);
+
+        verify(jdbcTemplate).query(eq("SELECT pg_notify(?, ?)"), any(RowCallbackHandler.class),
+                eq(MembershipNotifier.CHANNEL), eq("1:10"));
+    }
+
+    @Test
+    @DisplayName("publish: на H2 уведомления не отправляются")
+    void publish_isNoOpOutsidePostgres() {
+        MembershipNotifier h2Notifier = new MembershipNotifier(membershipCache, jdbcTemplate,
+                "jdbc:h2:mem:testdb", "sa", "", true);
+
+        h2Notifier.publishTree(1L);
+
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    @DisplayName("handle: сбрасывает участника или всё дерево по payload")
+    void handle_evictsByPayload() {
+        notifier.handle("1:10");
+        notifier.handle("2");
+        notifier.handle("garbage");
+
+        verify(membershipCache).evict(1L, 10L);
+        verify(membershipCache).evictTree(2L);
+        verifyNoMoreInteractions(membershipCache);
+    }
+}
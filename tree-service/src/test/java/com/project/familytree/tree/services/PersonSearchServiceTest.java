@@ -0,0 +1,296 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.dto.PersonDTO;
+import com.project.familytree.tree.dto.PersonSearchResponse;
+import com.project.familytree.tree.dto.TreeSearchGroupDTO;
+import com.project.familytree.tree.exceptions.BusinessException;
+import com.project.familytree.tree.impls.Gender;
+import com.project.familytree.tree.impls.TreeRole;
+import com.project.familytree.tree.models.Person;
+import com.project.familytree.tree.models.Tree;
+import com.project.familytree.tree.models.TreeMembership;
+import com.project.familytree.tree.repositories.MediaFileRepository;
+import com.project.familytree.tree.repositories.PersonRepository;
+import com.project.familytree.tree.repositories.TreeMembershipRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.nio.file.AccessDeniedException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PersonSearchServiceTest {
+
+    private static final String POSTGRES_URL = "jdbc:postgresql://localhost:5432/familytree";
+    private static final String H2_URL = "jdbc:h2:mem:testdb";
+
+    @Mock private TreeService treeService;
+    @Mock private PersonRepository personRepository;
+    @Mock private MediaFileRepository mediaFileRepository;
+    @Mock private TreeMembershipRepository membershipRepository;
+    @Mock private PersonSuggestIndex personSuggestIndex;
+    @Mock private PlatformTransactionManager transactionManager;
+
+    private PersonSearchService service(String datasourceUrl) {
+        return new PersonSearchService(treeService, personRepository, mediaFileRepository, membershipRepository,
+                personSuggestIndex,
+                transactionManager,
+                datasourceUrl, true);
+    }
+
+    private static TreeMembership membership(long treeId, String name, TreeRole role) {
+        Tree tree = new Tree();
+        tree.setId(treeId);
+        tree.setName(name);
+        TreeMembership membership = new TreeMembership();
+        membership.setTree(tree);
+        membership.setRole(role);
+        return membership;
+    }
+
+    private static Person person(long id, Tree tree) {
+        Person p = person(id);
+        p.setTree(tree);
+        return p;
+    }
+
+    private static Person person(long id) {
+        Person p = new Person();
+        p.setId(id);
+        p.setFirstName("Иван" + id);
+        p.setLastName("Иванов");
+        p.setGender(Gender.MALE);
+        return p;
+    }
+
+    @Test
+    @DisplayName("searchPersons: на PostgreSQL идёт через ранжированный запрос с limit/offset")
+    void searchPersons_usesRankedQueryOnPostgres() throws AccessDeniedException {
+        List<Person> found = List.of(person(1L));
+        List<PersonDTO> dtos = List.of(new PersonDTO());
+        when(treeService.canView(1L, 42L)).thenReturn(true);
+        when(personRepository.searchRanked(1L, "Иван", 1900, null, null, true, 20, 40)).thenReturn(found);
+        when(treeService.convertToDTOs(found, 1L)).thenReturn(dtos);
+
+        List<PersonDTO> result = service(POSTGRES_URL)
+                .searchPersons(1L, "  Иван ", 1900, null, " ", true, false, 40, 20, 42L);
+
+        assertThat(result).isSameAs(dtos);
+        verify(personRepository, never()).searchByName(anyLong(), anyString());
+    }
+
+    @Test
+    @DisplayName("searchPersons: на H2 использует JPQL и вырезает страницу в памяти")
+    void searchPersons_fallsBackToJpqlOnH2() throws AccessDeniedException {
+        List<Person> all = IntStream.rangeClosed(1, 5).mapToObj(i -> person(i)).toList();
+        when(treeService.canView(1L, 42L)).thenReturn(true);
+        when(personRepository.searchByName(1L, "Иван")).thenReturn(all);
+        when(treeService.convertToDTOs(anyList(), eq(1L))).thenReturn(List.of());
+
+        service(H2_URL).searchPersons(1L, "Иван", null, null, null, null, false, 1, 2, 42L);
+
+        verify(treeService).convertToDTOs(List.of(all.get(1), all.get(2)), 1L);
+        verify(personRepository, never()).searchRanked(any(), any(), any(), any(), any(), anyBoolean(), anyInt(), anyInt());
+    }
+
+    @Test
+    @DisplayName("searchPersons: limit вне допустимого диапазона — BusinessException")
+    void searchPersons_rejectsInvalidLimit() {
+        when(treeService.canView(1L, 42L)).thenReturn(true);
+
+        assertThatThrownBy(() -> service(POSTGRES_URL)
+                .searchPersons(1L, "Иван", null, null, null, null, false, 0, PersonSearchService.MAX_LIMIT + 1, 42L))
+                .isInstanceOf(BusinessException.class);
+    }
+
+    @Test
+    @DisplayName("searchPersons: без прав на просмотр — AccessDeniedException")
+    void searchPersons_requiresViewAccess() {
+        when(treeService.canView(1L, 42L)).thenReturn(false);
+
+        assertThatThrownBy(() -> service(POSTGRES_URL)
+                .searchPersons(1L, "Иван", null, null, null, null, false, 0, 10, 42L))
+                .isInstanceOf(AccessDeniedException.class);
+    }
+
+    @Test
+    @DisplayName("searchPersons fuzzy: на PostgreSQL ищет по фонетическому ключу")
+    void searchPersons_fuzzyUsesPhoneticQueryOnPostgres() throws AccessDeniedException {
+        String keyQuery = PhoneticKey.toTsQuery(PhoneticKey.queryCodes("Ivanov"));
+        when(treeService.canView(1L, 42L)).thenReturn(true);
+        when(personRepository.searchPhonetic(1L, keyQuery, null, null, null, false, 10, 0)).thenReturn(List.of());
+        when(treeService.convertToDTOs(List.of(), 1L)).thenReturn(List.of());
+
+        service(POSTGRES_URL).searchPersons(1L, "Ivanov", null, null, null, null, true, 0, 10, 42L);
+
+        verify(personRepository, never()).searchRanked(any(), any(), any(), any(), any(), anyBoolean(), anyInt(), anyInt());
+    }
+
+    @Test
+    @DisplayName("searchPersons fuzzy: на H2 сравнивает ключи в памяти — латиница находит кириллицу")
+    void searchPersons_fuzzyMatchesTransliteratedNamesOnH2() throws AccessDeniedException {
+        Person ivanov = person(1L);
+        ivanov.setPhoneticKey(PhoneticKey.of(ivanov));
+        Person petrov = person(2L);
+        petrov.setLastName("Петров");
+        petrov.setPhoneticKey(PhoneticKey.of(petrov));
+        when(treeService.canView(1L, 42L)).thenReturn(true);
+        when(personRepository.findByTreeIdOrderByLastNameAscFirstNameAsc(1L)).thenReturn(List.of(ivanov, petrov));
+        when(treeService.convertToDTOs(anyList(), eq(1L))).thenReturn(List.of());
+
+        service(H2_URL).searchPersons(1L, "Iwanow", null, null, null, null, true, 0, 10, 42L);
+
+        verify(treeService).convertToDTOs(List.of(ivanov), 1L);
+    }
+
+    @Test
+    @DisplayName("searchPersons: hasMedia на H2 проверяется в запросе, медиафайлы не загружаются")
+    void searchPersons_hasMediaIsSqlPredicateOnH2() throws AccessDeniedException {
+        when(treeService.canView(1L, 42L)).thenReturn(true);
+        when(personRepository.searchPersons(1L, null, null, null, null, true)).thenReturn(List.of(person(1L)));
+        when(treeService.convertToDTOs(anyList(), eq(1L))).thenReturn(List.of());
+
+        service(H2_URL).searchPersons(1L, null, null, null, null, true, false, 0, 10, 42L);
+
+        verifyNoInteractions(mediaFileRepository);
+    }
+
+    // ─── searchPersonsFaceted ───
+
+    @Test
+    @DisplayName("searchPersonsFaceted: на PostgreSQL разбирает строки GROUPING SETS")
+    void searchPersonsFaceted_readsGroupingSetsOnPostgres() throws AccessDeniedException {
+        List<Person> found = List.of(person(1L));
+        List<PersonDTO> dtos = List.of(new PersonDTO());
+        List<Object[]> rows = List.of(
+                new Object[]{"MALE", null, null, null, 7, 2L},
+                new Object[]{"FEMALE", null, null, null, 7, 1L},
+                new Object[]{null, 1950, null, null, 11, 2L},
+                new Object[]{null, null, null, null, 11, 1L},
+                new Object[]{null, null, "Тула", null, 13, 3L},
+                new Object[]{null, null, null, true, 14, 1L},
+                new Object[]{null, null, null, false, 14, 2L},
+                new Object[]{null, null, null, null, 15, 3L});
+        when(treeService.canView(1L, 42L)).thenReturn(true);
+        when(personRepository.searchRanked(1L, "Иван", null, null, null, false, 1, 0)).thenReturn(found);
+        when(personRepository.searchFacets(1L, "Иван", null, null, null, null, false)).thenReturn(rows);
+        when(treeService.convertToDTOs(found, 1L)).thenReturn(dtos);
+
+        PersonSearchResponse result = service(POSTGRES_URL)
+                .searchPersonsFaceted(1L, "Иван", null, null, null, null, false, 0, 1, 42L);
+
+        assertThat(result.getData()).isSameAs(dtos);
+        assertThat(result.getTotalCount()).isEqualTo(3);
+        assertThat(result.getFacets().getGender()).containsExactly(entry("FEMALE", 1L), entry("MALE", 2L));
+        assertThat(result.getFacets().getBirthDecade()).containsExactly(entry(1950, 2L));
+        assertThat(result.getFacets().getBirthPlace()).containsExactly(entry("Тула", 3L));
+        assertThat(result.getFacets().getWithMedia()).isEqualTo(1);
+        assertThat(result.getFacets().getWithoutMedia()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("searchPersonsFaceted: на H2 считает фасеты в памяти по всем найденным, а не по странице")
+    void searchPersonsFaceted_countsInMemoryOnH2() throws AccessDeniedException {
+        Person first = person(1L);
+        first.setBirthDate(LocalDate.of(1952, 5, 1));
+        first.setBirthPlace("Тула");
+        Person second = person(2L);
+        second.setGender(Gender.FEMALE);
+        second.setBirthDate(LocalDate.of(1958, 1, 1));
+        when(treeService.canView(1L, 42L)).thenReturn(true);
+        when(personRepository.findByTreeIdOrderByLastNameAscFirstNameAsc(1L)).thenReturn(List.of(first, second));
+        List<Object[]> mediaCounts = List.<Object[]>of(new Object[]{2L, 3L});
+        when(mediaFileRepository.countByPersonIds(List.of(1L, 2L))).thenReturn(mediaCounts);
+        when(treeService.convertToDTOs(List.of(first), 1L)).thenReturn(List.of());
+
+        PersonSearchResponse result = service(H2_URL)
+                .searchPersonsFaceted(1L, null, null, null, null, null, false, 0, 1, 42L);
+
+        assertThat(result.getTotalCount()).isEqualTo(2);
+        assertThat(result.getFacets().getGender()).containsExactly(entry("FEMALE", 1L), entry("MALE", 1L));
+        assertThat(result.getFacets().getBirthDecade()).containsExactly(entry(1950, 2L));
+        assertThat(result.getFacets().getBirthPlace()).containsExactly(entry("Тула", 1L));
+        assertThat(result.getFacets().getWithMedia()).isEqualTo(1);
+        assertThat(result.getFacets().getWithoutMedia()).isEqualTo(1);
+    }
+
+    // ─── searchAcrossTrees ───
+
+    @Test
+    @DisplayName("searchAcrossTrees: на PostgreSQL один запрос по всем деревьям, группы в порядке релевантности")
+    void searchAcrossTrees_groupsByTreeInRankOrder() {
+        TreeMembership family = membership(1L, "Семья", TreeRole.OWNER);
+        TreeMembership friends = membership(2L, "Друзья", TreeRole.VIEWER);
+        List<Person> found = List.of(person(1L, friends.getTree()), person(2L, family.getTree()),
+                person(3L, friends.getTree()));
+        when(membershipRepository.findByUserId(42L)).thenReturn(List.of(family, friends));
+        when(personRepository.searchAcrossTrees(42L, "Иван", 5, 20)).thenReturn(found);
+        when(treeService.convertToDTOs(anyList(), anyLong())).thenReturn(List.of(new PersonDTO()));
+
+        List<TreeSearchGroupDTO> groups = service(POSTGRES_URL).searchAcrossTrees(" Иван ", 20, 5, 42L);
+
+        assertThat(groups).extracting(TreeSearchGroupDTO::getTreeId).containsExactly(2L, 1L);
+        assertThat(groups.get(0).getTreeName()).isEqualTo("Друзья");
+        assertThat(groups.get(0).getRole()).isEqualTo(TreeRole.VIEWER);
+        verify(treeService).convertToDTOs(List.of(found.get(0), found.get(2)), 2L);
+        verify(treeService).convertToDTOs(List.of(found.get(1)), 1L);
+    }
+
+    @Test
+    @DisplayName("searchAcrossTrees: на H2 ограничивает число персон в дереве и всего")
+    void searchAcrossTrees_appliesLimitsOnH2() {
+        TreeMembership family = membership(1L, "Семья", TreeRole.OWNER);
+        Tree tree = family.getTree();
+        List<Person> found = List.of(person(1L, tree), person(2L, tree), person(3L, tree));
+        when(membershipRepository.findByUserId(42L)).thenReturn(List.of(family));
+        when(personRepository.searchByNameInUserTrees(42L, "Иван")).thenReturn(found);
+        when(treeService.convertToDTOs(anyList(), eq(1L))).thenReturn(List.of());
+
+        service(H2_URL).searchAcrossTrees("Иван", 10, 2, 42L);
+
+        verify(treeService).convertToDTOs(List.of(found.get(0), found.get(1)), 1L);
+    }
+
+    @Test
+    @DisplayName("searchAcrossTrees: без деревьев поиск не выполняется, пустой запрос — BusinessException")
+    void searchAcrossTrees_skipsQueryWithoutTrees() {
+        when(membershipRepository.findByUserId(42L)).thenReturn(List.of());
+
+        assertThat(service(POSTGRES_URL).searchAcrossTrees("Иван", 10, 5, 42L)).isEmpty();
+        assertThatThrownBy(() -> service(POSTGRES_URL).searchAcrossTrees("  ", 10, 5, 42L))
+                .isInstanceOf(BusinessException.class);
+        verifyNoInteractions(personRepository);
+    }
+
+    @Test
+    @DisplayName("suggest: отвечает из индекса, limit больше максимума — BusinessException")
+    void suggest_delegatesToIndexAndValidatesLimit() throws AccessDeniedException {
+        when(treeService.canView(1L, 42L)).thenReturn(true);
+        when(personSuggestIndex.suggest(1L, "Ив", 10)).thenReturn(List.of());
+
+        assertThat(service(H2_URL).suggest(1L, "Ив", 10, 42L)).isEmpty();
+        assertThatThrownBy(() -> service(H2_URL).suggest(1L, "Ив", PersonSearchService.MAX_SUGGEST_LIMIT + 1, 42L))
+                .isInstanceOf(BusinessException.class);
+    }
+
+    @Test
+    @DisplayName("backfillPhoneticKeys: пишет ключи пачками, пока есть персоны без ключа")
+    void backfillPhoneticKeys_updatesUntilNoRowsLeft() {
+        List<Object[]> batch = List.<Object[]>of(new Object[]{5L, "Иван", "Иванов", null});
+        when(personRepository.findNameRowsWithoutPhoneticKey(any())).thenReturn(batch, List.of());
+
+        service(H2_URL).backfillPhoneticKeys();
+
+        verify(personRepository).updatePhoneticKey(5L, PhoneticKey.of("Иван", "Иванов", null));
+    }
+}
@@ -0,0 +1,155 @@
+package com.project.familytree.tree.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.project.familytree.tree.dto.PersonDTO;
+import com.project.familytree.tree.exceptions.ResourceNotFoundException;
+import com.project.familytree.tree.impls.Gender;
+import com.project.familytree.tree.models.Person;
+import com.project.familytree.tree.models.Tree;
+import com.project.familytree.tree.repositories.PersonRepository;
+import com.project.familytree.tree.repositories.TreeRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.AccessDeniedException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PersonStreamServiceTest {
+
+    @Mock private TreeService treeService;
+    @Mock private PersonRepository personRepository;
+    @Mock private TreeRepository treeRepository;
+    @Mock private TreeGraphIndex treeGraphIndex;
+    @Mock private EntityManager entityManager;
+    @Mock private PlatformTransactionManager transactionManager;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private PersonStreamService personStreamService;
+    private Tree tree;
+
+    @BeforeEach
+    void setUp() {
+        personStreamService = new PersonStreamService(treeService, personRepository, treeRepository,
+                treeGraphIndex, objectMapper, entityManager, transactionManager);
+        tree = new Tree();
+        tree.setId(1L);
+    }
+
+    private Person person(long id) {
+        Person p = new Person(tree, "Имя" + id, "Иванов", null, Gender.MALE);
+        p.setId(id);
+        p.setBirthDate(LocalDate.of(1900, 1, 1));
+        return p;
+    }
+
+    private static PersonDTO dto(Person p) {
+        PersonDTO dto = new PersonDTO();
+        dto.setId(p.getId());
+        dto.setFirstName(p.getFirstName());
+        dto.setBirthDate(p.getBirthDate());
+        return dto;
+    }
+
+    private static List<PersonDTO> dtos(List<Person> persons) {
+        return persons.stream().map(PersonStreamServiceTest::dto).toList();
+    }
+
+    private JsonNode write(StreamingResponseBody body) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return objectMapper.readTree(out.toByteArray());
+    }
+
+    @Test
+    @DisplayName("streamPersons: пишет ответ в формате CustomApiResponse, собирая DTO порциями")
+    void streamPersons_writesEnvelopeAndClearsContext() throws Exception {
+        int total = PersonStreamService.CHUNK_SIZE * 2 + 5;
+        when(treeService.canView(1L, 10L)).thenReturn(true);
+        when(personRepository.streamByTreeId(1L))
+                .thenReturn(IntStream.rangeClosed(1, total).mapToObj(this::person));
+        when(treeService.convertToDTOs(anyList(), eq(1L))).thenAnswer(inv -> dtos(inv.getArgument(0)));
+
+        JsonNode json = write(personStreamService.streamPersons(1L, 10L));
+
+        assertThat(json.get("success").asBoolean()).isTrue();
+        assertThat(json.get("message").isNull()).isTrue();
+        assertThat(json.get("data")).hasSize(total);
+        assertThat(json.get("data").get(0).get("firstName").asText()).isEqualTo("Имя1");
+        assertThat(json.get("data").get(0).get("birthDate").asText()).isEqualTo("1900-01-01");
+        verify(treeService, times(3)).convertToDTOs(anyList(), eq(1L));
+        verify(entityManager, times(3)).clear();
+    }
+
+    @Test
+    @DisplayName("streamPersons: без прав на просмотр — исключение до начала записи")
+    void streamPersons_checksAccessBeforeWriting() {
+        when(treeService.canView(1L, 10L)).thenReturn(false);
+
+        assertThatThrownBy(() -> personStreamService.streamPersons(1L, 10L))
+                .isInstanceOf(AccessDeniedException.class);
+        verifyNoInteractions(personRepository);
+    }
+
+    @Test
+    @DisplayName("writePersons: файл экспорта собирается из DTO без presigned URL")
+    void writePersons_usesExportDTOs() throws Exception {
+        when(personRepository.streamByTreeId(1L)).thenReturn(Stream.of(person(1L), person(2L)));
+        when(treeService.convertToExportDTOs(anyList(), eq(1L))).thenAnswer(inv -> dtos(inv.getArgument(0)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        personStreamService.writePersons(1L, out, written -> { });
+
+        assertThat(objectMapper.readTree(out.toByteArray()).get("data")).hasSize(2);
+        verify(treeService, never()).convertToDTOs(anyList(), anyLong());
+    }
+
+    @Test
+    @DisplayName("streamTreeGraph: связи берутся из индекса графа")
+    void streamTreeGraph_usesGraphIndex() throws Exception {
+        when(treeService.canView(1L, 10L)).thenReturn(true);
+        TreeGraphIndex.Graph graph = mock(TreeGraphIndex.Graph.class);
+        when(treeGraphIndex.get(1L)).thenReturn(graph);
+        List<Object[]> names = List.<Object[]>of(new Object[]{1L, "Имя1", "Иванов"});
+        when(personRepository.findNameRowsByTreeId(1L)).thenReturn(names);
+        when(personRepository.streamByTreeId(1L)).thenReturn(Stream.of(person(1L)));
+        when(treeService.toGraphPersonDTOs(anyList(), eq(1L), eq(graph), anyMap()))
+                .thenAnswer(inv -> dtos(inv.getArgument(0)));
+
+        JsonNode json = write(personStreamService.streamTreeGraph(1L, 10L));
+
+        assertThat(json.get("data")).hasSize(1);
+        verify(treeService, never()).convertToDTOs(anyList(), anyLong());
+    }
+
+    @Test
+    @DisplayName("streamPublicTree: неизвестный токен — 404 до начала записи")
+    void streamPublicTree_throwsForUnknownToken() {
+        when(treeRepository.findByPublicLinkToken("bad")).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> personStreamService.streamPublicTree("bad"))
+                .isInstanceOf(ResourceNotFoundException.class);
+    }
+}
@@ -0,0 +1,115 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.dto.PersonSuggestionDTO;
+import com.project.familytree.tree.models.Person;
+import com.project.familytree.tree.repositories.PersonRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PersonSuggestIndexTest {
+
+    @Mock private PersonRepository personRepository;
+
+    private PersonSuggestIndex personSuggestIndex;
+
+    @BeforeEach
+    void setUp() {
+        personSuggestIndex = new PersonSuggestIndex(personRepository, 1_000L, new SimpleMeterRegistry());
+    }
+
+    private void stubTree(Long treeId) {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{1L, "Иван", "Петров", "Сергеевич", LocalDate.of(1950, 3, 1)});
+        rows.add(new Object[]{2L, "Мария", "Петрова", null, null});
+        rows.add(new Object[]{3L, "Пётр", "Иванов", null, LocalDate.of(1920, 1, 1)});
+        when(personRepository.findSuggestRowsByTreeId(treeId)).thenReturn(rows);
+    }
+
+    private static List<Long> ids(List<PersonSuggestionDTO> suggestions) {
+        return suggestions.stream().map(PersonSuggestionDTO::getId).toList();
+    }
+
+    // ─── suggest ───
+
+    @Test
+    @DisplayName("suggest: находит по префиксу фамилии, имени и отчества без учёта регистра и ё")
+    void suggest_matchesAnyNamePart() {
+        stubTree(1L);
+
+        assertThat(ids(personSuggestIndex.suggest(1L, "петр", 10))).containsExactlyInAnyOrder(1L, 2L, 3L);
+        assertThat(ids(personSuggestIndex.suggest(1L, "Петрова", 10))).containsExactly(2L);
+        assertThat(ids(personSuggestIndex.suggest(1L, "иван", 10))).containsExactlyInAnyOrder(1L, 3L);
+        assertThat(ids(personSuggestIndex.suggest(1L, "серг", 10))).containsExactly(1L);
+        assertThat(ids(personSuggestIndex.suggest(1L, "пётр  иван", 10))).containsExactly(3L);
+        assertThat(personSuggestIndex.suggest(1L, "  ", 10)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("suggest: возвращает ФИО и год рождения, не больше limit")
+    void suggest_returnsFullNameAndRespectsLimit() {
+        stubTree(1L);
+
+        List<PersonSuggestionDTO> result = personSuggestIndex.suggest(1L, "серг", 10);
+        assertThat(result.get(0).getFullName()).isEqualTo("Петров Иван Сергеевич");
+        assertThat(result.get(0).getBirthYear()).isEqualTo(1950);
+        assertThat(personSuggestIndex.suggest(1L, "п", 2)).hasSize(2);
+    }
+
+    // ─── Инкрементальное обновление ───
+
+    @Test
+    @DisplayName("put/remove: обновляют закешированный снимок без повторного чтения дерева")
+    void putAndRemove_updateSnapshotInPlace() {
+        stubTree(1L);
+        personSuggestIndex.get(1L);
+
+        Person renamed = new Person();
+        renamed.setId(2L);
+        renamed.setFirstName("Мария");
+        renamed.setLastName("Сидорова");
+        personSuggestIndex.put(1L, renamed);
+        personSuggestIndex.remove(1L, 3L);
+
+        assertThat(ids(personSuggestIndex.suggest(1L, "сидор", 10))).containsExactly(2L);
+        assertThat(ids(personSuggestIndex.suggest(1L, "петр", 10))).containsExactly(1L);
+        verify(personRepository, times(1)).findSuggestRowsByTreeId(1L);
+    }
+
+    @Test
+    @DisplayName("invalidate: следующий запрос перестраивает индекс")
+    void invalidate_rebuildsOnNextRequest() {
+        stubTree(1L);
+        personSuggestIndex.get(1L);
+
+        personSuggestIndex.invalidate(1L);
+        personSuggestIndex.get(1L);
+
+        verify(personRepository, times(2)).findSuggestRowsByTreeId(1L);
+    }
+
+    @Test
+    @DisplayName("вытеснение: при превышении лимита ключей в кеше остаётся одно дерево")
+    void evictsTreeWhenOverEntryLimit() {
+        personSuggestIndex = new PersonSuggestIndex(personRepository, 10L, new SimpleMeterRegistry());
+        stubTree(1L);
+        stubTree(2L);
+
+        long treeKeys = personSuggestIndex.get(1L).size();
+        personSuggestIndex.get(2L);
+
+        assertThat(personSuggestIndex.cachedEntries()).isEqualTo(treeKeys);
+    }
+}
@@ -0,0 +1,51 @@
+package com.project.familytree.tree.services;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.*;
+
+class PhoneticKeyTest {
+
+    @Test
+    @DisplayName("of: кириллическое и латинское написание дают общий код")
+    void of_cyrillicAndLatinShareCodes() {
+        String cyrillic = PhoneticKey.of(null, "Иванов", null);
+        List<Set<String>> latin = PhoneticKey.queryCodes("Ivanov");
+        List<Set<String>> variant = PhoneticKey.queryCodes("Iwanow");
+
+        assertThat(cyrillic).isNotEmpty();
+        assertThat(PhoneticKey.matches(cyrillic, latin)).isTrue();
+        assertThat(PhoneticKey.matches(cyrillic, variant)).isTrue();
+        assertThat(PhoneticKey.matches(cyrillic, PhoneticKey.queryCodes("Петров"))).isFalse();
+    }
+
+    @Test
+    @DisplayName("matches: каждое слово запроса должно найтись в ключе")
+    void matches_requiresEveryQueryWord() {
+        String key = PhoneticKey.of("Иван", "Иванов", "Петрович");
+
+        assertThat(PhoneticKey.matches(key, PhoneticKey.queryCodes("Ivan Ivanov"))).isTrue();
+        assertThat(PhoneticKey.matches(key, PhoneticKey.queryCodes("Ivan Sidorov"))).isFalse();
+    }
+
+    @Test
+    @DisplayName("transliterate: дореформенные буквы приводятся к современным")
+    void transliterate_handlesPreReformLetters() {
+        assertThat(PhoneticKey.transliterate("ѳеодоръ")).isEqualTo("feodor");
+        assertThat(PhoneticKey.matches(PhoneticKey.of("Ѳеодоръ", null, null), PhoneticKey.queryCodes("Федор")))
+                .isTrue();
+    }
+
+    @Test
+    @DisplayName("toTsQuery: коды слова через |, слова через &; без букв — пустой запрос")
+    void toTsQuery_joinsCodes() {
+        String query = PhoneticKey.toTsQuery(PhoneticKey.queryCodes("Ivan Ivanov"));
+
+        assertThat(query).matches("\\([0-9 |]+\\) & \\([0-9 |]+\\)");
+        assertThat(PhoneticKey.queryCodes("123 !!")).isEmpty();
+    }
+}
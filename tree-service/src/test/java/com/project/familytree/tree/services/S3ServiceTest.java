@@ -0,0 +1,297 @@
+package com.project.familytree.tree.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.CompletedUpload;
+import software.amazon.awssdk.transfer.s3.model.Upload;
+import software.amazon.awssdk.transfer.s3.model.UploadRequest;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class S3ServiceTest {
+
+    @Mock private S3Client s3Client;
+    @Mock private S3Presigner s3Presigner;
+    @Mock private S3TransferManager transferManager;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Instant start = Instant.parse("2026-01-01T10:00:00Z");
+    private final MutableClock clock = new MutableClock(start);
+    private final AtomicInteger signatures = new AtomicInteger();
+
+    private S3Service s3Service;
+
+    @BeforeEach
+    void setUp() {
+        s3Service = new S3Service(s3Client, s3Presigner, transferManager, meterRegistry, 60L, 2L, 10L, 4, 16, clock);
+        ReflectionTestUtils.setField(s3Service, "bucket", "familytree");
+        ReflectionTestUtils.setField(s3Service, "transferThresholdMb", 16L);
+
+        lenient().when(s3Presigner.presignGetObject(any(GetObjectPresignRequest.class))).thenAnswer(inv -> {
+            GetObjectPresignRequest request = inv.getArgument(0);
+            PresignedGetObjectRequest presigned = mock(PresignedGetObjectRequest.class);
+            when(presigned.url()).thenReturn(new URL("https://storage.example/" + request.getObjectRequest().key()
+                    + "?sig=" + signatures.incrementAndGet()));
+            return presigned;
+        });
+    }
+
+    private void at(Instant instant) {
+        clock.now = instant;
+    }
+
+    /** Часы, которые тест переводит вручную */
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+
+    private double metric(String result) {
+        return meterRegistry.get("cache.gets").tag("cache", S3Service.CACHE_NAME).tag("result", result)
+                .functionCounter().count();
+    }
+
+    @Test
+    @DisplayName("generatePresignedUrl: повторный вызов отдаёт URL из кеша")
+    void generatePresignedUrl_reusesCachedUrl() {
+        String first = s3Service.generatePresignedUrl("trees/1/media/a.jpg");
+        at(start.plus(Duration.ofMinutes(49)));
+        String second = s3Service.generatePresignedUrl("trees/1/media/a.jpg");
+
+        assertThat(second).isEqualTo(first);
+        verify(s3Presigner, times(1)).presignGetObject(any(GetObjectPresignRequest.class));
+        assertThat(metric("hit")).isEqualTo(1.0);
+        assertThat(metric("miss")).isEqualTo(1.0);
+    }
+
+    @Test
+    @DisplayName("generatePresignedUrl: в пределах safety margin до истечения URL подписывается заново")
+    void generatePresignedUrl_resignsNearExpiry() {
+        String first = s3Service.generatePresignedUrl("trees/1/media/a.jpg");
+        at(start.plus(Duration.ofMinutes(50)));
+        String second = s3Service.generatePresignedUrl("trees/1/media/a.jpg");
+
+        assertThat(second).isNotEqualTo(first);
+        assertThat(metric("miss")).isEqualTo(2.0);
+    }
+
+    @Test
+    @DisplayName("generatePresignedUrl: кеш ограничен по размеру")
+    void generatePresignedUrl_boundsCacheSize() {
+        s3Service.generatePresignedUrl("a");
+        s3Service.generatePresignedUrl("b");
+        s3Service.generatePresignedUrl("c");
+
+        assertThat(signatures.get()).isEqualTo(3);
+        assertThat(s3Service.cachedUrlCount()).isEqualTo(2);
+        assertThat(meterRegistry.get("cache.size").tag("cache", S3Service.CACHE_NAME).gauge().value()).isEqualTo(2.0);
+    }
+
+    @Test
+    @DisplayName("delete: удаляет URL объекта из кеша")
+    void delete_evictsCachedUrl() {
+        s3Service.generatePresignedUrl("trees/1/media/a.jpg");
+
+        s3Service.delete("trees/1/media/a.jpg");
+        s3Service.generatePresignedUrl("trees/1/media/a.jpg");
+
+        verify(s3Client).deleteObject(any(DeleteObjectRequest.class));
+        assertThat(signatures.get()).isEqualTo(2);
+    }
+
+    // ─── openUpload ───
+
+    // ─── upload ───
+
+    @Test
+    @DisplayName("upload: файл меньше порога загружается одним PUT")
+    void upload_smallFileUsesSinglePut() {
+        s3Service.upload("trees/1/media/a.jpg", new ByteArrayInputStream(new byte[10]), "image/jpeg", 10);
+
+        verify(s3Client).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verifyNoInteractions(transferManager);
+    }
+
+    @Test
+    @DisplayName("upload: большой файл загружается через Transfer Manager")
+    void upload_largeFileUsesTransferManager() {
+        long size = 16L * 1024 * 1024;
+        Upload upload = mock(Upload.class);
+        when(upload.completionFuture()).thenReturn(CompletableFuture.completedFuture(mock(CompletedUpload.class)));
+        when(transferManager.upload(any(UploadRequest.class))).thenReturn(upload);
+
+        s3Service.upload("trees/1/media/v.mp4", new ByteArrayInputStream(new byte[0]), "video/mp4", size);
+
+        verify(transferManager).upload(argThat((UploadRequest r) ->
+                "trees/1/media/v.mp4".equals(r.putObjectRequest().key())
+                        && r.putObjectRequest().contentLength() == size
+                        && r.requestBody().contentLength().orElse(0L) == size));
+        verify(s3Client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    @DisplayName("upload: ошибка загрузки частей пробрасывается исходным исключением")
+    void upload_transferFailureRethrowsCause() {
+        Upload upload = mock(Upload.class);
+        S3Exception failure = (S3Exception) S3Exception.builder().message("part 3 failed").build();
+        when(upload.completionFuture()).thenReturn(CompletableFuture.failedFuture(failure));
+        when(transferManager.upload(any(UploadRequest.class))).thenReturn(upload);
+
+        assertThatThrownBy(() -> s3Service.upload("trees/1/media/v.mp4",
+                new ByteArrayInputStream(new byte[0]), "video/mp4", 20L * 1024 * 1024))
+                .isSameAs(failure);
+    }
+
+    @Test
+    @DisplayName("upload: сверх лимита одновременных загрузок частями — отказ без обращения к S3")
+    void upload_rejectsWhenUploadSlotsExhausted() throws Exception {
+        S3Service limited = new S3Service(s3Client, s3Presigner, transferManager, meterRegistry, 60L, 2L, 10L, 1, 0, clock);
+        ReflectionTestUtils.setField(limited, "bucket", "familytree");
+        ReflectionTestUtils.setField(limited, "transferThresholdMb", 16L);
+        long size = 16L * 1024 * 1024;
+        CompletableFuture<CompletedUpload> running = new CompletableFuture<>();
+        Upload upload = mock(Upload.class);
+        when(upload.completionFuture()).thenReturn(running);
+        when(transferManager.upload(any(UploadRequest.class))).thenReturn(upload);
+        Thread first = new Thread(() ->
+                limited.upload("trees/1/media/a.mp4", new ByteArrayInputStream(new byte[0]), "video/mp4", size));
+        first.start();
+        verify(transferManager, timeout(5_000)).upload(any(UploadRequest.class));
+
+        assertThatThrownBy(() -> limited.upload("trees/1/media/b.mp4",
+                new ByteArrayInputStream(new byte[0]), "video/mp4", size))
+                .isInstanceOf(RejectedExecutionException.class);
+
+        running.complete(mock(CompletedUpload.class));
+        first.join(5_000);
+        limited.upload("trees/1/media/c.mp4", new ByteArrayInputStream(new byte[0]), "video/mp4", size);
+        verify(transferManager, times(2)).upload(any(UploadRequest.class));
+        limited.shutdown();
+    }
+
+    @Test
+    @DisplayName("openUpload: объект меньше одной части загружается обычным PUT")
+    void openUpload_smallObjectUsesSinglePut() {
+        S3Service.UploadStream upload = s3Service.openUpload("trees/1/exports/1.ged", "application/x-gedcom");
+        upload.write("0 HEAD\n0 TRLR\n".getBytes());
+        upload.close();
+        upload.close();
+
+        verify(s3Client, times(1)).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verify(s3Client, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+        assertThat(upload.size()).isEqualTo(14);
+    }
+
+    @Test
+    @DisplayName("openUpload: большой объект уходит частями, загрузка завершается на close")
+    void openUpload_largeObjectUsesMultipart() {
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("u1").build());
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+
+        S3Service.UploadStream upload = s3Service.openUpload("trees/1/exports/1.ged", "application/x-gedcom");
+        upload.write(new byte[S3Service.UPLOAD_PART_SIZE]);
+        upload.write(new byte[10]);
+        upload.close();
+
+        verify(s3Client, times(2)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(s3Client).completeMultipartUpload(argThat((CompleteMultipartUploadRequest r) ->
+                r.uploadId().equals("u1") && r.multipartUpload().parts().size() == 2));
+        verify(s3Client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    @DisplayName("openUpload: abort удаляет уже загруженные части")
+    void openUpload_abortCancelsMultipartUpload() {
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("u1").build());
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+
+        S3Service.UploadStream upload = s3Service.openUpload("trees/1/exports/1.ged", "application/x-gedcom");
+        upload.write(new byte[S3Service.UPLOAD_PART_SIZE + 1]);
+        upload.abort();
+        upload.close();
+
+        verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    // ─── прямая загрузка ───
+
+    @Test
+    @DisplayName("presignPut: тип и размер объекта входят в подпись, срок — из настроек загрузки")
+    void presignPut_signsContentTypeAndLength() throws Exception {
+        ReflectionTestUtils.setField(s3Service, "presignedUploadExpiryMinutes", 15L);
+        PresignedPutObjectRequest presigned = mock(PresignedPutObjectRequest.class);
+        when(presigned.url()).thenReturn(new URL("https://storage.example/trees/1/media/a.jpg?sig=put"));
+        when(presigned.expiration()).thenReturn(start.plus(Duration.ofMinutes(15)));
+        when(s3Presigner.presignPutObject(any(PutObjectPresignRequest.class))).thenReturn(presigned);
+
+        S3Service.PresignedUrl url = s3Service.presignPut("trees/1/media/a.jpg", "image/jpeg", 2048L);
+
+        assertThat(url.url()).endsWith("sig=put");
+        assertThat(url.expiresAt()).isEqualTo(start.plus(Duration.ofMinutes(15)));
+        verify(s3Presigner).presignPutObject(argThat((PutObjectPresignRequest r) ->
+                r.signatureDuration().equals(Duration.ofMinutes(15))
+                        && "image/jpeg".equals(r.putObjectRequest().contentType())
+                        && r.putObjectRequest().contentLength() == 2048L));
+    }
+
+    @Test
+    @DisplayName("head: отсутствующий объект — null, exists — false")
+    void head_returnsNullForMissingObject() {
+        when(s3Client.headObject(any(HeadObjectRequest.class))).thenThrow(NoSuchKeyException.builder().build());
+
+        assertThat(s3Service.head("trees/1/media/missing.jpg")).isNull();
+        assertThat(s3Service.exists("trees/1/media/missing.jpg")).isFalse();
+    }
+}
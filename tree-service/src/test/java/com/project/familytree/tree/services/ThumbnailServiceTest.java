@@ -0,0 +1,177 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.impls.MediaFileType;
+import com.project.familytree.tree.impls.ThumbnailStatus;
+import com.project.familytree.tree.models.MediaFile;
+import com.project.familytree.tree.models.ThumbnailJob;
+import com.project.familytree.tree.repositories.MediaFileRepository;
+import com.project.familytree.tree.repositories.PersonRepository;
+import com.project.familytree.tree.repositories.ThumbnailJobRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Clock;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ThumbnailServiceTest {
+
+    private static final String SOURCE_KEY = "trees/7/media/photo.png";
+
+    @Mock private ThumbnailJobRepository thumbnailJobRepository;
+    @Mock private MediaFileRepository mediaFileRepository;
+    @Mock private PersonRepository personRepository;
+    @Mock private S3Service s3Service;
+    @Mock private PlatformTransactionManager transactionManager;
+
+    private ThumbnailService thumbnailService;
+
+    @BeforeEach
+    void setUp() {
+        // Задачи выполняются сразу в вызывающем потоке
+        thumbnailService = new ThumbnailService(thumbnailJobRepository, mediaFileRepository, personRepository,
+                s3Service, transactionManager, new int[]{256, 64, 1024}, 3, 5, Runnable::run, Clock.systemUTC());
+    }
+
+    private static ResponseInputStream<GetObjectResponse> s3Stream(byte[] content) {
+        return new ResponseInputStream<>(GetObjectResponse.builder().build(),
+                AbortableInputStream.create(new ByteArrayInputStream(content)));
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), "png", out);
+        return out.toByteArray();
+    }
+
+    private ThumbnailJob stubClaimedJob(int attempts) {
+        ThumbnailJob job = new ThumbnailJob(SOURCE_KEY, 5L, null);
+        job.setId(9L);
+        job.setAttempts(attempts);
+        when(thumbnailJobRepository.claim(eq(9L), any())).thenReturn(1);
+        when(thumbnailJobRepository.findById(9L)).thenReturn(Optional.of(job));
+        return job;
+    }
+
+    // ─── keys / scale ───
+
+    @Test
+    @DisplayName("variantKey: расширение исходника заменяется на _{size}.jpg")
+    void variantKey_replacesExtension() {
+        assertThat(ThumbnailService.variantKey("trees/7/media/a.b.PNG", 64)).isEqualTo("trees/7/media/a.b_64.jpg");
+        assertThat(ThumbnailService.variantKey("trees/7.x/avatars/noext", 256)).isEqualTo("trees/7.x/avatars/noext_256.jpg");
+        assertThat(thumbnailService.variantKeys(SOURCE_KEY)).containsExactly(
+                "trees/7/media/photo_64.jpg", "trees/7/media/photo_256.jpg", "trees/7/media/photo_1024.jpg");
+    }
+
+    @Test
+    @DisplayName("scale: вписывает в квадрат с сохранением пропорций и не увеличивает маленькие")
+    void scale_fitsWithoutUpscaling() {
+        BufferedImage wide = ThumbnailService.scale(new BufferedImage(3000, 1500, BufferedImage.TYPE_INT_RGB), 256);
+        assertThat(wide.getWidth()).isEqualTo(256);
+        assertThat(wide.getHeight()).isEqualTo(128);
+
+        BufferedImage small = ThumbnailService.scale(new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB), 64);
+        assertThat(small.getWidth()).isEqualTo(40);
+        assertThat(small.getHeight()).isEqualTo(30);
+    }
+
+    // ─── enqueue ───
+
+    @Test
+    @DisplayName("enqueueMedia: не-изображения и форматы без декодера в очередь не попадают")
+    void enqueueMedia_skipsUnsupportedFiles() {
+        MediaFile document = new MediaFile();
+        document.setFileType(MediaFileType.DOCUMENT);
+        document.setFilePath("trees/7/media/scan.pdf");
+        MediaFile webp = new MediaFile();
+        webp.setFileType(MediaFileType.IMAGE);
+        webp.setFilePath("trees/7/media/photo.webp");
+
+        thumbnailService.enqueueMedia(document);
+        thumbnailService.enqueueMedia(webp);
+
+        verifyNoInteractions(thumbnailJobRepository);
+    }
+
+    // ─── run ───
+
+    @Test
+    @DisplayName("run: строит все копии в JPEG, загружает в S3 и отмечает файл готовым")
+    void run_rendersVariantsAndMarksReady() throws Exception {
+        ThumbnailJob job = stubClaimedJob(1);
+        when(s3Service.download(SOURCE_KEY)).thenReturn(s3Stream(png(2400, 1200)));
+        when(mediaFileRepository.markThumbnailsReady(5L, SOURCE_KEY)).thenReturn(1);
+
+        thumbnailService.run(9L);
+
+        ArgumentCaptor<InputStream> content = ArgumentCaptor.forClass(InputStream.class);
+        verify(s3Service).upload(eq("trees/7/media/photo_1024.jpg"), content.capture(), eq("image/jpeg"), anyLong());
+        BufferedImage largest = ImageIO.read(content.getValue());
+        assertThat(largest.getWidth()).isEqualTo(1024);
+        assertThat(largest.getHeight()).isEqualTo(512);
+        verify(s3Service).upload(eq("trees/7/media/photo_256.jpg"), any(), eq("image/jpeg"), anyLong());
+        verify(s3Service).upload(eq("trees/7/media/photo_64.jpg"), any(), eq("image/jpeg"), anyLong());
+        verify(s3Service, never()).delete(anyString());
+        assertThat(job.getStatus()).isEqualTo(ThumbnailStatus.COMPLETED);
+    }
+
+    @Test
+    @DisplayName("run: исходник заменили во время обработки — копии удаляются")
+    void run_deletesVariantsWhenSourceReplaced() throws Exception {
+        stubClaimedJob(1);
+        when(s3Service.download(SOURCE_KEY)).thenReturn(s3Stream(png(100, 100)));
+        when(mediaFileRepository.markThumbnailsReady(5L, SOURCE_KEY)).thenReturn(0);
+
+        thumbnailService.run(9L);
+
+        verify(s3Service).delete("trees/7/media/photo_64.jpg");
+        verify(s3Service).delete("trees/7/media/photo_256.jpg");
+        verify(s3Service).delete("trees/7/media/photo_1024.jpg");
+    }
+
+    @Test
+    @DisplayName("run: нечитаемое изображение — задача FAILED сразу, без повторов")
+    void run_failsUnreadableImageWithoutRetry() {
+        ThumbnailJob job = stubClaimedJob(1);
+        when(s3Service.download(SOURCE_KEY)).thenReturn(s3Stream("not an image".getBytes()));
+
+        thumbnailService.run(9L);
+
+        assertThat(job.getStatus()).isEqualTo(ThumbnailStatus.FAILED);
+        assertThat(job.getError()).isNotBlank();
+        verify(s3Service, never()).upload(anyString(), any(), anyString(), anyLong());
+        verifyNoInteractions(mediaFileRepository);
+    }
+
+    @Test
+    @DisplayName("run: сбой S3 — задача возвращается в очередь, пока не исчерпаны попытки")
+    void run_requeuesAfterStorageFailure() {
+        ThumbnailJob job = stubClaimedJob(1);
+        when(s3Service.download(SOURCE_KEY)).thenThrow(new RuntimeException("S3 unavailable"));
+
+        thumbnailService.run(9L);
+
+        assertThat(job.getStatus()).isEqualTo(ThumbnailStatus.PENDING);
+        assertThat(job.getError()).isEqualTo("S3 unavailable");
+    }
+}
@@ -0,0 +1,124 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.tree.impls.RelationshipType;
+import com.project.familytree.tree.repositories.PersonRepository;
+import com.project.familytree.tree.repositories.RelationshipRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TreeGraphIndexTest {
+
+    @Mock private PersonRepository personRepository;
+    @Mock private RelationshipRepository relationshipRepository;
+
+    private TreeGraphIndex treeGraphIndex;
+
+    @BeforeEach
+    void setUp() {
+        treeGraphIndex = new TreeGraphIndex(personRepository, relationshipRepository, 1_000L, new SimpleMeterRegistry());
+    }
+
+    /** Семья: 1 и 2 — партнёры, 3 — их ребёнок */
+    private void stubFamily(Long treeId) {
+        when(personRepository.findIdsByTreeId(treeId)).thenReturn(List.of(3L, 1L, 2L));
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{10L, 1L, 2L, RelationshipType.PARTNERSHIP, LocalDate.of(1980, 6, 1), null});
+        rows.add(new Object[]{11L, 1L, 3L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{12L, 2L, 3L, RelationshipType.PARENT_CHILD, null, null});
+        when(relationshipRepository.findEdgeRowsByTreeId(treeId)).thenReturn(rows);
+    }
+
+    @Test
+    @DisplayName("get: строит CSR-граф с рёбрами в обе стороны")
+    void get_buildsBidirectionalGraph() {
+        stubFamily(1L);
+
+        TreeGraphIndex.Graph graph = treeGraphIndex.get(1L);
+
+        assertThat(graph.size()).isEqualTo(3);
+        assertThat(graph.edgeCount()).isEqualTo(6);
+        assertThat(graph.parentsOf(3L)).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(graph.childrenOf(1L)).containsExactly(3L);
+        assertThat(graph.partnersOf(2L)).containsExactly(1L);
+        assertThat(graph.partnersOf(3L)).isEmpty();
+        assertThat(graph.contains(99L)).isFalse();
+
+        int idx = graph.indexOf(1L);
+        int partnerEdge = -1;
+        for (int e = graph.edgeStart(idx); e < graph.edgeEnd(idx); e++) {
+            if (graph.kind(e) == TreeGraphIndex.KIND_PARTNER_OUT) {
+                partnerEdge = e;
+            }
+        }
+        assertThat(partnerEdge).isNotNegative();
+        assertThat(graph.relationshipId(partnerEdge)).isEqualTo(10L);
+        assertThat(graph.startDate(partnerEdge)).isEqualTo(LocalDate.of(1980, 6, 1));
+        assertThat(graph.endDate(partnerEdge)).isNull();
+    }
+
+    @Test
+    @DisplayName("get: повторный вызов берёт граф из кеша")
+    void get_returnsCachedGraph() {
+        stubFamily(1L);
+
+        TreeGraphIndex.Graph first = treeGraphIndex.get(1L);
+        TreeGraphIndex.Graph second = treeGraphIndex.get(1L);
+
+        assertThat(second).isSameAs(first);
+        verify(relationshipRepository, times(1)).findEdgeRowsByTreeId(1L);
+    }
+
+    @Test
+    @DisplayName("invalidate: следующий get перестраивает граф")
+    void invalidate_forcesRebuild() {
+        stubFamily(1L);
+
+        TreeGraphIndex.Graph first = treeGraphIndex.get(1L);
+        treeGraphIndex.invalidate(1L);
+        TreeGraphIndex.Graph second = treeGraphIndex.get(1L);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.version()).isGreaterThan(first.version());
+        verify(relationshipRepository, times(2)).findEdgeRowsByTreeId(1L);
+    }
+
+    @Test
+    @DisplayName("remove: удаляет граф и счётчик версий удалённого дерева")
+    void remove_forgetsVersion() {
+        stubFamily(1L);
+        treeGraphIndex.get(1L);
+        treeGraphIndex.invalidate(1L);
+        assertThat(treeGraphIndex.currentVersion(1L)).isEqualTo(1L);
+
+        treeGraphIndex.remove(1L);
+
+        assertThat(treeGraphIndex.currentVersion(1L)).isZero();
+        assertThat(treeGraphIndex.cachedEdges()).isZero();
+    }
+
+    @Test
+    @DisplayName("get: при превышении лимита рёбер один из графов вытесняется")
+    void get_evictsWhenOverEdgeLimit() {
+        treeGraphIndex = new TreeGraphIndex(personRepository, relationshipRepository, 8L, new SimpleMeterRegistry());
+        stubFamily(1L);
+        stubFamily(2L);
+
+        treeGraphIndex.get(1L);
+        treeGraphIndex.get(2L); // 12 рёбер > 8 — в кеше остаётся только один граф
+
+        assertThat(treeGraphIndex.cachedEdges()).isEqualTo(6);
+    }
+}
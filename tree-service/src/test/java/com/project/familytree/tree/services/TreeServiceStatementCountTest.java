@@ -0,0 +1,139 @@
+package com.project.familytree.tree.services;
+
+import com.project.familytree.auth.models.User;
+import com.project.familytree.auth.services.MailSenderService;
+import com.project.familytree.auth.services.UserService;
+import com.project.familytree.tree.dto.PersonDTO;
+import com.project.familytree.tree.impls.Gender;
+import com.project.familytree.tree.impls.MediaFileType;
+import com.project.familytree.tree.impls.RelationshipType;
+import com.project.familytree.tree.models.MediaFile;
+import com.project.familytree.tree.models.Person;
+import com.project.familytree.tree.models.Relationship;
+import com.project.familytree.tree.models.Tree;
+import com.project.familytree.tree.repositories.*;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Число SQL-запросов при сборке DTO персон на H2: Hibernate Statistics считает каждый
+ * подготовленный запрос, поэтому N+1 по связям, медиафайлам или ленивым ссылкам виден сразу.
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class TreeServiceStatementCountTest {
+
+    /**
+     * Только JPA: конфигурация приложения сканирует все компоненты, которые этому тесту не нужны.
+     */
+    @Configuration
+    @EntityScan(basePackages = {"com.project.familytree.auth.models", "com.project.familytree.tree.models"})
+    @EnableJpaRepositories(basePackages = "com.project.familytree.tree.repositories")
+    static class JpaConfig {
+    }
+
+    @Autowired private TestEntityManager entityManager;
+    @Autowired private EntityManagerFactory entityManagerFactory;
+    @Autowired private TreeRepository treeRepository;
+    @Autowired private TreeMembershipRepository membershipRepository;
+    @Autowired private InvitationRepository invitationRepository;
+    @Autowired private PersonRepository personRepository;
+    @Autowired private RelationshipRepository relationshipRepository;
+    @Autowired private MediaFileRepository mediaFileRepository;
+    @Autowired private PersonHistoryRepository personHistoryRepository;
+    @Autowired private CommentRepository commentRepository;
+    @Autowired private ExportJobRepository exportJobRepository;
+
+    private final S3Service s3Service = mock(S3Service.class);
+
+    private TreeService treeService;
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        treeService = new TreeService(mock(UserService.class), treeRepository, membershipRepository,
+                mock(MailSenderService.class), invitationRepository, personRepository, relationshipRepository,
+                mediaFileRepository, s3Service, personHistoryRepository, mock(NotificationService.class),
+                commentRepository, mock(TreeGraphIndex.class), mock(MembershipCache.class),
+                mock(MembershipNotifier.class), mock(PersonSuggestIndex.class), mock(ThumbnailService.class),
+                mock(MediaContentService.class), exportJobRepository);
+        when(s3Service.generatePresignedUrls(anyCollection())).thenReturn(Map.of());
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    /**
+     * Дерево-цепочка из {@code count} персон: у каждой аватар в S3, медиафайл и связь с предыдущей.
+     */
+    private Long treeOf(int count) {
+        User user = new User();
+        user.setFirstName("Иван");
+        user.setLastName("Иванов");
+        user.setEmail("ivan" + count + "@test.com");
+        user.setPassword("secret");
+        entityManager.persist(user);
+
+        Tree tree = new Tree();
+        tree.setName("Дерево " + count);
+        entityManager.persist(tree);
+
+        Person previous = null;
+        for (int i = 1; i <= count; i++) {
+            Person person = new Person(tree, "Имя" + i, "Иванов", null, Gender.MALE);
+            person.setAvatarUrl("trees/" + count + "/avatars/" + i + ".jpg");
+            entityManager.persist(person);
+            entityManager.persist(new MediaFile(person, tree, i + ".jpg", "trees/" + count + "/media/" + i + ".jpg",
+                    MediaFileType.IMAGE, 100L, null, user));
+            if (previous != null) {
+                entityManager.persist(new Relationship(tree, previous, person, RelationshipType.PARENT_CHILD));
+            }
+            previous = person;
+        }
+        entityManager.flush();
+        entityManager.clear();
+        return tree.getId();
+    }
+
+    /** Сколько SQL-запросов потребовала сборка DTO для дерева из {@code count} персон */
+    private long statementsFor(int count) {
+        Long treeId = treeOf(count);
+        List<Person> persons = personRepository.findByTreeId(treeId);
+        statistics.clear();
+
+        List<PersonDTO> dtos = treeService.convertToDTOs(persons, treeId);
+
+        long statements = statistics.getPrepareStatementCount();
+        assertThat(dtos).hasSize(count);
+        assertThat(dtos).allSatisfy(dto -> assertThat(dto.getMediaCount()).isEqualTo(1L));
+        assertThat(dtos.stream().mapToInt(dto -> dto.getRelationships().size()).sum()).isEqualTo(2 * (count - 1));
+        return statements;
+    }
+
+    @Test
+    @DisplayName("convertToDTOs: число SQL-запросов не зависит от числа персон")
+    void convertToDTOs_issuesConstantNumberOfStatements() {
+        long forThree = statementsFor(3);
+        long forFifty = statementsFor(50);
+
+        // Связи вместе с персонами и количество медиафайлов — по одному запросу
+        assertThat(forThree).isEqualTo(2);
+        assertThat(forFifty).isEqualTo(forThree);
+        verify(s3Service, times(2)).generatePresignedUrls(anyCollection());
+        verify(s3Service, never()).generatePresignedUrl(anyString());
+    }
+}
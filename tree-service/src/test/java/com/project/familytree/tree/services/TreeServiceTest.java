@@ -3,9 +3,13 @@ package com.project.familytree.tree.services;
 import com.project.familytree.auth.models.User;
 import com.project.familytree.auth.services.MailSenderService;
 import com.project.familytree.auth.services.UserService;
+import com.project.familytree.tree.dto.CursorPageResponse;
 import com.project.familytree.tree.dto.PersonDTO;
+import com.project.familytree.tree.dto.PersonHistoryDTO;
 import com.project.familytree.tree.dto.PersonRelationshipRequest;
 import com.project.familytree.tree.dto.PersonRequest;
+import com.project.familytree.tree.dto.SubgraphDTO;
+import com.project.familytree.tree.exceptions.BusinessException;
 import com.project.familytree.tree.impls.Gender;
 import com.project.familytree.tree.impls.RelationshipType;
 import com.project.familytree.tree.impls.TreeRole;
@@ -14,17 +18,22 @@ import com.project.familytree.tree.models.Relationship;
 import com.project.familytree.tree.models.Tree;
 import com.project.familytree.tree.models.TreeMembership;
 import com.project.familytree.tree.repositories.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.nio.file.AccessDeniedException;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.*;
@@ -42,7 +51,16 @@ class TreeServiceTest {
     @Mock private PersonRepository personRepository;
     @Mock private RelationshipRepository relationshipRepository;
     @Mock private MediaFileRepository mediaFileRepository;
+    @Mock private PersonHistoryRepository personHistoryRepository;
     @Mock private S3Service s3Service;
+    @Mock private TreeGraphIndex treeGraphIndex;
+    @Spy private MembershipCache membershipCache = new MembershipCache(1000, 300, new SimpleMeterRegistry());
+    @Mock private MembershipNotifier membershipNotifier;
+    @Mock private PersonSuggestIndex personSuggestIndex;
+    @Mock private ThumbnailService thumbnailService;
+    @Mock private MediaContentService mediaContentService;
+    @Mock private CommentRepository commentRepository;
+    @Mock private ExportJobRepository exportJobRepository;
 
     @InjectMocks
     private TreeService treeService;
@@ -117,6 +135,36 @@ class TreeServiceTest {
         assertThat(treeService.canView(1L, 10L)).isTrue();
     }
 
+    @Test
+    @DisplayName("canView: повторная проверка берёт роль из кеша")
+    void canView_cachesMembershipLookup() {
+        TreeMembership membership = new TreeMembership();
+        membership.setRole(TreeRole.VIEWER);
+        when(membershipRepository.findByTreeIdAndUserId(1L, 10L)).thenReturn(Optional.of(membership));
+
+        assertThat(treeService.canView(1L, 10L)).isTrue();
+        assertThat(treeService.canEdit(1L, 10L)).isFalse();
+
+        verify(membershipRepository, times(1)).findByTreeIdAndUserId(1L, 10L);
+    }
+
+    @Test
+    @DisplayName("addMember: сбрасывает закешированную роль и уведомляет другие экземпляры")
+    void addMember_invalidatesCachedRole() {
+        when(membershipRepository.findByTreeIdAndUserId(1L, 10L)).thenReturn(Optional.empty());
+        assertThat(treeService.canView(1L, 10L)).isFalse();
+
+        TreeMembership membership = new TreeMembership();
+        membership.setRole(TreeRole.EDITOR);
+        when(treeRepository.findById(1L)).thenReturn(Optional.of(tree));
+        when(userService.findById(10L)).thenReturn(user);
+        treeService.addMember(1L, 10L, TreeRole.EDITOR);
+        when(membershipRepository.findByTreeIdAndUserId(1L, 10L)).thenReturn(Optional.of(membership));
+
+        assertThat(treeService.canEdit(1L, 10L)).isTrue();
+        verify(membershipNotifier).publish(1L, 10L);
+    }
+
     // ─── createPerson ─────────────────────────────────────────────────────────────
 
     @Test
@@ -290,6 +338,54 @@ class TreeServiceTest {
         assertThat(dto.getRelationships().get(0).getPerson2Id()).isEqualTo(100L);
     }
 
+    // ─── convertToDTOs ────────────────────────────────────────────────────────────
+
+    @Test
+    @DisplayName("convertToDTOs: связи, количество медиафайлов и аватары раскладываются по персонам")
+    void convertToDTOs_assemblesBulkData() {
+        Person parent = new Person(tree, "Пётр", "Иванов", null, Gender.MALE);
+        parent.setId(50L);
+        person.setAvatarUrl("trees/1/avatars/a.jpg");
+        Relationship rel = new Relationship(tree, parent, person, RelationshipType.PARENT_CHILD);
+        rel.setId(200L);
+
+        when(relationshipRepository.findByTreeIdAndPersonIdsWithPersons(1L, List.of(100L, 50L)))
+                .thenReturn(List.of(rel));
+        List<Object[]> counts = List.<Object[]>of(new Object[]{100L, 3L});
+        when(mediaFileRepository.countByPersonIds(List.of(100L, 50L))).thenReturn(counts);
+        when(s3Service.generatePresignedUrls(List.of("trees/1/avatars/a.jpg")))
+                .thenReturn(Map.of("trees/1/avatars/a.jpg", "https://signed/a"));
+
+        List<PersonDTO> dtos = treeService.convertToDTOs(List.of(person, parent), 1L);
+
+        assertThat(dtos.get(0).getRelationships()).extracting(r -> r.getId()).containsExactly(200L);
+        assertThat(dtos.get(1).getRelationships()).extracting(r -> r.getId()).containsExactly(200L);
+        assertThat(dtos.get(0).getMediaCount()).isEqualTo(3L);
+        assertThat(dtos.get(1).getMediaCount()).isZero();
+        assertThat(dtos.get(0).getAvatarUrl()).isEqualTo("https://signed/a");
+        assertThat(dtos.get(1).getAvatarUrl()).isNull();
+    }
+
+    @Test
+    @DisplayName("convertToExportDTOs: presigned URL не запрашиваются, внешний аватар сохраняется")
+    void convertToExportDTOs_omitsPresignedUrls() {
+        Person parent = new Person(tree, "Пётр", "Иванов", null, Gender.MALE);
+        parent.setId(50L);
+        parent.setAvatarUrl("https://example.com/p.jpg");
+        person.setAvatarUrl("trees/1/avatars/a.jpg");
+
+        when(relationshipRepository.findByTreeIdAndPersonIdsWithPersons(1L, List.of(100L, 50L)))
+                .thenReturn(List.of());
+        when(mediaFileRepository.countByPersonIds(List.of(100L, 50L))).thenReturn(List.of());
+
+        List<PersonDTO> dtos = treeService.convertToExportDTOs(List.of(person, parent), 1L);
+
+        assertThat(dtos.get(0).getAvatarUrl()).isNull();
+        assertThat(dtos.get(0).getAvatarThumbnailUrls()).isNull();
+        assertThat(dtos.get(1).getAvatarUrl()).isEqualTo("https://example.com/p.jpg");
+        verify(s3Service, never()).generatePresignedUrls(anyCollection());
+    }
+
     // ─── deletePerson ─────────────────────────────────────────────────────────────
 
     @Test
@@ -307,4 +403,174 @@ class TreeServiceTest {
         verify(mediaFileRepository).deleteByPersonId(100L);
         verify(personRepository).delete(person);
     }
+
+    // ─── deleteTree ───────────────────────────────────────────────────────────────
+
+    @Test
+    @DisplayName("deleteTree: удаляет из S3 и файлы выгрузок дерева, ошибка S3 не прерывает удаление")
+    void deleteTree_deletesExportFiles() throws AccessDeniedException {
+        TreeMembership ownerMembership = new TreeMembership();
+        ownerMembership.setRole(TreeRole.OWNER);
+        when(membershipRepository.findByTreeIdAndUserId(1L, 10L)).thenReturn(Optional.of(ownerMembership));
+        when(treeRepository.findById(1L)).thenReturn(Optional.of(tree));
+        when(exportJobRepository.findS3KeysByTreeId(1L))
+                .thenReturn(List.of("trees/1/exports/5.ged", "trees/1/exports/6.json"));
+        doThrow(new RuntimeException("S3 unavailable")).when(s3Service).delete("trees/1/exports/5.ged");
+
+        treeService.deleteTree(1L, 10L);
+
+        verify(s3Service).delete("trees/1/exports/6.json");
+        verify(treeRepository).deleteById(1L);
+    }
+
+    // ─── Keyset-пагинация ─────────────────────────────────────────────────────────
+
+    private void stubRole(TreeRole role) {
+        TreeMembership membership = new TreeMembership();
+        membership.setRole(role);
+        when(membershipRepository.findByTreeIdAndUserId(1L, 10L)).thenReturn(Optional.of(membership));
+    }
+
+    @Test
+    @DisplayName("getPersonsPage: читает limit + 1 строку и отдаёт курсор последней отданной персоны")
+    void getPersonsPage_returnsCursorOfLastPersonOnPage() throws AccessDeniedException {
+        stubRole(TreeRole.VIEWER);
+        Person second = new Person(tree, "Пётр", "Иванов", null, Gender.MALE);
+        second.setId(101L);
+        Person third = new Person(tree, "Анна", "Петрова", null, Gender.FEMALE);
+        third.setId(102L);
+        when(personRepository.findPageByTreeId(eq(1L), any())).thenReturn(List.of(person, second, third));
+
+        CursorPageResponse<PersonDTO> page = treeService.getPersonsPage(1L, null, 2, 10L);
+
+        assertThat(page.getData()).extracting(PersonDTO::getId).containsExactly(100L, 101L);
+        assertThat(page.isHasMore()).isTrue();
+        assertThat(PageCursor.decode(page.getNextCursor(), 3)).containsExactly("Иванов", "Пётр", "101");
+    }
+
+    @Test
+    @DisplayName("getPersonsPage: со следующим курсором читает строки строго после ключа")
+    void getPersonsPage_readsAfterCursorKey() throws AccessDeniedException {
+        stubRole(TreeRole.VIEWER);
+        when(personRepository.findPageByTreeIdAfter(eq(1L), eq("Иванов, мл."), eq("Пётр"), eq(101L), any()))
+                .thenReturn(List.of(person));
+
+        CursorPageResponse<PersonDTO> page = treeService.getPersonsPage(1L,
+                PageCursor.encode("Иванов, мл.", "Пётр", 101L), 2, 10L);
+
+        assertThat(page.getData()).hasSize(1);
+        assertThat(page.isHasMore()).isFalse();
+        assertThat(page.getNextCursor()).isNull();
+    }
+
+    @Test
+    @DisplayName("getPersonsPage: повреждённый курсор — BusinessException")
+    void getPersonsPage_rejectsMalformedCursor() {
+        stubRole(TreeRole.VIEWER);
+
+        assertThatThrownBy(() -> treeService.getPersonsPage(1L, PageCursor.encode("Иванов"), 2, 10L))
+                .isInstanceOf(BusinessException.class);
+        assertThatThrownBy(() -> treeService.getPersonsPage(1L, PageCursor.encode("Иванов", "Пётр", "x"), 2, 10L))
+                .isInstanceOf(BusinessException.class);
+    }
+
+    @Test
+    @DisplayName("getPersonHistoryPage: следующая страница — записи раньше (createdAt, id) из курсора")
+    void getPersonHistoryPage_readsBeforeCursorKey() throws AccessDeniedException {
+        stubRole(TreeRole.EDITOR);
+        Instant createdAt = Instant.parse("2024-05-01T10:15:30.123456Z");
+        when(personHistoryRepository.findPageBefore(eq(100L), eq(1L), eq(createdAt), eq(7L), any()))
+                .thenReturn(List.of());
+
+        CursorPageResponse<PersonHistoryDTO> page = treeService.getPersonHistoryPage(1L, 100L,
+                PageCursor.encode(createdAt, 7L), 20, 10L);
+
+        assertThat(page.getData()).isEmpty();
+        assertThat(page.isHasMore()).isFalse();
+    }
+
+    // ─── getSubgraph ──────────────────────────────────────────────────────────────
+
+    /**
+     * 1 → 2 → 3 (фокус) → 4 → 5; у 2 есть ещё ребёнок 6 с ребёнком 8; 3 и 7 — партнёры
+     */
+    private void stubWindowTree() {
+        PersonRepository graphPersons = mock(PersonRepository.class);
+        RelationshipRepository graphRelationships = mock(RelationshipRepository.class);
+        when(graphPersons.findIdsByTreeId(1L)).thenReturn(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L));
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{101L, 1L, 2L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{102L, 2L, 3L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{103L, 3L, 4L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{104L, 4L, 5L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{105L, 2L, 6L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{106L, 6L, 8L, RelationshipType.PARENT_CHILD, null, null});
+        rows.add(new Object[]{107L, 3L, 7L, RelationshipType.PARTNERSHIP, null, null});
+        when(graphRelationships.findEdgeRowsByTreeId(1L)).thenReturn(rows);
+        TreeGraphIndex realIndex = new TreeGraphIndex(graphPersons, graphRelationships, 1_000L, new SimpleMeterRegistry());
+        TreeGraphIndex.Graph graph = realIndex.get(1L);
+        when(treeGraphIndex.get(1L)).thenReturn(graph);
+
+        TreeMembership viewerMembership = new TreeMembership();
+        viewerMembership.setRole(TreeRole.VIEWER);
+        when(membershipRepository.findByTreeIdAndUserId(1L, 10L)).thenReturn(Optional.of(viewerMembership));
+        when(personRepository.findAllById(anyIterable())).thenAnswer(inv -> {
+            List<Person> result = new ArrayList<>();
+            for (Object id : (Iterable<?>) inv.getArgument(0)) {
+                Person p = new Person(tree, "Имя" + id, "Иванов", null, Gender.MALE);
+                p.setId((Long) id);
+                result.add(p);
+            }
+            return result;
+        });
+    }
+
+    @Test
+    @DisplayName("getSubgraph: окно по поколениям и боковым шагам, заглушки на границе")
+    void getSubgraph_returnsWindowWithFrontierStubs() throws AccessDeniedException {
+        stubWindowTree();
+
+        SubgraphDTO subgraph = treeService.getSubgraph(1L, 3L, 1, 1, 1, 10L);
+
+        assertThat(subgraph.getPersons()).extracting(PersonDTO::getId)
+                .containsExactlyInAnyOrder(2L, 3L, 4L, 6L, 7L, 8L);
+        assertThat(subgraph.getPersons().get(0).getId()).isEqualTo(3L);
+        assertThat(subgraph.getFrontier()).extracting(SubgraphDTO.FrontierStub::getPersonId)
+                .containsExactlyInAnyOrder(2L, 4L);
+        SubgraphDTO.FrontierStub father = subgraph.getFrontier().stream()
+                .filter(f -> f.getPersonId() == 2L).findFirst().orElseThrow();
+        assertThat(father.getHiddenParents()).isEqualTo(1);
+        assertThat(father.getHiddenChildren()).isZero();
+
+        // Связи только внутри окна: у отца нет связи с дедом 1
+        PersonDTO fatherDto = subgraph.getPersons().stream()
+                .filter(p -> p.getId() == 2L).findFirst().orElseThrow();
+        assertThat(fatherDto.getRelationships()).extracting(r -> r.getPerson1Id()).doesNotContain(1L);
+        assertThat(fatherDto.getRelationships()).hasSize(2);
+    }
+
+    @Test
+    @DisplayName("getSubgraph: lateral = 0 оставляет только прямую линию")
+    void getSubgraph_withoutLateralReturnsDirectLine() throws AccessDeniedException {
+        stubWindowTree();
+
+        SubgraphDTO subgraph = treeService.getSubgraph(1L, 3L, 2, 2, 0, 10L);
+
+        assertThat(subgraph.getPersons()).extracting(PersonDTO::getId)
+                .containsExactlyInAnyOrder(1L, 2L, 3L, 4L, 5L);
+        assertThat(subgraph.getFrontier()).extracting(SubgraphDTO.FrontierStub::getPersonId)
+                .containsExactlyInAnyOrder(2L, 3L);
+    }
+
+    @Test
+    @DisplayName("getSubgraph: слишком большое окно — BusinessException")
+    void getSubgraph_rejectsTooWideWindow() {
+        TreeMembership viewerMembership = new TreeMembership();
+        viewerMembership.setRole(TreeRole.VIEWER);
+        when(membershipRepository.findByTreeIdAndUserId(1L, 10L)).thenReturn(Optional.of(viewerMembership));
+
+        assertThatThrownBy(() -> treeService.getSubgraph(1L, 3L, TreeService.MAX_WINDOW_GENERATIONS + 1, 1, 1, 10L))
+                .isInstanceOf(BusinessException.class);
+        verifyNoInteractions(treeGraphIndex);
+    }
 }